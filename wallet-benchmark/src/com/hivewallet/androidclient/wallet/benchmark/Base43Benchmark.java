@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hivewallet.androidclient.wallet.util.Base43;
+
+/**
+ * Base43 coding of payloads the size of a signed transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Base43Benchmark
+{
+	@Param({ "32", "256", "1024" })
+	public int size;
+
+	private byte[] bytes;
+	private String encoded;
+
+	@Setup
+	public void setup()
+	{
+		bytes = new byte[size];
+		new Random(42).nextBytes(bytes);
+		encoded = Base43.encode(bytes);
+	}
+
+	@Benchmark
+	public String encode()
+	{
+		return Base43.encode(bytes);
+	}
+
+	@Benchmark
+	public byte[] decode()
+	{
+		return Base43.decode(encoded);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.hivewallet.androidclient.wallet.Constants;
+
+/**
+ * Runs all benchmarks with the gc profiler attached and compares throughput and allocation against a baseline file. Exits
+ * with a non-zero status if anything regressed by more than the configured tolerance.
+ * 
+ * Configured through system properties {@code benchmark.baseline}, {@code benchmark.record} and {@code benchmark.include}.
+ */
+public final class BenchmarkRunner
+{
+	private static final String PACKAGE_PREFIX = BenchmarkRunner.class.getPackage().getName() + ".";
+	private static final String SUFFIX_SCORE = ".score";
+	private static final String SUFFIX_ALLOC = ".alloc";
+	private static final String KEY_TOLERANCE = "tolerance";
+	private static final double DEFAULT_TOLERANCE = 0.15;
+
+	public static void main(final String[] args) throws IOException, RunnerException
+	{
+		final File baselineFile = new File(System.getProperty("benchmark.baseline", "baseline.properties"));
+		final boolean record = Boolean.getBoolean("benchmark.record");
+		final String include = System.getProperty("benchmark.include", ".*");
+
+		final Options options = new OptionsBuilder() //
+				.include(PACKAGE_PREFIX + include) //
+				.addProfiler(GCProfiler.class) //
+				.forks(1) //
+				.warmupIterations(5) //
+				.measurementIterations(5) //
+				.build();
+
+		final Collection<RunResult> results = new Runner(options).run();
+
+		final SortedMap<String, Double> measured = new TreeMap<String, Double>();
+		for (final RunResult result : results)
+		{
+			final String id = id(result.getParams());
+			measured.put(id + SUFFIX_SCORE, result.getPrimaryResult().getScore());
+
+			final Result alloc = allocationResult(result);
+			if (alloc != null)
+				measured.put(id + SUFFIX_ALLOC, alloc.getScore());
+		}
+
+		if (record)
+		{
+			recordBaseline(baselineFile, measured);
+			System.out.println("Recorded " + measured.size() + " values to " + baselineFile + ", keeping the others");
+			return;
+		}
+
+		final List<String> regressions = compareWithBaseline(loadBaseline(baselineFile), measured);
+		if (!regressions.isEmpty())
+		{
+			System.err.println("Regressions against " + baselineFile + ":");
+			for (final String regression : regressions)
+				System.err.println("  " + regression);
+			System.exit(1);
+		}
+
+		System.out.println("No regressions against " + baselineFile);
+	}
+
+	private static String id(final BenchmarkParams params)
+	{
+		final StringBuilder id = new StringBuilder(params.getBenchmark());
+		if (id.indexOf(PACKAGE_PREFIX) == 0)
+			id.delete(0, PACKAGE_PREFIX.length());
+
+		for (final String key : params.getParamsKeys())
+			id.append('.').append(key).append('-').append(params.getParam(key));
+
+		return id.toString();
+	}
+
+	private static Result allocationResult(final RunResult result)
+	{
+		// the gc profiler prefixes its labels with a separator character that changed between jmh versions
+		for (final Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet())
+			if (entry.getKey().endsWith("gc.alloc.rate.norm"))
+				return entry.getValue();
+
+		return null;
+	}
+
+	private static List<String> compareWithBaseline(final Properties baseline, final Map<String, Double> measured)
+	{
+		final double tolerance = Double.parseDouble(baseline.getProperty(KEY_TOLERANCE, Double.toString(DEFAULT_TOLERANCE)));
+		final List<String> regressions = new ArrayList<String>();
+
+		for (final Map.Entry<String, Double> entry : measured.entrySet())
+		{
+			final String key = entry.getKey();
+			final String expectedStr = baseline.getProperty(key);
+			if (expectedStr == null)
+				continue;
+
+			final double expected = Double.parseDouble(expectedStr);
+			final double actual = entry.getValue();
+
+			if (key.endsWith(SUFFIX_SCORE) && actual < expected * (1 - tolerance))
+				regressions.add(String.format(Locale.US, "%s: %.1f ops/s, baseline %.1f", key, actual, expected));
+			else if (key.endsWith(SUFFIX_ALLOC) && actual > expected * (1 + tolerance) && actual - expected >= 1)
+				regressions.add(String.format(Locale.US, "%s: %.1f bytes/op, baseline %.1f", key, actual, expected));
+		}
+
+		return regressions;
+	}
+
+	private static Properties loadBaseline(final File file) throws IOException
+	{
+		final Properties baseline = new Properties();
+		if (!file.exists())
+			return baseline;
+
+		final InputStream is = new FileInputStream(file);
+		try
+		{
+			baseline.load(is);
+		}
+		finally
+		{
+			is.close();
+		}
+
+		return baseline;
+	}
+
+	private static void recordBaseline(final File file, final SortedMap<String, Double> measured) throws IOException
+	{
+		final Properties previous = loadBaseline(file);
+
+		// keep the baselines of benchmarks not included in this run
+		final SortedMap<String, String> merged = new TreeMap<String, String>();
+		for (final String key : previous.stringPropertyNames())
+			if (!key.equals(KEY_TOLERANCE))
+				merged.put(key, previous.getProperty(key));
+		for (final Map.Entry<String, Double> entry : measured.entrySet())
+			merged.put(entry.getKey(), String.format(Locale.US, "%.1f", entry.getValue()));
+
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file), Constants.UTF_8);
+		try
+		{
+			writer.write("# Baseline for BenchmarkRunner.\n");
+			writer.write("#\n");
+			writer.write("# <benchmark>.score      minimum throughput in ops/s\n");
+			writer.write("# <benchmark>.alloc      maximum allocation in bytes/op, as reported by the gc profiler\n");
+			writer.write("#\n");
+			writer.write("# A run fails if any score drops, or any allocation grows, by more than the tolerance\n");
+			writer.write("# below. Benchmarks without an entry are reported but never fail the run. Numbers are\n");
+			writer.write("# only comparable on the same machine, so regenerate this file on your own box with:\n");
+			writer.write("#\n");
+			writer.write("#   mvn exec:exec -Dbenchmark.record=true\n\n");
+			writer.write(KEY_TOLERANCE + "=" + previous.getProperty(KEY_TOLERANCE, Double.toString(DEFAULT_TOLERANCE)) + "\n\n");
+
+			for (final Map.Entry<String, String> entry : merged.entrySet())
+				writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+}
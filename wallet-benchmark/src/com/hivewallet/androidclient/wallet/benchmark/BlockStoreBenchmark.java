@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.SPVBlockStore;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.service.MappedBlockStore;
+
+/**
+ * Header insertion rate and reading the most recent blocks, for the SPV store bitcoinj ships and for our mapped ring store. The chain
+ * is longer than the capacity of both stores, so insertion keeps recycling slots like a long sync does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BlockStoreBenchmark
+{
+	private static final int CHAIN_LENGTH = 4 * Constants.BLOCKCHAIN_STORE_CAPACITY;
+	private static final int RECENT_BLOCKS = 100;
+
+	private List<StoredBlock> chain;
+	private File spvFile;
+	private File mappedFile;
+	private SPVBlockStore spvStore;
+	private MappedBlockStore mappedStore;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		chain = Blocks.chain(CHAIN_LENGTH);
+
+		spvFile = File.createTempFile("spvblockstore", null);
+		spvFile.delete();
+		spvStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, spvFile);
+
+		mappedFile = File.createTempFile("mappedblockstore", null);
+		mappedFile.delete();
+		mappedStore = new MappedBlockStore(Constants.NETWORK_PARAMETERS, mappedFile, Constants.BLOCKCHAIN_STORE_CAPACITY);
+
+		// fill both stores, so the read benchmarks have something to read
+		for (int i = 0; i < Constants.BLOCKCHAIN_STORE_CAPACITY; i++)
+		{
+			add(spvStore, chain.get(i));
+			add(mappedStore, chain.get(i));
+		}
+		next = Constants.BLOCKCHAIN_STORE_CAPACITY;
+	}
+
+	@TearDown
+	public void teardown() throws Exception
+	{
+		spvStore.close();
+		mappedStore.close();
+		spvFile.delete();
+		mappedFile.delete();
+	}
+
+	private static void add(final BlockStore store, final StoredBlock block) throws BlockStoreException
+	{
+		store.put(block);
+		store.setChainHead(block);
+	}
+
+	private StoredBlock nextBlock()
+	{
+		final StoredBlock block = chain.get(next);
+		next = (next + 1) % CHAIN_LENGTH;
+		return block;
+	}
+
+	@Benchmark
+	public void spvPut() throws BlockStoreException
+	{
+		add(spvStore, nextBlock());
+	}
+
+	@Benchmark
+	public void mappedPut() throws BlockStoreException
+	{
+		add(mappedStore, nextBlock());
+	}
+
+	@Benchmark
+	public List<StoredBlock> spvRecentBlocks() throws BlockStoreException
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(RECENT_BLOCKS);
+
+		StoredBlock block = spvStore.getChainHead();
+		while (block != null && blocks.size() < RECENT_BLOCKS)
+		{
+			blocks.add(block);
+			block = block.getPrev(spvStore);
+		}
+
+		return blocks;
+	}
+
+	@Benchmark
+	public List<StoredBlock> mappedRecentBlocks() throws BlockStoreException
+	{
+		return mappedStore.getRecentBlocks(RECENT_BLOCKS);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.VerificationException;
+
+import com.hivewallet.androidclient.wallet.Constants;
+
+/**
+ * Builds chains of block headers for benchmarks. The headers link up and carry plausible times, but have no valid proof of work.
+ */
+public final class Blocks
+{
+	private static final NetworkParameters PARAMS = Constants.NETWORK_PARAMETERS;
+
+	private Blocks()
+	{
+	}
+
+	public static List<StoredBlock> chain(final int numBlocks) throws VerificationException
+	{
+		final List<StoredBlock> chain = new ArrayList<StoredBlock>(numBlocks);
+
+		final Block genesis = PARAMS.getGenesisBlock().cloneAsHeader();
+		StoredBlock block = new StoredBlock(genesis, genesis.getWork(), 0);
+		for (int i = 0; i < numBlocks; i++)
+		{
+			block = block.build(header(block.getHeader(), i));
+			chain.add(block);
+		}
+
+		return chain;
+	}
+
+	private static Block header(final Block prev, final int nonce) throws ProtocolException
+	{
+		final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(1);
+		header.put(Utils.reverseBytes(prev.getHash().getBytes()));
+		header.put(Sha256Hash.create(ByteBuffer.allocate(4).putInt(nonce).array()).getBytes());
+		header.putInt((int) (prev.getTimeSeconds() + 600));
+		header.putInt((int) prev.getDifficultyTarget());
+		header.putInt(nonce);
+
+		return new Block(PARAMS, header.array());
+	}
+}
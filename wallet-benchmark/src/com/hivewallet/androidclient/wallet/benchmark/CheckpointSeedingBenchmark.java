@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.bitcoin.core.CheckpointManager;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.MemoryBlockStore;
+import com.google.common.io.Files;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.service.IndexedCheckpoints;
+
+/**
+ * Seeding a fresh block store from the checkpoints asset, through bitcoinj's {@link CheckpointManager} and through the indexed
+ * format. Both read from memory, so only parsing and the lookup are measured. Expects to be run from inside this module, like
+ * {@code mvn exec:exec} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CheckpointSeedingBenchmark
+{
+	private static final File ASSETS_DIR = new File("../wallet/assets");
+
+	// a key from spring 2014, near the end of the checkpoints
+	private static final long EARLIEST_KEY_CREATION_TIME = 1396000000L;
+
+	private byte[] checkpoints;
+	private byte[] indexedCheckpoints;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		checkpoints = Files.toByteArray(new File(ASSETS_DIR, Constants.Files.CHECKPOINTS_FILENAME));
+		indexedCheckpoints = Files.toByteArray(new File(ASSETS_DIR, Constants.Files.CHECKPOINTS_INDEX_FILENAME));
+	}
+
+	@Benchmark
+	public BlockStore checkpointManager() throws Exception
+	{
+		final BlockStore store = new MemoryBlockStore(Constants.NETWORK_PARAMETERS);
+		CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, new ByteArrayInputStream(checkpoints), store, EARLIEST_KEY_CREATION_TIME);
+		return store;
+	}
+
+	@Benchmark
+	public BlockStore indexed() throws Exception
+	{
+		final BlockStore store = new MemoryBlockStore(Constants.NETWORK_PARAMETERS);
+		final byte[] record = IndexedCheckpoints.recordBefore(new ByteArrayInputStream(indexedCheckpoints), EARLIEST_KEY_CREATION_TIME
+				- IndexedCheckpoints.SAFETY_MARGIN_SECS);
+		final StoredBlock checkpoint = StoredBlock.deserializeCompact(Constants.NETWORK_PARAMETERS, ByteBuffer.wrap(record));
+		store.put(checkpoint);
+		store.setChainHead(checkpoint);
+		return store;
+	}
+}
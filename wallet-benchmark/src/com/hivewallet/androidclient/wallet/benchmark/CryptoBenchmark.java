@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hivewallet.androidclient.wallet.util.Crypto;
+
+/**
+ * Encryption of wallet backups. Dominated by key derivation, so reported per operation rather than per byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CryptoBenchmark
+{
+	private static final char[] PASSWORD = "password".toCharArray();
+
+	@Param({ "1024", "65536" })
+	public int size;
+
+	private byte[] bytes;
+	private String encrypted;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		bytes = new byte[size];
+		new Random(42).nextBytes(bytes);
+		encrypted = Crypto.encrypt(bytes, PASSWORD);
+	}
+
+	@Benchmark
+	public String encrypt() throws IOException
+	{
+		return Crypto.encrypt(bytes, PASSWORD);
+	}
+
+	@Benchmark
+	public byte[] decryptBytes() throws IOException
+	{
+		return Crypto.decryptBytes(encrypted, PASSWORD);
+	}
+}
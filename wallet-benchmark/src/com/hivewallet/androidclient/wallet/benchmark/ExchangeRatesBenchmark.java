@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.ExchangeRateSource;
+import com.hivewallet.androidclient.wallet.ExchangeRateTable;
+import com.hivewallet.androidclient.wallet.ExchangeRatesFetcher;
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Fetching exchange rates from sources served locally, one of which answers a second late. The serial case asks the slow
+ * source first and waits for it, like the provider used to; the concurrent fetcher only waits for its grace period. Parsing
+ * is measured separately on a response listing every currency the JDK knows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExchangeRatesBenchmark
+{
+	private static final long SLOW_DELAY_MS = 1000;
+	private static final long GRACE_MS = 50;
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private String response;
+	private ExchangeRateSource slow, fast1, fast2;
+	private ExchangeRatesFetcher fetcher;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		final StringBuilder json = new StringBuilder("{");
+		for (final Currency currency : Currency.getAvailableCurrencies())
+			json.append('"').append(currency.getCurrencyCode()).append("\": {\"24h_avg\": 612.34, \"ask\": 613.1, \"bid\": 611.9, ")
+					.append("\"last\": 612.5, \"total_vol\": 31415.92},");
+		json.append("\"timestamp\": \"Mon, 19 May 2014 12:00:00 -0000\"}");
+		response = json.toString();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.createContext("/slow", new RatesHandler(SLOW_DELAY_MS));
+		server.createContext("/fast1", new RatesHandler(0));
+		server.createContext("/fast2", new RatesHandler(0));
+		server.start();
+
+		final String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+		slow = new ExchangeRateSource("slow", new URL(baseUrl + "/slow"), "24h_avg", "last");
+		fast1 = new ExchangeRateSource("fast1", new URL(baseUrl + "/fast1"), "24h_avg", "last");
+		fast2 = new ExchangeRateSource("fast2", new URL(baseUrl + "/fast2"), "24h_avg", "last");
+		fetcher = new ExchangeRatesFetcher(Arrays.asList(slow, fast1, fast2), "benchmark", Constants.HTTP_TIMEOUT_MS, GRACE_MS);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		fetcher.shutdown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public Map<String, ExchangeRate> parse() throws IOException
+	{
+		return fast1.parse(new StringReader(response));
+	}
+
+	@Benchmark
+	public Map<String, ExchangeRate> serial() throws IOException
+	{
+		return slow.request("benchmark", Constants.HTTP_TIMEOUT_MS, null).rates;
+	}
+
+	@Benchmark
+	public Map<String, ExchangeRate> concurrent()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		fetcher.fetch(table);
+		return table.rates();
+	}
+
+	private final class RatesHandler implements HttpHandler
+	{
+		private final long delayMs;
+
+		public RatesHandler(final long delayMs)
+		{
+			this.delayMs = delayMs;
+		}
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				Thread.sleep(delayMs);
+			}
+			catch (final InterruptedException x)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			final byte[] bytes = response.getBytes(Constants.UTF_8);
+			exchange.sendResponseHeaders(200, bytes.length);
+			final OutputStream os = exchange.getResponseBody();
+			os.write(bytes);
+			os.close();
+		}
+	}
+}
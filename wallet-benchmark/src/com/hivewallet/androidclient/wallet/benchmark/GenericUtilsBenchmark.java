@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.util.GenericUtils;
+
+/**
+ * Amount formatting and parsing, as done for every visible amount on every list bind.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GenericUtilsBenchmark
+{
+	@Param({ "0", "3", "6" })
+	public int shift;
+
+	private BigInteger value;
+	private int precision;
+	private String formatted;
+	private final StringBuilder builder = new StringBuilder();
+
+	@Setup
+	public void setup()
+	{
+		value = new BigInteger("1122334455667788");
+		precision = shift == 0 ? Constants.BTC_MAX_PRECISION : (shift == 3 ? Constants.MBTC_MAX_PRECISION : Constants.UBTC_MAX_PRECISION);
+		formatted = GenericUtils.formatValue(value, precision, shift);
+	}
+
+	@Benchmark
+	public String formatValue()
+	{
+		return GenericUtils.formatValue(value, precision, shift);
+	}
+
+	@Benchmark
+	public String formatValueWithSign()
+	{
+		return GenericUtils.formatValue(value, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
+	}
+
+	@Benchmark
+	public String formatLongValue()
+	{
+		return GenericUtils.formatValue(value.longValue(), precision, shift);
+	}
+
+	@Benchmark
+	public StringBuilder appendValue()
+	{
+		builder.setLength(0);
+		return GenericUtils.appendValue(builder, value.longValue(), Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision,
+				shift);
+	}
+
+	@Benchmark
+	public BigInteger parseCoin()
+	{
+		return GenericUtils.parseCoin(formatted, shift);
+	}
+
+	@Benchmark
+	public BigInteger parseValue()
+	{
+		return GenericUtils.parseValue(formatted, shift);
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.hivewallet.androidclient.wallet.util.Qr;
+
+/**
+ * Compressed binary QR payloads, once with incompressible and once with highly redundant content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QrBenchmark
+{
+	@Param({ "random", "redundant" })
+	public String content;
+
+	private byte[] bytes;
+	private String encoded;
+
+	@Setup
+	public void setup()
+	{
+		bytes = new byte[512];
+		if ("random".equals(content))
+			new Random(42).nextBytes(bytes);
+		else
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = (byte) (i % 16);
+		encoded = Qr.encodeCompressBinary(bytes);
+	}
+
+	@Benchmark
+	public String encodeCompressBinary()
+	{
+		return Qr.encodeCompressBinary(bytes);
+	}
+
+	@Benchmark
+	public byte[] decodeDecompressBinary() throws IOException
+	{
+		return Qr.decodeDecompressBinary(encoded);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.ui.TransactionRow;
+import com.hivewallet.androidclient.wallet.util.SortedIndex;
+
+/**
+ * Cost of refreshing the transaction list after a single transaction changed: rebuilding every row and sorting (how the
+ * loader used to work), revalidating cached rows and sorting (a full reload today), and updating the sorted index in place
+ * (the incremental path).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransactionListBenchmark
+{
+	@Param({ "10000" })
+	public int size;
+
+	private Wallet wallet;
+	private List<Transaction> transactions;
+	private Map<Sha256Hash, TransactionRow> rowCache;
+	private SortedIndex<Sha256Hash, TransactionRow> index;
+	private int next = 0;
+
+	@Setup
+	public void setup()
+	{
+		wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+		final ECKey own = new ECKey();
+		final ECKey other = new ECKey();
+		wallet.addKey(own);
+
+		transactions = new ArrayList<Transaction>(size);
+		rowCache = new HashMap<Sha256Hash, TransactionRow>(size);
+		final long now = System.currentTimeMillis();
+
+		for (int i = 0; i < size; i++)
+		{
+			final Transaction tx = i % 2 == 0 ? Transactions.payment(other, own, 100000 + i) : Transactions.payment(own, other, 100000 + i);
+			tx.setUpdateTime(new Date(now - i * 60000L));
+			transactions.add(tx);
+
+			final TransactionRow row = TransactionRow.fromTransaction(tx, wallet);
+			rowCache.put(row.hash, row);
+		}
+
+		index = new SortedIndex<Sha256Hash, TransactionRow>(TransactionRow.COMPARATOR);
+		index.replaceAll(rowCache);
+	}
+
+	@Benchmark
+	public List<TransactionRow> fullRebuild()
+	{
+		final List<TransactionRow> rows = new ArrayList<TransactionRow>(transactions.size());
+		for (final Transaction tx : transactions)
+			rows.add(TransactionRow.fromTransaction(tx, wallet));
+
+		Collections.sort(rows, TransactionRow.COMPARATOR);
+		return rows;
+	}
+
+	@Benchmark
+	public List<TransactionRow> fullReloadWithRowCache()
+	{
+		final List<TransactionRow> rows = new ArrayList<TransactionRow>(transactions.size());
+		for (final Transaction tx : transactions)
+		{
+			TransactionRow row = rowCache.get(tx.getHash());
+			if (row == null || !row.isCurrent())
+				row = TransactionRow.fromTransaction(tx, wallet);
+			rows.add(row);
+		}
+
+		Collections.sort(rows, TransactionRow.COMPARATOR);
+		return rows;
+	}
+
+	@Benchmark
+	public List<TransactionRow> incrementalUpdate()
+	{
+		final Transaction tx = transactions.get(next++ % transactions.size());
+		final TransactionRow row = TransactionRow.fromTransaction(tx, wallet);
+		index.put(row.hash, row);
+
+		return index.toList();
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.math.BigInteger;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.crypto.TransactionSignature;
+import com.google.bitcoin.script.ScriptBuilder;
+
+import com.hivewallet.androidclient.wallet.Constants;
+
+/**
+ * Builds unsigned but well-formed transactions for benchmarks, without needing a wallet or a block chain.
+ */
+public final class Transactions
+{
+	private static final NetworkParameters PARAMS = Constants.NETWORK_PARAMETERS;
+	private static final TransactionSignature DUMMY_SIGNATURE = new TransactionSignature(BigInteger.ONE, BigInteger.ONE);
+
+	private Transactions()
+	{
+	}
+
+	/** A typical payment: one pay-to-address output to the recipient and one for change. */
+	public static Transaction payment(final ECKey from, final ECKey to, final long value)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, ScriptBuilder.createInputScript(DUMMY_SIGNATURE, from).getProgram()));
+		tx.addOutput(BigInteger.valueOf(value), to.toAddress(PARAMS));
+		tx.addOutput(BigInteger.valueOf(value / 3), from.toAddress(PARAMS));
+		return tx;
+	}
+
+	/** A transaction with a single pay-to-pubkey output, which is what {@code WalletUtils.isInternal} looks for. */
+	public static Transaction internal(final ECKey key, final long value)
+	{
+		final Transaction tx = new Transaction(PARAMS);
+		tx.addInput(new TransactionInput(PARAMS, tx, ScriptBuilder.createInputScript(DUMMY_SIGNATURE, key).getProgram()));
+		tx.addOutput(BigInteger.valueOf(value), key);
+		return tx;
+	}
+}
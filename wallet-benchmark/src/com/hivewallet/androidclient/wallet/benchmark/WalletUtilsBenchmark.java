@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.benchmark;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+
+import com.hivewallet.androidclient.wallet.util.WalletUtils;
+
+/**
+ * Per-transaction helpers used when binding a row of the transaction list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WalletUtilsBenchmark
+{
+	private Transaction payment;
+	private Transaction internal;
+
+	@Setup
+	public void setup()
+	{
+		final ECKey from = new ECKey();
+		final ECKey to = new ECKey();
+
+		payment = Transactions.payment(from, to, 150000000);
+		internal = Transactions.internal(from, 150000000);
+	}
+
+	@Benchmark
+	public boolean isInternalPayment()
+	{
+		return WalletUtils.isInternal(payment);
+	}
+
+	@Benchmark
+	public boolean isInternalInternal()
+	{
+		return WalletUtils.isInternal(internal);
+	}
+
+	@Benchmark
+	public Address getFirstFromAddress()
+	{
+		return WalletUtils.getFirstFromAddress(payment);
+	}
+
+	@Benchmark
+	public BigInteger sumOfOutputs()
+	{
+		return WalletUtils.sumOfOutputs(payment);
+	}
+}
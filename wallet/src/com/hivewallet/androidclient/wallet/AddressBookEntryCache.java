@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import android.util.LruCache;
+
+import com.google.common.base.Optional;
+
+import com.hivewallet.androidclient.wallet.AddressBookProvider.AddressBookEntry;
+
+/**
+ * Entries of the addresses looked up most recently, including the fact that an address has no entry. Kept up to date by
+ * the writes of {@link AddressBookProvider}.
+ */
+final class AddressBookEntryCache
+{
+	/** where entries not cached are read from, the provider in the app */
+	interface Source
+	{
+		@CheckForNull
+		AddressBookEntry queryEntry(@Nonnull String address);
+
+		/**
+		 * @return entries by address, addresses without a labelled entry are missing
+		 */
+		@Nonnull
+		Map<String, AddressBookEntry> queryEntries(@Nonnull List<String> addresses);
+	}
+
+	// guarded by itself
+	private final LruCache<String, Optional<AddressBookEntry>> entries;
+	// bumped on every write, so lookups racing with a write don't cache what they read before it
+	private int generation = 0;
+
+	public AddressBookEntryCache(final int maxSize)
+	{
+		this.entries = new LruCache<String, Optional<AddressBookEntry>>(maxSize);
+	}
+
+	@CheckForNull
+	public AddressBookEntry lookup(@Nonnull final String address, @Nonnull final Source source)
+	{
+		final int generation;
+		synchronized (entries)
+		{
+			final Optional<AddressBookEntry> cachedEntry = entries.get(address);
+			if (cachedEntry != null)
+				return cachedEntry.orNull();
+
+			generation = this.generation;
+		}
+
+		final AddressBookEntry entry = source.queryEntry(address);
+		put(generation, address, entry);
+		return entry;
+	}
+
+	/**
+	 * @return entries by address, addresses without a labelled entry are missing
+	 */
+	@Nonnull
+	public Map<String, AddressBookEntry> lookup(@Nonnull final Collection<String> addresses, @Nonnull final Source source)
+	{
+		final Map<String, AddressBookEntry> entries = new HashMap<String, AddressBookEntry>(addresses.size());
+		final List<String> missingAddresses = new ArrayList<String>(addresses.size());
+		final int generation;
+		synchronized (this.entries)
+		{
+			for (final String address : new LinkedHashSet<String>(addresses))
+			{
+				final Optional<AddressBookEntry> cachedEntry = this.entries.get(address);
+				if (cachedEntry == null)
+					missingAddresses.add(address);
+				else if (cachedEntry.isPresent())
+					entries.put(address, cachedEntry.get());
+			}
+
+			generation = this.generation;
+		}
+
+		if (missingAddresses.isEmpty())
+			return entries;
+
+		final Map<String, AddressBookEntry> foundEntries = source.queryEntries(missingAddresses);
+		entries.putAll(foundEntries);
+		synchronized (this.entries)
+		{
+			if (generation == this.generation)
+				for (final String address : missingAddresses)
+					this.entries.put(address, Optional.fromNullable(foundEntries.get(address)));
+		}
+
+		return entries;
+	}
+
+	private void put(final int generation, @Nonnull final String address, @Nullable final AddressBookEntry entry)
+	{
+		synchronized (entries)
+		{
+			if (generation == this.generation)
+				entries.put(address, Optional.fromNullable(entry));
+		}
+	}
+
+	/**
+	 * An entry was inserted. A {@code null} label is cached as no entry, like a lookup would.
+	 */
+	public void inserted(@Nonnull final String address, @Nullable final String label, @Nullable final String photo)
+	{
+		written(address, Optional.fromNullable(label != null ? new AddressBookEntry(address, label, photo) : null));
+	}
+
+	/**
+	 * An entry was updated. As the update may have been partial, the entry is read again on its next lookup.
+	 */
+	public void updated(@Nonnull final String address)
+	{
+		written(address, null);
+	}
+
+	public void deleted(@Nonnull final String address)
+	{
+		written(address, Optional.<AddressBookEntry> absent());
+	}
+
+	private void written(@Nonnull final String address, @Nullable final Optional<AddressBookEntry> entry)
+	{
+		synchronized (entries)
+		{
+			generation++;
+
+			if (entry != null)
+				entries.put(address, entry);
+			else
+				entries.remove(address);
+		}
+	}
+
+	/**
+	 * @return hits and misses
+	 */
+	@Override
+	public String toString()
+	{
+		synchronized (entries)
+		{
+			return entries.toString();
+		}
+	}
+}
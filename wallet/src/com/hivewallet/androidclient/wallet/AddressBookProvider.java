@@ -21,7 +21,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,6 +35,8 @@ import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Joiner;
+
 import com.hivewallet.androidclient.wallet.util.GenericUtils;
 import com.hivewallet.androidclient.wallet.util.GenericUtils.BitmapSize;
 
@@ -54,7 +59,7 @@ public class AddressBookProvider extends ContentProvider
 {
 	private static final Logger log = LoggerFactory.getLogger(AddressBookProvider.class);
 	
-	private static final String DATABASE_TABLE = "address_book";
+	static final String DATABASE_TABLE = "address_book";
 
 	public static final String KEY_ROWID = "_id";
 	public static final String KEY_ADDRESS = "address";
@@ -73,6 +78,12 @@ public class AddressBookProvider extends ContentProvider
 	
 	private static final int REASONABLE_BITMAP_SIZE = 200; /* pixels */
 
+	private static final int MAX_ADDRESSES_PER_QUERY = 200;
+	private static final int ENTRY_CACHE_SIZE = 1000;
+
+	// process-wide, which is fine as the provider is not exported and thus always runs in our process
+	private static final AddressBookEntryCache entryCache = new AddressBookEntryCache(ENTRY_CACHE_SIZE);
+
 	public static Uri contentUri(@Nonnull final String packageName)
 	{
 		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
@@ -86,29 +97,98 @@ public class AddressBookProvider extends ContentProvider
 	
 	public static AddressBookEntry lookupEntry(final Context context, @Nonnull final String address)
 	{
-		String label = null;
-		String photo = null;
+		return entryCache.lookup(address, new ResolverSource(context));
+	}
+
+	/**
+	 * Looks up the entries of many addresses with one query per {@link #MAX_ADDRESSES_PER_QUERY} addresses, rather than one
+	 * per address like {@link #lookupEntry(Context, String)}.
+	 * 
+	 * @return entries by address, addresses without a labelled entry are missing
+	 */
+	public static Map<String, AddressBookEntry> lookupEntries(final Context context, @Nonnull final Collection<String> addresses)
+	{
+		return entryCache.lookup(addresses, new ResolverSource(context));
+	}
+
+	/**
+	 * @return hits and misses of the in-memory entry cache behind {@link #lookupEntry(Context, String)}
+	 */
+	public static String entryCacheStats()
+	{
+		return entryCache.toString();
+	}
 
-		final Uri uri = contentUri(context.getPackageName()).buildUpon().appendPath(address).build();
-		final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+	private static final class ResolverSource implements AddressBookEntryCache.Source
+	{
+		private final Context context;
 
-		if (cursor != null)
+		public ResolverSource(@Nonnull final Context context)
 		{
-			if (cursor.moveToFirst()) {
-				label = cursor.getString(cursor.getColumnIndexOrThrow(KEY_LABEL));
-				photo = cursor.getString(cursor.getColumnIndexOrThrow(KEY_PHOTO));
-			}
+			this.context = context;
+		}
 
-			cursor.close();
+		@Override
+		public AddressBookEntry queryEntry(final String address)
+		{
+			String label = null;
+			String photo = null;
+
+			final Uri uri = contentUri(context.getPackageName()).buildUpon().appendPath(address).build();
+			final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+
+			if (cursor != null)
+			{
+				if (cursor.moveToFirst()) {
+					label = cursor.getString(cursor.getColumnIndexOrThrow(KEY_LABEL));
+					photo = cursor.getString(cursor.getColumnIndexOrThrow(KEY_PHOTO));
+				}
+
+				cursor.close();
+			}
+			
+			if (label != null) {
+				return new AddressBookEntry(address, label, photo);
+			} else {
+				return null;
+			}
 		}
-		
-		if (label != null) {
-			return new AddressBookEntry(address, label, photo);
-		} else {
-			return null;
+
+		@Override
+		public Map<String, AddressBookEntry> queryEntries(final List<String> addresses)
+		{
+			final Map<String, AddressBookEntry> entries = new HashMap<String, AddressBookEntry>(addresses.size());
+			final Uri uri = contentUri(context.getPackageName());
+			final String[] projection = new String[] { KEY_ADDRESS, KEY_LABEL, KEY_PHOTO };
+
+			for (int i = 0; i < addresses.size(); i += MAX_ADDRESSES_PER_QUERY)
+			{
+				final List<String> batch = addresses.subList(i, Math.min(i + MAX_ADDRESSES_PER_QUERY, addresses.size()));
+				final Cursor cursor = context.getContentResolver().query(uri, projection, SELECTION_IN,
+						new String[] { Joiner.on(',').join(batch) }, null);
+
+				if (cursor != null)
+				{
+					final int addressIndex = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+					final int labelIndex = cursor.getColumnIndexOrThrow(KEY_LABEL);
+					final int photoIndex = cursor.getColumnIndexOrThrow(KEY_PHOTO);
+
+					while (cursor.moveToNext())
+					{
+						final String address = cursor.getString(addressIndex);
+						final String label = cursor.getString(labelIndex);
+						if (label != null)
+							entries.put(address, new AddressBookEntry(address, label, cursor.getString(photoIndex)));
+					}
+
+					cursor.close();
+				}
+			}
+
+			return entries;
 		}
 	}
-	
+
 	/** Records a photo uri in the photo assets table. Returns {@code true} if the uri was already present. */
 	public static boolean insertOrUpdatePhotoUri(final Context context, @Nullable final Uri photoUri)
 	{
@@ -228,7 +308,22 @@ public class AddressBookProvider extends ContentProvider
 		final String address = uri.getLastPathSegment();
 		values.put(KEY_ADDRESS, address);
 
-		long rowId = helper.getWritableDatabase().insertOrThrow(DATABASE_TABLE, null, values);
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final long rowId;
+		db.beginTransaction();
+		try
+		{
+			rowId = db.insertOrThrow(DATABASE_TABLE, null, values);
+			AddressBookSearchIndex.update(new IndexDatabase(db), address);
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		entryCache.inserted(address, values.getAsString(KEY_LABEL), values.getAsString(KEY_PHOTO));
 
 		final Uri rowUri = contentUri(getContext().getPackageName()).buildUpon().appendPath(address).appendPath(Long.toString(rowId)).build();
 
@@ -249,7 +344,22 @@ public class AddressBookProvider extends ContentProvider
 
 		final String address = uri.getLastPathSegment();
 
-		final int count = helper.getWritableDatabase().update(DATABASE_TABLE, values, KEY_ADDRESS + "=?", new String[] { address });
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final int count;
+		db.beginTransaction();
+		try
+		{
+			count = db.update(DATABASE_TABLE, values, KEY_ADDRESS + "=?", new String[] { address });
+			AddressBookSearchIndex.update(new IndexDatabase(db), address);
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		entryCache.updated(address);
 
 		if (count > 0)
 			getContext().getContentResolver().notifyChange(uri, null);
@@ -266,7 +376,22 @@ public class AddressBookProvider extends ContentProvider
 
 		final String address = uri.getLastPathSegment();
 
-		final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_ADDRESS + "=?", new String[] { address });
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		final int count;
+		db.beginTransaction();
+		try
+		{
+			AddressBookSearchIndex.remove(new IndexDatabase(db), address);
+			count = db.delete(DATABASE_TABLE, KEY_ADDRESS + "=?", new String[] { address });
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		entryCache.deleted(address);
 
 		if (count > 0)
 			getContext().getContentResolver().notifyChange(uri, null);
@@ -313,9 +438,12 @@ public class AddressBookProvider extends ContentProvider
 		}
 		else if (SELECTION_QUERY.equals(originalSelection))
 		{
-			final String query = '%' + originalSelectionArgs[0].trim() + '%';
-			selection = KEY_ADDRESS + " LIKE ? OR " + KEY_LABEL + " LIKE ?";
-			selectionArgs = new String[] { query, query };
+			final String matchQuery = AddressBookSearchIndex.matchQuery(originalSelectionArgs[0]);
+			if (matchQuery != null)
+			{
+				selection = AddressBookSearchIndex.SELECTION_MATCH;
+				selectionArgs = new String[] { matchQuery };
+			}
 		}
 
 		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
@@ -395,11 +523,38 @@ public class AddressBookProvider extends ContentProvider
 		}
 	}
 
+	private static final class IndexDatabase implements AddressBookSearchIndex.Database
+	{
+		private final SQLiteDatabase db;
+
+		public IndexDatabase(@Nonnull final SQLiteDatabase db)
+		{
+			this.db = db;
+		}
+
+		@Override
+		public void execSQL(final String sql, final Object[] bindArgs)
+		{
+			db.execSQL(sql, bindArgs);
+		}
+
+		@Override
+		public List<String> queryStrings(final String sql)
+		{
+			final List<String> strings = new ArrayList<String>();
+			final Cursor cursor = db.rawQuery(sql, null);
+			while (cursor.moveToNext())
+				strings.add(cursor.getString(0));
+			cursor.close();
+			return strings;
+		}
+	}
+
 	private static class Helper extends SQLiteOpenHelper
 	{
 		private static final String DATABASE_NAME = "address_book";
 		private static final String PHOTO_ASSETS_TABLE_NAME = "photos";
-		private static final int DATABASE_VERSION = 4;
+		private static final int DATABASE_VERSION = 5;
 
 		private static final String KEY_PERMANENT = "permanent";
 		private static final String KEY_TIMESTAMP = "timestamp";		
@@ -441,6 +596,7 @@ public class AddressBookProvider extends ContentProvider
 			db.execSQL(INDEX_CREATE);
 			db.execSQL(INDEX_CREATE2);
 			db.execSQL(INDEX_CREATE3);
+			db.execSQL(AddressBookSearchIndex.TABLE_CREATE);
 		}
 
 		@Override
@@ -477,6 +633,10 @@ public class AddressBookProvider extends ContentProvider
 				db.execSQL(INDEX_CREATE2);
 				db.execSQL(INDEX_CREATE3);
 			}
+			else if (oldVersion == 4)
+			{
+				AddressBookSearchIndex.create(new IndexDatabase(db));
+			}
 			else
 			{
 				throw new UnsupportedOperationException("old=" + oldVersion);
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Full-text index of the labels and addresses of {@link AddressBookProvider}, kept in an FTS3 table next to the address
+ * book. Rows of the index share their rowid with the address book row they were made from.
+ */
+final class AddressBookSearchIndex
+{
+	/** runs statements on the address book database, the provider's {@link android.database.sqlite.SQLiteDatabase} in the app */
+	interface Database
+	{
+		void execSQL(@Nonnull String sql, @Nonnull Object[] bindArgs);
+
+		/**
+		 * @return the first column of every row
+		 */
+		@Nonnull
+		List<String> queryStrings(@Nonnull String sql);
+	}
+
+	static final String TABLE = "address_book_search";
+
+	private static final String KEY_ADDRESS_FRAGMENTS = "address_fragments";
+
+	static final String TABLE_CREATE = "CREATE VIRTUAL TABLE " + TABLE + " USING fts3(" //
+			+ AddressBookProvider.KEY_LABEL + ", " + KEY_ADDRESS_FRAGMENTS + ");";
+
+	/** selection of the address book rows matching a {@link #matchQuery(String)}, which is its only argument */
+	static final String SELECTION_MATCH = AddressBookProvider.KEY_ROWID + " IN (SELECT docid FROM " + TABLE + " WHERE " + TABLE
+			+ " MATCH ?)";
+
+	private static final String DELETE = "DELETE FROM " + TABLE + " WHERE docid IN (SELECT " + AddressBookProvider.KEY_ROWID + " FROM "
+			+ AddressBookProvider.DATABASE_TABLE + " WHERE " + AddressBookProvider.KEY_ADDRESS + "=?)";
+	private static final String INSERT = "INSERT INTO " + TABLE + " (docid, " + AddressBookProvider.KEY_LABEL + ", " + KEY_ADDRESS_FRAGMENTS
+			+ ") SELECT " + AddressBookProvider.KEY_ROWID + ", " + AddressBookProvider.KEY_LABEL + ", ? FROM "
+			+ AddressBookProvider.DATABASE_TABLE + " WHERE " + AddressBookProvider.KEY_ADDRESS + "=?";
+	private static final String SELECT_ADDRESSES = "SELECT DISTINCT " + AddressBookProvider.KEY_ADDRESS + " FROM "
+			+ AddressBookProvider.DATABASE_TABLE;
+
+	private AddressBookSearchIndex()
+	{
+	}
+
+	/**
+	 * Creates the index for an address book that did not have one yet, indexing all its rows.
+	 */
+	public static void create(@Nonnull final Database db)
+	{
+		db.execSQL(TABLE_CREATE, new Object[0]);
+
+		for (final String address : db.queryStrings(SELECT_ADDRESSES))
+			update(db, address);
+	}
+
+	/**
+	 * Re-indexes all rows of the given address, so must be called after they were written.
+	 */
+	public static void update(@Nonnull final Database db, @Nonnull final String address)
+	{
+		remove(db, address);
+		db.execSQL(INSERT, new Object[] { addressFragments(address), address });
+	}
+
+	/**
+	 * Must be called before the rows of the given address are deleted.
+	 */
+	public static void remove(@Nonnull final Database db, @Nonnull final String address)
+	{
+		db.execSQL(DELETE, new Object[] { address });
+	}
+
+	/**
+	 * Turns what the user typed into a full-text query that matches entries having, for every word typed, a label word
+	 * starting with it or an address containing it.
+	 * 
+	 * @return the query, or {@code null} if nothing searchable was typed
+	 */
+	@Nullable
+	public static String matchQuery(@Nonnull final String constraint)
+	{
+		final StringBuilder matchQuery = new StringBuilder();
+		final StringBuilder term = new StringBuilder();
+
+		// drop everything that has a meaning in the query syntax
+		for (int i = 0; i <= constraint.length(); i++)
+		{
+			final char c = i < constraint.length() ? constraint.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c))
+			{
+				term.append(c);
+			}
+			else if (term.length() > 0)
+			{
+				if (matchQuery.length() > 0)
+					matchQuery.append(' ');
+				matchQuery.append(term).append('*');
+				term.setLength(0);
+			}
+		}
+
+		return matchQuery.length() > 0 ? matchQuery.toString() : null;
+	}
+
+	/**
+	 * Full-text search can only match terms by prefix. Indexing every suffix of the address lets a prefix query find any
+	 * part of it.
+	 */
+	static String addressFragments(@Nonnull final String address)
+	{
+		final StringBuilder fragments = new StringBuilder(address.length() * (address.length() + 3) / 2);
+		for (int i = 0; i < address.length(); i++)
+		{
+			if (i > 0)
+				fragments.append(' ');
+			fragments.append(address, i, address.length());
+		}
+		return fragments.toString();
+	}
+}
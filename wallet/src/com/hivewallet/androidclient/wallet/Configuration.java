@@ -19,6 +19,7 @@ package com.hivewallet.androidclient.wallet;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -58,11 +59,13 @@ public class Configuration
 	private static final String PREFS_KEY_LAST_VERSION = "last_version";
 	private static final String PREFS_KEY_LAST_USED = "last_used";
 	private static final String PREFS_KEY_BEST_CHAIN_HEIGHT_EVER = "best_chain_height_ever";
+	private static final String PREFS_KEY_RESCAN_PENDING = "rescan_pending";
 	private static final String PREFS_KEY_CACHED_EXCHANGE_CURRENCY = "cached_exchange_currency";
 	private static final String PREFS_KEY_CACHED_EXCHANGE_RATE = "cached_exchange_rate";
 	private static final String PREFS_KEY_CACHED_EXCHANGE_CURRENCIES = "cached_exchange_currencies";
 	private static final String PREFS_KEY_LAST_EXCHANGE_DIRECTION = "last_exchange_direction";
 	private static final String PREFS_KEY_CHANGE_LOG_VERSION = "change_log_version";
+	private static final String PREFS_KEY_PAYMENT_ARRIVALS = "payment_arrivals";
 	public static final String PREFS_KEY_REMIND_BACKUP = "remind_backup";
 
 	private static final int PREFS_DEFAULT_BTC_SHIFT = 3;
@@ -71,6 +74,9 @@ public class Configuration
 	private static final String PREFS_KEY_FIND_NEARBY_USER_PHOTO = "find_nearby_user_photo";
 	private static final String PREFS_KEY_FIND_NEARBY_USER_NAME = "find_nearby_user_name";
 
+	private String cachedPaymentArrivalsStr = null;
+	private List<Long> cachedPaymentArrivals;
+
 	private static final Logger log = LoggerFactory.getLogger(Configuration.class);
 
 	public Configuration(@Nonnull final SharedPreferences prefs)
@@ -232,6 +238,55 @@ public class Configuration
 		prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 	}
 
+	/**
+	 * @return true if a blockchain rescan has been requested and not swapped in yet
+	 */
+	public boolean getRescanPending()
+	{
+		return prefs.getBoolean(PREFS_KEY_RESCAN_PENDING, false);
+	}
+
+	public void setRescanPending(final boolean rescanPending)
+	{
+		prefs.edit().putBoolean(PREFS_KEY_RESCAN_PENDING, rescanPending).commit();
+	}
+
+	/**
+	 * @return times payments arrived at, in ascending order
+	 */
+	/**
+	 * @return unmodifiable list of arrival times, only parsed again after it changed
+	 */
+	public synchronized List<Long> getPaymentArrivals()
+	{
+		final String arrivalsStr = prefs.getString(PREFS_KEY_PAYMENT_ARRIVALS, "");
+
+		if (!arrivalsStr.equals(cachedPaymentArrivalsStr))
+		{
+			final List<Long> arrivals = new ArrayList<Long>();
+			for (final String arrival : Splitter.on(',').omitEmptyStrings().split(arrivalsStr))
+				arrivals.add(Long.parseLong(arrival));
+
+			cachedPaymentArrivals = Collections.unmodifiableList(arrivals);
+			cachedPaymentArrivalsStr = arrivalsStr;
+		}
+
+		return cachedPaymentArrivals;
+	}
+
+	public synchronized void addPaymentArrival(final long time, final int maxArrivals)
+	{
+		final List<Long> arrivals = new ArrayList<Long>(getPaymentArrivals());
+
+		int index = arrivals.size();
+		while (index > 0 && arrivals.get(index - 1) > time)
+			index--;
+		arrivals.add(index, time);
+
+		final String arrivalsStr = Joiner.on(',').join(arrivals.subList(Math.max(0, arrivals.size() - maxArrivals), arrivals.size()));
+		prefs.edit().putString(PREFS_KEY_PAYMENT_ARRIVALS, arrivalsStr).commit();
+	}
+
 	public ExchangeRate getCachedExchangeRate()
 	{
 		if (prefs.contains(PREFS_KEY_CACHED_EXCHANGE_CURRENCY) && prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE))
@@ -51,9 +51,20 @@ public final class Constants
 		public static final String EXTERNAL_WALLET_BACKUP = "hive-android-wallet-backup" + FILENAME_NETWORK_SUFFIX;
 		public static final String EXTERNAL_WALLET_TMP_FILE = "external-wallet-backup-source" + FILENAME_NETWORK_SUFFIX;
 
-		public static final String BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
+		public static final String BLOCKSTORE_DIRNAME = "blockstore";
+		/** the {@link com.google.bitcoin.store.SPVBlockStore} used before, migrated on first start */
+		public static final String LEGACY_BLOCKCHAIN_FILENAME = "blockchain" + FILENAME_NETWORK_SUFFIX;
+		public static final String BLOCKCHAIN_FILENAME = "blockchain-store" + FILENAME_NETWORK_SUFFIX;
+		public static final String BLOCKCHAIN_RESCAN_FILENAME = "blockchain-rescan" + FILENAME_NETWORK_SUFFIX;
+
+		public static final String PEER_SCORES_FILENAME = "peer-scores" + FILENAME_NETWORK_SUFFIX;
+		public static final String PEER_ADDRESS_CACHE_FILENAME = "peer-addresses" + FILENAME_NETWORK_SUFFIX;
+		public static final String BROADCAST_QUEUE_FILENAME = "broadcast-queue" + FILENAME_NETWORK_SUFFIX;
 
 		public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX;
+		public static final String CHECKPOINTS_INDEX_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".idx";
+
+		public static final String EXCHANGE_RATES_FILENAME = "exchange-rates.json";
 	}
 
 	public static final long BACKUP_MAX_CHARS = 5000000;
@@ -72,11 +83,14 @@ public final class Constants
 	public static final String MIMETYPE_WALLET_BACKUP = "application/x-bitcoin-wallet-backup";
 
 	public static final int MAX_NUM_CONFIRMATIONS = 7;
+	/** wallets with more transactions page their history from {@link TransactionHistoryProvider} */
+	public static final int TRANSACTIONS_PAGED_THRESHOLD = 1000;
 	public static final String USER_AGENT = "Hive";
 	public static final String DEFAULT_EXCHANGE_CURRENCY = "USD";
 	public static final int WALLET_OPERATION_STACK_SIZE = 256 * 1024;
-	public static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	public static final long BLOCKCHAIN_STATE_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	public static final long BLOCKCHAIN_UPTODATE_THRESHOLD_MS = DateUtils.HOUR_IN_MILLIS;
+	public static final int BLOCKCHAIN_STORE_CAPACITY = 5000;
 
 	public static final String CURRENCY_CODE_BTC = "BTC";
 	public static final String CURRENCY_CODE_MBTC = "mBTC";
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Time series of exchange rates, one memory mapped ring of fixed size records per currency. Records are appended in time order,
+ * at most one per spacing interval, so the rate at a given time is found by binary search.
+ * 
+ * <p>
+ * File layout: a header of {@link #HEADER_SIZE} bytes (magic, version, capacity, number of records, next slot), followed by
+ * capacity records (time in milliseconds, rate in satoshis of the currency per bitcoin). A record is written before the header
+ * counts it, so a crash in between loses at most that record.
+ */
+public final class ExchangeRateHistory
+{
+	private static final byte[] MAGIC = { 'H', 'I', 'V', 'X' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 16;
+	private static final String FILENAME_SUFFIX = ".rates";
+
+	public static final String SOURCE = "history";
+
+	private final File dir;
+	private final int capacity;
+	private final long spacingMs;
+	private final Map<String, Ring> rings = new HashMap<String, Ring>();
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRateHistory.class);
+
+	/**
+	 * @param capacity
+	 *            records per currency, used for new files only
+	 * @param spacingMs
+	 *            minimum time between two records of a currency
+	 */
+	public ExchangeRateHistory(@Nonnull final File dir, final int capacity, final long spacingMs)
+	{
+		if (capacity <= 1)
+			throw new IllegalArgumentException("capacity too small: " + capacity);
+
+		this.dir = dir;
+		this.capacity = capacity;
+		this.spacingMs = spacingMs;
+	}
+
+	/**
+	 * Appends the rates of the given currencies, unless the last record of a currency is more recent than the spacing.
+	 */
+	public synchronized void record(@Nonnull final Map<String, ExchangeRate> rates, @Nonnull final Iterable<String> currencyCodes,
+			final long time) throws IOException
+	{
+		for (final String currencyCode : currencyCodes)
+		{
+			final ExchangeRate rate = rates.get(currencyCode);
+			if (rate == null)
+				continue;
+
+			final Ring ring = ring(currencyCode, true);
+			if (ring.count == 0 || time - ring.time(ring.count - 1) >= spacingMs)
+				ring.append(time, rate.rate.longValue());
+		}
+	}
+
+	/**
+	 * @return the last recorded rate at or before the given time, or null if the history does not reach back that far
+	 */
+	@CheckForNull
+	public synchronized ExchangeRate rateAt(@Nonnull final String currencyCode, final long time) throws IOException
+	{
+		final Ring ring = ring(currencyCode, false);
+		if (ring == null)
+			return null;
+
+		final int index = ring.floorIndex(time);
+		return index >= 0 ? new ExchangeRate(currencyCode, BigInteger.valueOf(ring.rate(index)), SOURCE) : null;
+	}
+
+	/**
+	 * @return all records of the currency, oldest first
+	 */
+	public synchronized Series series(@Nonnull final String currencyCode) throws IOException
+	{
+		final Ring ring = ring(currencyCode, false);
+		final int count = ring != null ? ring.count : 0;
+		final long[] times = new long[count];
+		final long[] rates = new long[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			times[i] = ring.time(i);
+			rates[i] = ring.rate(i);
+		}
+
+		return new Series(currencyCode, times, rates);
+	}
+
+	public synchronized void close()
+	{
+		for (final Ring ring : rings.values())
+			ring.close();
+		rings.clear();
+	}
+
+	@CheckForNull
+	private Ring ring(final String currencyCode, final boolean create) throws IOException
+	{
+		Ring ring = rings.get(currencyCode);
+
+		if (ring == null)
+		{
+			final File file = new File(dir, currencyCode + FILENAME_SUFFIX);
+			if (!create && !file.exists())
+				return null;
+
+			if (!dir.exists() && !dir.mkdirs())
+				throw new IOException("cannot create " + dir);
+
+			try
+			{
+				ring = new Ring(file, capacity);
+			}
+			catch (final IOException x)
+			{
+				log.warn("discarding corrupt exchange rate history " + file, x);
+
+				if (!file.delete())
+					throw new IOException("cannot delete " + file);
+				ring = new Ring(file, capacity);
+			}
+
+			rings.put(currencyCode, ring);
+		}
+
+		return ring;
+	}
+
+	private static final class Ring
+	{
+		private final RandomAccessFile randomAccessFile;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		private int count;
+		private int nextSlot;
+
+		private Ring(final File file, final int capacity) throws IOException
+		{
+			final boolean exists = file.exists() && file.length() > 0;
+			randomAccessFile = new RandomAccessFile(file, "rw");
+
+			try
+			{
+				if (exists)
+				{
+					final byte[] magic = new byte[MAGIC.length];
+					randomAccessFile.readFully(magic);
+					if (!Arrays.equals(MAGIC, magic))
+						throw new IOException("not an exchange rate history");
+					final int version = randomAccessFile.readInt();
+					if (version != VERSION)
+						throw new IOException("unsupported exchange rate history version: " + version);
+					this.capacity = randomAccessFile.readInt();
+					if (this.capacity <= 1 || randomAccessFile.length() != fileSize(this.capacity))
+						throw new IOException("unexpected size " + randomAccessFile.length());
+				}
+				else
+				{
+					this.capacity = capacity;
+					randomAccessFile.setLength(fileSize(capacity));
+				}
+
+				buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize(this.capacity));
+			}
+			catch (final IOException x)
+			{
+				closeQuietly();
+				throw x;
+			}
+
+			if (exists)
+			{
+				count = buffer.getInt(12);
+				nextSlot = buffer.getInt(16);
+
+				if (count < 0 || count > this.capacity || nextSlot < 0 || nextSlot >= this.capacity)
+				{
+					close();
+					throw new IOException("corrupt header: " + count + " records, next slot " + nextSlot);
+				}
+			}
+			else
+			{
+				buffer.put(MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, this.capacity);
+				writeHeader();
+			}
+		}
+
+		private static long fileSize(final int capacity)
+		{
+			return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+		}
+
+		private int offset(final int index)
+		{
+			final int slot = (nextSlot - count + index + capacity) % capacity;
+			return HEADER_SIZE + slot * RECORD_SIZE;
+		}
+
+		private long time(final int index)
+		{
+			return buffer.getLong(offset(index));
+		}
+
+		private long rate(final int index)
+		{
+			return buffer.getLong(offset(index) + 8);
+		}
+
+		private void append(final long time, final long rate)
+		{
+			if (count > 0 && time <= time(count - 1))
+				throw new IllegalArgumentException("not after last record: " + time);
+
+			final int offset = HEADER_SIZE + nextSlot * RECORD_SIZE;
+			buffer.putLong(offset, time);
+			buffer.putLong(offset + 8, rate);
+
+			nextSlot = (nextSlot + 1) % capacity;
+			if (count < capacity)
+				count++;
+			writeHeader();
+		}
+
+		private void writeHeader()
+		{
+			buffer.putInt(12, count);
+			buffer.putInt(16, nextSlot);
+		}
+
+		/**
+		 * @return index of the last record at or before the time, or -1
+		 */
+		private int floorIndex(final long time)
+		{
+			int low = 0;
+			int high = count - 1;
+
+			while (low <= high)
+			{
+				final int mid = (low + high) >>> 1;
+				if (time(mid) <= time)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+
+			return high;
+		}
+
+		private void close()
+		{
+			buffer.force();
+			closeQuietly();
+		}
+
+		private void closeQuietly()
+		{
+			try
+			{
+				randomAccessFile.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the history of one currency, for looking up many times without going back to the files.
+	 */
+	public static final class Series
+	{
+		public final String currencyCode;
+		private final long[] times;
+		private final long[] rates;
+
+		public Series(@Nonnull final String currencyCode, @Nonnull final long[] times, @Nonnull final long[] rates)
+		{
+			this.currencyCode = currencyCode;
+			this.times = times;
+			this.rates = rates;
+		}
+
+		public int size()
+		{
+			return times.length;
+		}
+
+		public long time(final int index)
+		{
+			return times[index];
+		}
+
+		public long rate(final int index)
+		{
+			return rates[index];
+		}
+
+		/**
+		 * @return the last rate at or before the given time, or null if the series does not reach back that far
+		 */
+		@CheckForNull
+		public ExchangeRate rateAt(final long time)
+		{
+			int index = Arrays.binarySearch(times, time);
+			if (index < 0)
+				index = -index - 2;
+
+			return index >= 0 ? new ExchangeRate(currencyCode, BigInteger.valueOf(rates[index]), SOURCE) : null;
+		}
+	}
+}
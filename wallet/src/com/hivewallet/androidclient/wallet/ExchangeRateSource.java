@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.hivewallet.androidclient.wallet.ExchangeRateTable.Answer;
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+import com.hivewallet.androidclient.wallet.util.GenericUtils;
+
+/**
+ * A web service answering with a JSON object of currency codes, each mapping to an object of rate fields. The first of the
+ * configured fields that holds a positive rate wins.
+ */
+public final class ExchangeRateSource
+{
+	public final String name;
+	private final URL url;
+	private final String[] fields;
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRateSource.class);
+
+	public ExchangeRateSource(@Nonnull final String name, @Nonnull final URL url, @Nonnull final String... fields)
+	{
+		this.name = name;
+		this.url = url;
+		this.fields = fields;
+	}
+
+	/**
+	 * @param previous
+	 *            last answer of this source, if any. Its validators are sent along, and it is confirmed rather than downloaded
+	 *            again if the source has not changed since.
+	 */
+	public Answer request(@Nonnull final String userAgent, final int timeoutMs, @Nullable final Answer previous)
+			throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		HttpURLConnection connection = null;
+		Reader reader = null;
+
+		try
+		{
+			connection = (HttpURLConnection) url.openConnection();
+
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(timeoutMs);
+			connection.setReadTimeout(timeoutMs);
+			connection.addRequestProperty("User-Agent", userAgent);
+			connection.addRequestProperty("Accept-Encoding", "gzip");
+			if (previous != null && previous.etag != null)
+				connection.addRequestProperty("If-None-Match", previous.etag);
+			if (previous != null && previous.lastModified != null)
+				connection.addRequestProperty("If-Modified-Since", previous.lastModified);
+			connection.connect();
+
+			final int responseCode = connection.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null)
+			{
+				log.info("exchange rates from {} not modified, took {} ms", url, System.currentTimeMillis() - start);
+
+				return previous.confirmed(System.currentTimeMillis());
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK)
+				throw new IOException("http status " + responseCode + " when fetching exchange rates from " + url);
+
+			final String contentEncoding = connection.getContentEncoding();
+
+			InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
+			if ("gzip".equalsIgnoreCase(contentEncoding))
+				is = new GZIPInputStream(is);
+
+			reader = new InputStreamReader(is, Constants.UTF_8);
+			final Map<String, ExchangeRate> rates = parse(reader);
+
+			log.info("fetched {} exchange rates from {} ({}), took {} ms", rates.size(), url, contentEncoding, System.currentTimeMillis() - start);
+
+			return new Answer(name, System.currentTimeMillis(), connection.getHeaderField("ETag"),
+					connection.getHeaderField("Last-Modified"), rates);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+
+			if (connection != null)
+				connection.disconnect();
+		}
+	}
+
+	/**
+	 * Streams through the response, keeping only the configured fields. Anything else, like a timestamp next to the
+	 * currencies, is skipped without being materialized.
+	 */
+	public Map<String, ExchangeRate> parse(@Nonnull final Reader reader) throws IOException
+	{
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+		final Map<String, Integer> fieldIndex = new HashMap<String, Integer>(fields.length);
+		for (int i = 0; i < fields.length; i++)
+			fieldIndex.put(fields[i], i);
+
+		final JsonReader json = new JsonReader(reader);
+		json.beginObject();
+
+		while (json.hasNext())
+		{
+			final String currencyCode = json.nextName();
+
+			if (json.peek() != JsonToken.BEGIN_OBJECT)
+			{
+				json.skipValue();
+				continue;
+			}
+
+			json.beginObject();
+
+			BigInteger bestRate = null;
+			int bestIndex = fields.length;
+
+			while (json.hasNext())
+			{
+				final Integer index = fieldIndex.get(json.nextName());
+				final JsonToken token = json.peek();
+
+				if (index != null && index < bestIndex && (token == JsonToken.STRING || token == JsonToken.NUMBER))
+				{
+					final String rateStr = json.nextString();
+
+					try
+					{
+						final BigInteger rate = GenericUtils.parseCoin(rateStr, 0);
+
+						if (rate.signum() > 0)
+						{
+							bestRate = rate;
+							bestIndex = index;
+						}
+					}
+					catch (final NumberFormatException x)
+					{
+						log.warn("problem parsing {} exchange rate from {}: {}", currencyCode, url, x.getMessage());
+					}
+					catch (final ArithmeticException x)
+					{
+						log.warn("problem parsing {} exchange rate from {}: {}", currencyCode, url, x.getMessage());
+					}
+				}
+				else
+				{
+					json.skipValue();
+				}
+			}
+
+			json.endObject();
+
+			if (bestRate != null)
+				rates.put(currencyCode, new ExchangeRate(currencyCode, bestRate, name));
+		}
+
+		json.endObject();
+
+		return rates;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
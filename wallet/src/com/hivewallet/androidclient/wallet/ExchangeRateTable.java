@@ -0,0 +1,274 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import android.text.format.DateUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * The last answer of every exchange rate source, with the validators needed to ask the source whether it has changed since.
+ * Rates are merged on read: per currency, the median over the answers that are not much older than the newest one.
+ */
+public final class ExchangeRateTable
+{
+	public static final class Answer
+	{
+		public final String source;
+		public final long fetchedAt;
+		@Nullable
+		public final String etag;
+		@Nullable
+		public final String lastModified;
+		public final Map<String, ExchangeRate> rates;
+
+		public Answer(@Nonnull final String source, final long fetchedAt, @Nullable final String etag, @Nullable final String lastModified,
+				@Nonnull final Map<String, ExchangeRate> rates)
+		{
+			this.source = source;
+			this.fetchedAt = fetchedAt;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.rates = Collections.unmodifiableMap(rates);
+		}
+
+		/**
+		 * The source confirmed this answer is still current.
+		 */
+		public Answer confirmed(final long fetchedAt)
+		{
+			return new Answer(source, fetchedAt, etag, lastModified, rates);
+		}
+
+		@Override
+		public String toString()
+		{
+			return getClass().getSimpleName() + '[' + source + ',' + rates.size() + " rates]";
+		}
+	}
+
+	private final Map<String, Answer> answers = new TreeMap<String, Answer>();
+	@CheckForNull
+	private Map<String, ExchangeRate> merged = null;
+
+	// answers this much older than the newest one are left out when merging
+	static final long MAX_ANSWER_AGE_MS = DateUtils.HOUR_IN_MILLIS;
+
+	private static final Comparator<ExchangeRate> RATE_COMPARATOR = new Comparator<ExchangeRate>()
+	{
+		@Override
+		public int compare(final ExchangeRate lhs, final ExchangeRate rhs)
+		{
+			return lhs.rate.compareTo(rhs.rate);
+		}
+	};
+
+	@CheckForNull
+	public synchronized Answer answer(@Nonnull final String source)
+	{
+		return answers.get(source);
+	}
+
+	public synchronized void put(@Nonnull final Answer answer)
+	{
+		answers.put(answer.source, answer);
+		merged = null;
+	}
+
+	public synchronized boolean isEmpty()
+	{
+		return answers.isEmpty();
+	}
+
+	/**
+	 * @return time of the newest answer, or 0 if there is none
+	 */
+	public synchronized long fetchedAt()
+	{
+		long fetchedAt = 0;
+		for (final Answer answer : answers.values())
+			fetchedAt = Math.max(fetchedAt, answer.fetchedAt);
+		return fetchedAt;
+	}
+
+	/**
+	 * @return merged rates by currency code, not to be modified
+	 */
+	public synchronized Map<String, ExchangeRate> rates()
+	{
+		if (merged == null)
+		{
+			final long fetchedAt = fetchedAt();
+			final List<Map<String, ExchangeRate>> current = new ArrayList<Map<String, ExchangeRate>>(answers.size());
+			for (final Answer answer : answers.values())
+				if (answer.fetchedAt >= fetchedAt - MAX_ANSWER_AGE_MS)
+					current.add(answer.rates);
+
+			merged = Collections.unmodifiableMap(median(current));
+		}
+
+		return merged;
+	}
+
+	/**
+	 * For an even number of answers the lower of the two middle rates is taken, so the result is always a rate some source
+	 * actually reported, with that source attached.
+	 */
+	static Map<String, ExchangeRate> median(@Nonnull final List<Map<String, ExchangeRate>> answers)
+	{
+		final Map<String, List<ExchangeRate>> byCurrency = new TreeMap<String, List<ExchangeRate>>();
+
+		for (final Map<String, ExchangeRate> answer : answers)
+		{
+			for (final ExchangeRate rate : answer.values())
+			{
+				List<ExchangeRate> rates = byCurrency.get(rate.currencyCode);
+				if (rates == null)
+				{
+					rates = new ArrayList<ExchangeRate>(answers.size());
+					byCurrency.put(rate.currencyCode, rates);
+				}
+				rates.add(rate);
+			}
+		}
+
+		final Map<String, ExchangeRate> median = new TreeMap<String, ExchangeRate>();
+
+		for (final Map.Entry<String, List<ExchangeRate>> entry : byCurrency.entrySet())
+		{
+			final List<ExchangeRate> rates = entry.getValue();
+			Collections.sort(rates, RATE_COMPARATOR);
+			median.put(entry.getKey(), rates.get((rates.size() - 1) / 2));
+		}
+
+		return median;
+	}
+
+	public synchronized void load(@Nonnull final Reader reader) throws IOException
+	{
+		answers.clear();
+		merged = null;
+
+		final JsonReader json = new JsonReader(reader);
+		json.beginArray();
+
+		while (json.hasNext())
+		{
+			String source = null;
+			long fetchedAt = 0;
+			String etag = null;
+			String lastModified = null;
+			final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+
+			json.beginObject();
+			while (json.hasNext())
+			{
+				final String name = json.nextName();
+
+				if (json.peek() == JsonToken.NULL)
+				{
+					json.nextNull();
+				}
+				else if ("source".equals(name))
+				{
+					source = json.nextString();
+				}
+				else if ("fetched_at".equals(name))
+				{
+					fetchedAt = json.nextLong();
+				}
+				else if ("etag".equals(name))
+				{
+					etag = json.nextString();
+				}
+				else if ("last_modified".equals(name))
+				{
+					lastModified = json.nextString();
+				}
+				else if ("rates".equals(name))
+				{
+					json.beginObject();
+					while (json.hasNext())
+					{
+						final String currencyCode = json.nextName();
+						rates.put(currencyCode, new ExchangeRate(currencyCode, BigInteger.valueOf(json.nextLong()), null));
+					}
+					json.endObject();
+				}
+				else
+				{
+					json.skipValue();
+				}
+			}
+			json.endObject();
+
+			if (source != null)
+			{
+				// rates carry their source, which is only stored once per answer
+				final Map<String, ExchangeRate> sourcedRates = new TreeMap<String, ExchangeRate>();
+				for (final ExchangeRate rate : rates.values())
+					sourcedRates.put(rate.currencyCode, new ExchangeRate(rate.currencyCode, rate.rate, source));
+
+				answers.put(source, new Answer(source, fetchedAt, etag, lastModified, sourcedRates));
+			}
+		}
+
+		json.endArray();
+	}
+
+	public synchronized void save(@Nonnull final Writer writer) throws IOException
+	{
+		final JsonWriter json = new JsonWriter(writer);
+		json.beginArray();
+
+		for (final Answer answer : answers.values())
+		{
+			json.beginObject();
+			json.name("source").value(answer.source);
+			json.name("fetched_at").value(answer.fetchedAt);
+			json.name("etag").value(answer.etag);
+			json.name("last_modified").value(answer.lastModified);
+			json.name("rates").beginObject();
+			for (final ExchangeRate rate : answer.rates.values())
+				json.name(rate.currencyCode).value(rate.rate.longValue());
+			json.endObject();
+			json.endObject();
+		}
+
+		json.endArray();
+		json.flush();
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hivewallet.androidclient.wallet.ExchangeRateTable.Answer;
+
+/**
+ * Queries all exchange rate sources at once. Returns when every source has answered, a grace period after the first valid
+ * answer, or at the deadline, whatever comes first, so a slow or dead source costs at most the grace period. Answers go
+ * into an {@link ExchangeRateTable}, which also provides the validators for conditional requests.
+ */
+public final class ExchangeRatesFetcher
+{
+	private final List<ExchangeRateSource> sources;
+	private final String userAgent;
+	private final int timeoutMs;
+	private final long graceMs;
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("exchange rates %d")
+			.setDaemon(true).build());
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesFetcher.class);
+
+	/**
+	 * @param timeoutMs
+	 *            deadline for the whole fetch, and timeout for connecting to and reading from each source
+	 * @param graceMs
+	 *            how long to wait for the other sources once the first has answered
+	 */
+	public ExchangeRatesFetcher(@Nonnull final List<ExchangeRateSource> sources, @Nonnull final String userAgent, final int timeoutMs,
+			final long graceMs)
+	{
+		this.sources = sources;
+		this.userAgent = userAgent;
+		this.timeoutMs = timeoutMs;
+		this.graceMs = graceMs;
+	}
+
+	/**
+	 * @return number of sources that answered in time
+	 */
+	public int fetch(@Nonnull final ExchangeRateTable table)
+	{
+		final long start = System.currentTimeMillis();
+
+		final CompletionService<Answer> completion = new ExecutorCompletionService<Answer>(executor);
+		final Map<Future<Answer>, ExchangeRateSource> pending = new HashMap<Future<Answer>, ExchangeRateSource>();
+
+		for (final ExchangeRateSource source : sources)
+		{
+			pending.put(completion.submit(new Callable<Answer>()
+			{
+				@Override
+				public Answer call() throws Exception
+				{
+					return source.request(userAgent, timeoutMs, table.answer(source.name));
+				}
+			}), source);
+		}
+
+		int answered = 0;
+		long deadline = start + timeoutMs;
+
+		try
+		{
+			while (!pending.isEmpty())
+			{
+				final long remaining = deadline - System.currentTimeMillis();
+				final Future<Answer> future = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : completion
+						.poll();
+				if (future == null)
+					break;
+
+				final ExchangeRateSource source = pending.remove(future);
+
+				try
+				{
+					final Answer answer = future.get();
+
+					if (!answer.rates.isEmpty())
+					{
+						table.put(answer);
+
+						if (++answered == 1)
+							deadline = Math.min(deadline, System.currentTimeMillis() + graceMs);
+					}
+				}
+				catch (final ExecutionException x)
+				{
+					log.warn("problem fetching exchange rates from " + source, x.getCause());
+				}
+			}
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			for (final Map.Entry<Future<Answer>, ExchangeRateSource> entry : pending.entrySet())
+			{
+				log.info("giving up on exchange rates from {}", entry.getValue());
+				entry.getKey().cancel(true);
+			}
+		}
+
+		log.info("{} of {} exchange rate sources answered, took {} ms", answered, sources.size(), System.currentTimeMillis() - start);
+
+		return answered;
+	}
+
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+}
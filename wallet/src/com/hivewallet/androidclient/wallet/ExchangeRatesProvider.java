@@ -17,26 +17,32 @@
 
 package com.hivewallet.androidclient.wallet;
 
-import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.math.BigInteger;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Currency;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,13 +52,19 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.format.DateUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hivewallet.androidclient.wallet.util.CurrencySearchIndex;
 import com.hivewallet.androidclient.wallet.util.GenericUtils;
-import com.hivewallet.androidclient.wallet.util.Io;
 
 /**
+ * Answers every query right away from the rate table persisted in the files dir. If the table is older than ten minutes, it
+ * is refreshed in the background and observers of the content URI are notified once new rates have arrived.
+ * 
  * @author Andreas Schildbach
  */
 public class ExchangeRatesProvider extends ContentProvider
@@ -81,21 +93,30 @@ public class ExchangeRatesProvider extends ContentProvider
 	private static final String KEY_RATE = "rate";
 	private static final String KEY_SOURCE = "source";
 
+	public static final String KEY_TIME = "time";
+
 	public static final String QUERY_PARAM_Q = "q";
+	private static final String PATH_HISTORY = "history";
 
 	private Configuration config;
-	private String userAgent;
-
-	@CheckForNull
-	private Map<String, ExchangeRate> exchangeRates = null;
-	private long lastUpdated = 0;
-
-	private static final URL BITCOINAVERAGE_URL;
-	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
-	private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
-	private static final URL BLOCKCHAININFO_URL;
-	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
-	private static final String BLOCKCHAININFO_SOURCE = "blockchain.info";
+	private ExchangeRatesFetcher fetcher;
+	private File tableFile;
+
+	private final ExchangeRateTable table = new ExchangeRateTable();
+	private boolean tableLoaded = false; // guarded by table
+	private Map<String, ExchangeRate> legacyExchangeRates;
+	private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+			.setNameFormat("exchange rates refresh").setDaemon(true).build());
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+	private volatile long lastRefreshAttempt = 0;
+	// rebuilt whenever the table hands out a new rate map or the locale changes, guarded by this
+	private CurrencySearchIndex searchIndex = null;
+	private Map<String, ExchangeRate> searchIndexRates = null;
+	private Locale searchIndexLocale = null;
+	private ExchangeRateHistory history;
+
+	private static final ExchangeRateSource BITCOINAVERAGE;
+	private static final ExchangeRateSource BLOCKCHAININFO;
 
 	// https://bitmarket.eu/api/ticker
 
@@ -103,8 +124,9 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		try
 		{
-			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/custom/hive_android");
-			BLOCKCHAININFO_URL = new URL("https://blockchain.info/ticker");
+			BITCOINAVERAGE = new ExchangeRateSource("BitcoinAverage.com", new URL("https://api.bitcoinaverage.com/custom/hive_android"),
+					"24h_avg", "last");
+			BLOCKCHAININFO = new ExchangeRateSource("blockchain.info", new URL("https://blockchain.info/ticker"), "15m");
 		}
 		catch (final MalformedURLException x)
 		{
@@ -113,6 +135,10 @@ public class ExchangeRatesProvider extends ContentProvider
 	}
 
 	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long FETCH_GRACE_MS = 2 * DateUtils.SECOND_IN_MILLIS;
+	private static final long REFRESH_RETRY_MS = DateUtils.MINUTE_IN_MILLIS;
+	private static final long HISTORY_SPACING_MS = DateUtils.HOUR_IN_MILLIS;
+	private static final int HISTORY_CAPACITY = 366 * 24; // a year of hourly rates, 140 kB per currency
 
 	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -123,14 +149,18 @@ public class ExchangeRatesProvider extends ContentProvider
 
 		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
 
-		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+		final String userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+		this.fetcher = new ExchangeRatesFetcher(Arrays.asList(BITCOINAVERAGE, BLOCKCHAININFO), userAgent, Constants.HTTP_TIMEOUT_MS,
+				FETCH_GRACE_MS);
+
+		this.tableFile = new File(context.getFilesDir(), Constants.Files.EXCHANGE_RATES_FILENAME);
+		this.history = new ExchangeRateHistory(context.getDir("exchange-rate-history", Context.MODE_PRIVATE), HISTORY_CAPACITY,
+				HISTORY_SPACING_MS);
 
+		// only used until the first table has been fetched
 		final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-		if (cachedExchangeRate != null)
-		{
-			exchangeRates = new TreeMap<String, ExchangeRate>();
-			exchangeRates.put(cachedExchangeRate.currencyCode, cachedExchangeRate);
-		}
+		this.legacyExchangeRates = cachedExchangeRate != null ? Collections.singletonMap(cachedExchangeRate.currencyCode, cachedExchangeRate)
+				: Collections.<String, ExchangeRate> emptyMap();
 
 		return true;
 	}
@@ -140,36 +170,33 @@ public class ExchangeRatesProvider extends ContentProvider
 		return Uri.parse("content://" + packageName + '.' + "exchange_rates");
 	}
 
+	/**
+	 * Recorded rates of one currency. Without selection, all of them in time order. With selection {@link #KEY_TIME} and
+	 * timestamps in milliseconds as selection args, the rate at each of these times, for times the history reaches back to.
+	 */
+	public static Uri historyUri(@Nonnull final String packageName, @Nonnull final String currencyCode)
+	{
+		return contentUri(packageName).buildUpon().appendPath(PATH_HISTORY).appendPath(currencyCode).build();
+	}
+
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
+		final List<String> pathSegments = uri.getPathSegments();
+		if (pathSegments.size() == 2 && PATH_HISTORY.equals(pathSegments.get(0)))
+			return queryHistory(uri, pathSegments.get(1), selection, selectionArgs);
+
 		final long now = System.currentTimeMillis();
 
-		if (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS)
-		{
-			Map<String, ExchangeRate> newExchangeRates = null;
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BITCOINAVERAGE_URL, userAgent, BITCOINAVERAGE_SOURCE, BITCOINAVERAGE_FIELDS);
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BLOCKCHAININFO_URL, userAgent, BLOCKCHAININFO_SOURCE, BLOCKCHAININFO_FIELDS);
+		loadTable();
 
-			if (newExchangeRates != null)
-			{
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
-
-				final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-				if (exchangeRateToCache != null)
-					config.setCachedExchangeRate(exchangeRateToCache);
-				
-				config.setCachedExchangeCurrencies(newExchangeRates.keySet());
-			}
-		}
+		if (now - table.fetchedAt() > UPDATE_FREQ_MS && now - lastRefreshAttempt > REFRESH_RETRY_MS)
+			refresh();
 
-		if (exchangeRates == null)
-			return null;
+		final Map<String, ExchangeRate> exchangeRates = !table.isEmpty() ? table.rates() : legacyExchangeRates;
 
 		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
 		if (selection == null)
 		{
@@ -181,20 +208,17 @@ public class ExchangeRatesProvider extends ContentProvider
 		}
 		else if (selection.equals(QUERY_PARAM_Q))
 		{
-			final String selectionArg = selectionArgs[0].toLowerCase(Locale.US);
-			for (final Map.Entry<String, ExchangeRate> entry : exchangeRates.entrySet())
+			final CurrencySearchIndex index = searchIndex(exchangeRates);
+			for (final int i : index.search(selectionArgs[0]))
 			{
-				final ExchangeRate rate = entry.getValue();
-				final String currencyCode = rate.currencyCode;
-				final String currencySymbol = GenericUtils.currencySymbol(currencyCode);
-				if (currencyCode.toLowerCase(Locale.US).contains(selectionArg) || currencySymbol.toLowerCase(Locale.US).contains(selectionArg))
-					cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.rate.longValue()).add(rate.source);
+				final ExchangeRate rate = exchangeRates.get(index.currencyCode(i));
+				cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
 			}
 		}
 		else if (selection.equals(KEY_CURRENCY_CODE))
 		{
 			final String selectionArg = selectionArgs[0];
-			final ExchangeRate rate = bestExchangeRate(selectionArg);
+			final ExchangeRate rate = bestExchangeRate(exchangeRates, selectionArg);
 			if (rate != null)
 				cursor.newRow().add(rate.currencyCode.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
 		}
@@ -202,7 +226,192 @@ public class ExchangeRatesProvider extends ContentProvider
 		return cursor;
 	}
 
-	private ExchangeRate bestExchangeRate(final String currencyCode)
+	private Cursor queryHistory(final Uri uri, final String currencyCode, final String selection, final String[] selectionArgs)
+	{
+		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_TIME, KEY_CURRENCY_CODE, KEY_RATE, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		try
+		{
+			if (selection == null)
+			{
+				final ExchangeRateHistory.Series series = history.series(currencyCode);
+				for (int i = 0; i < series.size(); i++)
+					cursor.newRow().add(series.time(i)).add(series.time(i)).add(currencyCode).add(series.rate(i)).add(ExchangeRateHistory.SOURCE);
+			}
+			else if (selection.equals(KEY_TIME))
+			{
+				for (final String timeStr : selectionArgs)
+				{
+					final long time = Long.parseLong(timeStr);
+					final ExchangeRate rate = history.rateAt(currencyCode, time);
+					if (rate != null)
+						cursor.newRow().add(time).add(time).add(currencyCode).add(rate.rate.longValue()).add(rate.source);
+				}
+			}
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading exchange rate history of " + currencyCode, x);
+		}
+
+		return cursor;
+	}
+
+	private synchronized CurrencySearchIndex searchIndex(final Map<String, ExchangeRate> exchangeRates)
+	{
+		final Locale locale = Locale.getDefault();
+
+		if (searchIndex == null || searchIndexRates != exchangeRates || !locale.equals(searchIndexLocale))
+		{
+			// display names cannot be looked up before API level 19
+			searchIndex = new CurrencySearchIndex(exchangeRates.keySet(), Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? locale : null);
+			searchIndexRates = exchangeRates;
+			searchIndexLocale = locale;
+		}
+
+		return searchIndex;
+	}
+
+	private void loadTable()
+	{
+		synchronized (table)
+		{
+			if (tableLoaded)
+				return;
+			tableLoaded = true;
+
+			Reader reader = null;
+
+			try
+			{
+				reader = new InputStreamReader(new FileInputStream(tableFile), Constants.UTF_8);
+				table.load(reader);
+
+				log.info("loaded {} exchange rates from {}", table.rates().size(), tableFile);
+			}
+			catch (final FileNotFoundException x)
+			{
+				// nothing fetched yet
+			}
+			catch (final Exception x)
+			{
+				log.warn("problem loading exchange rates from " + tableFile, x);
+			}
+			finally
+			{
+				if (reader != null)
+				{
+					try
+					{
+						reader.close();
+					}
+					catch (final IOException x)
+					{
+						// swallow
+					}
+				}
+			}
+		}
+	}
+
+	private void saveTable()
+	{
+		final File tmpFile = new File(tableFile.getParentFile(), tableFile.getName() + ".tmp");
+		Writer writer = null;
+
+		try
+		{
+			writer = new OutputStreamWriter(new FileOutputStream(tmpFile), Constants.UTF_8);
+			table.save(writer);
+			writer.close();
+			writer = null;
+
+			if (!tmpFile.renameTo(tableFile))
+				throw new IOException("cannot rename " + tmpFile + " to " + tableFile);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving exchange rates to " + tableFile, x);
+		}
+		finally
+		{
+			if (writer != null)
+			{
+				try
+				{
+					writer.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	private void refresh()
+	{
+		if (!refreshing.compareAndSet(false, true))
+			return;
+
+		lastRefreshAttempt = System.currentTimeMillis();
+
+		refreshExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if (fetcher.fetch(table) > 0)
+					{
+						saveTable();
+
+						final Map<String, ExchangeRate> exchangeRates = table.rates();
+						final ExchangeRate exchangeRateToCache = bestExchangeRate(exchangeRates, config.getExchangeCurrencyCode());
+						if (exchangeRateToCache != null)
+							config.setCachedExchangeRate(exchangeRateToCache);
+						config.setCachedExchangeCurrencies(exchangeRates.keySet());
+
+						try
+						{
+							history.record(exchangeRates, historyCurrencyCodes(), table.fetchedAt());
+						}
+						catch (final IOException x)
+						{
+							log.warn("problem recording exchange rate history", x);
+						}
+
+						final Context context = getContext();
+						context.getContentResolver().notifyChange(contentUri(context.getPackageName()), null);
+					}
+				}
+				finally
+				{
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Only the currencies the user is likely to look at, as every tracked currency costs a file of fixed size.
+	 */
+	private Set<String> historyCurrencyCodes()
+	{
+		final Set<String> currencyCodes = new HashSet<String>();
+		final String exchangeCurrencyCode = config.getExchangeCurrencyCode();
+		if (exchangeCurrencyCode != null)
+			currencyCodes.add(exchangeCurrencyCode);
+		final String defaultCode = defaultCurrencyCode();
+		if (defaultCode != null)
+			currencyCodes.add(defaultCode);
+		currencyCodes.add(Constants.DEFAULT_EXCHANGE_CURRENCY);
+		return currencyCodes;
+	}
+
+	private static ExchangeRate bestExchangeRate(final Map<String, ExchangeRate> exchangeRates, final String currencyCode)
 	{
 		ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
 		if (rate != null)
@@ -238,6 +447,25 @@ public class ExchangeRatesProvider extends ContentProvider
 		return new ExchangeRate(currencyCode, rate, source);
 	}
 
+	/**
+	 * Reads all rows of a {@link #historyUri(String, String)} cursor, which come in time order.
+	 */
+	public static ExchangeRateHistory.Series getRateHistory(@Nonnull final String currencyCode, @Nonnull final Cursor cursor)
+	{
+		final int timeColumn = cursor.getColumnIndexOrThrow(KEY_TIME);
+		final int rateColumn = cursor.getColumnIndexOrThrow(KEY_RATE);
+		final long[] times = new long[cursor.getCount()];
+		final long[] rates = new long[times.length];
+
+		for (int i = 0; cursor.moveToPosition(i); i++)
+		{
+			times[i] = cursor.getLong(timeColumn);
+			rates[i] = cursor.getLong(rateColumn);
+		}
+
+		return new ExchangeRateHistory.Series(currencyCode, times, rates);
+	}
+
 	@Override
 	public Uri insert(final Uri uri, final ContentValues values)
 	{
@@ -261,105 +489,4 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		throw new UnsupportedOperationException();
 	}
-
-	private static Map<String, ExchangeRate> requestExchangeRates(final URL url, final String userAgent, final String source, final String... fields)
-	{
-		final long start = System.currentTimeMillis();
-
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
-		try
-		{
-			connection = (HttpURLConnection) url.openConnection();
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.addRequestProperty("User-Agent", userAgent);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
-			{
-				final String contentEncoding = connection.getContentEncoding();
-
-				InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
-				if ("gzip".equalsIgnoreCase(contentEncoding))
-					is = new GZIPInputStream(is);
-
-				reader = new InputStreamReader(is, Constants.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				final long length = Io.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
-				{
-					final String currencyCode = i.next();
-					if (!"timestamp".equals(currencyCode))
-					{
-						final JSONObject o = head.getJSONObject(currencyCode);
-
-						for (final String field : fields)
-						{
-							final String rateStr = o.optString(field, null);
-
-							if (rateStr != null)
-							{
-								try
-								{
-									final BigInteger rate = GenericUtils.parseCoin(rateStr, 0);
-
-									if (rate.signum() > 0)
-									{
-										rates.put(currencyCode, new ExchangeRate(currencyCode, rate, source));
-										break;
-									}
-								}
-								catch (final ArithmeticException x)
-								{
-									log.warn("problem fetching {} exchange rate from {} ({}): {}", currencyCode, url, contentEncoding, x.getMessage());
-								}
-							}
-						}
-					}
-				}
-
-				log.info("fetched exchange rates from {} ({}), {} chars, took {} ms", url, contentEncoding, length, System.currentTimeMillis()
-						- start);
-
-				return rates;
-			}
-			else
-			{
-				log.warn("http status {} when fetching exchange rates from {}", responseCode, url);
-			}
-		}
-		catch (final Exception x)
-		{
-			log.warn("problem fetching exchange rates from " + url, x);
-		}
-		finally
-		{
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
-
-		return null;
-	}
 }
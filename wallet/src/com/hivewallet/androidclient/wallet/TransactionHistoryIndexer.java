@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.WalletEventListener;
+import com.google.bitcoin.utils.Threading;
+
+import com.hivewallet.androidclient.wallet.ui.TransactionRow;
+
+/**
+ * Keeps {@link TransactionHistoryProvider} in sync with the wallet. Changes are coalesced and written on a background
+ * thread, one database transaction per batch.
+ */
+public class TransactionHistoryIndexer
+{
+	/** where the rows go, the provider in the app */
+	interface Store
+	{
+		int count();
+
+		/** hashes of the rows whose confidence may still change what they display */
+		@Nonnull
+		Set<Sha256Hash> unsettled();
+
+		/** replaces all rows with the given transactions */
+		void replace(@Nonnull Collection<Transaction> transactions);
+
+		/** inserts or updates the rows of the given transactions */
+		void write(@Nonnull Collection<Transaction> transactions);
+
+		void delete(@Nonnull Sha256Hash hash);
+	}
+
+	/** runs the writes one after another, on a background thread in the app */
+	interface Scheduler
+	{
+		void postDelayed(@Nonnull Runnable runnable, long delayMs);
+
+		void shutdown();
+	}
+
+	private final Wallet wallet;
+	private final Store store;
+	private final Scheduler scheduler;
+
+	// filled by the wallet listener, drained on the background thread
+	private final Map<Sha256Hash, Transaction> changedTransactions = new ConcurrentHashMap<Sha256Hash, Transaction>();
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+	private static final long COALESCE_MS = DateUtils.SECOND_IN_MILLIS;
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionHistoryIndexer.class);
+
+	public TransactionHistoryIndexer(@Nonnull final Context context, @Nonnull final Wallet wallet)
+	{
+		this(wallet, new ProviderStore(context, wallet), new BackgroundScheduler());
+	}
+
+	TransactionHistoryIndexer(@Nonnull final Wallet wallet, @Nonnull final Store store, @Nonnull final Scheduler scheduler)
+	{
+		this.wallet = wallet;
+		this.store = store;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param rebuild
+	 *            drop whatever is indexed and index the wallet from scratch, e.g. because the wallet was replaced
+	 */
+	public void start(final boolean rebuild)
+	{
+		wallet.addEventListener(walletListener, Threading.SAME_THREAD);
+
+		scheduler.postDelayed(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				resync(rebuild);
+			}
+		}, 0);
+	}
+
+	public void stop()
+	{
+		wallet.removeEventListener(walletListener);
+
+		scheduler.shutdown();
+	}
+
+	private void resync(final boolean rebuild)
+	{
+		final Set<Transaction> transactions = wallet.getTransactions(true);
+
+		if (rebuild || store.count() != transactions.size())
+		{
+			final long start = System.currentTimeMillis();
+
+			changedTransactions.clear();
+			store.replace(transactions);
+
+			log.info("indexed {} transactions, took {} ms", transactions.size(), System.currentTimeMillis() - start);
+		}
+		else
+		{
+			// rows are only stale if the process died before their changes were written, which can only affect unsettled rows
+			final Set<Sha256Hash> unsettled = store.unsettled();
+
+			for (final Transaction tx : transactions)
+				if (!TransactionRow.isSettled(tx) || unsettled.contains(tx.getHash()))
+					changedTransactions.put(tx.getHash(), tx);
+
+			writeChanged();
+		}
+	}
+
+	private void writeChanged()
+	{
+		final List<Transaction> transactions = new ArrayList<Transaction>(changedTransactions.size());
+
+		for (final Iterator<Transaction> i = changedTransactions.values().iterator(); i.hasNext();)
+		{
+			final Transaction tx = i.next();
+			i.remove();
+
+			final Sha256Hash hash = tx.getHash();
+
+			if (wallet.getTransaction(hash) == null)
+				store.delete(hash);
+			else
+				transactions.add(tx);
+		}
+
+		if (!transactions.isEmpty())
+			store.write(transactions);
+	}
+
+	private void transactionChanged(@Nonnull final Transaction tx)
+	{
+		changedTransactions.put(tx.getHash(), tx);
+
+		if (writeScheduled.compareAndSet(false, true))
+		{
+			scheduler.postDelayed(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					writeScheduled.set(false);
+					writeChanged();
+				}
+			}, COALESCE_MS);
+		}
+	}
+
+	private final WalletEventListener walletListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			transactionChanged(tx);
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+		{
+			transactionChanged(tx);
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			// fired for every transaction on every new block, so skip the ones whose rows are final
+			if (!TransactionRow.isSettled(tx))
+				transactionChanged(tx);
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			// transactions may have been removed or replaced without individual callbacks
+			scheduler.postDelayed(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					resync(true);
+				}
+			}, 0);
+		}
+	};
+
+	private static final class ProviderStore implements Store
+	{
+		private final ContentResolver resolver;
+		private final String packageName;
+		private final Wallet wallet;
+
+		public ProviderStore(@Nonnull final Context context, @Nonnull final Wallet wallet)
+		{
+			this.resolver = context.getContentResolver();
+			this.packageName = context.getPackageName();
+			this.wallet = wallet;
+		}
+
+		@Override
+		public int count()
+		{
+			return TransactionHistoryProvider.count(resolver, packageName);
+		}
+
+		@Override
+		public Set<Sha256Hash> unsettled()
+		{
+			final Set<Sha256Hash> unsettled = new HashSet<Sha256Hash>();
+			final Cursor cursor = resolver.query(TransactionHistoryProvider.contentUri(packageName),
+					new String[] { TransactionHistoryProvider.KEY_HASH }, TransactionHistoryProvider.SELECTION_UNSETTLED, null, null);
+			if (cursor != null)
+			{
+				while (cursor.moveToNext())
+					unsettled.add(new Sha256Hash(cursor.getString(0)));
+
+				cursor.close();
+			}
+
+			return unsettled;
+		}
+
+		@Override
+		public void replace(final Collection<Transaction> transactions)
+		{
+			resolver.bulkInsert(TransactionHistoryProvider.replaceUri(packageName), toContentValues(transactions));
+		}
+
+		@Override
+		public void write(final Collection<Transaction> transactions)
+		{
+			resolver.bulkInsert(TransactionHistoryProvider.contentUri(packageName), toContentValues(transactions));
+		}
+
+		@Override
+		public void delete(final Sha256Hash hash)
+		{
+			resolver.delete(TransactionHistoryProvider.contentUri(packageName).buildUpon().appendPath(hash.toString()).build(), null, null);
+		}
+
+		private ContentValues[] toContentValues(final Collection<Transaction> transactions)
+		{
+			final ContentValues[] values = new ContentValues[transactions.size()];
+			int i = 0;
+			for (final Transaction tx : transactions)
+				values[i++] = TransactionRow.fromTransaction(tx, wallet).toContentValues();
+			return values;
+		}
+	}
+
+	private static final class BackgroundScheduler implements Scheduler
+	{
+		private final HandlerThread thread;
+		private final Handler handler;
+
+		public BackgroundScheduler()
+		{
+			thread = new HandlerThread("historyIndexerThread", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			handler = new Handler(thread.getLooper());
+		}
+
+		@Override
+		public void postDelayed(final Runnable runnable, final long delayMs)
+		{
+			handler.postDelayed(runnable, delayMs);
+		}
+
+		@Override
+		public void shutdown()
+		{
+			handler.removeCallbacksAndMessages(null);
+			thread.getLooper().quit();
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+
+/**
+ * Persistent index of the wallet transaction history, holding just what a history row displays. It lets the history
+ * screens page through large wallets with a cursor, instead of keeping every {@link com.google.bitcoin.core.Transaction}
+ * in memory.
+ * 
+ * Rows are keyed by transaction hash. They are appended as transactions enter the wallet and updated in place as their
+ * confidence changes, see {@link TransactionHistoryIndexer}.
+ */
+public class TransactionHistoryProvider extends ContentProvider
+{
+	static final String DATABASE_TABLE = "transaction_history";
+
+	public static final String KEY_ROWID = "_id";
+	public static final String KEY_HASH = "hash";
+	public static final String KEY_TIME = "time";
+	public static final String KEY_DIRECTION = "direction";
+	public static final String KEY_VALUE = "value";
+	public static final String KEY_AMOUNT = "amount";
+	public static final String KEY_FEE = "fee";
+	public static final String KEY_COUNTERPARTY = "counterparty";
+	public static final String KEY_CONFIDENCE_TYPE = "confidence_type";
+	public static final String KEY_PENDING = "pending";
+	public static final String KEY_DEPTH = "depth";
+	public static final String KEY_MAX_DEPTH = "max_depth";
+	public static final String KEY_BROADCAST_PEERS = "broadcast_peers";
+	public static final String KEY_FLAGS = "flags";
+
+	public static final int DIRECTION_RECEIVED = 0;
+	public static final int DIRECTION_SENT = 1;
+	public static final int DIRECTION_INTERNAL = 2;
+
+	public static final int FLAG_SENT = 1 << 0;
+	public static final int FLAG_COINBASE = 1 << 1;
+	public static final int FLAG_OWN = 1 << 2;
+	public static final int FLAG_SELECTABLE = 1 << 3;
+	public static final int FLAG_TIME_LOCKED = 1 << 4;
+	public static final int FLAG_KEY_ROTATION = 1 << 5;
+	public static final int FLAG_DUST = 1 << 6;
+
+	public static final String SELECTION_DIRECTION = "direction";
+	/** rows whose confidence may still change what they display */
+	public static final String SELECTION_UNSETTLED = "unsettled";
+
+	/** same order as {@link com.hivewallet.androidclient.wallet.ui.TransactionRow#COMPARATOR} */
+	public static final String SORT_ORDER = KEY_PENDING + " DESC, " + KEY_TIME + " DESC, " + KEY_HASH + " ASC";
+
+	/** projection of a single row holding the number of indexed transactions */
+	public static final String[] PROJECTION_COUNT = { "COUNT(*)" };
+
+	private static final String QUERY_PARAM_REPLACE = "replace";
+
+	static final String DATABASE_CREATE = "CREATE TABLE " + DATABASE_TABLE + " (" //
+			+ KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
+			+ KEY_HASH + " TEXT NOT NULL, " //
+			+ KEY_TIME + " INTEGER NOT NULL, " //
+			+ KEY_DIRECTION + " INTEGER NOT NULL, " //
+			+ KEY_VALUE + " INTEGER NOT NULL, " //
+			+ KEY_AMOUNT + " INTEGER NOT NULL, " //
+			+ KEY_FEE + " INTEGER NULL, " //
+			+ KEY_COUNTERPARTY + " TEXT NULL, " //
+			+ KEY_CONFIDENCE_TYPE + " TEXT NOT NULL, " //
+			+ KEY_PENDING + " INTEGER NOT NULL, " //
+			+ KEY_DEPTH + " INTEGER NOT NULL, " //
+			+ KEY_MAX_DEPTH + " INTEGER NOT NULL, " //
+			+ KEY_BROADCAST_PEERS + " INTEGER NOT NULL, " //
+			+ KEY_FLAGS + " INTEGER NOT NULL);";
+	static final String INDEX_CREATE = "CREATE UNIQUE INDEX " + DATABASE_TABLE + "_idx1 on " //
+			+ DATABASE_TABLE + " (" + KEY_HASH + ");";
+	static final String INDEX_CREATE2 = "CREATE INDEX " + DATABASE_TABLE + "_idx2 on " //
+			+ DATABASE_TABLE + " (" + KEY_PENDING + " DESC, " + KEY_TIME + " DESC, " + KEY_HASH + ");";
+
+	public static Uri contentUri(@Nonnull final String packageName)
+	{
+		return Uri.parse("content://" + packageName + '.' + DATABASE_TABLE);
+	}
+
+	/**
+	 * @return uri that makes {@link #bulkInsert(Uri, ContentValues[])} drop all rows not contained in the given values
+	 */
+	public static Uri replaceUri(@Nonnull final String packageName)
+	{
+		return contentUri(packageName).buildUpon().appendQueryParameter(QUERY_PARAM_REPLACE, Boolean.TRUE.toString()).build();
+	}
+
+	public static int count(@Nonnull final ContentResolver resolver, @Nonnull final String packageName)
+	{
+		final Cursor cursor = resolver.query(contentUri(packageName), PROJECTION_COUNT, null, null, null);
+
+		if (cursor == null)
+			return 0;
+
+		try
+		{
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	private Helper helper;
+
+	@Override
+	public boolean onCreate()
+	{
+		helper = new Helper(getContext());
+		return true;
+	}
+
+	@Override
+	public String getType(final Uri uri)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Uri insert(final Uri uri, final ContentValues values)
+	{
+		if (bulkInsert(uri, new ContentValues[] { values }) == 0)
+			return null;
+
+		return contentUri(getContext().getPackageName()).buildUpon().appendPath(values.getAsString(KEY_HASH)).build();
+	}
+
+	/**
+	 * Inserts or updates all rows in a single database transaction, notifying observers only once.
+	 */
+	@Override
+	public int bulkInsert(final Uri uri, final ContentValues[] values)
+	{
+		if (!uri.getPathSegments().isEmpty())
+			throw new IllegalArgumentException(uri.toString());
+
+		final boolean replace = Boolean.parseBoolean(uri.getQueryParameter(QUERY_PARAM_REPLACE));
+
+		final SQLiteDatabase db = helper.getWritableDatabase();
+		int count = 0;
+
+		db.beginTransaction();
+		try
+		{
+			if (replace)
+				db.delete(DATABASE_TABLE, null, null);
+
+			for (final ContentValues row : values)
+			{
+				final String hash = row.getAsString(KEY_HASH);
+				if (hash == null)
+					throw new IllegalArgumentException("missing " + KEY_HASH);
+
+				if (db.insertWithOnConflict(DATABASE_TABLE, null, row, SQLiteDatabase.CONFLICT_IGNORE) == -1)
+					db.update(DATABASE_TABLE, row, KEY_HASH + "=?", new String[] { hash });
+
+				count++;
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+
+		if (count > 0 || replace)
+			getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+
+		return count;
+	}
+
+	@Override
+	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int delete(final Uri uri, final String selection, final String[] selectionArgs)
+	{
+		final List<String> pathSegments = uri.getPathSegments();
+		if (pathSegments.size() != 1)
+			throw new IllegalArgumentException(uri.toString());
+
+		final String hash = uri.getLastPathSegment();
+
+		final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, KEY_HASH + "=?", new String[] { hash });
+
+		if (count > 0)
+			getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+
+		return count;
+	}
+
+	@Override
+	public Cursor query(final Uri uri, final String[] projection, final String originalSelection, final String[] originalSelectionArgs,
+			final String sortOrder)
+	{
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		qb.setTables(DATABASE_TABLE);
+
+		final List<String> pathSegments = uri.getPathSegments();
+		if (pathSegments.size() > 1)
+			throw new IllegalArgumentException(uri.toString());
+
+		if (pathSegments.size() == 1)
+		{
+			final String hash = uri.getLastPathSegment();
+
+			qb.appendWhere(KEY_HASH + "=");
+			qb.appendWhereEscapeString(hash);
+		}
+		else
+		{
+			final String where = where(originalSelection, originalSelectionArgs);
+			if (where != null)
+				qb.appendWhere(where);
+		}
+
+		final Cursor cursor = qb.query(helper.getReadableDatabase(), projection, null, null, null, null, sortOrder != null ? sortOrder
+				: SORT_ORDER);
+
+		cursor.setNotificationUri(getContext().getContentResolver(), contentUri(getContext().getPackageName()));
+
+		return cursor;
+	}
+
+	/**
+	 * @return SQL condition for one of the named selections, or null to select all rows
+	 */
+	@CheckForNull
+	static String where(@Nullable final String selection, @Nullable final String[] selectionArgs)
+	{
+		if (SELECTION_DIRECTION.equals(selection))
+			return KEY_DIRECTION + "=" + Integer.parseInt(selectionArgs[0]);
+		else if (SELECTION_UNSETTLED.equals(selection))
+			return "(" + KEY_CONFIDENCE_TYPE + "<>'BUILDING' OR " + KEY_DEPTH + "<=" + KEY_MAX_DEPTH + ")";
+		else
+			return null;
+	}
+
+	private static class Helper extends SQLiteOpenHelper
+	{
+		private static final String DATABASE_NAME = "transaction_history";
+		private static final int DATABASE_VERSION = 1;
+
+		public Helper(final Context context)
+		{
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(final SQLiteDatabase db)
+		{
+			db.execSQL(DATABASE_CREATE);
+			db.execSQL(INDEX_CREATE);
+			db.execSQL(INDEX_CREATE2);
+		}
+
+		@Override
+		public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion)
+		{
+			db.beginTransaction();
+			try
+			{
+				for (int v = oldVersion; v < newVersion; v++)
+					upgrade(db, v);
+
+				db.setTransactionSuccessful();
+			}
+			finally
+			{
+				db.endTransaction();
+			}
+		}
+
+		private void upgrade(final SQLiteDatabase db, final int oldVersion)
+		{
+			throw new UnsupportedOperationException("old=" + oldVersion);
+		}
+	}
+}
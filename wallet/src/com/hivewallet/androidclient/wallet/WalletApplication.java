@@ -17,6 +17,7 @@
 
 package com.hivewallet.androidclient.wallet;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,7 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nonnull;
 
@@ -38,8 +40,11 @@ import android.app.Application;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.BatteryManager;
+import android.os.Handler;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
@@ -63,14 +68,24 @@ import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.store.UnreadableWalletException;
 import com.google.bitcoin.store.WalletProtobufSerializer;
 import com.google.bitcoin.utils.Threading;
-import com.google.bitcoin.wallet.WalletFiles;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import com.hivewallet.androidclient.wallet.service.BlockchainService;
 import com.hivewallet.androidclient.wallet.service.BlockchainServiceImpl;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
+import com.hivewallet.androidclient.wallet.service.MappedBlockStore;
+import com.hivewallet.androidclient.wallet.service.SyncPolicy;
+import com.hivewallet.androidclient.wallet.util.AppInstaller;
 import com.hivewallet.androidclient.wallet.util.AppPlatformDBHelper;
 import com.hivewallet.androidclient.wallet.util.CrashReporter;
-import com.hivewallet.androidclient.wallet.util.Io;
 import com.hivewallet.androidclient.wallet.util.LinuxSecureRandom;
+import com.hivewallet.androidclient.wallet.util.StartupTimeline;
 import com.hivewallet.androidclient.wallet_test.R;
 
 /**
@@ -84,12 +99,28 @@ public class WalletApplication extends Application
 	private Intent blockchainServiceIntent;
 	private Intent blockchainServiceCancelCoinsReceivedIntent;
 	private Intent blockchainServiceResetBlockchainIntent;
+	private Intent blockchainServiceRescanBlockchainIntent;
 
 	private File walletFile;
-	private Wallet wallet;
+	private volatile Wallet wallet;
+	private ListenableFutureTask<Wallet> walletLoader;
+	private ListenableFutureTask<Void> blockStoreMigration;
+	private WalletSaveScheduler walletSaveScheduler;
 	private PackageInfo packageInfo;
 	private AppPlatformDBHelper appPlatformDBHelper;
+	private AppInstaller appInstaller;
 	private RequestQueue volleyRequestQueue;
+	private TransactionHistoryIndexer transactionHistoryIndexer;
+	private final BlockchainStateDispatcher blockchainStateDispatcher = new BlockchainStateDispatcher();
+
+	private final Handler handler = new Handler();
+	private final StartupTimeline startupTimeline = new StartupTimeline(STARTUP_WALLET_LOAD, STARTUP_BACKUP, STARTUP_FIRST_FRAME);
+
+	private static final String STARTUP_WALLET_LOAD = "wallet load";
+	private static final String STARTUP_BACKUP = "backup";
+	private static final String STARTUP_FIRST_FRAME = "first frame";
+
+	private static final int WALLET_READ_BUFFER_SIZE = 64 * 1024;
 
 	private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
@@ -129,30 +160,79 @@ public class WalletApplication extends Application
 		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this,
 				BlockchainServiceImpl.class);
 		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
+		blockchainServiceRescanBlockchainIntent = new Intent(BlockchainService.ACTION_RESCAN_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
 
 		walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
 
-		loadWalletFromProtobuf();
+		// load the wallet while the first activity is being created, getWallet() waits for it if needed
+		walletLoader = ListenableFutureTask.create(new Callable<Wallet>()
+		{
+			@Override
+			public Wallet call()
+			{
+				final long start = System.currentTimeMillis();
+
+				loadWalletFromProtobuf();
+				afterLoadWallet(false);
+
+				startupTimeline.record(STARTUP_WALLET_LOAD, System.currentTimeMillis() - start);
+
+				return wallet;
+			}
+		});
+		new Thread(walletLoader, "walletLoader").start();
+
+		// an old block store takes a while to copy, awaitBlockStoreMigration() lets the blockchain service wait for it
+		blockStoreMigration = ListenableFutureTask.create(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final File blockStoreDir = getDir(Constants.Files.BLOCKSTORE_DIRNAME, Context.MODE_PRIVATE);
+				final File blockChainFile = new File(blockStoreDir, Constants.Files.BLOCKCHAIN_FILENAME);
+				final File legacyBlockChainFile = new File(blockStoreDir, Constants.Files.LEGACY_BLOCKCHAIN_FILENAME);
+
+				if (!blockChainFile.exists() && legacyBlockChainFile.exists())
+					MappedBlockStore.migrate(Constants.NETWORK_PARAMETERS, legacyBlockChainFile, blockChainFile,
+							Constants.BLOCKCHAIN_STORE_CAPACITY);
+			}
+		}, null);
+		new Thread(blockStoreMigration, "blockStoreMigration").start();
 
 		config.updateLastVersionCode(packageInfo.versionCode);
 
-		afterLoadWallet();
+		appPlatformDBHelper = new AppPlatformDBHelper(this);
+		appInstaller = new AppInstaller(getDir(Constants.APP_PLATFORM_FOLDER, Context.MODE_PRIVATE), appPlatformDBHelper);
+
+		volleyRequestQueue = Volley.newRequestQueue(this);
 	}
 
-	private void afterLoadWallet()
+	private void afterLoadWallet(final boolean replaced)
 	{
-		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		walletSaveScheduler = new WalletSaveScheduler(wallet, walletFile);
+		walletSaveScheduler.start();
 
 		// clean up spam
 		wallet.cleanup();
 
 		ensureKey();
 
-		migrateBackup();
-		
-		appPlatformDBHelper = new AppPlatformDBHelper(this);
-		
-		volleyRequestQueue = Volley.newRequestQueue(this);
+		transactionHistoryIndexer = new TransactionHistoryIndexer(this, wallet);
+		transactionHistoryIndexer.start(replaced);
+
+		// nobody waiting for the wallet needs the backup
+		new Thread("walletBackup")
+		{
+			@Override
+			public void run()
+			{
+				final long start = System.currentTimeMillis();
+
+				migrateBackup();
+
+				startupTimeline.record(STARTUP_BACKUP, System.currentTimeMillis() - start);
+			}
+		}.start();
 	}
 
 	private void initLogging()
@@ -204,36 +284,80 @@ public class WalletApplication extends Application
 		log.setLevel(Level.INFO);
 	}
 
-	private static final class WalletAutosaveEventListener implements WalletFiles.Listener
+
+	public Configuration getConfiguration()
 	{
-		@Override
-		public void onBeforeAutoSave(final File file)
+		return config;
+	}
+
+	public Wallet getWallet()
+	{
+		if (!walletLoader.isDone())
 		{
+			final long start = System.currentTimeMillis();
+
+			Futures.getUnchecked(walletLoader);
+
+			log.info("waited {} ms for the wallet to load", System.currentTimeMillis() - start);
 		}
 
-		@Override
-		public void onAfterAutoSave(final File file)
+		return wallet;
+	}
+
+	/**
+	 * @return future of the wallet, for callers that would rather not block in {@link #getWallet()} while it is still
+	 *         loading at startup
+	 */
+	public ListenableFuture<Wallet> getWalletFuture()
+	{
+		// the wallet may have been replaced since it was loaded
+		return Futures.transform(walletLoader, new Function<Wallet, Wallet>()
 		{
-			// make wallets world accessible in test mode
-			if (Constants.TEST)
-				Io.chmod(file, 0777);
-		}
+			@Override
+			public Wallet apply(final Wallet loadedWallet)
+			{
+				return wallet;
+			}
+		});
 	}
 
-	public Configuration getConfiguration()
+	public void awaitBlockStoreMigration()
 	{
-		return config;
+		if (!blockStoreMigration.isDone())
+		{
+			final long start = System.currentTimeMillis();
+
+			Futures.getUnchecked(blockStoreMigration);
+
+			log.info("waited {} ms for the block store migration", System.currentTimeMillis() - start);
+		}
 	}
 
-	public Wallet getWallet()
+	/**
+	 * Called by the launcher activity when it is about to draw its first frame, completing the startup timeline.
+	 */
+	public void reportFirstFrame()
 	{
-		return wallet;
+		startupTimeline.record(STARTUP_FIRST_FRAME, startupTimeline.elapsedMs());
 	}
 	
+	/**
+	 * @return dispatcher of the blockchain service state to in-process subscribers
+	 */
+	public BlockchainStateDispatcher getBlockchainStateDispatcher()
+	{
+		return blockchainStateDispatcher;
+	}
+
 	public AppPlatformDBHelper getAppPlatformDBHelper()
 	{
 		return appPlatformDBHelper;
 	}
+
+	public AppInstaller getAppInstaller()
+	{
+		return appInstaller;
+	}
 	
 	public RequestQueue getVolleyRequestQueue()
 	{
@@ -246,11 +370,11 @@ public class WalletApplication extends Application
 		{
 			final long start = System.currentTimeMillis();
 
-			FileInputStream walletStream = null;
+			InputStream walletStream = null;
 
 			try
 			{
-				walletStream = new FileInputStream(walletFile);
+				walletStream = new BufferedInputStream(new FileInputStream(walletFile), WALLET_READ_BUFFER_SIZE);
 
 				wallet = new WalletProtobufSerializer().readWallet(walletStream);
 
@@ -263,7 +387,7 @@ public class WalletApplication extends Application
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -271,7 +395,7 @@ public class WalletApplication extends Application
 			{
 				log.error("problem loading wallet", x);
 
-				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
+				toast(x.getClass().getName());
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -292,7 +416,7 @@ public class WalletApplication extends Application
 
 			if (!wallet.isConsistent())
 			{
-				Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+				toast("inconsistent wallet: " + walletFile);
 
 				wallet = restoreWalletFromBackup();
 			}
@@ -313,6 +437,19 @@ public class WalletApplication extends Application
 				throw new Error("found read-only key, but wallet is likely an encrypted wallet from the future");
 	}
 
+	// the wallet is loaded on a background thread
+	private void toast(@Nonnull final String text)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Toast.makeText(WalletApplication.this, text, Toast.LENGTH_LONG).show();
+			}
+		});
+	}
+
 	private Wallet restoreWalletFromBackup()
 	{
 		InputStream is = null;
@@ -328,7 +465,7 @@ public class WalletApplication extends Application
 
 			resetBlockchain();
 
-			Toast.makeText(this, R.string.toast_wallet_reset, Toast.LENGTH_LONG).show();
+			toast(getString(R.string.toast_wallet_reset));
 
 			log.info("wallet restored from backup: '" + Constants.Files.WALLET_KEY_BACKUP_PROTOBUF + "'");
 
@@ -362,10 +499,15 @@ public class WalletApplication extends Application
 				return; // found
 
 		log.info("wallet has no usable key - creating");
-		addNewKeyToWallet();
+		addNewKeyToWallet(wallet);
 	}
 
 	public void addNewKeyToWallet()
+	{
+		addNewKeyToWallet(getWallet());
+	}
+
+	private void addNewKeyToWallet(@Nonnull final Wallet wallet)
 	{
 		wallet.addKey(new ECKey());
 
@@ -376,9 +518,11 @@ public class WalletApplication extends Application
 
 	public void saveWallet()
 	{
+		getWallet(); // the save scheduler is created by the wallet load
+
 		try
 		{
-			protobufSerializeWallet(wallet);
+			walletSaveScheduler.flushAndWait();
 		}
 		catch (final IOException x)
 		{
@@ -386,17 +530,11 @@ public class WalletApplication extends Application
 		}
 	}
 
-	private void protobufSerializeWallet(@Nonnull final Wallet wallet) throws IOException
+	public WalletSaveScheduler.Stats walletSaveStats()
 	{
-		final long start = System.currentTimeMillis();
-
-		wallet.saveToFile(walletFile);
+		getWallet(); // the save scheduler is created by the wallet load
 
-		// make wallets world accessible in test mode
-		if (Constants.TEST)
-			Io.chmod(walletFile, 0777);
-
-		log.debug("wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+		return walletSaveScheduler.getStats();
 	}
 
 	private void backupWallet()
@@ -476,6 +614,7 @@ public class WalletApplication extends Application
 	public Address determineSelectedAddress()
 	{
 		final String selectedAddress = config.getSelectedAddress();
+		final Wallet wallet = getWallet();
 
 		Address firstAddress = null;
 		for (final ECKey key : wallet.getKeys())
@@ -514,17 +653,32 @@ public class WalletApplication extends Application
 		startService(blockchainServiceResetBlockchainIntent);
 	}
 
+	/**
+	 * Rebuilds the blockchain and the wallet transactions in the background, while the current blockchain keeps
+	 * serving. Progress is available from {@link BlockchainService#getRescanProgress()}.
+	 */
+	public void rescanBlockchain()
+	{
+		startService(blockchainServiceRescanBlockchainIntent);
+	}
+
 	public void replaceWallet(final Wallet newWallet)
 	{
+		getWallet(); // the save scheduler and indexer are created by the wallet load
+
 		resetBlockchain(); // implicitly stops blockchain service
-		wallet.shutdownAutosaveAndWait();
+		walletSaveScheduler.shutdown();
+		transactionHistoryIndexer.stop();
 
 		wallet = newWallet;
-		afterLoadWallet();
+		afterLoadWallet(true);
+		walletSaveScheduler.requestSave(); // nothing has changed the new wallet yet
 	}
 
 	public void processDirectTransaction(@Nonnull final Transaction tx) throws VerificationException
 	{
+		final Wallet wallet = getWallet();
+
 		if (wallet.isTransactionRelevant(tx))
 		{
 			wallet.receivePending(tx, null);
@@ -536,7 +690,32 @@ public class WalletApplication extends Application
 	{
 		final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, this, BlockchainServiceImpl.class);
 		intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH, tx.getHash().getBytes());
-		startService(intent);
+
+		// only let the transaction out once the wallet file knows about it, the save scheduler is created by the wallet load
+		final ListenableFuture<Void> walletSaved = Futures.transform(walletLoader, new AsyncFunction<Wallet, Void>()
+		{
+			@Override
+			public ListenableFuture<Void> apply(final Wallet loadedWallet)
+			{
+				return walletSaveScheduler.flush();
+			}
+		});
+
+		Futures.addCallback(walletSaved, new FutureCallback<Void>()
+		{
+			@Override
+			public void onSuccess(final Void result)
+			{
+				startService(intent);
+			}
+
+			@Override
+			public void onFailure(final Throwable x)
+			{
+				log.error("problem saving wallet, not broadcasting transaction " + tx.getHashAsString(), x);
+				toast(getString(R.string.error_io, x.getMessage()));
+			}
+		}, MoreExecutors.sameThreadExecutor());
 	}
 
 	public static PackageInfo packageInfoFromContext(final Context context)
@@ -591,26 +770,40 @@ public class WalletApplication extends Application
 	public static void scheduleStartBlockchainService(@Nonnull final Context context)
 	{
 		final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
-		final long lastUsedAgo = config.getLastUsedAgo();
-
-		// apply some backoff
-		final long alarmInterval;
-		if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
-			alarmInterval = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
-		else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
-			alarmInterval = AlarmManager.INTERVAL_HALF_DAY;
-		else
-			alarmInterval = AlarmManager.INTERVAL_DAY;
+		final SyncPolicy.Decision decision = decideSyncPolicy(context, config);
+		final long alarmInterval = decision.alarmIntervalMs;
 
-		log.info("last used {} minutes ago, rescheduling blockchain sync in roughly {} minutes", lastUsedAgo / DateUtils.MINUTE_IN_MILLIS,
-				alarmInterval / DateUtils.MINUTE_IN_MILLIS);
+		log.info("rescheduling blockchain sync in roughly {} minutes: {}", alarmInterval / DateUtils.MINUTE_IN_MILLIS, decision);
 
 		final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 		final PendingIntent alarmIntent = PendingIntent.getService(context, 0, new Intent(context, BlockchainServiceImpl.class), 0);
 		alarmManager.cancel(alarmIntent);
 
-		// workaround for no inexact set() before KitKat
+		// workaround for no inexact set() before KitKat. Only the first trigger uses the decided interval, because before KitKat a
+		// repeat interval other than the AlarmManager.INTERVAL_* constants makes an exact alarm. The daily repeat is a fallback
+		// in case the service is not started again to reschedule.
 		final long now = System.currentTimeMillis();
 		alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, now + alarmInterval, AlarmManager.INTERVAL_DAY, alarmIntent);
 	}
+
+	public static SyncPolicy.Decision decideSyncPolicy(@Nonnull final Context context, @Nonnull final Configuration config)
+	{
+		return decideSyncPolicy(config, isCharging(context));
+	}
+
+	public static SyncPolicy.Decision decideSyncPolicy(@Nonnull final Configuration config, final boolean charging)
+	{
+		final SyncPolicy policy = new SyncPolicy(Constants.LAST_USAGE_THRESHOLD_JUST_MS, Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS,
+				TimeZone.getDefault());
+
+		return policy.decide(System.currentTimeMillis(), config.getLastUsedAgo(), charging, config.getPaymentArrivals());
+	}
+
+	public static boolean isCharging(@Nonnull final Context context)
+	{
+		// sticky broadcast, no receiver needed
+		final Intent batteryStatus = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+		return batteryStatus != null && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+	}
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.WalletEventListener;
+import com.google.bitcoin.utils.Threading;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.hivewallet.androidclient.wallet.util.Io;
+
+/**
+ * Saves the wallet on a background thread whenever it changes, coalescing bursts of changes like those of a chain sync
+ * into a single save. The file is written to a temporary file, synced and then renamed over the wallet file, so it is
+ * never left half written.
+ * 
+ * The delay between a change and its save grows with the time a save takes, so that saving a big wallet does not eat up
+ * the sync. Callers that cannot tolerate that delay, e.g. before broadcasting a transaction, {@link #flush()}.
+ */
+public class WalletSaveScheduler
+{
+	private final Wallet wallet;
+	private final File walletFile;
+	private final ListeningScheduledExecutorService executor;
+
+	private final AtomicBoolean dirty = new AtomicBoolean();
+	private final AtomicBoolean saveScheduled = new AtomicBoolean();
+	private volatile long delayMs = MIN_DELAY_MS;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	// only written by the executor thread
+	private volatile long saveCount = 0;
+	private volatile long failureCount = 0;
+	private volatile long bytesWritten = 0;
+	private volatile long lastBytes = 0;
+	private volatile long serializeTimeMs = 0;
+	private volatile long writeTimeMs = 0;
+
+	private static final long MIN_DELAY_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final long MAX_DELAY_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+	// keeps saving to roughly a tenth of the time while the wallet keeps changing
+	private static final int DELAY_PER_SAVE_TIME = 10;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletSaveScheduler.class);
+
+	public WalletSaveScheduler(@Nonnull final Wallet wallet, @Nonnull final File walletFile)
+	{
+		this.wallet = wallet;
+		this.walletFile = walletFile;
+		this.executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("wallet save").setDaemon(true).build()));
+	}
+
+	public void start()
+	{
+		wallet.addEventListener(walletListener, Threading.SAME_THREAD);
+	}
+
+	/**
+	 * Writes any pending changes and stops saving.
+	 */
+	public void shutdown()
+	{
+		wallet.removeEventListener(walletListener);
+
+		try
+		{
+			flushAndWait();
+		}
+		catch (final IOException x)
+		{
+			log.error("problem saving wallet on shutdown", x);
+		}
+
+		executor.shutdown();
+	}
+
+	public void requestSave()
+	{
+		requestCount.incrementAndGet();
+		dirty.set(true);
+
+		if (saveScheduled.compareAndSet(false, true))
+			executor.schedule(scheduledSave, delayMs, TimeUnit.MILLISECONDS);
+		else
+			coalescedCount.incrementAndGet();
+	}
+
+	/**
+	 * Saves the wallet as soon as possible, regardless of whether a change has been noticed yet.
+	 * 
+	 * @return future that completes once the wallet file is durable, or fails with the {@link IOException} of the save
+	 */
+	public ListenableFuture<Void> flush()
+	{
+		return executor.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws IOException
+			{
+				dirty.set(false);
+				save();
+				return null;
+			}
+		});
+	}
+
+	public void flushAndWait() throws IOException
+	{
+		try
+		{
+			flush().get();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for wallet save");
+		}
+		catch (final ExecutionException x)
+		{
+			if (x.getCause() instanceof IOException)
+				throw (IOException) x.getCause();
+			else
+				throw new RuntimeException(x.getCause());
+		}
+	}
+
+	private final Runnable scheduledSave = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			saveScheduled.set(false);
+
+			if (!dirty.getAndSet(false))
+				return; // flushed in the meantime
+
+			try
+			{
+				save();
+			}
+			catch (final IOException x)
+			{
+				log.error("problem saving wallet", x);
+			}
+		}
+	};
+
+	private void save() throws IOException
+	{
+		try
+		{
+			final long start = System.currentTimeMillis();
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) lastBytes + 1024);
+			wallet.saveToFileStream(bytes);
+
+			final long serialized = System.currentTimeMillis();
+
+			final File tempFile = new File(walletFile.getParentFile(), walletFile.getName() + ".tmp");
+			final FileOutputStream os = new FileOutputStream(tempFile);
+			try
+			{
+				bytes.writeTo(os);
+				os.flush();
+				os.getFD().sync();
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tempFile.renameTo(walletFile))
+				throw new IOException("cannot rename " + tempFile + " to " + walletFile);
+
+			// make wallets world accessible in test mode
+			if (Constants.TEST)
+				Io.chmod(walletFile, 0777);
+
+			final long written = System.currentTimeMillis();
+
+			saveCount++;
+			lastBytes = bytes.size();
+			bytesWritten += bytes.size();
+			serializeTimeMs += serialized - start;
+			writeTimeMs += written - serialized;
+			delayMs = Math.min(Math.max((written - start) * DELAY_PER_SAVE_TIME, MIN_DELAY_MS), MAX_DELAY_MS);
+
+			log.debug("wallet saved to: '{}', {} bytes, serializing took {} ms, writing took {} ms", walletFile, bytes.size(), serialized
+					- start, written - serialized);
+		}
+		catch (final IOException x)
+		{
+			failureCount++;
+			throw x;
+		}
+	}
+
+	public Stats getStats()
+	{
+		return new Stats(requestCount.get(), coalescedCount.get(), saveCount, failureCount, bytesWritten, serializeTimeMs, writeTimeMs,
+				delayMs);
+	}
+
+	private final WalletEventListener walletListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			requestSave();
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			requestSave();
+		}
+
+		@Override
+		public void onKeysAdded(final Wallet wallet, final List<ECKey> keys)
+		{
+			requestSave();
+		}
+	};
+
+	public static final class Stats
+	{
+		public final long requestCount;
+		/** requests that were folded into an already scheduled save */
+		public final long coalescedCount;
+		public final long saveCount;
+		public final long failureCount;
+		public final long bytesWritten;
+		public final long serializeTimeMs;
+		public final long writeTimeMs;
+		public final long delayMs;
+
+		public Stats(final long requestCount, final long coalescedCount, final long saveCount, final long failureCount, final long bytesWritten,
+				final long serializeTimeMs, final long writeTimeMs, final long delayMs)
+		{
+			this.requestCount = requestCount;
+			this.coalescedCount = coalescedCount;
+			this.saveCount = saveCount;
+			this.failureCount = failureCount;
+			this.bytesWritten = bytesWritten;
+			this.serializeTimeMs = serializeTimeMs;
+			this.writeTimeMs = writeTimeMs;
+			this.delayMs = delayMs;
+		}
+
+		@Override
+		public String toString()
+		{
+			return saveCount + " saves (" + failureCount + " failed) for " + requestCount + " requests (" + coalescedCount + " coalesced), "
+					+ bytesWritten + " bytes written, " + serializeTimeMs + " ms serializing, " + writeTimeMs + " ms writing, delay "
+					+ delayMs + " ms";
+		}
+	}
+}
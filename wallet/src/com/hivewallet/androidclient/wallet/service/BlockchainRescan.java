@@ -0,0 +1,344 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.bitcoinj.wallet.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.DownloadListener;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionInput;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.crypto.KeyCrypter;
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.UnreadableWalletException;
+import com.google.bitcoin.store.WalletProtobufSerializer;
+
+import com.hivewallet.androidclient.wallet.util.RollingCounter;
+
+/**
+ * Rebuilds the blockchain and the wallet transactions into a separate store file, using its own peers and a wallet
+ * holding only the keys of the live wallet. The live chain keeps serving meanwhile; once the rescan has caught up to
+ * the target height, the service copies the transactions over and swaps the store file in.
+ */
+public final class BlockchainRescan
+{
+	public interface Listener
+	{
+		/** will be called back on a network thread */
+		void onRescanComplete(@Nonnull BlockchainRescan rescan);
+	}
+
+	private static final int RATE_WINDOW_SECONDS = 30;
+
+	private final File file;
+	private final MappedBlockStore blockStore;
+	private final BlockChain blockChain;
+	private final Wallet wallet;
+	private final int keychainSize;
+	private final PeerGroup peerGroup;
+	private final Listener listener;
+	private final RollingCounter blocks = new RollingCounter(RATE_WINDOW_SECONDS);
+	private final long startedAt = System.currentTimeMillis();
+
+	private volatile int targetHeight = 0;
+	private volatile long lastBlockAt = startedAt;
+	private volatile boolean complete = false;
+
+	private static final Logger log = LoggerFactory.getLogger(BlockchainRescan.class);
+
+	/**
+	 * @param blockStore
+	 *            fresh store backed by {@code file}, already seeded from a checkpoint
+	 */
+	public BlockchainRescan(@Nonnull final NetworkParameters params, @Nonnull final File file, @Nonnull final MappedBlockStore blockStore,
+			@Nonnull final Wallet liveWallet, @Nonnull final PeerDiscovery peerDiscovery, final int maxConnectedPeers, @Nonnull final String userAgent,
+			@Nonnull final String version, @Nonnull final Listener listener) throws BlockStoreException
+	{
+		this.file = file;
+		this.blockStore = blockStore;
+		this.listener = listener;
+
+		final KeyCrypter keyCrypter = liveWallet.getKeyCrypter();
+		wallet = keyCrypter != null ? new Wallet(params, keyCrypter) : new Wallet(params);
+		wallet.addKeys(liveWallet.getKeys());
+		final List<Script> watchedScripts = liveWallet.getWatchedScripts();
+		if (!watchedScripts.isEmpty())
+			wallet.addWatchedScripts(watchedScripts);
+		keychainSize = wallet.getKeychainSize();
+
+		blockChain = new BlockChain(params, wallet, blockStore);
+
+		peerGroup = new PeerGroup(params, blockChain);
+		peerGroup.addWallet(wallet);
+		peerGroup.setUserAgent(userAgent, version);
+		peerGroup.setMaxConnections(maxConnectedPeers);
+		peerGroup.addPeerDiscovery(peerDiscovery);
+	}
+
+	public void start()
+	{
+		log.info("starting rescan of " + keychainSize + " keys from height " + blockChain.getBestChainHeight() + " into " + file);
+
+		peerGroup.startAsync();
+		peerGroup.startBlockChainDownload(downloadListener);
+	}
+
+	private final DownloadListener downloadListener = new DownloadListener()
+	{
+		@Override
+		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+		{
+			blocks.add(1);
+			lastBlockAt = System.currentTimeMillis();
+			targetHeight = Math.max(targetHeight, blockChain.getBestChainHeight() + blocksLeft);
+
+			super.onBlocksDownloaded(peer, block, blocksLeft);
+		}
+
+		@Override
+		protected void progress(final double pct, final int blocksSoFar, final Date date)
+		{
+			log.info("rescan: " + BlockchainRescan.this.progress());
+		}
+
+		@Override
+		protected void doneDownload()
+		{
+			if (complete)
+				return;
+
+			complete = true;
+			log.info("rescan complete: " + BlockchainRescan.this.progress());
+
+			listener.onRescanComplete(BlockchainRescan.this);
+		}
+	};
+
+	public boolean isComplete()
+	{
+		return complete;
+	}
+
+	/**
+	 * @return true if no block has arrived for longer than the given timeout, e.g. because no peer serves the chain
+	 */
+	public boolean isStalled(final long now, final long timeoutMs)
+	{
+		return !complete && now - lastBlockAt > timeoutMs;
+	}
+
+	@Nonnull
+	public Progress progress()
+	{
+		final int height = blockChain.getBestChainHeight();
+
+		return new Progress(height, Math.max(height, targetHeight), blocks.window().countPerSecond(), startedAt, complete);
+	}
+
+	/**
+	 * Disconnects from the peers, detaches the wallet from the chain and closes the store file. Blocks until the peers
+	 * are gone, so do not call it on the main thread.
+	 */
+	public void stop()
+	{
+		try
+		{
+			peerGroup.stopAsync().awaitTerminated();
+		}
+		catch (final IllegalStateException x)
+		{
+			log.warn("rescan peergroup failed", x);
+		}
+		peerGroup.removeWallet(wallet);
+		blockChain.removeWallet(wallet);
+
+		try
+		{
+			blockStore.close();
+		}
+		catch (final BlockStoreException x)
+		{
+			log.warn("problem closing rescan store", x);
+		}
+	}
+
+	/**
+	 * Replaces the transactions of the live wallet with copies of the rescanned ones. Must be called after
+	 * {@link #stop()}, while the live wallet is not connected to the network. The rescan wallet is emptied afterwards.
+	 *
+	 * @return false if keys have been added to the live wallet since the rescan started, so the rescan is incomplete
+	 */
+	public boolean copyTransactionsTo(@Nonnull final Wallet liveWallet)
+	{
+		if (liveWallet.getKeychainSize() != keychainSize)
+		{
+			log.info("keys changed during rescan, discarding it");
+			return false;
+		}
+
+		copyTransactions(wallet, liveWallet);
+		wallet.clearTransactions(0);
+
+		return true;
+	}
+
+	/**
+	 * Copies all transactions through the wallet format, so the live wallet does not share any objects with the
+	 * rescanned one. Pending transactions of the live wallet the rescan has not seen, like own ones not relayed yet,
+	 * are committed again on top.
+	 */
+	static void copyTransactions(@Nonnull final Wallet rescannedWallet, @Nonnull final Wallet liveWallet)
+	{
+		final NetworkParameters params = liveWallet.getParams();
+
+		final Map<Sha256Hash, Transaction> pending = new HashMap<Sha256Hash, Transaction>();
+		for (final Transaction tx : liveWallet.getPendingTransactions())
+		{
+			if (rescannedWallet.getTransaction(tx.getHash()) == null)
+			{
+				final Transaction copy = new Transaction(params, tx.bitcoinSerialize());
+				copy.setUpdateTime(tx.getUpdateTime());
+				copy.getConfidence().setSource(tx.getConfidence().getSource());
+				pending.put(copy.getHash(), copy);
+			}
+		}
+
+		// only the transactions and the last seen block, the live wallet keeps its own keys and settings
+		final WalletProtobufSerializer serializer = new WalletProtobufSerializer();
+		final Protos.Wallet proto = serializer.walletToProto(rescannedWallet).toBuilder().clearKey().clearWatchedScript()
+				.clearEncryptionParameters().clearEncryptionType().clearDescription().clearExtension().clearKeyRotationTime().clearVersion().build();
+
+		liveWallet.clearTransactions(0);
+		try
+		{
+			serializer.readWallet(proto, liveWallet);
+		}
+		catch (final UnreadableWalletException x)
+		{
+			// we have just written it
+			throw new RuntimeException(x);
+		}
+
+		for (final Transaction tx : new ArrayList<Transaction>(pending.values()))
+			commitPending(liveWallet, tx, pending);
+
+		log.info("copied " + proto.getTransactionCount() + " rescanned transactions, kept " + pending.size() + " pending ones");
+	}
+
+	private static void commitPending(final Wallet wallet, final Transaction tx, final Map<Sha256Hash, Transaction> pending)
+	{
+		// parents first, so their outputs are spent by the children
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final Transaction parent = pending.get(input.getOutpoint().getHash());
+			if (parent != null)
+				commitPending(wallet, parent, pending);
+		}
+
+		try
+		{
+			wallet.maybeCommitTx(tx);
+		}
+		catch (final VerificationException x)
+		{
+			log.warn("dropping pending transaction " + tx.getHashAsString(), x);
+		}
+	}
+
+	/**
+	 * Moves the rescanned store file over the given one. Must be called after {@link #stop()}, with the target closed.
+	 */
+	public boolean replace(@Nonnull final File target)
+	{
+		// atomic on the same filesystem
+		final boolean replaced = file.renameTo(target);
+		if (!replaced)
+			log.warn("could not move " + file + " to " + target);
+		return replaced;
+	}
+
+	public void discard()
+	{
+		file.delete();
+	}
+
+	public static final class Progress
+	{
+		public final int height;
+		public final int targetHeight;
+		public final double blocksPerSecond;
+		public final long startedAt;
+		public final boolean complete;
+
+		public Progress(final int height, final int targetHeight, final double blocksPerSecond, final long startedAt, final boolean complete)
+		{
+			this.height = height;
+			this.targetHeight = targetHeight;
+			this.blocksPerSecond = blocksPerSecond;
+			this.startedAt = startedAt;
+			this.complete = complete;
+		}
+
+		public int remainingBlocks()
+		{
+			return Math.max(0, targetHeight - height);
+		}
+
+		/**
+		 * @return estimated time until the rescan has caught up, or -1 if no blocks have arrived recently
+		 */
+		public long etaMs()
+		{
+			if (complete)
+				return 0;
+			if (blocksPerSecond <= 0 || targetHeight == 0)
+				return -1;
+
+			return (long) (remainingBlocks() / blocksPerSecond * 1000);
+		}
+
+		@Override
+		public String toString()
+		{
+			final long etaMs = etaMs();
+			return height + "/" + targetHeight + String.format(Locale.US, " %.1f blocks/s", blocksPerSecond)
+					+ (etaMs >= 0 ? ", eta " + (etaMs / 1000) + "s" : "");
+		}
+	}
+}
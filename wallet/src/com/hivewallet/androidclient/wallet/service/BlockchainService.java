@@ -29,20 +29,14 @@ import com.google.bitcoin.core.StoredBlock;
  */
 public interface BlockchainService
 {
-	public static final String ACTION_PEER_STATE = BlockchainService.class.getPackage().getName() + ".peer_state";
-	public static final String ACTION_PEER_STATE_NUM_PEERS = "num_peers";
-
-	public static final String ACTION_BLOCKCHAIN_STATE = BlockchainService.class.getPackage().getName() + ".blockchain_state";
-	public static final String ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE = "best_chain_date";
-	public static final String ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_HEIGHT = "best_chain_height";
-	public static final String ACTION_BLOCKCHAIN_STATE_REPLAYING = "replaying";
-	public static final String ACTION_BLOCKCHAIN_STATE_DOWNLOAD = "download";
+	// values of BlockchainStateDispatcher.State.download
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK = 0;
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_STORAGE_PROBLEM = 1;
 	public static final int ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM = 2;
 
 	public static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName() + ".cancel_coins_received";
 	public static final String ACTION_RESET_BLOCKCHAIN = BlockchainService.class.getPackage().getName() + ".reset_blockchain";
+	public static final String ACTION_RESCAN_BLOCKCHAIN = BlockchainService.class.getPackage().getName() + ".rescan_blockchain";
 	public static final String ACTION_BROADCAST_TRANSACTION = BlockchainService.class.getPackage().getName() + ".broadcast_transaction";
 	public static final String ACTION_BROADCAST_TRANSACTION_HASH = "hash";
 
@@ -50,4 +44,14 @@ public interface BlockchainService
 	List<Peer> getConnectedPeers();
 
 	List<StoredBlock> getRecentBlocks(int maxBlocks);
+
+	SyncMetrics.Snapshot getSyncMetrics();
+
+	BroadcastQueue.Stats getBroadcastQueueStats();
+
+	/**
+	 * @return progress of the background rescan, or null if there is none
+	 */
+	@CheckForNull
+	BlockchainRescan.Progress getRescanProgress();
 }
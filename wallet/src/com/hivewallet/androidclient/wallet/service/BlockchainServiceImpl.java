@@ -18,19 +18,29 @@
 package com.hivewallet.androidclient.wallet.service;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -58,22 +68,29 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.provider.MediaStore;
 import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 
 import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.AbstractWalletEventListener;
 import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.Block;
 import com.google.bitcoin.core.BlockChain;
 import com.google.bitcoin.core.CheckpointManager;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.InventoryItem;
+import com.google.bitcoin.core.InventoryMessage;
+import com.google.bitcoin.core.Message;
 import com.google.bitcoin.core.Peer;
 import com.google.bitcoin.core.PeerEventListener;
 import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.PrunedException;
 import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.VerificationException;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.core.Wallet.BalanceType;
 import com.google.bitcoin.core.WalletEventListener;
@@ -82,8 +99,8 @@ import com.google.bitcoin.net.discovery.PeerDiscovery;
 import com.google.bitcoin.net.discovery.PeerDiscoveryException;
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
-import com.google.bitcoin.store.SPVBlockStore;
 import com.google.bitcoin.utils.Threading;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.hivewallet.androidclient.wallet.AddressBookProvider;
 import com.hivewallet.androidclient.wallet.AddressBookProvider.AddressBookEntry;
@@ -94,7 +111,6 @@ import com.hivewallet.androidclient.wallet.WalletBalanceWidgetProvider;
 import com.hivewallet.androidclient.wallet.ui.WalletActivity;
 import com.hivewallet.androidclient.wallet.util.CrashReporter;
 import com.hivewallet.androidclient.wallet.util.GenericUtils;
-import com.hivewallet.androidclient.wallet.util.ThrottlingWalletChangeListener;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet_test.R;
 
@@ -106,18 +122,33 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private WalletApplication application;
 	private Configuration config;
 
-	private BlockStore blockStore;
+	private MappedBlockStore blockStore;
 	private File blockChainFile;
 	private BlockChain blockChain;
 	@CheckForNull
 	private PeerGroup peerGroup;
 
 	private final Handler handler = new Handler();
-	private final Handler delayHandler = new Handler();
+	private BlockchainStateDispatcher stateDispatcher;
 	private WakeLock wakeLock;
 
 	private PeerConnectivityListener peerConnectivityListener;
+	private final SyncMetrics syncMetrics = new SyncMetrics();
+	private final PeerScores peerScores = new PeerScores();
+	private File peerScoresFile;
+	private final PeerAddressCache peerAddressCache = new PeerAddressCache();
+	private File peerAddressCacheFile;
+	private final BroadcastQueue broadcastQueue = new BroadcastQueue();
+	private File broadcastQueueFile;
+	// keeps writing the small state files off the main thread, in the order they were saved
+	private final ExecutorService stateWriter = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat(
+			"service state writer").setDaemon(true).build());
+	// stops rescan and live peers, which blocks until their connections are closed
+	private final ExecutorService peerStopper = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("peer stopper")
+			.setDaemon(true).build());
 	private NotificationManager nm;
+	private NotificationAvatars avatars;
+	private final NotificationSequence coinsReceivedSequence = new NotificationSequence();
 	private static final int NOTIFICATION_ID_CONNECTED = 0;
 	private static final int NOTIFICATION_ID_COINS_RECEIVED = 1;
 
@@ -125,21 +156,28 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private int bestChainHeightEver;
 	private long serviceCreatedAt;
 	private boolean resetBlockchainOnShutdown = false;
+	@Nullable
+	private volatile BlockchainRescan rescan = null;
+	@Nullable
+	private BlockchainRescan swappingRescan = null;
+	private File rescanFile;
 
-	private static final int MIN_COLLECT_HISTORY = 2;
-	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
-	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
-	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
 	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int RESCAN_MAX_CONNECTED_PEERS = 2;
+	private static final long RESCAN_STALL_TIMEOUT_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long BROADCAST_RETRY_CHECK_MS = 15 * DateUtils.SECOND_IN_MILLIS;
+	private static final long AVATAR_DEADLINE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final long STATE_WRITER_SHUTDOWN_TIMEOUT_S = 2;
+	private static final long PEER_STOPPER_SHUTDOWN_TIMEOUT_S = 10;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
-	private final WalletEventListener walletEventListener = new ThrottlingWalletChangeListener(APPWIDGET_THROTTLE_MS)
+	private final WalletEventListener walletEventListener = new AbstractWalletEventListener()
 	{
 		@Override
-		public void onThrottledWalletChanged()
+		public void onWalletChanged(final Wallet wallet)
 		{
-			notifyWidgets();
+			stateDispatcher.walletChanged();
 		}
 
 		@Override
@@ -152,6 +190,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			final Address from = WalletUtils.getFirstFromAddress(tx);
 			final BigInteger amount = tx.getValue(wallet);
 			final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+			final long time = tx.getUpdateTime().getTime();
 
 			handler.post(new Runnable()
 			{
@@ -163,7 +202,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 					final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
 
 					if (isReceived && !isReplayedTx)
+					{
+						config.addPaymentArrival(time, SyncPolicy.MAX_ARRIVALS);
 						notifyCoinsReceived(from, amount);
+					}
 				}
 			});
 		}
@@ -177,16 +219,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 	private void notifyCoinsReceived(@Nullable final Address from, @Nonnull final BigInteger amount)
 	{
-		final int btcPrecision = config.getBtcPrecision();
-		final int btcShift = config.getBtcShift();
-		final String btcPrefix = config.getBtcPrefix();
-
-		final String packageFlavor = application.applicationPackageFlavor();
-		final String msgSuffix = packageFlavor != null ? " [" + packageFlavor + "]" : "";
-		
 		String label = null;
 		Uri photoUri = null;
-		Bitmap photoBitmap = null;
 		if (from != null) {
 			final String addressStr = from.toString();
 			AddressBookEntry entry = AddressBookProvider.lookupEntry(getApplicationContext(), addressStr);
@@ -194,19 +228,43 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				label = entry.getLabel();
 				photoUri = entry.getPhotoUri();
 			}
-			if (photoUri != null) {
-				try
+		}
+
+		final int seq = coinsReceivedSequence.next();
+
+		if (photoUri != null)
+		{
+			final String photoLabel = label;
+			avatars.request(photoUri, AVATAR_DEADLINE_MS, new NotificationAvatars.Listener()
+			{
+				@Override
+				public void onAvatar(final Bitmap avatar)
 				{
-					Bitmap photoBitmapOriginal = MediaStore.Images.Media.getBitmap(getContentResolver(), photoUri);
-					int width = (int)getResources().getDimension(android.R.dimen.notification_large_icon_width);
-					int height = (int)getResources().getDimension(android.R.dimen.notification_large_icon_height);
-					photoBitmap = Bitmap.createScaledBitmap(photoBitmapOriginal, width, height, false);
+					// a payment arriving while waiting for the photo might have been notified already
+					if (coinsReceivedSequence.post(seq))
+						notifyCoinsReceived(from, photoLabel, amount, avatar);
+					else
+						log.info("not notifying coins received from " + from + ", a newer payment was notified meanwhile");
 				}
-				catch (FileNotFoundException ignored) {}
-				catch (IOException ignored) {}
-			}
+			});
 		}
-		
+		else
+		{
+			coinsReceivedSequence.post(seq);
+			notifyCoinsReceived(from, label, amount, null);
+		}
+	}
+
+	private void notifyCoinsReceived(@Nullable final Address from, @Nullable final String label, @Nonnull final BigInteger amount,
+			@Nullable final Bitmap photoBitmap)
+	{
+		final int btcPrecision = config.getBtcPrecision();
+		final int btcShift = config.getBtcShift();
+		final String btcPrefix = config.getBtcPrefix();
+
+		final String packageFlavor = application.applicationPackageFlavor();
+		final String msgSuffix = packageFlavor != null ? " [" + packageFlavor + "]" : "";
+
 		final StringBuilder tickerMsg = new StringBuilder();
 		if (label != null)
 			tickerMsg.append(getString(R.string.notification_coins_received_with_label_msg,
@@ -242,7 +300,6 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 	private final class PeerConnectivityListener extends AbstractPeerEventListener implements OnSharedPreferenceChangeListener
 	{
-		private int peerCount;
 		private AtomicBoolean stopped = new AtomicBoolean(false);
 
 		public PeerConnectivityListener()
@@ -262,14 +319,17 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onPeerConnected(final Peer peer, final int peerCount)
 		{
-			this.peerCount = peerCount;
+			peerAddressCache.recordSuccess(peer.getAddress().toSocketAddress(), System.currentTimeMillis());
+
 			changed(peerCount);
+
+			if (broadcastQueue.size() > 0)
+				handler.post(flushBroadcastQueueRunnable);
 		}
 
 		@Override
 		public void onPeerDisconnected(final Peer peer, final int peerCount)
 		{
-			this.peerCount = peerCount;
 			changed(peerCount);
 		}
 
@@ -277,7 +337,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
 		{
 			if (Configuration.PREFS_KEY_CONNECTIVITY_NOTIFICATION.equals(key))
-				changed(peerCount);
+			{
+				final BlockchainStateDispatcher.State state = stateDispatcher.getState();
+				updateNotification(state != null ? state.numPeers : 0);
+			}
 		}
 
 		private void changed(final int numPeers)
@@ -285,69 +348,70 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			if (stopped.get())
 				return;
 
-			handler.post(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					final boolean connectivityNotificationEnabled = config.getConnectivityNotificationEnabled();
+			stateDispatcher.peerCountChanged(numPeers);
+		}
 
-					if (!connectivityNotificationEnabled || numPeers == 0)
-					{
-						nm.cancel(NOTIFICATION_ID_CONNECTED);
-					}
-					else
-					{
-						final NotificationCompat.Builder notification = new NotificationCompat.Builder(BlockchainServiceImpl.this);
-						notification.setSmallIcon(R.drawable.stat_sys_peers, numPeers > 4 ? 4 : numPeers);
-						notification.setContentTitle(getString(R.string.app_name));
-						notification.setContentText(getString(R.string.notification_peers_connected_msg, numPeers));
-						notification.setContentIntent(PendingIntent.getActivity(BlockchainServiceImpl.this, 0, new Intent(BlockchainServiceImpl.this,
-								WalletActivity.class), 0));
-						notification.setWhen(System.currentTimeMillis());
-						notification.setOngoing(true);
-						nm.notify(NOTIFICATION_ID_CONNECTED, notification.getNotification());
-					}
+		/** must be called on UI thread */
+		public void updateNotification(final int numPeers)
+		{
+			if (stopped.get())
+				return;
 
-					// send broadcast
-					sendBroadcastPeerState(numPeers);
-				}
-			});
+			final boolean connectivityNotificationEnabled = config.getConnectivityNotificationEnabled();
+
+			if (!connectivityNotificationEnabled || numPeers == 0)
+			{
+				nm.cancel(NOTIFICATION_ID_CONNECTED);
+			}
+			else
+			{
+				final NotificationCompat.Builder notification = new NotificationCompat.Builder(BlockchainServiceImpl.this);
+				notification.setSmallIcon(R.drawable.stat_sys_peers, numPeers > 4 ? 4 : numPeers);
+				notification.setContentTitle(getString(R.string.app_name));
+				notification.setContentText(getString(R.string.notification_peers_connected_msg, numPeers));
+				notification.setContentIntent(PendingIntent.getActivity(BlockchainServiceImpl.this, 0, new Intent(BlockchainServiceImpl.this,
+						WalletActivity.class), 0));
+				notification.setWhen(System.currentTimeMillis());
+				notification.setOngoing(true);
+				nm.notify(NOTIFICATION_ID_CONNECTED, notification.getNotification());
+			}
 		}
 	}
 
-	private final PeerEventListener blockchainDownloadListener = new AbstractPeerEventListener()
+	private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 	{
-		private final AtomicLong lastMessageTime = new AtomicLong(0);
+		private int lastNumPeers = -1;
+		private long lastWalletVersion = -1;
 
 		@Override
-		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+		public void onBlockchainState(final BlockchainStateDispatcher.State state)
 		{
-			bestChainHeightEver = Math.max(bestChainHeightEver, blockChain.getChainHead().getHeight());
-
-			delayHandler.removeCallbacksAndMessages(null);
-
-			final long now = System.currentTimeMillis();
+			if (state.numPeers != lastNumPeers)
+			{
+				lastNumPeers = state.numPeers;
+				peerConnectivityListener.updateNotification(state.numPeers);
+			}
 
-			if (now - lastMessageTime.get() > Constants.BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS)
-				delayHandler.post(runnable);
-			else
-				delayHandler.postDelayed(runnable, Constants.BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS);
+			if (state.walletVersion != lastWalletVersion)
+			{
+				lastWalletVersion = state.walletVersion;
+				notifyWidgets();
+			}
 		}
+	};
 
-		private final Runnable runnable = new Runnable()
+	private final PeerEventListener blockchainDownloadListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
 		{
-			@Override
-			public void run()
-			{
-				lastMessageTime.set(System.currentTimeMillis());
-
-				sendBroadcastBlockchainState(ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK);
-			}
-		};
+			publishChainHead();
+		}
 	};
 
-	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
+	private final ConnectivityReceiver connectivityReceiver = new ConnectivityReceiver();
+
+	private final class ConnectivityReceiver extends BroadcastReceiver
 	{
 		private boolean hasConnectivity;
 		private boolean hasStorage = true;
@@ -381,12 +445,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		}
 
 		@SuppressLint("Wakelock")
-		private void check()
+		public void check()
 		{
 			final Wallet wallet = application.getWallet();
 			final boolean hasEverything = hasConnectivity && hasStorage;
 
-			if (hasEverything && peerGroup == null)
+			// while a rescan is swapped in, the live chain is about to be replaced
+			if (hasEverything && peerGroup == null && swappingRescan == null)
 			{
 				log.debug("acquiring wakelock");
 				wakeLock.acquire();
@@ -406,101 +471,125 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				peerGroup.addWallet(wallet);
 				peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
 				peerGroup.addEventListener(peerConnectivityListener);
+				peerGroup.addEventListener(syncMetrics.peerEventListener, Threading.SAME_THREAD);
+				peerGroup.addEventListener(broadcastAckListener, Threading.SAME_THREAD);
 
 				final int maxConnectedPeers = application.maxConnectedPeers();
+				peerGroup.setMaxConnections(connectTrustedPeerOnly() ? 1 : maxConnectedPeers);
+				peerGroup.addPeerDiscovery(newPeerDiscovery(maxConnectedPeers));
 
-				final String trustedPeerHost = config.getTrustedPeerHost();
-				final boolean hasTrustedPeer = !trustedPeerHost.isEmpty();
+				// start peergroup
+				peerGroup.start();
+				peerGroup.startBlockChainDownload(blockchainDownloadListener);
+			}
+			else if (!hasEverything && peerGroup != null)
+			{
+				stopPeerGroup();
+			}
 
-				final boolean connectTrustedPeerOnly = hasTrustedPeer && config.getTrustedPeerOnly();
-				peerGroup.setMaxConnections(connectTrustedPeerOnly ? 1 : maxConnectedPeers);
+			final int download = (hasConnectivity ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM)
+					| (hasStorage ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_STORAGE_PROBLEM);
 
-				peerGroup.addPeerDiscovery(new PeerDiscovery()
-				{
-					private final PeerDiscovery normalPeerDiscovery = new DnsDiscovery(Constants.NETWORK_PARAMETERS);
+			stateDispatcher.downloadChanged(download);
+		}
 
-					@Override
-					public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
-					{
-						final List<InetSocketAddress> peers = new LinkedList<InetSocketAddress>();
+		/**
+		 * @return the stopping peergroup, to wait for its peers being gone before the chain can be closed
+		 */
+		@SuppressLint("Wakelock")
+		public PeerGroup stopPeerGroup()
+		{
+			log.info("stopping peergroup");
+			final PeerGroup peerGroup = BlockchainServiceImpl.this.peerGroup;
+			peerGroup.removeEventListener(peerConnectivityListener);
+			peerGroup.removeEventListener(syncMetrics.peerEventListener);
+			peerGroup.removeEventListener(broadcastAckListener);
+			peerGroup.removeWallet(application.getWallet());
+			peerGroup.stopAsync();
+			BlockchainServiceImpl.this.peerGroup = null;
 
-						boolean needsTrimPeersWorkaround = false;
+			log.debug("releasing wakelock");
+			wakeLock.release();
 
-						if (hasTrustedPeer)
-						{
-							log.info("trusted peer '" + trustedPeerHost + "'" + (connectTrustedPeerOnly ? " only" : ""));
+			return peerGroup;
+		}
+	}
 
-							final InetSocketAddress addr = new InetSocketAddress(trustedPeerHost, Constants.NETWORK_PARAMETERS.getPort());
-							if (addr.getAddress() != null)
-							{
-								peers.add(addr);
-								needsTrimPeersWorkaround = true;
-							}
-						}
+	private boolean connectTrustedPeerOnly()
+	{
+		return !config.getTrustedPeerHost().isEmpty() && config.getTrustedPeerOnly();
+	}
 
-						if (!connectTrustedPeerOnly)
-							peers.addAll(Arrays.asList(normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit)));
+	private PeerDiscovery newPeerDiscovery(final int maxConnectedPeers)
+	{
+		final String trustedPeerHost = config.getTrustedPeerHost();
+		final boolean hasTrustedPeer = !trustedPeerHost.isEmpty();
+		final boolean connectTrustedPeerOnly = connectTrustedPeerOnly();
 
-						// workaround because PeerGroup will shuffle peers
-						if (needsTrimPeersWorkaround)
-							while (peers.size() >= maxConnectedPeers)
-								peers.remove(peers.size() - 1);
+		final List<InetSocketAddress> preferredPeers = peerScores.preferred(maxConnectedPeers, System.currentTimeMillis());
+		log.info("preferring " + preferredPeers.size() + " historically fast peers");
 
-						return peers.toArray(new InetSocketAddress[0]);
-					}
+		return new PeerDiscovery()
+		{
+			private final PeerDiscovery normalPeerDiscovery = new CachedPeerDiscovery(new DnsDiscovery(Constants.NETWORK_PARAMETERS),
+					peerAddressCache, preferredPeers, maxConnectedPeers);
 
-					@Override
-					public void shutdown()
+			@Override
+			public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+			{
+				final List<InetSocketAddress> peers = new LinkedList<InetSocketAddress>();
+
+				boolean needsTrimPeersWorkaround = false;
+
+				if (hasTrustedPeer)
+				{
+					log.info("trusted peer '" + trustedPeerHost + "'" + (connectTrustedPeerOnly ? " only" : ""));
+
+					final InetSocketAddress addr = new InetSocketAddress(trustedPeerHost, Constants.NETWORK_PARAMETERS.getPort());
+					if (addr.getAddress() != null)
 					{
-						normalPeerDiscovery.shutdown();
+						peers.add(addr);
+						needsTrimPeersWorkaround = true;
 					}
-				});
+				}
 
-				// start peergroup
-				peerGroup.start();
-				peerGroup.startBlockChainDownload(blockchainDownloadListener);
-			}
-			else if (!hasEverything && peerGroup != null)
-			{
-				log.info("stopping peergroup");
-				peerGroup.removeEventListener(peerConnectivityListener);
-				peerGroup.removeWallet(wallet);
-				peerGroup.stop();
-				peerGroup = null;
+				if (!connectTrustedPeerOnly)
+					for (final InetSocketAddress peer : normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit))
+						if (!peerScores.isPoor(peer))
+							peers.add(peer);
 
-				log.debug("releasing wakelock");
-				wakeLock.release();
+				// workaround because PeerGroup will shuffle peers
+				if (needsTrimPeersWorkaround)
+					while (peers.size() >= maxConnectedPeers)
+						peers.remove(peers.size() - 1);
+
+				return peers.toArray(new InetSocketAddress[0]);
 			}
 
-			final int download = (hasConnectivity ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_NETWORK_PROBLEM)
-					| (hasStorage ? 0 : ACTION_BLOCKCHAIN_STATE_DOWNLOAD_STORAGE_PROBLEM);
+			@Override
+			public void shutdown()
+			{
+				normalPeerDiscovery.shutdown();
+			}
+		};
+	}
 
-			sendBroadcastBlockchainState(download);
-		}
-	};
+	private boolean charging;
 
-	private final static class ActivityHistoryEntry
+	private final BroadcastReceiver powerReceiver = new BroadcastReceiver()
 	{
-		public final int numTransactionsReceived;
-		public final int numBlocksDownloaded;
-
-		public ActivityHistoryEntry(final int numTransactionsReceived, final int numBlocksDownloaded)
-		{
-			this.numTransactionsReceived = numTransactionsReceived;
-			this.numBlocksDownloaded = numBlocksDownloaded;
-		}
-
 		@Override
-		public String toString()
+		public void onReceive(final Context context, final Intent intent)
 		{
-			return numTransactionsReceived + "/" + numBlocksDownloaded;
+			charging = Intent.ACTION_POWER_CONNECTED.equals(intent.getAction());
 		}
-	}
+	};
 
 	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
 	{
 		private int lastChainHeight = 0;
-		private final List<ActivityHistoryEntry> activityHistory = new LinkedList<ActivityHistoryEntry>();
+		private final List<SyncPolicy.Activity> activityHistory = new LinkedList<SyncPolicy.Activity>();
+		private SyncPolicy.Decision lastDecision = null;
 
 		@Override
 		public void onReceive(final Context context, final Intent intent)
@@ -513,43 +602,43 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				final int numTransactionsReceived = transactionsReceived.getAndSet(0);
 
 				// push history
-				activityHistory.add(0, new ActivityHistoryEntry(numTransactionsReceived, numBlocksDownloaded));
+				activityHistory.add(0, new SyncPolicy.Activity(numTransactionsReceived, numBlocksDownloaded));
+
+				// the timeouts follow the payment history and charging state
+				final SyncPolicy.Decision decision = WalletApplication.decideSyncPolicy(config, charging);
+				if (lastDecision == null || decision.idleBlockTimeoutMin != lastDecision.idleBlockTimeoutMin
+						|| decision.idleTransactionTimeoutMin != lastDecision.idleTransactionTimeoutMin)
+					log.info("sync policy: " + decision);
+				lastDecision = decision;
 
 				// trim
-				while (activityHistory.size() > MAX_HISTORY_SIZE)
+				while (activityHistory.size() > decision.maxHistorySize())
 					activityHistory.remove(activityHistory.size() - 1);
 
 				// print
 				final StringBuilder builder = new StringBuilder();
-				for (final ActivityHistoryEntry entry : activityHistory)
+				for (final SyncPolicy.Activity entry : activityHistory)
 				{
 					if (builder.length() > 0)
 						builder.append(", ");
 					builder.append(entry);
 				}
 				log.info("History of transactions/blocks: " + builder);
+				log.info("Sync metrics: " + getSyncMetrics());
+				log.info("Broadcast queue: " + getBroadcastQueueStats());
+
+				scorePeers();
 
-				// determine if block and transaction activity is idling
-				boolean isIdle = false;
-				if (activityHistory.size() >= MIN_COLLECT_HISTORY)
+				final BlockchainRescan rescan = BlockchainServiceImpl.this.rescan;
+				if (rescan != null && rescan.isStalled(System.currentTimeMillis(), RESCAN_STALL_TIMEOUT_MS))
 				{
-					isIdle = true;
-					for (int i = 0; i < activityHistory.size(); i++)
-					{
-						final ActivityHistoryEntry entry = activityHistory.get(i);
-						final boolean blocksActive = entry.numBlocksDownloaded > 0 && i <= IDLE_BLOCK_TIMEOUT_MIN;
-						final boolean transactionsActive = entry.numTransactionsReceived > 0 && i <= IDLE_TRANSACTION_TIMEOUT_MIN;
-
-						if (blocksActive || transactionsActive)
-						{
-							isIdle = false;
-							break;
-						}
-					}
+					log.info("rescan made no progress for " + (RESCAN_STALL_TIMEOUT_MS / DateUtils.MINUTE_IN_MILLIS) + " minutes, aborting: "
+							+ rescan.progress());
+					abortRescan();
 				}
 
-				// if idling, shutdown service
-				if (isIdle)
+				// if block and transaction activity is idling, shutdown service, unless a rescan is still catching up
+				if (BlockchainServiceImpl.this.rescan == null && swappingRescan == null && decision.isIdle(activityHistory))
 				{
 					log.info("idling detected, stopping service");
 					stopSelf();
@@ -595,6 +684,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		super.onCreate();
 
 		nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+		avatars = new NotificationAvatars(getContentResolver(), handler, (int) getResources().getDimension(
+				android.R.dimen.notification_large_icon_width), (int) getResources().getDimension(android.R.dimen.notification_large_icon_height));
 
 		final String lockName = getPackageName() + " blockchain sync";
 
@@ -607,9 +698,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		bestChainHeightEver = config.getBestChainHeightEver();
 
+		stateDispatcher = application.getBlockchainStateDispatcher();
 		peerConnectivityListener = new PeerConnectivityListener();
 
-		sendBroadcastPeerState(0);
+		stateDispatcher.peerCountChanged(0);
 
 		final IntentFilter intentFilter = new IntentFilter();
 		intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
@@ -617,7 +709,50 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
 		registerReceiver(connectivityReceiver, intentFilter);
 
-		blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
+		peerScoresFile = new File(getFilesDir(), Constants.Files.PEER_SCORES_FILENAME);
+		loadServiceState(peerScores, peerScoresFile);
+		peerAddressCacheFile = new File(getFilesDir(), Constants.Files.PEER_ADDRESS_CACHE_FILENAME);
+		loadServiceState(peerAddressCache, peerAddressCacheFile);
+		broadcastQueueFile = new File(getFilesDir(), Constants.Files.BROADCAST_QUEUE_FILENAME);
+		loadServiceState(broadcastQueue, broadcastQueueFile);
+
+		// an old block store is migrated by the application in the background
+		application.awaitBlockStoreMigration();
+
+		final File blockStoreDir = getDir(Constants.Files.BLOCKSTORE_DIRNAME, Context.MODE_PRIVATE);
+		blockChainFile = new File(blockStoreDir, Constants.Files.BLOCKCHAIN_FILENAME);
+
+		// leftover from a rescan that did not complete
+		rescanFile = new File(blockStoreDir, Constants.Files.BLOCKCHAIN_RESCAN_FILENAME);
+		rescanFile.delete();
+
+		openBlockChain(wallet);
+
+		publishChainHead();
+
+		if (config.getRescanPending())
+		{
+			log.info("resuming rescan requested earlier");
+			startRescan();
+		}
+		stateDispatcher.subscribe(stateListener, APPWIDGET_THROTTLE_MS);
+
+		application.getWallet().addEventListener(walletEventListener, Threading.SAME_THREAD);
+
+		// asking for the battery state every minute would be a binder call each time
+		charging = WalletApplication.isCharging(this);
+		final IntentFilter powerIntentFilter = new IntentFilter();
+		powerIntentFilter.addAction(Intent.ACTION_POWER_CONNECTED);
+		powerIntentFilter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+		registerReceiver(powerReceiver, powerIntentFilter);
+
+		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+
+		maybeRotateKeys();
+	}
+
+	private void openBlockChain(final Wallet wallet)
+	{
 		final boolean blockChainFileExists = blockChainFile.exists();
 
 		if (!blockChainFileExists)
@@ -631,23 +766,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		try
 		{
-			blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile);
-			blockStore.getChainHead(); // detect corruptions as early as possible
+			// detects corruptions by verifying checksums
+			blockStore = new MappedBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile, Constants.BLOCKCHAIN_STORE_CAPACITY);
 
 			final long earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
 
 			if (!blockChainFileExists && earliestKeyCreationTime > 0)
-			{
-				try
-				{
-					final InputStream checkpointsInputStream = getAssets().open(Constants.Files.CHECKPOINTS_FILENAME);
-					CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore, earliestKeyCreationTime);
-				}
-				catch (final IOException x)
-				{
-					log.error("problem reading checkpoints, continuing without", x);
-				}
-			}
+				seedCheckpoint(blockStore, earliestKeyCreationTime);
 		}
 		catch (final BlockStoreException x)
 		{
@@ -662,18 +787,111 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		try
 		{
-			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, wallet, blockStore);
+			blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, blockStore)
+			{
+				@Override
+				public boolean add(final Block block) throws VerificationException, PrunedException
+				{
+					final long start = syncMetrics.startTiming();
+					try
+					{
+						return super.add(block);
+					}
+					finally
+					{
+						syncMetrics.chainAddFinished(start);
+					}
+				}
+
+				@Override
+				public boolean add(final FilteredBlock block) throws VerificationException, PrunedException
+				{
+					final long start = syncMetrics.startTiming();
+					try
+					{
+						return super.add(block);
+					}
+					finally
+					{
+						syncMetrics.chainAddFinished(start);
+					}
+				}
+			};
+
+			// the wallet is registered through the metrics, so time spent in it can be told apart from the store
+			blockChain.addListener(syncMetrics.timedListener(wallet), Threading.SAME_THREAD);
 		}
 		catch (final BlockStoreException x)
 		{
 			throw new Error("blockchain cannot be created", x);
 		}
+	}
 
-		application.getWallet().addEventListener(walletEventListener, Threading.SAME_THREAD);
+	private void seedCheckpoint(final BlockStore blockStore, final long earliestKeyCreationTime) throws BlockStoreException
+	{
+		final long start = System.currentTimeMillis();
 
-		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+		if (!seedIndexedCheckpoint(blockStore, earliestKeyCreationTime))
+		{
+			try
+			{
+				final InputStream checkpointsInputStream = getAssets().open(Constants.Files.CHECKPOINTS_FILENAME);
+				CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, blockStore, earliestKeyCreationTime);
+			}
+			catch (final IOException x)
+			{
+				log.error("problem reading checkpoints, continuing without", x);
+			}
+		}
 
-		maybeRotateKeys();
+		log.info("checkpoint seeding took " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private boolean seedIndexedCheckpoint(final BlockStore blockStore, final long earliestKeyCreationTime) throws BlockStoreException
+	{
+		InputStream is = null;
+		try
+		{
+			is = getAssets().open(Constants.Files.CHECKPOINTS_INDEX_FILENAME);
+			final byte[] record = IndexedCheckpoints.recordBefore(is, earliestKeyCreationTime - IndexedCheckpoints.SAFETY_MARGIN_SECS);
+
+			if (record != null)
+			{
+				final StoredBlock checkpoint = StoredBlock.deserializeCompact(Constants.NETWORK_PARAMETERS, ByteBuffer.wrap(record));
+				blockStore.put(checkpoint);
+				blockStore.setChainHead(checkpoint);
+
+				log.info("seeded checkpoint at height " + checkpoint.getHeight());
+			}
+
+			return true;
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading indexed checkpoints, falling back", x);
+
+			return false;
+		}
+		catch (final ProtocolException x)
+		{
+			log.warn("problem reading indexed checkpoints, falling back", x);
+
+			return false;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
 	}
 
 	@Override
@@ -695,22 +913,34 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				log.info("will remove blockchain on service shutdown");
 
 				resetBlockchainOnShutdown = true;
+				// the reset replays the chain anyway
+				config.setRescanPending(false);
 				stopSelf();
 			}
+			else if (BlockchainService.ACTION_RESCAN_BLOCKCHAIN.equals(action))
+			{
+				if (rescan == null && swappingRescan == null)
+				{
+					// survives the service being stopped before the rescan has been swapped in
+					config.setRescanPending(true);
+					startRescan();
+				}
+				else if (rescan != null)
+				{
+					log.info("rescan already running: " + rescan.progress());
+				}
+			}
 			else if (BlockchainService.ACTION_BROADCAST_TRANSACTION.equals(action))
 			{
 				final Sha256Hash hash = new Sha256Hash(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-				final Transaction tx = application.getWallet().getTransaction(hash);
 
-				if (peerGroup != null)
-				{
-					log.info("broadcasting transaction " + tx.getHashAsString());
-					peerGroup.broadcastTransaction(tx);
-				}
-				else
+				if (broadcastQueue.enqueue(hash.toString(), System.currentTimeMillis()))
 				{
-					log.info("peergroup not available, not broadcasting transaction " + tx.getHashAsString());
+					log.info("queued transaction " + hash + " for broadcast" + (peerGroup == null ? ", peergroup not available yet" : ""));
+					saveServiceState(broadcastQueue, broadcastQueueFile);
 				}
+
+				flushBroadcastQueue();
 			}
 		}
 		else
@@ -729,28 +959,61 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		WalletApplication.scheduleStartBlockchainService(this);
 
 		unregisterReceiver(tickReceiver);
+		unregisterReceiver(powerReceiver);
 
 		application.getWallet().removeEventListener(walletEventListener);
 
 		if (peerGroup != null)
 		{
 			peerGroup.removeEventListener(peerConnectivityListener);
+			peerGroup.removeEventListener(syncMetrics.peerEventListener);
+			peerGroup.removeEventListener(broadcastAckListener);
 			peerGroup.removeWallet(application.getWallet());
 			peerGroup.stopAndWait();
 
 			log.info("peergroup stopped");
 		}
 
+		// a rescan that has not been swapped in yet starts over next time, as it is still pending
+		abortRescan();
+		peerStopper.shutdown();
+		try
+		{
+			if (!peerStopper.awaitTermination(PEER_STOPPER_SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS))
+				log.warn("rescan peers still being stopped after " + PEER_STOPPER_SHUTDOWN_TIMEOUT_S + " s");
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		swappingRescan = null;
+
+		stateDispatcher.unsubscribe(stateListener);
 		peerConnectivityListener.stop();
 
 		unregisterReceiver(connectivityReceiver);
 
-		removeBroadcastPeerState();
-		removeBroadcastBlockchainState();
+		stateDispatcher.clear();
+
+		avatars.shutdown();
 
 		config.setBestChainHeightEver(bestChainHeightEver);
 
-		delayHandler.removeCallbacksAndMessages(null);
+		saveServiceState(peerScores, peerScoresFile);
+		saveServiceState(peerAddressCache, peerAddressCacheFile);
+		handler.removeCallbacks(flushBroadcastQueueRunnable);
+		saveServiceState(broadcastQueue, broadcastQueueFile);
+
+		stateWriter.shutdown();
+		try
+		{
+			if (!stateWriter.awaitTermination(STATE_WRITER_SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS))
+				log.warn("service state still being written after " + STATE_WRITER_SHUTDOWN_TIMEOUT_S + " s");
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
 
 		try
 		{
@@ -780,79 +1043,463 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		log.info("service was up for " + ((System.currentTimeMillis() - serviceCreatedAt) / 1000 / 60) + " minutes");
 	}
 
-	@Override
-	public void onLowMemory()
+	private void startRescan()
 	{
-		log.warn("low memory detected, stopping service");
-		stopSelf();
+		final Wallet wallet = application.getWallet();
+
+		MappedBlockStore rescanBlockStore = null;
+		try
+		{
+			rescanBlockStore = new MappedBlockStore(Constants.NETWORK_PARAMETERS, rescanFile, Constants.BLOCKCHAIN_STORE_CAPACITY);
+
+			final long earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
+			if (earliestKeyCreationTime > 0)
+				seedCheckpoint(rescanBlockStore, earliestKeyCreationTime);
+
+			final int maxConnectedPeers = connectTrustedPeerOnly() ? 1 : RESCAN_MAX_CONNECTED_PEERS;
+			rescan = new BlockchainRescan(Constants.NETWORK_PARAMETERS, rescanFile, rescanBlockStore, wallet,
+					newPeerDiscovery(maxConnectedPeers), maxConnectedPeers, Constants.USER_AGENT, application.packageInfo().versionName,
+					rescanListener);
+			rescan.start();
+		}
+		catch (final BlockStoreException x)
+		{
+			log.warn("problem starting rescan", x);
+
+			if (rescanBlockStore != null)
+			{
+				try
+				{
+					rescanBlockStore.close();
+				}
+				catch (final BlockStoreException x2)
+				{
+					// swallow
+				}
+			}
+			rescanFile.delete();
+		}
 	}
 
-	@Override
-	public List<Peer> getConnectedPeers()
+	private final BlockchainRescan.Listener rescanListener = new BlockchainRescan.Listener()
 	{
-		if (peerGroup != null)
-			return peerGroup.getConnectedPeers();
+		@Override
+		public void onRescanComplete(final BlockchainRescan rescan)
+		{
+			handler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// might have been aborted meanwhile
+					if (rescan == BlockchainServiceImpl.this.rescan)
+						swapRescan(rescan);
+				}
+			});
+		}
+	};
+
+	/**
+	 * Replaces the live chain and the wallet transactions with the rescanned ones, as soon as the rescan has reached its
+	 * target height. The live peers are stopped meanwhile, so the wallet does not change underneath. Stopping the peers
+	 * blocks until their connections are closed, so it happens on the peer stopper before the swap is finished on the
+	 * main thread.
+	 */
+	private void swapRescan(final BlockchainRescan rescan)
+	{
+		log.info("rescan caught up, swapping in the rescanned blockchain");
+
+		this.rescan = null;
+		swappingRescan = rescan;
+		final PeerGroup livePeerGroup = peerGroup != null ? connectivityReceiver.stopPeerGroup() : null;
+
+		peerStopper.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (livePeerGroup != null)
+					awaitTerminated(livePeerGroup);
+				rescan.stop();
+
+				handler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						// service might have been destroyed meanwhile, the rescan is still pending then
+						if (rescan == swappingRescan)
+							finishSwapRescan(rescan);
+					}
+				});
+			}
+		});
+	}
+
+	private void finishSwapRescan(final BlockchainRescan rescan)
+	{
+		swappingRescan = null;
+		final Wallet wallet = application.getWallet();
+
+		if (rescan.copyTransactionsTo(wallet))
+		{
+			try
+			{
+				blockStore.close();
+			}
+			catch (final BlockStoreException x)
+			{
+				throw new RuntimeException(x);
+			}
+
+			if (!rescan.replace(blockChainFile))
+			{
+				// the wallet already carries the rescanned transactions, so the old chain would not match
+				log.info("removing blockchain");
+				rescan.discard();
+				blockChainFile.delete();
+			}
+
+			openBlockChain(wallet);
+			application.saveWallet();
+			publishChainHead();
+
+			config.setRescanPending(false);
+		}
 		else
-			return null;
+		{
+			rescan.discard();
+
+			log.info("starting rescan over");
+			startRescan();
+		}
+
+		connectivityReceiver.check();
 	}
 
-	@Override
-	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	private void abortRescan()
 	{
-		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
+		final BlockchainRescan rescan = this.rescan;
+		if (rescan != null)
+		{
+			this.rescan = null;
 
+			peerStopper.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					rescan.stop();
+					rescan.discard();
+				}
+			});
+		}
+	}
+
+	private static void awaitTerminated(final PeerGroup peerGroup)
+	{
 		try
 		{
-			StoredBlock block = blockChain.getChainHead();
+			peerGroup.awaitTerminated();
+		}
+		catch (final IllegalStateException x)
+		{
+			log.warn("peergroup failed", x);
+		}
+	}
 
-			while (block != null)
+	private final PeerEventListener broadcastAckListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			if (m instanceof InventoryMessage && broadcastQueue.size() > 0)
 			{
-				blocks.add(block);
+				final String peerAddress = peer.getAddress().toString();
 
-				if (blocks.size() >= maxBlocks)
-					break;
+				for (final InventoryItem item : ((InventoryMessage) m).getItems())
+				{
+					if (item.type == InventoryItem.Type.Transaction && broadcastQueue.ack(item.hash.toString(), peerAddress, System.currentTimeMillis()))
+						log.info("transaction " + item.hash + " acknowledged by " + BroadcastQueue.REQUIRED_ACKS + " peers, last " + peerAddress);
+				}
+			}
 
-				block = block.getPrev(blockStore);
+			return m;
+		}
+	};
+
+	private final Runnable flushBroadcastQueueRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flushBroadcastQueue();
+		}
+	};
+
+	/**
+	 * Sends the due transactions, batched per peer. Like bitcoinj's own broadcast, only half of the peers get them, so the
+	 * other half can acknowledge by announcing them back.
+	 */
+	private void flushBroadcastQueue()
+	{
+		handler.removeCallbacks(flushBroadcastQueueRunnable);
+
+		final long now = System.currentTimeMillis();
+
+		for (final String hash : broadcastQueue.expire(now))
+			log.info("dropping transaction " + hash + " from broadcast queue: queued for too long");
+
+		final List<String> due = broadcastQueue.due(now);
+		final Wallet wallet = application.getWallet();
+		final List<Transaction> transactions = new ArrayList<Transaction>(due.size());
+
+		for (final String hash : due)
+		{
+			final Transaction tx = wallet.getTransaction(new Sha256Hash(hash));
+			final ConfidenceType confidenceType = tx != null ? tx.getConfidence().getConfidenceType() : null;
+
+			if (tx == null || confidenceType == ConfidenceType.BUILDING || confidenceType == ConfidenceType.DEAD)
+			{
+				log.info("dropping transaction " + hash + " from broadcast queue: " + (tx == null ? "not in wallet" : confidenceType));
+				broadcastQueue.remove(hash);
+			}
+			else
+			{
+				transactions.add(tx);
 			}
 		}
-		catch (final BlockStoreException x)
+
+		final PeerGroup peerGroup = this.peerGroup;
+		final List<Peer> peers = peerGroup != null ? new ArrayList<Peer>(peerGroup.getConnectedPeers()) : new ArrayList<Peer>(0);
+
+		if (!transactions.isEmpty() && !peers.isEmpty())
 		{
-			// swallow
+			// so announcements by other peers show up in the confidence of the wallet transactions
+			for (final Transaction tx : transactions)
+				peerGroup.getMemoryPool().intern(tx);
+
+			Collections.shuffle(peers);
+			final Map<String, Peer> peersByAddress = new LinkedHashMap<String, Peer>();
+			for (final Peer peer : peers)
+				peersByAddress.put(peer.getAddress().toString(), peer);
+			final List<String> peerAddresses = new ArrayList<String>(peersByAddress.keySet());
+
+			for (final Transaction tx : transactions)
+			{
+				final String hash = tx.getHashAsString();
+				final List<String> sendTo = broadcastQueue.peersFor(hash, peerAddresses);
+
+				for (final String peerAddress : sendTo)
+				{
+					peersByAddress.get(peerAddress).sendMessage(tx);
+					broadcastQueue.sent(hash, peerAddress);
+				}
+
+				log.info("sent queued transaction " + hash + " to " + sendTo);
+			}
+
+			for (final Transaction tx : transactions)
+				broadcastQueue.attempted(tx.getHashAsString(), now);
 		}
 
-		return blocks;
+		if (broadcastQueue.isChanged())
+			saveServiceState(broadcastQueue, broadcastQueueFile);
+
+		if (broadcastQueue.size() > 0)
+			handler.postDelayed(flushBroadcastQueueRunnable, BROADCAST_RETRY_CHECK_MS);
 	}
 
-	private void sendBroadcastPeerState(final int numPeers)
+	private void scorePeers()
 	{
-		final Intent broadcast = new Intent(ACTION_PEER_STATE);
-		broadcast.setPackage(getPackageName());
-		broadcast.putExtra(ACTION_PEER_STATE_NUM_PEERS, numPeers);
-		sendStickyBroadcast(broadcast);
+		final PeerGroup peerGroup = this.peerGroup;
+		if (peerGroup == null)
+			return;
+
+		final List<Peer> peers = peerGroup.getConnectedPeers();
+		final int bestChainHeight = blockChain.getBestChainHeight();
+		final boolean blocksArriving = syncMetrics.blocksInWindow() > 0;
+		final long now = System.currentTimeMillis();
+		int remainingPeers = peers.size();
+
+		for (final Peer peer : peers)
+		{
+			final InetSocketAddress address = peer.getAddress().toSocketAddress();
+			final long pingTime = peer.getPingTime();
+			final boolean downloading = peer.getDownloadData();
+			final boolean stalled = downloading && peer.getBestHeight() > bestChainHeight && !blocksArriving;
+
+			final PeerScores.Score score = peerScores.record(address, pingTime < Long.MAX_VALUE ? pingTime : -1,
+					syncMetrics.peerBytesPerSecond(peer), downloading, stalled, now);
+			log.debug("peer " + address + " scores " + score);
+
+			// keep at least one peer, even if it is a poor one
+			if (score.isPoor() && remainingPeers > 1)
+			{
+				log.info("rotating out poor peer " + address + ": " + score);
+				peer.close();
+				remainingPeers--;
+			}
+		}
+
+		saveServiceState(peerScores, peerScoresFile);
+		saveServiceState(peerAddressCache, peerAddressCacheFile);
 	}
 
-	private void removeBroadcastPeerState()
+	private static void loadServiceState(final PersistentServiceState state, final File file)
 	{
-		removeStickyBroadcast(new Intent(ACTION_PEER_STATE));
+		if (!file.exists())
+			return;
+
+		Reader reader = null;
+		try
+		{
+			reader = new InputStreamReader(new FileInputStream(file), Constants.UTF_8);
+			state.load(reader, System.currentTimeMillis());
+
+			log.info("loaded " + state.size() + " entries from " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading " + file, x);
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
 	}
 
-	private void sendBroadcastBlockchainState(final int download)
+	/**
+	 * Takes a snapshot of the state right away, but writes it on the state writer thread.
+	 */
+	private void saveServiceState(final PersistentServiceState state, final File file)
 	{
-		final StoredBlock chainHead = blockChain.getChainHead();
+		final StringWriter snapshot = new StringWriter();
+		try
+		{
+			state.save(snapshot);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving " + file, x);
+			return;
+		}
+
+		stateWriter.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeServiceState(snapshot.toString(), file);
+			}
+		});
+	}
+
+	private static void writeServiceState(final String content, final File file)
+	{
+		final File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		Writer writer = null;
 
-		final Intent broadcast = new Intent(ACTION_BLOCKCHAIN_STATE);
-		broadcast.setPackage(getPackageName());
-		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE, chainHead.getHeader().getTime());
-		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_HEIGHT, chainHead.getHeight());
-		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_REPLAYING, chainHead.getHeight() < bestChainHeightEver);
-		broadcast.putExtra(ACTION_BLOCKCHAIN_STATE_DOWNLOAD, download);
+		try
+		{
+			writer = new OutputStreamWriter(new FileOutputStream(tmpFile), Constants.UTF_8);
+			writer.write(content);
+			writer.close();
+			writer = null;
+
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving " + file, x);
+		}
+		finally
+		{
+			if (writer != null)
+			{
+				try
+				{
+					writer.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
 
-		sendStickyBroadcast(broadcast);
+	@Override
+	public void onLowMemory()
+	{
+		log.warn("low memory detected, stopping service");
+		stopSelf();
 	}
 
-	private void removeBroadcastBlockchainState()
+	@Override
+	public List<Peer> getConnectedPeers()
 	{
-		removeStickyBroadcast(new Intent(ACTION_BLOCKCHAIN_STATE));
+		if (peerGroup != null)
+			return peerGroup.getConnectedPeers();
+		else
+			return null;
+	}
+
+	@Override
+	public BlockchainRescan.Progress getRescanProgress()
+	{
+		final BlockchainRescan rescan = this.rescan;
+
+		return rescan != null ? rescan.progress() : null;
+	}
+
+	@Override
+	public BroadcastQueue.Stats getBroadcastQueueStats()
+	{
+		return broadcastQueue.stats(System.currentTimeMillis());
+	}
+
+	@Override
+	public SyncMetrics.Snapshot getSyncMetrics()
+	{
+		syncMetrics.sampleAutosave(application.walletSaveStats());
+
+		return syncMetrics.snapshot();
+	}
+
+	@Override
+	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
+	{
+		try
+		{
+			return blockStore.getRecentBlocks(maxBlocks);
+		}
+		catch (final BlockStoreException x)
+		{
+			log.warn("problem reading recent blocks", x);
+
+			return new ArrayList<StoredBlock>(0);
+		}
+	}
+
+	private void publishChainHead()
+	{
+		final StoredBlock chainHead = blockChain.getChainHead();
+		final int height = chainHead.getHeight();
+		bestChainHeightEver = Math.max(bestChainHeightEver, height);
+
+		stateDispatcher.chainHeadChanged(chainHead.getHeader().getTime(), height, height < bestChainHeightEver);
 	}
 
 	public void notifyWidgets()
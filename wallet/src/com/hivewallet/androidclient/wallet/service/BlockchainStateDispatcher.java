@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Coalesces chain head, download, peer count and wallet change events of the blockchain service into one versioned
+ * {@link State}. Subscribers are called back on the main thread with the latest state, at most once per their minimum
+ * interval; intermediate states are skipped.
+ */
+public final class BlockchainStateDispatcher
+{
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onBlockchainState(@Nonnull State state);
+	}
+
+	/**
+	 * The UI thread and its clock, replaced by tests.
+	 */
+	interface Scheduler
+	{
+		long uptimeMillis();
+
+		void postDelayed(@Nonnull Runnable runnable, long delayMs);
+
+		void removeCallbacks(@Nonnull Runnable runnable);
+	}
+
+	private final Scheduler scheduler;
+	private final Object lock = new Object();
+	private final Map<Listener, Subscription> subscriptions = new ConcurrentHashMap<Listener, Subscription>();
+
+	// guarded by lock
+	@Nullable
+	private State state = null;
+	private long version = 0;
+
+	public BlockchainStateDispatcher()
+	{
+		this(new MainThreadScheduler());
+	}
+
+	BlockchainStateDispatcher(@Nonnull final Scheduler scheduler)
+	{
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @return the latest state, or null if the blockchain service is not running
+	 */
+	@CheckForNull
+	public State getState()
+	{
+		synchronized (lock)
+		{
+			return state;
+		}
+	}
+
+	public void chainHeadChanged(@Nonnull final Date bestChainDate, final int bestChainHeight, final boolean replaying)
+	{
+		synchronized (lock)
+		{
+			final State s = current();
+			publish(new State(++version, bestChainDate, bestChainHeight, replaying, s.download, s.numPeers, s.walletVersion));
+		}
+	}
+
+	public void downloadChanged(final int download)
+	{
+		synchronized (lock)
+		{
+			final State s = current();
+			if (s.download != download || state == null)
+				publish(new State(++version, s.bestChainDate, s.bestChainHeight, s.replaying, download, s.numPeers, s.walletVersion));
+		}
+	}
+
+	public void peerCountChanged(final int numPeers)
+	{
+		synchronized (lock)
+		{
+			final State s = current();
+			if (s.numPeers != numPeers || state == null)
+				publish(new State(++version, s.bestChainDate, s.bestChainHeight, s.replaying, s.download, numPeers, s.walletVersion));
+		}
+	}
+
+	public void walletChanged()
+	{
+		synchronized (lock)
+		{
+			final State s = current();
+			publish(new State(++version, s.bestChainDate, s.bestChainHeight, s.replaying, s.download, s.numPeers, s.walletVersion + 1));
+		}
+	}
+
+	/**
+	 * Forgets the state, for when the blockchain service goes away. Subscribers are not called back until the next event.
+	 */
+	public void clear()
+	{
+		synchronized (lock)
+		{
+			state = null;
+		}
+	}
+
+	/**
+	 * Subscribes a listener, which is called back with the current state right away if there is one. Must be called on
+	 * the UI thread.
+	 */
+	public void subscribe(@Nonnull final Listener listener, final long minIntervalMs)
+	{
+		final Subscription subscription = new Subscription(listener, minIntervalMs);
+		final Subscription previous = subscriptions.put(listener, subscription);
+		if (previous != null)
+			previous.cancel();
+
+		synchronized (lock)
+		{
+			if (state != null)
+				subscription.schedule();
+		}
+	}
+
+	/**
+	 * Must be called on the UI thread.
+	 */
+	public void unsubscribe(@Nonnull final Listener listener)
+	{
+		final Subscription subscription = subscriptions.remove(listener);
+		if (subscription != null)
+			subscription.cancel();
+	}
+
+	private State current()
+	{
+		return state != null ? state : State.EMPTY;
+	}
+
+	private void publish(final State state)
+	{
+		this.state = state;
+
+		for (final Subscription subscription : subscriptions.values())
+			subscription.schedule();
+	}
+
+	private final class Subscription implements Runnable
+	{
+		private final Listener listener;
+		private final long minIntervalMs;
+
+		// guarded by lock
+		private boolean scheduled = false;
+		private long lastDeliveredVersion = -1;
+		private long lastDeliveryTime = 0;
+
+		// only touched on UI thread
+		private boolean cancelled = false;
+
+		public Subscription(final Listener listener, final long minIntervalMs)
+		{
+			this.listener = listener;
+			this.minIntervalMs = minIntervalMs;
+		}
+
+		/** must be called holding the lock */
+		public void schedule()
+		{
+			if (scheduled)
+				return;
+
+			scheduled = true;
+
+			// the first state is delivered right away, even shortly after boot
+			final long delay = lastDeliveredVersion >= 0 ? lastDeliveryTime + minIntervalMs - scheduler.uptimeMillis() : 0;
+			scheduler.postDelayed(this, Math.max(delay, 0));
+		}
+
+		public void cancel()
+		{
+			cancelled = true;
+			scheduler.removeCallbacks(this);
+		}
+
+		@Override
+		public void run()
+		{
+			final State state;
+
+			synchronized (lock)
+			{
+				scheduled = false;
+
+				state = BlockchainStateDispatcher.this.state;
+				if (cancelled || state == null || state.version == lastDeliveredVersion)
+					return;
+
+				lastDeliveredVersion = state.version;
+				lastDeliveryTime = scheduler.uptimeMillis();
+			}
+
+			listener.onBlockchainState(state);
+		}
+	}
+
+	private static final class MainThreadScheduler implements Scheduler
+	{
+		private final Handler handler = new Handler(Looper.getMainLooper());
+
+		@Override
+		public long uptimeMillis()
+		{
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		public void postDelayed(final Runnable runnable, final long delayMs)
+		{
+			if (delayMs > 0)
+				handler.postDelayed(runnable, delayMs);
+			else
+				handler.post(runnable);
+		}
+
+		@Override
+		public void removeCallbacks(final Runnable runnable)
+		{
+			handler.removeCallbacks(runnable);
+		}
+	}
+
+	public static final class State
+	{
+		private static final State EMPTY = new State(0, null, 0, false, BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK, 0, 0);
+
+		public final long version;
+		@CheckForNull
+		public final Date bestChainDate;
+		public final int bestChainHeight;
+		public final boolean replaying;
+		public final int download;
+		public final int numPeers;
+		public final long walletVersion;
+
+		private State(final long version, @Nullable final Date bestChainDate, final int bestChainHeight, final boolean replaying, final int download,
+				final int numPeers, final long walletVersion)
+		{
+			this.version = version;
+			this.bestChainDate = bestChainDate;
+			this.bestChainHeight = bestChainHeight;
+			this.replaying = replaying;
+			this.download = download;
+			this.numPeers = numPeers;
+			this.walletVersion = walletVersion;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "v" + version + " height=" + bestChainHeight + (replaying ? " replaying" : "") + " download=" + download + " peers=" + numPeers
+					+ " wallet=v" + walletVersion;
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound transactions, by hash, that still need to reach the network. Every attempt sends the due transactions to
+ * some peers and backs off exponentially; a transaction leaves the queue once enough other peers have announced it back
+ * to us, or once the caller removes it because it confirmed or died. Only the hashes survive service restarts, the
+ * transactions themselves are kept by the wallet.
+ */
+public final class BroadcastQueue implements PersistentServiceState
+{
+	public static final int REQUIRED_ACKS = 2;
+
+	private static final long BACKOFF_BASE_MS = 15 * 1000;
+	private static final long BACKOFF_MAX_MS = 10 * 60 * 1000;
+	private static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000l;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	// whether anything that is saved changed since the last save
+	private boolean changed = false;
+
+	private long firstAcks = 0;
+	private long firstAckTotalMs = 0;
+	private long lastFirstAckMs = -1;
+
+	private static final Logger log = LoggerFactory.getLogger(BroadcastQueue.class);
+
+	private static final class Entry
+	{
+		private final long queuedAt;
+		private int attempts = 0;
+		private long nextAttemptAt;
+		/** all peers we ever sent the transaction to, their announcements are no acknowledgement */
+		private final Set<String> sentTo = new HashSet<String>();
+		private final Set<String> sentThisAttempt = new HashSet<String>();
+		private final Set<String> ackedBy = new HashSet<String>();
+
+		private Entry(final long queuedAt, final int attempts, final long nextAttemptAt)
+		{
+			this.queuedAt = queuedAt;
+			this.attempts = attempts;
+			this.nextAttemptAt = nextAttemptAt;
+		}
+	}
+
+	/**
+	 * @return false if the transaction was already queued
+	 */
+	public synchronized boolean enqueue(@Nonnull final String hash, final long now)
+	{
+		if (entries.containsKey(hash))
+			return false;
+
+		entries.put(hash, new Entry(now, 0, now));
+		changed = true;
+		return true;
+	}
+
+	public synchronized boolean contains(@Nonnull final String hash)
+	{
+		return entries.containsKey(hash);
+	}
+
+	public synchronized void remove(@Nonnull final String hash)
+	{
+		if (entries.remove(hash) != null)
+			changed = true;
+	}
+
+	/**
+	 * Removes transactions that have been queued for too long to still be worth sending.
+	 * 
+	 * @return the removed transactions
+	 */
+	public synchronized List<String> expire(final long now)
+	{
+		final List<String> expired = new ArrayList<String>();
+
+		for (final Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator(); i.hasNext();)
+		{
+			final Map.Entry<String, Entry> mapEntry = i.next();
+
+			if (now - mapEntry.getValue().queuedAt >= MAX_AGE_MS)
+			{
+				expired.add(mapEntry.getKey());
+				i.remove();
+			}
+		}
+
+		if (!expired.isEmpty())
+			changed = true;
+
+		return expired;
+	}
+
+	/**
+	 * @return transactions due for another attempt, oldest first
+	 */
+	public synchronized List<String> due(final long now)
+	{
+		final List<String> due = new ArrayList<String>();
+
+		for (final Map.Entry<String, Entry> mapEntry : entries.entrySet())
+			if (mapEntry.getValue().nextAttemptAt <= now)
+				due.add(mapEntry.getKey());
+
+		return due;
+	}
+
+	/**
+	 * Picks the peers to send the transaction to in this attempt, up to half of the connected ones. Peers it has not been
+	 * sent to are preferred, but only as long as enough of them are left to acknowledge it, because announcements from
+	 * peers we sent it to do not count. Otherwise it is sent to those peers again, in case they dropped it.
+	 *
+	 * @param peers
+	 *            connected peers, in the order they should be picked
+	 * @return peers to send to, empty if the transaction is not queued
+	 */
+	public synchronized List<String> peersFor(@Nonnull final String hash, @Nonnull final List<String> peers)
+	{
+		final List<String> picked = new ArrayList<String>();
+		final Entry entry = entries.get(hash);
+		if (entry == null)
+			return picked;
+
+		final List<String> unsent = new ArrayList<String>();
+		final List<String> resend = new ArrayList<String>();
+		for (final String peer : peers)
+		{
+			if (entry.sentThisAttempt.contains(peer) || entry.ackedBy.contains(peer))
+				continue;
+			if (entry.sentTo.contains(peer))
+				resend.add(peer);
+			else
+				unsent.add(peer);
+		}
+
+		final int max = Math.max(1, peers.size() / 2);
+		final int spareUnsent = unsent.size() - (REQUIRED_ACKS - entry.ackedBy.size());
+
+		for (final String peer : unsent.subList(0, Math.max(0, Math.min(max, spareUnsent))))
+			picked.add(peer);
+
+		if (picked.isEmpty())
+			picked.addAll(resend.subList(0, Math.min(max, resend.size())));
+
+		// nobody to send it to again, so it has to get out somehow
+		if (picked.isEmpty() && !unsent.isEmpty())
+			picked.add(unsent.get(0));
+
+		return picked;
+	}
+
+	public synchronized void sent(@Nonnull final String hash, @Nonnull final String peer)
+	{
+		final Entry entry = entries.get(hash);
+		if (entry != null)
+		{
+			entry.sentTo.add(peer);
+			entry.sentThisAttempt.add(peer);
+		}
+	}
+
+	/**
+	 * Schedules the next attempt after an exponential backoff. Peers sent to before may be picked again then, in case
+	 * they dropped the transaction.
+	 */
+	public synchronized void attempted(@Nonnull final String hash, final long now)
+	{
+		final Entry entry = entries.get(hash);
+		if (entry == null)
+			return;
+
+		entry.nextAttemptAt = now + backoffMs(entry.attempts);
+		entry.attempts++;
+		entry.sentThisAttempt.clear();
+		changed = true;
+	}
+
+	static long backoffMs(final int attempts)
+	{
+		if (attempts >= 16)
+			return BACKOFF_MAX_MS;
+
+		return Math.min(BACKOFF_BASE_MS << attempts, BACKOFF_MAX_MS);
+	}
+
+	/**
+	 * Records that a peer announced the transaction to us. Announcements from peers we sent it to ourselves prove
+	 * nothing and are ignored.
+	 *
+	 * @return true if the transaction has now been acknowledged often enough and was removed
+	 */
+	public synchronized boolean ack(@Nonnull final String hash, @Nonnull final String peer, final long now)
+	{
+		final Entry entry = entries.get(hash);
+		if (entry == null || entry.sentTo.contains(peer))
+			return false;
+
+		if (entry.ackedBy.isEmpty())
+		{
+			lastFirstAckMs = now - entry.queuedAt;
+			firstAckTotalMs += lastFirstAckMs;
+			firstAcks++;
+		}
+
+		entry.ackedBy.add(peer);
+
+		if (entry.ackedBy.size() < REQUIRED_ACKS)
+			return false;
+
+		entries.remove(hash);
+		changed = true;
+		return true;
+	}
+
+	/**
+	 * @return number of peers that announced the transaction, or -1 if it is not queued
+	 */
+	public synchronized int acks(@Nonnull final String hash)
+	{
+		final Entry entry = entries.get(hash);
+
+		return entry != null ? entry.ackedBy.size() : -1;
+	}
+
+	@CheckForNull
+	public synchronized Integer attempts(@Nonnull final String hash)
+	{
+		final Entry entry = entries.get(hash);
+
+		return entry != null ? entry.attempts : null;
+	}
+
+	public synchronized Stats stats(final long now)
+	{
+		long oldestMs = 0;
+		for (final Entry entry : entries.values())
+			oldestMs = Math.max(oldestMs, now - entry.queuedAt);
+
+		return new Stats(entries.size(), oldestMs, firstAcks, firstAcks > 0 ? firstAckTotalMs / firstAcks : -1, lastFirstAckMs);
+	}
+
+	public static final class Stats
+	{
+		public final int depth;
+		public final long oldestMs;
+		public final long firstAcks;
+		/** average time from queueing to the first announcement by another peer, or -1 */
+		public final long averageFirstAckMs;
+		public final long lastFirstAckMs;
+
+		public Stats(final int depth, final long oldestMs, final long firstAcks, final long averageFirstAckMs, final long lastFirstAckMs)
+		{
+			this.depth = depth;
+			this.oldestMs = oldestMs;
+			this.firstAcks = firstAcks;
+			this.averageFirstAckMs = averageFirstAckMs;
+			this.lastFirstAckMs = lastFirstAckMs;
+		}
+
+		@Override
+		public String toString()
+		{
+			return depth + " queued (oldest " + oldestMs + " ms), first ack after " + averageFirstAckMs + " ms on average over " + firstAcks
+					+ ", last " + lastFirstAckMs + " ms";
+		}
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return whether the queue changed since it was last loaded or saved, so that saving it again is needed
+	 */
+	public synchronized boolean isChanged()
+	{
+		return changed;
+	}
+
+	/**
+	 * Entries come back due right away, so a restarted service sends them without waiting out the old backoff. Expired
+	 * entries are dropped.
+	 */
+	@Override
+	public synchronized void load(@Nonnull final Reader reader, final long now) throws IOException
+	{
+		final BufferedReader in = new BufferedReader(reader);
+
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			final String[] fields = line.split(" ");
+			if (fields.length != 3)
+			{
+				log.info("skipping malformed broadcast: '{}'", line);
+				changed = true;
+				continue;
+			}
+
+			try
+			{
+				entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Integer.parseInt(fields[2]), now));
+			}
+			catch (final NumberFormatException x)
+			{
+				log.info("skipping malformed broadcast: '{}'", line);
+				changed = true;
+			}
+		}
+
+		expire(now);
+	}
+
+	@Override
+	public synchronized void save(@Nonnull final Writer writer) throws IOException
+	{
+		for (final Map.Entry<String, Entry> mapEntry : entries.entrySet())
+		{
+			final Entry entry = mapEntry.getValue();
+
+			writer.write(mapEntry.getKey() + " " + entry.queuedAt + " " + entry.attempts + "\n");
+		}
+
+		writer.flush();
+		changed = false;
+	}
+}
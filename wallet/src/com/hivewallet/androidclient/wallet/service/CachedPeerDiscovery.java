@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.net.discovery.PeerDiscoveryException;
+
+/**
+ * Answers the first discovery request right away from known good addresses while the wrapped discovery, usually DNS seeds, is queried in
+ * the background. Later requests are answered by the wrapped discovery. Cached addresses that were offered but did not connect until the
+ * next request count as failures.
+ */
+public final class CachedPeerDiscovery implements PeerDiscovery
+{
+	private final PeerDiscovery delegate;
+	private final PeerAddressCache cache;
+	private final List<InetSocketAddress> preferredPeers;
+	private final int maxPeers;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	private Future<InetSocketAddress[]> pendingLookup = null;
+	private boolean cacheOffered = false;
+	private List<InetSocketAddress> offeredPeers = new ArrayList<InetSocketAddress>();
+	private long offeredAt;
+
+	private static final Logger log = LoggerFactory.getLogger(CachedPeerDiscovery.class);
+
+	/**
+	 * @param preferredPeers
+	 *            offered before the cached addresses
+	 */
+	public CachedPeerDiscovery(@Nonnull final PeerDiscovery delegate, @Nonnull final PeerAddressCache cache,
+			@Nonnull final List<InetSocketAddress> preferredPeers, final int maxPeers)
+	{
+		this.delegate = delegate;
+		this.cache = cache;
+		this.preferredPeers = preferredPeers;
+		this.maxPeers = maxPeers;
+	}
+
+	@Override
+	public synchronized InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+	{
+		checkOfferedPeers();
+
+		if (pendingLookup == null)
+			pendingLookup = lookup(timeoutValue, timeoutUnit);
+
+		if (!cacheOffered)
+		{
+			cacheOffered = true;
+
+			final Set<InetSocketAddress> peers = new LinkedHashSet<InetSocketAddress>(preferredPeers);
+			peers.addAll(cache.candidates(maxPeers, System.currentTimeMillis()));
+
+			if (!peers.isEmpty())
+			{
+				log.info("offering " + peers.size() + " known peers, looking up more in the background");
+
+				offeredPeers = new ArrayList<InetSocketAddress>(peers);
+				offeredAt = System.currentTimeMillis();
+				return peers.toArray(new InetSocketAddress[0]);
+			}
+		}
+
+		final Future<InetSocketAddress[]> lookup = pendingLookup;
+		pendingLookup = null;
+
+		try
+		{
+			return lookup.get(timeoutValue, timeoutUnit);
+		}
+		catch (final ExecutionException x)
+		{
+			if (x.getCause() instanceof PeerDiscoveryException)
+				throw (PeerDiscoveryException) x.getCause();
+			else
+				throw new PeerDiscoveryException(x.getCause());
+		}
+		catch (final TimeoutException x)
+		{
+			lookup.cancel(true);
+			throw new PeerDiscoveryException(x);
+		}
+		catch (final InterruptedException x)
+		{
+			lookup.cancel(true);
+			throw new PeerDiscoveryException(x);
+		}
+	}
+
+	private Future<InetSocketAddress[]> lookup(final long timeoutValue, final TimeUnit timeoutUnit)
+	{
+		return executor.submit(new Callable<InetSocketAddress[]>()
+		{
+			@Override
+			public InetSocketAddress[] call() throws PeerDiscoveryException
+			{
+				final InetSocketAddress[] peers = delegate.getPeers(timeoutValue, timeoutUnit);
+
+				log.info("discovered " + peers.length + " peers");
+
+				return peers;
+			}
+		});
+	}
+
+	private void checkOfferedPeers()
+	{
+		for (final InetSocketAddress peer : offeredPeers)
+		{
+			final PeerAddressCache.Entry entry = cache.get(peer);
+			if (entry != null && entry.lastSuccess < offeredAt)
+				cache.recordFailure(peer);
+		}
+
+		offeredPeers = new ArrayList<InetSocketAddress>();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		delegate.shutdown();
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Checkpoints in a compact binary format with a time index in front, so the checkpoint to seed a new block store from
+ * is found by binary search over the index and only that one record is read:
+ *
+ * <pre>
+ * "HIVC" | int version | int count | count * int block time (seconds, ascending) | count * 96 byte compact stored block
+ * </pre>
+ *
+ * Records are in the form of {@code StoredBlock.serializeCompact()}, exactly as in the bitcoinj checkpoints files they
+ * are converted from by {@link #convert(InputStream, OutputStream)}.
+ */
+public final class IndexedCheckpoints
+{
+	public static final int RECORD_SIZE = 96;
+
+	/** seed a week before the earliest key, like {@code CheckpointManager} does, to cover clock drift */
+	public static final long SAFETY_MARGIN_SECS = 7 * 24 * 60 * 60;
+
+	private static final byte[] MAGIC = { 'H', 'I', 'V', 'C' };
+	private static final int VERSION = 1;
+	private static final int MAX_CHECKPOINTS = 1000000;
+
+	private static final byte[] LEGACY_MAGIC = { 'C', 'H', 'E', 'C', 'K', 'P', 'O', 'I', 'N', 'T', 'S', ' ', '1' };
+	private static final int LEGACY_SIGNATURE_SIZE = 65;
+
+	// chain work (12 bytes), height (4 bytes), then the 80 byte header with the time at offset 68
+	private static final int RECORD_TIME_OFFSET = 12 + 4 + 68;
+
+	private IndexedCheckpoints()
+	{
+	}
+
+	/**
+	 * @return the compact stored block of the latest checkpoint at or before the given time, or null if there is none
+	 */
+	@CheckForNull
+	public static byte[] recordBefore(@Nonnull final InputStream is, final long timeSecs) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(is);
+
+		final byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("not indexed checkpoints");
+		final int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("unsupported version: " + version);
+		final int count = in.readInt();
+		if (count < 0 || count > MAX_CHECKPOINTS)
+			throw new IOException("bad count: " + count);
+
+		final int[] times = new int[count];
+		for (int i = 0; i < count; i++)
+			times[i] = in.readInt();
+
+		final int index = indexBefore(times, timeSecs);
+		if (index < 0)
+			return null;
+
+		skipFully(in, (long) index * RECORD_SIZE);
+		final byte[] record = new byte[RECORD_SIZE];
+		in.readFully(record);
+		return record;
+	}
+
+	/**
+	 * @return index of the last time at or before the given time, or -1
+	 */
+	static int indexBefore(@Nonnull final int[] times, final long timeSecs)
+	{
+		int low = 0;
+		int high = times.length - 1;
+		int found = -1;
+
+		while (low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			if (unsigned(times[mid]) <= timeSecs)
+			{
+				found = mid;
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Converts a bitcoinj checkpoints file (binary format, signatures are dropped) into the indexed format.
+	 *
+	 * @return number of checkpoints written
+	 */
+	public static int convert(@Nonnull final InputStream is, @Nonnull final OutputStream os) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(is);
+
+		final byte[] magic = new byte[LEGACY_MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, LEGACY_MAGIC))
+			throw new IOException("not a binary checkpoints file");
+		final int numSignatures = in.readInt();
+		if (numSignatures < 0)
+			throw new IOException("bad number of signatures: " + numSignatures);
+		skipFully(in, (long) numSignatures * LEGACY_SIGNATURE_SIZE);
+		final int count = in.readInt();
+		if (count < 0 || count > MAX_CHECKPOINTS)
+			throw new IOException("bad count: " + count);
+
+		final List<byte[]> records = new ArrayList<byte[]>(count);
+		for (int i = 0; i < count; i++)
+		{
+			final byte[] record = new byte[RECORD_SIZE];
+			in.readFully(record);
+			records.add(record);
+		}
+
+		// stable, so checkpoints with equal times keep their order
+		Collections.sort(records, new Comparator<byte[]>()
+		{
+			@Override
+			public int compare(final byte[] lhs, final byte[] rhs)
+			{
+				final long lhsTime = recordTime(lhs);
+				final long rhsTime = recordTime(rhs);
+				return lhsTime < rhsTime ? -1 : (lhsTime > rhsTime ? 1 : 0);
+			}
+		});
+
+		final DataOutputStream out = new DataOutputStream(os);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(count);
+		for (final byte[] record : records)
+			out.writeInt((int) recordTime(record));
+		for (final byte[] record : records)
+			out.write(record);
+		out.flush();
+
+		return count;
+	}
+
+	/**
+	 * @return block time of a compact stored block, in seconds
+	 */
+	public static long recordTime(@Nonnull final byte[] record)
+	{
+		return (record[RECORD_TIME_OFFSET] & 0xffL) | (record[RECORD_TIME_OFFSET + 1] & 0xffL) << 8 | (record[RECORD_TIME_OFFSET + 2] & 0xffL) << 16
+				| (record[RECORD_TIME_OFFSET + 3] & 0xffL) << 24;
+	}
+
+	private static long unsigned(final int value)
+	{
+		return value & 0xffffffffL;
+	}
+
+	private static void skipFully(final InputStream in, long n) throws IOException
+	{
+		while (n > 0)
+		{
+			final long skipped = in.skip(n);
+			if (skipped > 0)
+			{
+				n -= skipped;
+			}
+			else
+			{
+				// skip() may return 0 before the end, so probe with a read
+				if (in.read() == -1)
+					throw new EOFException();
+				n--;
+			}
+		}
+	}
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.VerificationException;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.SPVBlockStore;
+
+/**
+ * Block headers in a memory mapped ring of fixed size records, each protected by a CRC32. All records are verified when the store is
+ * opened, so a corrupt file is detected right away. An in-memory index maps hashes to slots, and a second one maps the heights of the
+ * best chain to slots, which makes reading the most recent blocks a sequence of adjacent reads. Like SPVBlockStore, the most recently
+ * used blocks are kept deserialized in memory, as the chain keeps asking for the last few of them.
+ * 
+ * <p>
+ * File layout: a header of {@link #HEADER_SIZE} bytes (magic, version, capacity, next slot, chain head hash, CRC32 of all of these),
+ * followed by capacity records (CRC32 of the rest of the record, block hash, compact stored block).
+ */
+public final class MappedBlockStore implements BlockStore
+{
+	private static final byte[] MAGIC = { 'H', 'I', 'V', 'B' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_CHECKSUMMED_SIZE = 48;
+	private static final int HASH_SIZE = 32;
+	private static final int RECORD_SIZE = 4 + HASH_SIZE + StoredBlock.COMPACT_SERIALIZED_SIZE;
+	// the compact stored block starts with 12 bytes of chain work, followed by the height
+	private static final int RECORD_HEIGHT_OFFSET = 4 + HASH_SIZE + 12;
+	private static final int CACHE_SIZE = 2048;
+	private static final byte[] EMPTY_HASH = new byte[HASH_SIZE];
+
+	private final NetworkParameters params;
+	private final int capacity;
+	private final RandomAccessFile randomAccessFile;
+	private final MappedByteBuffer buffer;
+
+	private final Map<Sha256Hash, Integer> slotsByHash = new HashMap<Sha256Hash, Integer>();
+	/** best chain: height modulo capacity to slot, or -1 */
+	private final int[] slotsByHeight;
+	/** slot to height of the block stored there, or -1 if empty */
+	private final int[] heightsBySlot;
+	private int nextSlot;
+	private StoredBlock chainHead;
+
+	private final BlockCache cache = new BlockCache(CACHE_SIZE);
+
+	private static final Logger log = LoggerFactory.getLogger(MappedBlockStore.class);
+
+	/**
+	 * Opens the store, creating it with the given capacity if the file does not exist. An existing store keeps the capacity it was created
+	 * with.
+	 */
+	public MappedBlockStore(@Nonnull final NetworkParameters params, @Nonnull final File file, final int capacity) throws BlockStoreException
+	{
+		this.params = params;
+
+		final boolean exists = file.exists() && file.length() > 0;
+
+		try
+		{
+			randomAccessFile = new RandomAccessFile(file, "rw");
+
+			if (exists)
+			{
+				final byte[] header = new byte[HEADER_SIZE];
+				randomAccessFile.readFully(header);
+				final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+				this.capacity = headerBuffer.getInt(8);
+
+				if (this.capacity != capacity)
+					log.info("keeping capacity of existing store: " + this.capacity + " instead of " + capacity);
+				if (this.capacity <= 0 || randomAccessFile.length() != fileSize(this.capacity))
+					throw new BlockStoreException("corrupt block store: unexpected size " + randomAccessFile.length());
+			}
+			else
+			{
+				if (capacity <= 1)
+					throw new IllegalArgumentException("capacity too small: " + capacity);
+
+				this.capacity = capacity;
+				randomAccessFile.setLength(fileSize(capacity));
+			}
+
+			buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize(this.capacity));
+		}
+		catch (final IOException x)
+		{
+			closeQuietly();
+			throw new BlockStoreException(x);
+		}
+		catch (final BlockStoreException x)
+		{
+			closeQuietly();
+			throw x;
+		}
+
+		slotsByHeight = new int[this.capacity];
+		Arrays.fill(slotsByHeight, -1);
+		heightsBySlot = new int[this.capacity];
+		Arrays.fill(heightsBySlot, -1);
+
+		try
+		{
+			if (exists)
+				open();
+			else
+				initialize();
+		}
+		catch (final BlockStoreException x)
+		{
+			closeQuietly();
+			throw x;
+		}
+	}
+
+	private static long fileSize(final int capacity)
+	{
+		return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+	}
+
+	private void initialize() throws BlockStoreException
+	{
+		try
+		{
+			final Block genesis = params.getGenesisBlock().cloneAsHeader();
+			final StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
+
+			nextSlot = 0;
+			put(storedGenesis);
+			setChainHead(storedGenesis);
+		}
+		catch (final VerificationException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+
+	private void open() throws BlockStoreException
+	{
+		// header
+		final byte[] header = new byte[HEADER_CHECKSUMMED_SIZE];
+		buffer.position(0);
+		buffer.get(header);
+		final int headerChecksum = buffer.getInt();
+
+		if (headerChecksum != checksum(header, 0, header.length))
+			throw new BlockStoreException("corrupt block store: header checksum mismatch");
+		if (!Arrays.equals(MAGIC, Arrays.copyOfRange(header, 0, MAGIC.length)))
+			throw new BlockStoreException("not a block store");
+
+		final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+		final int version = headerBuffer.getInt(4);
+		if (version != VERSION)
+			throw new BlockStoreException("unsupported block store version: " + version);
+		nextSlot = headerBuffer.getInt(12);
+		if (nextSlot < 0 || nextSlot >= capacity)
+			throw new BlockStoreException("corrupt block store: next slot " + nextSlot);
+		final Sha256Hash chainHeadHash = new Sha256Hash(Arrays.copyOfRange(header, 16, 16 + HASH_SIZE));
+
+		// records
+		int numCorrupt = 0;
+		final byte[] record = new byte[RECORD_SIZE];
+		for (int slot = 0; slot < capacity; slot++)
+		{
+			readRecord(slot, record);
+
+			if (isEmpty(record))
+				continue;
+
+			if (!isValid(record))
+			{
+				numCorrupt++;
+				continue;
+			}
+
+			// the record carries the hash, so the header need not be parsed and hashed again
+			final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+			slotsByHash.put(new Sha256Hash(Arrays.copyOfRange(record, 4, 4 + HASH_SIZE)), slot);
+			heightsBySlot[slot] = recordBuffer.getInt(RECORD_HEIGHT_OFFSET);
+		}
+
+		if (numCorrupt > 0)
+			log.warn("skipped " + numCorrupt + " corrupt records");
+
+		// chain head
+		final Integer chainHeadSlot = slotsByHash.get(chainHeadHash);
+		if (chainHeadSlot == null)
+			throw new BlockStoreException("corrupt block store: chain head " + chainHeadHash + " missing");
+
+		chainHead = read(chainHeadSlot);
+		indexBestChain(chainHead);
+
+		log.info("opened block store with " + slotsByHash.size() + " of " + capacity + " blocks, chain head at " + chainHead.getHeight());
+	}
+
+	@Override
+	public synchronized void put(@Nonnull final StoredBlock block) throws BlockStoreException
+	{
+		final Sha256Hash hash = block.getHeader().getHash();
+
+		Integer slot = slotsByHash.get(hash);
+		if (slot == null)
+		{
+			slot = nextSlot;
+			evict(slot);
+
+			// only written with the next chain head, a block put since then is overwritten after a crash
+			nextSlot = (nextSlot + 1) % capacity;
+		}
+
+		final byte[] record = new byte[RECORD_SIZE];
+		final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+		recordBuffer.position(4);
+		recordBuffer.put(hash.getBytes());
+		block.serializeCompact(recordBuffer);
+		recordBuffer.putInt(0, checksum(record, 4, RECORD_SIZE - 4));
+
+		buffer.position(HEADER_SIZE + slot * RECORD_SIZE);
+		buffer.put(record);
+
+		slotsByHash.put(hash, slot);
+		heightsBySlot[slot] = block.getHeight();
+		cache.put(slot, block);
+	}
+
+	private void evict(final int slot)
+	{
+		if (heightsBySlot[slot] < 0)
+			return;
+
+		final byte[] hash = new byte[HASH_SIZE];
+		buffer.position(HEADER_SIZE + slot * RECORD_SIZE + 4);
+		buffer.get(hash);
+		slotsByHash.remove(new Sha256Hash(hash));
+
+		final int heightIndex = heightsBySlot[slot] % capacity;
+		if (slotsByHeight[heightIndex] == slot)
+			slotsByHeight[heightIndex] = -1;
+		heightsBySlot[slot] = -1;
+		cache.remove(slot);
+	}
+
+	@Override
+	@CheckForNull
+	public synchronized StoredBlock get(@Nonnull final Sha256Hash hash) throws BlockStoreException
+	{
+		final Integer slot = slotsByHash.get(hash);
+		if (slot == null)
+			return null;
+
+		return read(slot);
+	}
+
+	private StoredBlock read(final int slot) throws BlockStoreException
+	{
+		final StoredBlock cached = cache.get(slot);
+		if (cached != null)
+			return cached;
+
+		final byte[] record = new byte[RECORD_SIZE];
+		readRecord(slot, record);
+
+		if (!isValid(record))
+			throw new BlockStoreException("corrupt block store: checksum mismatch in slot " + slot);
+
+		final StoredBlock block = deserialize(record);
+		cache.put(slot, block);
+		return block;
+	}
+
+	@Override
+	public synchronized StoredBlock getChainHead() throws BlockStoreException
+	{
+		return chainHead;
+	}
+
+	@Override
+	public synchronized void setChainHead(@Nonnull final StoredBlock chainHead) throws BlockStoreException
+	{
+		this.chainHead = chainHead;
+		writeHeader();
+		indexBestChain(chainHead);
+	}
+
+	/**
+	 * Points the height index at the given block and its ancestors, until it meets a part of the chain that is already indexed.
+	 */
+	private void indexBestChain(final StoredBlock head) throws BlockStoreException
+	{
+		StoredBlock block = head;
+
+		for (int i = 0; i < capacity && block != null; i++)
+		{
+			final Integer slot = slotsByHash.get(block.getHeader().getHash());
+			if (slot == null)
+				break;
+
+			final int heightIndex = block.getHeight() % capacity;
+			if (i > 0 && slotsByHeight[heightIndex] == slot)
+				break;
+			slotsByHeight[heightIndex] = slot;
+
+			if (block.getHeight() == 0)
+				break;
+
+			block = get(block.getHeader().getPrevBlockHash());
+		}
+	}
+
+	/**
+	 * @return up to maxBlocks blocks of the best chain, starting with the chain head
+	 */
+	public synchronized List<StoredBlock> getRecentBlocks(final int maxBlocks) throws BlockStoreException
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(Math.min(maxBlocks, capacity));
+
+		for (int height = chainHead.getHeight(); height >= 0 && blocks.size() < maxBlocks; height--)
+		{
+			final int slot = slotsByHeight[height % capacity];
+			if (slot < 0 || heightsBySlot[slot] != height)
+				break;
+
+			blocks.add(read(slot));
+		}
+
+		return blocks;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public NetworkParameters getParams()
+	{
+		return params;
+	}
+
+	@Override
+	public synchronized void close() throws BlockStoreException
+	{
+		try
+		{
+			writeHeader();
+			buffer.force();
+			randomAccessFile.close();
+		}
+		catch (final IOException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+
+	private void closeQuietly()
+	{
+		try
+		{
+			randomAccessFile.close();
+		}
+		catch (final Exception x)
+		{
+			// swallow
+		}
+	}
+
+	/**
+	 * Copies the best chain of another store, as far back as the capacity of this store allows, and makes its head the chain head.
+	 */
+	public void copyFrom(@Nonnull final BlockStore source) throws BlockStoreException
+	{
+		final LinkedList<StoredBlock> blocks = new LinkedList<StoredBlock>();
+
+		StoredBlock block = source.getChainHead();
+		while (block != null && blocks.size() < capacity)
+		{
+			blocks.addFirst(block);
+			block = block.getPrev(source);
+		}
+
+		for (final StoredBlock b : blocks)
+			put(b);
+
+		setChainHead(blocks.getLast());
+	}
+
+	/**
+	 * Copies the best chain of an old {@link SPVBlockStore} file into a new store file, then deletes the old file. If that fails, no new
+	 * file is left behind and the blockchain will be downloaded again.
+	 */
+	public static void migrate(@Nonnull final NetworkParameters params, @Nonnull final File legacyFile, @Nonnull final File file,
+			final int capacity)
+	{
+		log.info("migrating " + legacyFile + " to " + file);
+
+		BlockStore legacyBlockStore = null;
+		MappedBlockStore newBlockStore = null;
+		try
+		{
+			legacyBlockStore = new SPVBlockStore(params, legacyFile);
+			newBlockStore = new MappedBlockStore(params, file, capacity);
+			newBlockStore.copyFrom(legacyBlockStore);
+			newBlockStore.close();
+			newBlockStore = null;
+
+			log.info("migrated blockchain up to height " + legacyBlockStore.getChainHead().getHeight());
+		}
+		catch (final BlockStoreException x)
+		{
+			log.warn("problem migrating blockchain", x);
+
+			if (newBlockStore != null)
+			{
+				try
+				{
+					newBlockStore.close();
+				}
+				catch (final BlockStoreException x2)
+				{
+					// swallow
+				}
+			}
+			file.delete();
+		}
+		finally
+		{
+			if (legacyBlockStore != null)
+			{
+				try
+				{
+					legacyBlockStore.close();
+				}
+				catch (final BlockStoreException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		legacyFile.delete();
+	}
+
+	private void writeHeader()
+	{
+		final byte[] header = new byte[HEADER_CHECKSUMMED_SIZE];
+		final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+		headerBuffer.put(MAGIC);
+		headerBuffer.putInt(VERSION);
+		headerBuffer.putInt(capacity);
+		headerBuffer.putInt(nextSlot);
+		headerBuffer.put(chainHead != null ? chainHead.getHeader().getHash().getBytes() : EMPTY_HASH);
+
+		buffer.position(0);
+		buffer.put(header);
+		buffer.putInt(checksum(header, 0, header.length));
+	}
+
+	private void readRecord(final int slot, final byte[] record)
+	{
+		buffer.position(HEADER_SIZE + slot * RECORD_SIZE);
+		buffer.get(record);
+	}
+
+	private static boolean isEmpty(final byte[] record)
+	{
+		for (int i = 0; i < record.length; i++)
+			if (record[i] != 0)
+				return false;
+
+		return true;
+	}
+
+	private static boolean isValid(final byte[] record)
+	{
+		return ByteBuffer.wrap(record).getInt(0) == checksum(record, 4, RECORD_SIZE - 4);
+	}
+
+	private StoredBlock deserialize(final byte[] record) throws BlockStoreException
+	{
+		try
+		{
+			final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+			recordBuffer.position(4 + HASH_SIZE);
+			return StoredBlock.deserializeCompact(params, recordBuffer);
+		}
+		catch (final ProtocolException x)
+		{
+			throw new BlockStoreException(x);
+		}
+	}
+
+	private static int checksum(final byte[] bytes, final int offset, final int length)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/** slot to block, in access order */
+	private static final class BlockCache extends LinkedHashMap<Integer, StoredBlock>
+	{
+		private final int maxSize;
+
+		private static final long serialVersionUID = 1L;
+
+		public BlockCache(final int maxSize)
+		{
+			super(maxSize, 0.75f, true);
+
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, StoredBlock> eldest)
+		{
+			return size() > maxSize;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.LruCache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Contact photos scaled down to notification large icon size. Photos are decoded on a background thread with a sample size
+ * matching the icon, so the full size image is never held in memory. A request is answered once the photo is ready or
+ * the deadline has passed, whatever comes first; photos finishing late are still cached for the next payment.
+ */
+public final class NotificationAvatars
+{
+	private final ContentResolver contentResolver;
+	private final Handler handler;
+	private final int width, height;
+	private final LruCache<Uri, Bitmap> cache = new LruCache<Uri, Bitmap>(CACHE_SIZE);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+			.setNameFormat("notification avatars").setDaemon(true).build());
+
+	private static final int CACHE_SIZE = 16;
+
+	private static final Logger log = LoggerFactory.getLogger(NotificationAvatars.class);
+
+	public interface Listener
+	{
+		/**
+		 * Called on the handler's thread.
+		 * 
+		 * @param avatar
+		 *            scaled photo, or null if it could not be decoded in time
+		 */
+		void onAvatar(@Nullable Bitmap avatar);
+	}
+
+	public NotificationAvatars(@Nonnull final ContentResolver contentResolver, @Nonnull final Handler handler, final int width, final int height)
+	{
+		this.contentResolver = contentResolver;
+		this.handler = handler;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Must be called on the handler's thread. A cached photo is handed to the listener right away.
+	 */
+	public void request(@Nonnull final Uri photoUri, final long deadlineMs, @Nonnull final Listener listener)
+	{
+		final Bitmap cached = cache.get(photoUri);
+		if (cached != null)
+		{
+			listener.onAvatar(cached);
+			return;
+		}
+
+		final AtomicBoolean answered = new AtomicBoolean(false);
+
+		final Runnable deadline = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (answered.compareAndSet(false, true))
+				{
+					log.info("photo {} not ready within {} ms", photoUri, deadlineMs);
+					listener.onAvatar(null);
+				}
+			}
+		};
+
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Bitmap avatar = decode(photoUri);
+					if (avatar != null)
+						cache.put(photoUri, avatar);
+
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (answered.compareAndSet(false, true))
+							{
+								handler.removeCallbacks(deadline);
+								listener.onAvatar(avatar);
+							}
+						}
+					});
+				}
+			});
+
+			handler.postDelayed(deadline, deadlineMs);
+		}
+		catch (final RejectedExecutionException x)
+		{
+			// shut down
+			listener.onAvatar(null);
+		}
+	}
+
+	public void shutdown()
+	{
+		executor.shutdownNow();
+		cache.evictAll();
+	}
+
+	@CheckForNull
+	private Bitmap decode(@Nonnull final Uri photoUri)
+	{
+		try
+		{
+			final BitmapFactory.Options bounds = new BitmapFactory.Options();
+			bounds.inJustDecodeBounds = true;
+			decodeStream(photoUri, bounds);
+			if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+				return null;
+
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, width, height);
+			final Bitmap sampled = decodeStream(photoUri, options);
+			if (sampled == null)
+				return null;
+			if (sampled.getWidth() == width && sampled.getHeight() == height)
+				return sampled;
+
+			final Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+			if (scaled != sampled)
+				sampled.recycle();
+			return scaled;
+		}
+		catch (final IOException x)
+		{
+			log.info("cannot decode photo " + photoUri, x);
+			return null;
+		}
+		catch (final SecurityException x)
+		{
+			log.info("cannot decode photo " + photoUri, x);
+			return null;
+		}
+	}
+
+	@CheckForNull
+	private Bitmap decodeStream(@Nonnull final Uri photoUri, @Nonnull final BitmapFactory.Options options) throws IOException
+	{
+		final InputStream is = contentResolver.openInputStream(photoUri);
+		if (is == null)
+			return null;
+
+		try
+		{
+			return BitmapFactory.decodeStream(is, null, options);
+		}
+		finally
+		{
+			try
+			{
+				is.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+	}
+
+	/**
+	 * Largest power of two that keeps the decoded image at least as large as the requested size in both dimensions.
+	 */
+	static int sampleSize(final int width, final int height, final int reqWidth, final int reqHeight)
+	{
+		int sampleSize = 1;
+
+		while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight)
+			sampleSize *= 2;
+
+		return sampleSize;
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+/**
+ * Keeps notifications that share an id in the order their events happened, when some of them wait for something before
+ * being posted. A notification may only be posted if nothing newer has been posted meanwhile, otherwise it would
+ * replace the newer one. Must be used on a single thread.
+ */
+final class NotificationSequence
+{
+	private int issued = 0;
+	private int posted = 0;
+
+	/**
+	 * @return number of a notification about to be prepared, higher than all numbers before
+	 */
+	public int next()
+	{
+		return ++issued;
+	}
+
+	/**
+	 * @return true if the notification may be posted; it is then recorded as the newest one posted
+	 */
+	public boolean post(final int seq)
+	{
+		if (seq <= posted)
+			return false;
+
+		posted = seq;
+		return true;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Addresses of peers we recently managed to connect to, so the next start does not have to wait for DNS seeds.
+ */
+public final class PeerAddressCache implements PersistentServiceState
+{
+	private static final int MAX_FAILURES = 3;
+	private static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000l;
+	private static final int MAX_ENTRIES = 100;
+
+	private final Map<InetSocketAddress, Entry> entries = new HashMap<InetSocketAddress, Entry>();
+
+	private static final Logger log = LoggerFactory.getLogger(PeerAddressCache.class);
+
+	public static final class Entry
+	{
+		public final long lastSuccess;
+		/** failed connection attempts since the last success */
+		public final int failures;
+
+		public Entry(final long lastSuccess, final int failures)
+		{
+			this.lastSuccess = lastSuccess;
+			this.failures = failures;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "last success " + lastSuccess + ", " + failures + " failures";
+		}
+	}
+
+	public synchronized void recordSuccess(@Nonnull final InetSocketAddress address, final long now)
+	{
+		entries.put(address, new Entry(now, 0));
+
+		if (entries.size() > MAX_ENTRIES)
+			entries.remove(sortedByLastSuccess().get(entries.size() - 1));
+	}
+
+	/**
+	 * Failures are only remembered for addresses that did succeed at some point, and too many of them evict the address.
+	 */
+	public synchronized void recordFailure(@Nonnull final InetSocketAddress address)
+	{
+		final Entry entry = entries.get(address);
+		if (entry == null)
+			return;
+
+		if (entry.failures + 1 >= MAX_FAILURES)
+			entries.remove(address);
+		else
+			entries.put(address, new Entry(entry.lastSuccess, entry.failures + 1));
+	}
+
+	@CheckForNull
+	public synchronized Entry get(@Nonnull final InetSocketAddress address)
+	{
+		return entries.get(address);
+	}
+
+	/**
+	 * @return up to maxPeers addresses that recently worked, most recent first
+	 */
+	public synchronized List<InetSocketAddress> candidates(final int maxPeers, final long now)
+	{
+		final List<InetSocketAddress> candidates = new ArrayList<InetSocketAddress>();
+
+		for (final InetSocketAddress address : sortedByLastSuccess())
+		{
+			if (candidates.size() >= maxPeers)
+				break;
+
+			if (now - entries.get(address).lastSuccess < MAX_AGE_MS)
+				candidates.add(address);
+		}
+
+		return candidates;
+	}
+
+	private List<InetSocketAddress> sortedByLastSuccess()
+	{
+		final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(entries.keySet());
+
+		Collections.sort(addresses, new Comparator<InetSocketAddress>()
+		{
+			@Override
+			public int compare(final InetSocketAddress address1, final InetSocketAddress address2)
+			{
+				final long lastSuccess1 = entries.get(address1).lastSuccess;
+				final long lastSuccess2 = entries.get(address2).lastSuccess;
+
+				return lastSuccess1 < lastSuccess2 ? 1 : (lastSuccess1 > lastSuccess2 ? -1 : 0);
+			}
+		});
+
+		return addresses;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	@Override
+	public synchronized void load(@Nonnull final Reader reader, final long now) throws IOException
+	{
+		final BufferedReader in = new BufferedReader(reader);
+
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			final String[] fields = line.split(" ");
+			if (fields.length != 4)
+			{
+				log.info("skipping malformed peer address: '{}'", line);
+				continue;
+			}
+
+			try
+			{
+				final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(fields[0]), Integer.parseInt(fields[1]));
+				final Entry entry = new Entry(Long.parseLong(fields[2]), Integer.parseInt(fields[3]));
+
+				if (now - entry.lastSuccess < MAX_AGE_MS && entry.failures < MAX_FAILURES)
+					entries.put(address, entry);
+			}
+			catch (final NumberFormatException x)
+			{
+				log.info("skipping malformed peer address: '{}'", line);
+			}
+			catch (final UnknownHostException x)
+			{
+				log.info("skipping malformed peer address: '{}'", line);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void save(@Nonnull final Writer writer) throws IOException
+	{
+		for (final Map.Entry<InetSocketAddress, Entry> mapEntry : entries.entrySet())
+		{
+			final InetSocketAddress address = mapEntry.getKey();
+			final Entry entry = mapEntry.getValue();
+
+			writer.write(address.getAddress().getHostAddress() + " " + address.getPort() + " " + entry.lastSuccess + " " + entry.failures + "\n");
+		}
+
+		writer.flush();
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how well peers performed, so that the next start can prefer the fastest ones and poor peers can be rotated out. Each sample
+ * moves the ping time, the block download rate and the stall rate of a peer by a fixed fraction towards the measured value.
+ */
+public final class PeerScores implements PersistentServiceState
+{
+	private static final double SMOOTHING = 0.3;
+	private static final int MIN_SAMPLES = 3;
+	private static final long MAX_PING_MS = 5000;
+	private static final double MAX_STALL_RATE = 0.5;
+	private static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000l;
+	private static final int MAX_ENTRIES = 200;
+
+	private final Map<InetSocketAddress, Score> scores = new HashMap<InetSocketAddress, Score>();
+
+	private static final Logger log = LoggerFactory.getLogger(PeerScores.class);
+
+	public static final class Score
+	{
+		public final int samples;
+		/** smoothed ping time, or -1 if never measured */
+		public final double pingMs;
+		/** smoothed block download rate, only sampled while the peer was the download peer */
+		public final double bytesPerSecond;
+		public final double stallRate;
+		public final long lastSeen;
+
+		public Score(final int samples, final double pingMs, final double bytesPerSecond, final double stallRate, final long lastSeen)
+		{
+			this.samples = samples;
+			this.pingMs = pingMs;
+			this.bytesPerSecond = bytesPerSecond;
+			this.stallRate = stallRate;
+			this.lastSeen = lastSeen;
+		}
+
+		public double value()
+		{
+			final double ping = pingMs >= 0 ? pingMs : MAX_PING_MS / 2;
+
+			return (bytesPerSecond / 1024 + 1) / (1 + ping / 100) * (1 - stallRate);
+		}
+
+		public boolean isPoor()
+		{
+			return samples >= MIN_SAMPLES && (stallRate >= MAX_STALL_RATE || pingMs >= MAX_PING_MS);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%.2f (ping %.0f ms, %.0f bytes/s, stalls %.0f%%, %d samples)", value(), pingMs, bytesPerSecond,
+					stallRate * 100, samples);
+		}
+	}
+
+	/**
+	 * @param pingMs
+	 *            ping time or -1 if not known
+	 * @param bytesPerSecond
+	 *            recent receive rate from this peer
+	 * @param downloading
+	 *            if the peer was the chain download peer
+	 * @param stalled
+	 *            if the peer was downloading but did not deliver blocks although it claims to have more
+	 */
+	public synchronized Score record(@Nonnull final InetSocketAddress address, final long pingMs, final double bytesPerSecond,
+			final boolean downloading, final boolean stalled, final long now)
+	{
+		final Score old = scores.get(address);
+
+		final Score score;
+		if (old == null)
+		{
+			score = new Score(1, pingMs, downloading ? bytesPerSecond : 0, stalled ? 1 : 0, now);
+		}
+		else
+		{
+			final double newPingMs = pingMs < 0 ? old.pingMs : old.pingMs < 0 ? pingMs : smooth(old.pingMs, pingMs);
+			final double newBytesPerSecond = downloading ? smooth(old.bytesPerSecond, bytesPerSecond) : old.bytesPerSecond;
+			final double newStallRate = downloading ? smooth(old.stallRate, stalled ? 1 : 0) : old.stallRate;
+			score = new Score(old.samples + 1, newPingMs, newBytesPerSecond, newStallRate, now);
+		}
+
+		scores.put(address, score);
+		return score;
+	}
+
+	private static double smooth(final double oldValue, final double newValue)
+	{
+		return oldValue + (newValue - oldValue) * SMOOTHING;
+	}
+
+	@CheckForNull
+	public synchronized Score get(@Nonnull final InetSocketAddress address)
+	{
+		return scores.get(address);
+	}
+
+	public synchronized boolean isPoor(@Nonnull final InetSocketAddress address)
+	{
+		final Score score = scores.get(address);
+
+		return score != null && score.isPoor();
+	}
+
+	/**
+	 * @return up to maxPeers recently seen peers that are not poor, best first
+	 */
+	public synchronized List<InetSocketAddress> preferred(final int maxPeers, final long now)
+	{
+		final List<Map.Entry<InetSocketAddress, Score>> entries = new ArrayList<Map.Entry<InetSocketAddress, Score>>();
+		for (final Map.Entry<InetSocketAddress, Score> entry : scores.entrySet())
+		{
+			final Score score = entry.getValue();
+			if (!score.isPoor() && now - score.lastSeen < MAX_AGE_MS)
+				entries.add(entry);
+		}
+
+		Collections.sort(entries, BEST_FIRST);
+
+		final List<InetSocketAddress> preferred = new ArrayList<InetSocketAddress>(Math.min(maxPeers, entries.size()));
+		for (final Map.Entry<InetSocketAddress, Score> entry : entries)
+		{
+			if (preferred.size() >= maxPeers)
+				break;
+
+			preferred.add(entry.getKey());
+		}
+
+		return preferred;
+	}
+
+	private static final Comparator<Map.Entry<InetSocketAddress, Score>> BEST_FIRST = new Comparator<Map.Entry<InetSocketAddress, Score>>()
+	{
+		@Override
+		public int compare(final Map.Entry<InetSocketAddress, Score> entry1, final Map.Entry<InetSocketAddress, Score> entry2)
+		{
+			return Double.compare(entry2.getValue().value(), entry1.getValue().value());
+		}
+	};
+
+	@Override
+	public synchronized int size()
+	{
+		return scores.size();
+	}
+
+	@Override
+	public synchronized void load(@Nonnull final Reader reader, final long now) throws IOException
+	{
+		final BufferedReader in = new BufferedReader(reader);
+
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			final String[] fields = line.split(" ");
+			if (fields.length != 7)
+			{
+				log.info("skipping malformed peer score: '{}'", line);
+				continue;
+			}
+
+			try
+			{
+				final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(fields[0]), Integer.parseInt(fields[1]));
+				final Score score = new Score(Integer.parseInt(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4]),
+						Double.parseDouble(fields[5]), Long.parseLong(fields[6]));
+
+				if (now - score.lastSeen < MAX_AGE_MS)
+					scores.put(address, score);
+			}
+			catch (final NumberFormatException x)
+			{
+				log.info("skipping malformed peer score: '{}'", line);
+			}
+			catch (final UnknownHostException x)
+			{
+				log.info("skipping malformed peer score: '{}'", line);
+			}
+		}
+	}
+
+	/**
+	 * Writes the scores, dropping the oldest entries if there are too many.
+	 */
+	@Override
+	public synchronized void save(@Nonnull final Writer writer) throws IOException
+	{
+		if (scores.size() > MAX_ENTRIES)
+		{
+			final List<Score> byAge = new ArrayList<Score>(scores.values());
+			Collections.sort(byAge, new Comparator<Score>()
+			{
+				@Override
+				public int compare(final Score score1, final Score score2)
+				{
+					return score1.lastSeen < score2.lastSeen ? 1 : (score1.lastSeen > score2.lastSeen ? -1 : 0);
+				}
+			});
+			final long cutoff = byAge.get(MAX_ENTRIES - 1).lastSeen;
+
+			for (final Iterator<Score> i = scores.values().iterator(); i.hasNext();)
+				if (i.next().lastSeen < cutoff)
+					i.remove();
+		}
+
+		for (final Map.Entry<InetSocketAddress, Score> entry : scores.entrySet())
+		{
+			final InetSocketAddress address = entry.getKey();
+			final Score score = entry.getValue();
+
+			writer.write(address.getAddress().getHostAddress() + " " + address.getPort() + " " + score.samples + " " + score.pingMs + " "
+					+ score.bytesPerSecond + " " + score.stallRate + " " + score.lastSeen + "\n");
+		}
+
+		writer.flush();
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Bookkeeping of the blockchain service, like peer scores or the broadcast queue, that survives service restarts in a small
+ * text file.
+ */
+interface PersistentServiceState
+{
+	void load(@Nonnull Reader reader, long now) throws IOException;
+
+	void save(@Nonnull Writer writer) throws IOException;
+
+	int size();
+}
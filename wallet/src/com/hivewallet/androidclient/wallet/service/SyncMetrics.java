@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import com.google.bitcoin.core.AbstractBlockChain.NewBlockType;
+import com.google.bitcoin.core.AbstractPeerEventListener;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BlockChainListener;
+import com.google.bitcoin.core.FilteredBlock;
+import com.google.bitcoin.core.Message;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerEventListener;
+import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.VerificationException;
+
+import com.hivewallet.androidclient.wallet.WalletSaveScheduler;
+import com.hivewallet.androidclient.wallet.util.RollingCounter;
+
+/**
+ * Throughput of the blockchain sync, kept in rolling windows so they can be sampled at any time without coordinating with the network
+ * threads.
+ */
+public final class SyncMetrics
+{
+	public static final int WINDOW_SECONDS = 30;
+
+	private final RollingCounter blocks = new RollingCounter(WINDOW_SECONDS);
+	private final RollingCounter filteredBlocks = new RollingCounter(WINDOW_SECONDS);
+	private final RollingCounter bytes = new RollingCounter(WINDOW_SECONDS);
+	private final ConcurrentMap<String, RollingCounter> peerBytes = new ConcurrentHashMap<String, RollingCounter>();
+	private final RollingCounter chainAdd = new RollingCounter(WINDOW_SECONDS);
+	private final RollingCounter wallet = new RollingCounter(WINDOW_SECONDS);
+	private final RollingCounter autosave = new RollingCounter(WINDOW_SECONDS);
+	private final AtomicLong lastAutosaveMs = new AtomicLong(-1);
+
+	/**
+	 * Counts incoming messages. Needs to be registered with {@link com.google.bitcoin.utils.Threading#SAME_THREAD}, because bitcoinj only
+	 * passes messages to listeners running on the network thread.
+	 */
+	public final PeerEventListener peerEventListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			final int size = m.getMessageSize();
+
+			if (m instanceof FilteredBlock)
+				filteredBlocks.add(size);
+			else if (m instanceof Block)
+				blocks.add(size);
+
+			bytes.add(size);
+			peerCounter(peer).add(size);
+
+			return m;
+		}
+
+		@Override
+		public void onPeerDisconnected(final Peer peer, final int peerCount)
+		{
+			peerBytes.remove(peerKey(peer));
+		}
+	};
+
+	private RollingCounter peerCounter(final Peer peer)
+	{
+		final String key = peerKey(peer);
+
+		final RollingCounter counter = peerBytes.get(key);
+		if (counter != null)
+			return counter;
+
+		final RollingCounter newCounter = new RollingCounter(WINDOW_SECONDS);
+		final RollingCounter existingCounter = peerBytes.putIfAbsent(key, newCounter);
+		return existingCounter != null ? existingCounter : newCounter;
+	}
+
+	public double peerBytesPerSecond(@Nonnull final Peer peer)
+	{
+		final RollingCounter counter = peerBytes.get(peerKey(peer));
+
+		return counter != null ? counter.window().amountPerSecond() : 0;
+	}
+
+	public long blocksInWindow()
+	{
+		final long now = System.currentTimeMillis();
+
+		return blocks.window(now).count + filteredBlocks.window(now).count;
+	}
+
+	private static String peerKey(final Peer peer)
+	{
+		return peer.getAddress().toString();
+	}
+
+	public long startTiming()
+	{
+		return System.nanoTime();
+	}
+
+	public void chainAddFinished(final long startNanos)
+	{
+		chainAdd.add(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Wraps a chain listener, usually the wallet, so that the time the chain spends notifying it is accounted as wallet time.
+	 */
+	public BlockChainListener timedListener(@Nonnull final BlockChainListener listener)
+	{
+		return new BlockChainListener()
+		{
+			@Override
+			public void notifyNewBestBlock(final StoredBlock block) throws VerificationException
+			{
+				final long start = System.nanoTime();
+				try
+				{
+					listener.notifyNewBestBlock(block);
+				}
+				finally
+				{
+					wallet.add(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+					throws VerificationException
+			{
+				final long start = System.nanoTime();
+				try
+				{
+					listener.reorganize(splitPoint, oldBlocks, newBlocks);
+				}
+				finally
+				{
+					wallet.add(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public boolean isTransactionRelevant(final Transaction tx) throws ScriptException
+			{
+				final long start = System.nanoTime();
+				try
+				{
+					return listener.isTransactionRelevant(tx);
+				}
+				finally
+				{
+					wallet.add(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public void receiveFromBlock(final Transaction tx, final StoredBlock block, final NewBlockType blockType, final int relativityOffset)
+					throws VerificationException
+			{
+				final long start = System.nanoTime();
+				try
+				{
+					listener.receiveFromBlock(tx, block, blockType, relativityOffset);
+				}
+				finally
+				{
+					wallet.add(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public boolean notifyTransactionIsInBlock(final Sha256Hash txHash, final StoredBlock block, final NewBlockType blockType,
+					final int relativityOffset) throws VerificationException
+			{
+				final long start = System.nanoTime();
+				try
+				{
+					return listener.notifyTransactionIsInBlock(txHash, block, blockType, relativityOffset);
+				}
+				finally
+				{
+					wallet.add(System.nanoTime() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Takes the time spent saving since the last call from the cumulative save statistics.
+	 */
+	public void sampleAutosave(@Nonnull final WalletSaveScheduler.Stats stats)
+	{
+		final long totalMs = stats.serializeTimeMs + stats.writeTimeMs;
+		final long lastMs = lastAutosaveMs.getAndSet(totalMs);
+
+		if (lastMs >= 0 && totalMs > lastMs)
+			autosave.add((totalMs - lastMs) * 1000000);
+	}
+
+	public Snapshot snapshot()
+	{
+		final long now = System.currentTimeMillis();
+
+		final Map<String, Double> peerBytesPerSecond = new TreeMap<String, Double>();
+		for (final Map.Entry<String, RollingCounter> entry : peerBytes.entrySet())
+			peerBytesPerSecond.put(entry.getKey(), entry.getValue().window(now).amountPerSecond());
+
+		return new Snapshot(blocks.window(now), filteredBlocks.window(now), bytes.window(now), Collections.unmodifiableMap(peerBytesPerSecond),
+				chainAdd.window(now), wallet.window(now), autosave.window(now));
+	}
+
+	public static final class Snapshot
+	{
+		public final RollingCounter.Window blocks;
+		public final RollingCounter.Window filteredBlocks;
+		public final RollingCounter.Window bytes;
+		public final Map<String, Double> peerBytesPerSecond;
+		/** amounts are in nanoseconds, including the wallet time */
+		public final RollingCounter.Window chainAdd;
+		/** amounts are in nanoseconds */
+		public final RollingCounter.Window wallet;
+		/** amounts are in nanoseconds */
+		public final RollingCounter.Window autosave;
+
+		public Snapshot(final RollingCounter.Window blocks, final RollingCounter.Window filteredBlocks, final RollingCounter.Window bytes,
+				final Map<String, Double> peerBytesPerSecond, final RollingCounter.Window chainAdd, final RollingCounter.Window wallet,
+				final RollingCounter.Window autosave)
+		{
+			this.blocks = blocks;
+			this.filteredBlocks = filteredBlocks;
+			this.bytes = bytes;
+			this.peerBytesPerSecond = peerBytesPerSecond;
+			this.chainAdd = chainAdd;
+			this.wallet = wallet;
+			this.autosave = autosave;
+		}
+
+		/**
+		 * @return fraction of wall clock time spent in the given timing window
+		 */
+		public static double busy(final RollingCounter.Window timing)
+		{
+			return timing.amount / (timing.seconds * 1e9);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%.1f blocks/s, %.1f filtered blocks/s, %.0f bytes/s, chain %.0f%%, wallet %.0f%%, autosave %.0f%%",
+					blocks.countPerSecond(), filteredBlocks.countPerSecond(), bytes.amountPerSecond(), busy(chainAdd) * 100, busy(wallet) * 100,
+					busy(autosave) * 100);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides how often the blockchain service is started and when a running service is considered idle, from how often and at what time
+ * of day payments usually arrive for this wallet. The aim is to keep the expected number of payments that arrive between two syncs
+ * bounded while not holding the wake lock longer than needed.
+ */
+public final class SyncPolicy
+{
+	public static final long MINUTE_MS = 60 * 1000l;
+	public static final long HOUR_MS = 60 * MINUTE_MS;
+	public static final long DAY_MS = 24 * HOUR_MS;
+
+	public static final long MIN_ALARM_INTERVAL_MS = 15 * MINUTE_MS;
+	public static final long MAX_ALARM_INTERVAL_MS = DAY_MS;
+
+	/** arrivals older than this are not considered */
+	public static final long ARRIVALS_WINDOW_MS = 28 * DAY_MS;
+	/** number of arrivals kept in the history */
+	public static final int MAX_ARRIVALS = 100;
+
+	/** the expected number of payments arriving between two syncs we aim for */
+	private static final double PAYMENTS_PER_INTERVAL = 0.25;
+	/** hours on either side of the current hour that count as the same time of day */
+	private static final int HOUR_OF_DAY_SPREAD = 1;
+	/** payments following each other within this time are considered a burst */
+	private static final long BURST_MS = 30 * MINUTE_MS;
+
+	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
+	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
+	private static final int IDLE_TRANSACTION_TIMEOUT_QUIET_MIN = 5;
+	private static final int IDLE_TRANSACTION_TIMEOUT_BURSTY_MIN = 15;
+	private static final int MIN_COLLECT_HISTORY = 2;
+
+	private final long justUsedMs;
+	private final long recentlyUsedMs;
+	private final TimeZone timeZone;
+
+	public SyncPolicy(final long justUsedMs, final long recentlyUsedMs, @Nonnull final TimeZone timeZone)
+	{
+		this.justUsedMs = justUsedMs;
+		this.recentlyUsedMs = recentlyUsedMs;
+		this.timeZone = timeZone;
+	}
+
+	public static final class Decision
+	{
+		public final double paymentsPerHour;
+		public final double paymentsPerHourAtTimeOfDay;
+		public final double burstiness;
+		public final long lastUsedAgoMs;
+		public final boolean charging;
+
+		public final long alarmIntervalMs;
+		public final int idleBlockTimeoutMin;
+		public final int idleTransactionTimeoutMin;
+
+		public Decision(final double paymentsPerHour, final double paymentsPerHourAtTimeOfDay, final double burstiness, final long lastUsedAgoMs,
+				final boolean charging, final long alarmIntervalMs, final int idleBlockTimeoutMin, final int idleTransactionTimeoutMin)
+		{
+			this.paymentsPerHour = paymentsPerHour;
+			this.paymentsPerHourAtTimeOfDay = paymentsPerHourAtTimeOfDay;
+			this.burstiness = burstiness;
+			this.lastUsedAgoMs = lastUsedAgoMs;
+			this.charging = charging;
+			this.alarmIntervalMs = alarmIntervalMs;
+			this.idleBlockTimeoutMin = idleBlockTimeoutMin;
+			this.idleTransactionTimeoutMin = idleTransactionTimeoutMin;
+		}
+
+		public int maxHistorySize()
+		{
+			return Math.max(idleBlockTimeoutMin, idleTransactionTimeoutMin);
+		}
+
+		/**
+		 * @param history
+		 *            activity per minute, most recent first
+		 */
+		public boolean isIdle(@Nonnull final List<Activity> history)
+		{
+			if (history.size() < MIN_COLLECT_HISTORY)
+				return false;
+
+			for (int i = 0; i < history.size(); i++)
+			{
+				final Activity entry = history.get(i);
+				final boolean blocksActive = entry.numBlocksDownloaded > 0 && i <= idleBlockTimeoutMin;
+				final boolean transactionsActive = entry.numTransactionsReceived > 0 && i <= idleTransactionTimeoutMin;
+
+				if (blocksActive || transactionsActive)
+					return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%.3f payments/h (%.3f/h at this time of day, %.0f%% in bursts), last used %d min ago%s -> "
+					+ "sync every %d min, idle after %d/%d min without blocks/transactions", paymentsPerHour, paymentsPerHourAtTimeOfDay, burstiness * 100,
+					lastUsedAgoMs / MINUTE_MS, charging ? ", charging" : "", alarmIntervalMs / MINUTE_MS, idleBlockTimeoutMin,
+					idleTransactionTimeoutMin);
+		}
+	}
+
+	public static final class Activity
+	{
+		public final int numTransactionsReceived;
+		public final int numBlocksDownloaded;
+
+		public Activity(final int numTransactionsReceived, final int numBlocksDownloaded)
+		{
+			this.numTransactionsReceived = numTransactionsReceived;
+			this.numBlocksDownloaded = numBlocksDownloaded;
+		}
+
+		@Override
+		public String toString()
+		{
+			return numTransactionsReceived + "/" + numBlocksDownloaded;
+		}
+	}
+
+	/**
+	 * @param arrivals
+	 *            times payments arrived at, in ascending order
+	 */
+	public Decision decide(final long now, final long lastUsedAgoMs, final boolean charging, @Nonnull final List<Long> arrivals)
+	{
+		final int hourOfDay = hourOfDay(now);
+
+		int numRecent = 0;
+		int numAtTimeOfDay = 0;
+		int numInBurst = 0;
+		long previousArrival = Long.MIN_VALUE;
+
+		for (final long arrival : arrivals)
+		{
+			if (arrival > now || now - arrival >= ARRIVALS_WINDOW_MS)
+				continue;
+
+			numRecent++;
+
+			final int distance = Math.abs(hourOfDay(arrival) - hourOfDay);
+			if (Math.min(distance, 24 - distance) <= HOUR_OF_DAY_SPREAD)
+				numAtTimeOfDay++;
+
+			if (previousArrival != Long.MIN_VALUE && arrival - previousArrival < BURST_MS)
+				numInBurst++;
+			previousArrival = arrival;
+		}
+
+		final double windowHours = (double) ARRIVALS_WINDOW_MS / HOUR_MS;
+		final double paymentsPerHour = numRecent / windowHours;
+		final double paymentsPerHourAtTimeOfDay = numAtTimeOfDay / (windowHours / 24 * (2 * HOUR_OF_DAY_SPREAD + 1));
+		final double burstiness = numRecent > 1 ? (double) numInBurst / (numRecent - 1) : 0;
+
+		// the alarm interval
+		final double rate = Math.max(paymentsPerHour, paymentsPerHourAtTimeOfDay);
+		long alarmIntervalMs = rate > 0 ? (long) (PAYMENTS_PER_INTERVAL / rate * HOUR_MS) : MAX_ALARM_INTERVAL_MS;
+
+		if (lastUsedAgoMs < justUsedMs)
+			alarmIntervalMs = MIN_ALARM_INTERVAL_MS; // the user is probably waiting for a payment
+		else if (lastUsedAgoMs < recentlyUsedMs)
+			alarmIntervalMs = Math.min(alarmIntervalMs, DAY_MS / 2);
+
+		if (charging)
+			alarmIntervalMs /= 2; // wake locks are cheap
+
+		alarmIntervalMs = Math.max(MIN_ALARM_INTERVAL_MS, Math.min(MAX_ALARM_INTERVAL_MS, alarmIntervalMs));
+
+		// the idle timeouts
+		final int idleBlockTimeoutMin = charging ? IDLE_BLOCK_TIMEOUT_MIN * 2 : IDLE_BLOCK_TIMEOUT_MIN;
+
+		int idleTransactionTimeoutMin;
+		if (numRecent == 0)
+			idleTransactionTimeoutMin = IDLE_TRANSACTION_TIMEOUT_QUIET_MIN;
+		else if (burstiness >= 0.3)
+			idleTransactionTimeoutMin = IDLE_TRANSACTION_TIMEOUT_BURSTY_MIN;
+		else
+			idleTransactionTimeoutMin = IDLE_TRANSACTION_TIMEOUT_MIN;
+		if (charging)
+			idleTransactionTimeoutMin *= 2;
+
+		return new Decision(paymentsPerHour, paymentsPerHourAtTimeOfDay, burstiness, lastUsedAgoMs, charging, alarmIntervalMs,
+				idleBlockTimeoutMin, idleTransactionTimeoutMin);
+	}
+
+	private int hourOfDay(final long time)
+	{
+		// this runs for every arrival, so no Calendar
+		final long localTime = time + timeZone.getOffset(time);
+
+		return (int) (localTime / HOUR_MS % 24);
+	}
+}
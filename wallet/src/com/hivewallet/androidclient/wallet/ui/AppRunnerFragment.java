@@ -16,6 +16,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
@@ -314,8 +316,7 @@ public class AppRunnerFragment extends Fragment implements LoaderManager.LoaderC
 		}
 	}
 	
-	private static class AppPlatformApi implements AppInstaller.AppInstallCallback {
-		private static final Logger log = LoggerFactory.getLogger(AppPlatformApi.class);
+	private static class AppPlatformApi {
 		private static final String VOLLEY_TAG = "volley_tag";
 		
 		private WalletApplication application;
@@ -325,13 +326,13 @@ public class AppRunnerFragment extends Fragment implements LoaderManager.LoaderC
 		private WebView webView;
 		
 		volatile private long lastSendMoneyCallbackId = -1;
-		volatile private long lastInstallAppCallbackId = -1;
 		
 		volatile private List<ExchangeRate> exchangeRates;
 		private boolean shouldForwardExchangeRateUpdates = false; 
 		
 		private AppPlatformDBHelper appPlatformDBHelper;
-		private AppInstaller appInstaller;
+		// installs still running, by callback id
+		private final Map<Long, AppInstaller.Install> installs = new ConcurrentHashMap<Long, AppInstaller.Install>();
 
 		private String activeAppId;
 		private List<String> accessedHosts;
@@ -638,48 +639,39 @@ public class AppRunnerFragment extends Fragment implements LoaderManager.LoaderC
 		}
 		
 		@JavascriptInterface
-		public void installApp(long callbackId, String url) {
-			if (appInstaller != null) {
-				/* Concurrent install are not supported at the moment */
-				performCallback(callbackId, "'Another install is in progress'", "false");
-				return;
-			}
-			
-			lastInstallAppCallbackId = callbackId;
-			File dir = application.getDir(Constants.APP_PLATFORM_FOLDER, Context.MODE_PRIVATE);
-			appInstaller = new AppInstaller(url, dir, this);
-			appInstaller.start();
-		}
-		
-		@Override
-		public void installSuccessful(String appId, File unpackDir, File appDir, JSONObject manifest)
-		{
-			try
+		public void installApp(final long callbackId, String url) {
+			/* the app API passes no hash of the archive, so it can only be verified against a Digest header of the server */
+			final AtomicBoolean finished = new AtomicBoolean();
+			AppInstaller.Install install = application.getAppInstaller().install(url, null, new AppInstaller.AppInstallCallback()
 			{
-				FileUtils.deleteQuietly(appDir);
-				FileUtils.moveDirectory(unpackDir, appDir);
-				appPlatformDBHelper.addManifest(appId, manifest);
-				
-				appInstaller = null;
-				if (lastInstallAppCallbackId != -1)
-					performCallback(lastInstallAppCallbackId, "null", "true");
-				lastInstallAppCallbackId = -1;
-			}
-			catch (IOException e)
-			{
-				log.info("Exception while finalizing installation: {}", e);
-				installFailed("Install failed");
-			}
-		}
+				@Override
+				public void installProgress(long bytesRead, long bytesTotal)
+				{
+					/* the app API has no progress events */
+				}
 
-		@Override
-		public void installFailed(String errMsg)
-		{
-			appInstaller = null;
-			if (lastInstallAppCallbackId != -1)
-				performCallback(lastInstallAppCallbackId, "'" + errMsg + "'", "false");
-			lastInstallAppCallbackId = -1;
-		}		
+				@Override
+				public void installSuccessful(String appId, JSONObject manifest)
+				{
+					finished.set(true);
+					installs.remove(callbackId);
+					performCallback(callbackId, "null", "true");
+				}
+
+				@Override
+				public void installFailed(String errMsg)
+				{
+					finished.set(true);
+					installs.remove(callbackId);
+					performCallback(callbackId, "'" + errMsg + "'", "false");
+				}
+			});
+
+			/* the install may have finished before it was returned, e.g. for an invalid URL */
+			installs.put(callbackId, install);
+			if (finished.get())
+				installs.remove(callbackId);
+		}
 		
 		private void performCallback(long callbackId, String... arguments) {
 			if (arguments == null || arguments.length < 1)
@@ -715,8 +707,10 @@ public class AppRunnerFragment extends Fragment implements LoaderManager.LoaderC
 		}
 		
 		public void onPause() {
-			if (appInstaller != null)
-				appInstaller.cancel();
+			/* partial downloads are kept, so installing again later resumes them */
+			for (AppInstaller.Install install : installs.values())
+				install.cancel();
+			installs.clear();
 			application.getVolleyRequestQueue().cancelAll(VOLLEY_TAG);
 		}
 		
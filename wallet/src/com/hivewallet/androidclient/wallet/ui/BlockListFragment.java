@@ -67,6 +67,7 @@ import com.hivewallet.androidclient.wallet.Constants;
 import com.hivewallet.androidclient.wallet.WalletApplication;
 import com.hivewallet.androidclient.wallet.service.BlockchainService;
 import com.hivewallet.androidclient.wallet.service.BlockchainServiceImpl;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet_test.R;
 
@@ -341,14 +342,14 @@ public final class BlockListFragment extends SherlockListFragment
 
 	private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>>
 	{
-		private Context context;
+		private BlockchainStateDispatcher stateDispatcher;
 		private BlockchainService service;
 
 		private BlockLoader(final Context context, final BlockchainService service)
 		{
 			super(context);
 
-			this.context = context.getApplicationContext();
+			this.stateDispatcher = ((WalletApplication) context.getApplicationContext()).getBlockchainStateDispatcher();
 			this.service = service;
 		}
 
@@ -357,13 +358,13 @@ public final class BlockListFragment extends SherlockListFragment
 		{
 			super.onStartLoading();
 
-			context.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+			stateDispatcher.subscribe(stateListener, Constants.BLOCKCHAIN_STATE_THROTTLE_MS);
 		}
 
 		@Override
 		protected void onStopLoading()
 		{
-			context.unregisterReceiver(broadcastReceiver);
+			stateDispatcher.unsubscribe(stateListener);
 
 			super.onStopLoading();
 		}
@@ -374,11 +375,17 @@ public final class BlockListFragment extends SherlockListFragment
 			return service.getRecentBlocks(MAX_BLOCKS);
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 		{
+			private int lastBestChainHeight = -1;
+
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onBlockchainState(final BlockchainStateDispatcher.State state)
 			{
+				if (state.bestChainHeight == lastBestChainHeight)
+					return;
+				lastBestChainHeight = state.bestChainHeight;
+
 				try
 				{
 					forceLoad();
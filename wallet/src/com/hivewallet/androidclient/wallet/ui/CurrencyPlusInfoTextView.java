@@ -59,6 +59,7 @@ public final class CurrencyPlusInfoTextView extends TextView
 	private RelativeSizeSpan insignificantRelativeSizeSpanLocalValue = null;
 	private boolean isValidExchangeRate = true;
 	private boolean useBold = false;
+	private final StringBuilder formatBuffer = new StringBuilder();
 
 	public CurrencyPlusInfoTextView(final Context context)
 	{
@@ -138,10 +139,10 @@ public final class CurrencyPlusInfoTextView extends TextView
 	}
 	
 	private Editable formatAmount(@Nonnull BigInteger myAmount, @Nonnull String mySuffix) {
-		final String s;
-		s = GenericUtils.formatValue(myAmount, precision, shift);
+		formatBuffer.setLength(0);
+		GenericUtils.appendValue(formatBuffer, myAmount.longValue(), "", "-", precision, shift);
 		
-		final Editable text = new SpannableStringBuilder(s);
+		final Editable text = new SpannableStringBuilder(formatBuffer);
 		WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan, useBold);
 		
 		if (useBold)
@@ -153,10 +154,10 @@ public final class CurrencyPlusInfoTextView extends TextView
 	}
 	
 	private Editable formatLocalValue(@Nonnull BigInteger myAmount, @Nonnull String mySuffix) {
-		final String s;
-		s = GenericUtils.formatValue(myAmount, Constants.LOCAL_PRECISION, 0);
+		formatBuffer.setLength(0);
+		GenericUtils.appendValue(formatBuffer, myAmount.longValue(), "", "-", Constants.LOCAL_PRECISION, 0);
 		
-		final Editable text = new SpannableStringBuilder(s);
+		final Editable text = new SpannableStringBuilder(formatBuffer);
 		WalletUtils.formatSignificant(text, insignificantRelativeSizeSpanLocalValue, false);
 		
 		text.append(" " + mySuffix);
@@ -48,6 +48,7 @@ public final class CurrencyTextView extends TextView
 	private boolean alwaysSigned = false;
 	private RelativeSizeSpan prefixRelativeSizeSpan = null;
 	private RelativeSizeSpan insignificantRelativeSizeSpan = null;
+	private final StringBuilder formatBuffer = new StringBuilder();
 
 	public CurrencyTextView(final Context context)
 	{
@@ -128,13 +129,14 @@ public final class CurrencyTextView extends TextView
 
 		if (amount != null)
 		{
-			final String s;
+			formatBuffer.setLength(0);
 			if (alwaysSigned)
-				s = GenericUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision, shift);
+				GenericUtils.appendValue(formatBuffer, amount.longValue(), Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision,
+						shift);
 			else
-				s = GenericUtils.formatValue(amount, precision, shift);
+				GenericUtils.appendValue(formatBuffer, amount.longValue(), "", "-", precision, shift);
 
-			text = new SpannableStringBuilder(s);
+			text = new SpannableStringBuilder(formatBuffer);
 			WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan);
 
 			if (prefix != null)
@@ -22,10 +22,7 @@ import java.math.BigInteger;
 import javax.annotation.CheckForNull;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.Cursor;
@@ -55,7 +52,7 @@ import com.hivewallet.androidclient.wallet.Constants;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
 import com.hivewallet.androidclient.wallet.WalletApplication;
-import com.hivewallet.androidclient.wallet.service.BlockchainService;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
 import com.hivewallet.androidclient.wallet.util.GenericUtils;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet.util.WholeStringBuilder;
@@ -128,7 +125,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	{
 		super.onResume();
 
-		activity.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		application.getBlockchainStateDispatcher().subscribe(stateListener, Constants.BLOCKCHAIN_STATE_THROTTLE_MS);
 
 		loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
 
@@ -140,7 +137,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	{
 		loaderManager.destroyLoader(ID_BALANCE_LOADER);
 
-		activity.unregisterReceiver(broadcastReceiver);
+		application.getBlockchainStateDispatcher().unsubscribe(stateListener);
 
 		super.onPause();
 	}
@@ -276,18 +273,19 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 				: R.string.exchange_rates_fragment_empty_text)));
 	}
 
-	private final BlockchainBroadcastReceiver broadcastReceiver = new BlockchainBroadcastReceiver();
-
-	private final class BlockchainBroadcastReceiver extends BroadcastReceiver
+	private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent intent)
+		public void onBlockchainState(final BlockchainStateDispatcher.State state)
 		{
-			replaying = intent.getBooleanExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_REPLAYING, false);
+			if (state.replaying != replaying)
+			{
+				replaying = state.replaying;
 
-			updateView();
+				updateView();
+			}
 		}
-	}
+	};
 
 	private final LoaderCallbacks<Cursor> rateLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
 	{
@@ -36,6 +36,7 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 {
 	private PeerListFragment peerListFragment;
 	private BlockListFragment blockListFragment;
+	private SyncMetricsFragment syncMetricsFragment;
 
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
@@ -54,7 +55,8 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		if (pager != null)
 		{
 			final ViewPagerTabs pagerTabs = (ViewPagerTabs) findViewById(R.id.network_monitor_pager_tabs);
-			pagerTabs.addTabLabels(R.string.network_monitor_peer_list_title, R.string.network_monitor_block_list_title);
+			pagerTabs.addTabLabels(R.string.network_monitor_peer_list_title, R.string.network_monitor_block_list_title,
+					R.string.network_monitor_sync_metrics_title);
 
 			final PagerAdapter pagerAdapter = new PagerAdapter(fm);
 
@@ -65,11 +67,13 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 
 			peerListFragment = new PeerListFragment();
 			blockListFragment = new BlockListFragment();
+			syncMetricsFragment = new SyncMetricsFragment();
 		}
 		else
 		{
 			peerListFragment = (PeerListFragment) fm.findFragmentById(R.id.peer_list_fragment);
 			blockListFragment = (BlockListFragment) fm.findFragmentById(R.id.block_list_fragment);
+			syncMetricsFragment = (SyncMetricsFragment) fm.findFragmentById(R.id.sync_metrics_fragment);
 		}
 	}
 
@@ -96,7 +100,7 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		@Override
 		public int getCount()
 		{
-			return 2;
+			return 3;
 		}
 
 		@Override
@@ -104,8 +108,10 @@ public final class NetworkMonitorActivity extends AbstractWalletActivity
 		{
 			if (position == 0)
 				return peerListFragment;
-			else
+			else if (position == 1)
 				return blockListFragment;
+			else
+				return syncMetricsFragment;
 		}
 	}
 }
@@ -29,11 +29,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.graphics.Typeface;
 import android.os.Bundle;
@@ -53,8 +51,11 @@ import com.actionbarsherlock.app.SherlockListFragment;
 import com.google.bitcoin.core.Peer;
 import com.google.bitcoin.core.VersionMessage;
 
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.WalletApplication;
 import com.hivewallet.androidclient.wallet.service.BlockchainService;
 import com.hivewallet.androidclient.wallet.service.BlockchainServiceImpl;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
 import com.hivewallet.androidclient.wallet.util.WholeStringBuilder;
 import com.hivewallet.androidclient.wallet_test.R;
 
@@ -234,14 +235,14 @@ public final class PeerListFragment extends SherlockListFragment
 
 	private static class PeerLoader extends AsyncTaskLoader<List<Peer>>
 	{
-		private Context context;
+		private BlockchainStateDispatcher stateDispatcher;
 		private BlockchainService service;
 
 		private PeerLoader(final Context context, @Nonnull final BlockchainService service)
 		{
 			super(context);
 
-			this.context = context.getApplicationContext();
+			this.stateDispatcher = ((WalletApplication) context.getApplicationContext()).getBlockchainStateDispatcher();
 			this.service = service;
 		}
 
@@ -250,13 +251,13 @@ public final class PeerListFragment extends SherlockListFragment
 		{
 			super.onStartLoading();
 
-			context.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_PEER_STATE));
+			stateDispatcher.subscribe(stateListener, Constants.BLOCKCHAIN_STATE_THROTTLE_MS);
 		}
 
 		@Override
 		protected void onStopLoading()
 		{
-			context.unregisterReceiver(broadcastReceiver);
+			stateDispatcher.unsubscribe(stateListener);
 
 			super.onStopLoading();
 		}
@@ -267,11 +268,17 @@ public final class PeerListFragment extends SherlockListFragment
 			return service.getConnectedPeers();
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 		{
+			private int lastNumPeers = -1;
+
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onBlockchainState(final BlockchainStateDispatcher.State state)
 			{
+				if (state.numPeers == lastNumPeers)
+					return;
+				lastNumPeers = state.numPeers;
+
 				try
 				{
 					forceLoad();
@@ -177,9 +177,9 @@ public final class PreferencesActivity extends SherlockPreferenceActivity implem
 				@Override
 				public void onClick(final DialogInterface dialog, final int which)
 				{
-					log.info("manually initiated blockchain reset");
+					log.info("manually initiated blockchain rescan");
 
-					application.resetBlockchain();
+					application.rescanBlockchain();
 					finish();
 				}
 			});
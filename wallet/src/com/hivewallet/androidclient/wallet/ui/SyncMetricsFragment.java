@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.ui;
+
+import java.util.Map;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.actionbarsherlock.app.SherlockFragment;
+
+import com.hivewallet.androidclient.wallet.service.BlockchainRescan;
+import com.hivewallet.androidclient.wallet.service.BlockchainService;
+import com.hivewallet.androidclient.wallet.service.BlockchainServiceImpl;
+import com.hivewallet.androidclient.wallet.service.BroadcastQueue;
+import com.hivewallet.androidclient.wallet.service.SyncMetrics;
+import com.hivewallet.androidclient.wallet_test.R;
+
+public final class SyncMetricsFragment extends SherlockFragment
+{
+	private AbstractWalletActivity activity;
+
+	private BlockchainService service;
+	private TextView textView;
+
+	private final Handler handler = new Handler();
+
+	private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
+
+	@Override
+	public void onAttach(final Activity activity)
+	{
+		super.onAttach(activity);
+
+		this.activity = (AbstractWalletActivity) activity;
+	}
+
+	@Override
+	public void onActivityCreated(final Bundle savedInstanceState)
+	{
+		super.onActivityCreated(savedInstanceState);
+
+		activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+	}
+
+	@Override
+	public View onCreateView(final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState)
+	{
+		final View view = inflater.inflate(R.layout.sync_metrics_fragment, container, false);
+
+		textView = (TextView) view.findViewById(R.id.sync_metrics_text);
+
+		return view;
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				updateView();
+
+				handler.postDelayed(this, REFRESH_MS);
+			}
+		});
+	}
+
+	@Override
+	public void onPause()
+	{
+		handler.removeCallbacksAndMessages(null);
+
+		super.onPause();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		activity.unbindService(serviceConnection);
+
+		super.onDestroy();
+	}
+
+	private void updateView()
+	{
+		if (textView == null)
+			return;
+
+		if (service == null)
+		{
+			textView.setText(R.string.sync_metrics_fragment_empty);
+			return;
+		}
+
+		final SyncMetrics.Snapshot metrics = service.getSyncMetrics();
+
+		final StringBuilder text = new StringBuilder();
+
+		final BlockchainRescan.Progress rescan = service.getRescanProgress();
+		if (rescan != null)
+		{
+			final long etaMs = rescan.etaMs();
+			if (etaMs >= 0)
+				text.append(getString(R.string.sync_metrics_rescan, rescan.height, rescan.targetHeight,
+						DateUtils.formatElapsedTime(etaMs / DateUtils.SECOND_IN_MILLIS)));
+			else
+				text.append(getString(R.string.sync_metrics_rescan_eta_unknown, rescan.height, rescan.targetHeight));
+			text.append("\n\n");
+		}
+
+		final BroadcastQueue.Stats broadcasts = service.getBroadcastQueueStats();
+		text.append(getString(R.string.sync_metrics_broadcast_queue, broadcasts.depth));
+		if (broadcasts.averageFirstAckMs >= 0)
+			text.append('\n').append(getString(R.string.sync_metrics_broadcast_first_ack, broadcasts.averageFirstAckMs / 1000.0, broadcasts.firstAcks));
+		text.append("\n\n");
+
+		text.append(getString(R.string.sync_metrics_window, metrics.blocks.seconds)).append("\n\n");
+		text.append(getString(R.string.sync_metrics_blocks, metrics.blocks.countPerSecond(), metrics.filteredBlocks.countPerSecond())).append('\n');
+		text.append(getString(R.string.sync_metrics_chain_add, SyncMetrics.Snapshot.busy(metrics.chainAdd) * 100,
+				metrics.chainAdd.averageAmount() / 1e6)).append('\n');
+		text.append(getString(R.string.sync_metrics_wallet, SyncMetrics.Snapshot.busy(metrics.wallet) * 100, metrics.wallet.averageAmount() / 1e6))
+				.append('\n');
+		text.append(getString(R.string.sync_metrics_autosave, SyncMetrics.Snapshot.busy(metrics.autosave) * 100)).append("\n\n");
+		text.append(getString(R.string.sync_metrics_bytes, metrics.bytes.amountPerSecond() / 1024)).append('\n');
+		for (final Map.Entry<String, Double> entry : metrics.peerBytesPerSecond.entrySet())
+			text.append(getString(R.string.sync_metrics_peer_bytes, entry.getKey(), entry.getValue() / 1024)).append('\n');
+
+		textView.setText(text);
+	}
+
+	private final ServiceConnection serviceConnection = new ServiceConnection()
+	{
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder binder)
+		{
+			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+
+			updateView();
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name)
+		{
+			service = null;
+
+			updateView();
+		}
+	};
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.ui;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.Date;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Transaction.Purpose;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.wallet.DefaultCoinSelector;
+import com.google.common.primitives.UnsignedBytes;
+
+import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.TransactionHistoryProvider;
+import com.hivewallet.androidclient.wallet.util.GenericUtils;
+import com.hivewallet.androidclient.wallet.util.WalletUtils;
+
+/**
+ * Immutable snapshot of everything {@link TransactionsListAdapter} needs to bind a transaction, computed off the UI thread.
+ * Amounts are kept unformatted, so a row stays valid across precision and exchange rate changes and only needs to be rebuilt
+ * when the confidence of its transaction changes.
+ * 
+ * Rows can also be persisted to and read back from {@link TransactionHistoryProvider}, in which case they carry no
+ * {@link Transaction}.
+ */
+public final class TransactionRow
+{
+	@CheckForNull
+	public final Transaction tx;
+	public final Sha256Hash hash;
+
+	public final boolean sent;
+	public final boolean internal;
+	public final boolean coinBase;
+	public final boolean own;
+
+	/** signed change of the wallet balance, including fee */
+	public final BigInteger value;
+	/** value shown on the row, which for sent transactions excludes the fee */
+	public final BigInteger amount;
+	@CheckForNull
+	public final BigInteger fee;
+
+	@CheckForNull
+	public final String addressString;
+	@CheckForNull
+	public final String shortAddress;
+
+	public final ConfidenceType confidenceType;
+	/** depth in blocks, capped at one more than what the row can display */
+	public final int displayDepth;
+	public final int maxDisplayDepth;
+	public final int numBroadcastPeers;
+	public final long updateTime;
+
+	public final boolean selectable;
+	public final boolean timeLocked;
+	public final boolean keyRotation;
+	public final boolean dust;
+
+	private TransactionRow(@Nonnull final Transaction tx, @Nonnull final Wallet wallet)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		this.tx = tx;
+		this.hash = tx.getHash();
+
+		this.value = tx.getValue(wallet);
+		this.sent = value.signum() < 0;
+		this.internal = WalletUtils.isInternal(tx);
+		this.coinBase = tx.isCoinBase();
+		this.own = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+
+		if (sent)
+		{
+			final BigInteger valueWithoutFee = WalletUtils.sumOfOutputs(tx).subtract(tx.getValueSentToMe(wallet));
+			this.amount = valueWithoutFee;
+			this.fee = value.abs().subtract(valueWithoutFee);
+		}
+		else
+		{
+			this.amount = value;
+			this.fee = null;
+		}
+
+		final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
+		this.addressString = address != null ? address.toString() : null;
+		this.shortAddress = addressString != null ? GenericUtils.shortenString(addressString) : null;
+
+		this.confidenceType = confidence.getConfidenceType();
+		this.maxDisplayDepth = maxDisplayDepth(tx);
+		this.displayDepth = displayDepth(confidence, maxDisplayDepth);
+		this.numBroadcastPeers = confidence.numBroadcastPeers();
+		this.updateTime = updateTime(tx);
+
+		this.selectable = DefaultCoinSelector.isSelectable(tx);
+		this.timeLocked = tx.isTimeLocked();
+		this.keyRotation = tx.getPurpose() == Purpose.KEY_ROTATION;
+		this.dust = !sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0;
+	}
+
+	private TransactionRow(@Nonnull final Cursor cursor)
+	{
+		this.tx = null;
+		this.hash = new Sha256Hash(cursor.getString(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_HASH)));
+
+		final int direction = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_DIRECTION));
+		final int flags = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_FLAGS));
+		this.sent = (flags & TransactionHistoryProvider.FLAG_SENT) != 0;
+		this.internal = direction == TransactionHistoryProvider.DIRECTION_INTERNAL;
+		this.coinBase = (flags & TransactionHistoryProvider.FLAG_COINBASE) != 0;
+		this.own = (flags & TransactionHistoryProvider.FLAG_OWN) != 0;
+
+		this.value = BigInteger.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_VALUE)));
+		this.amount = BigInteger.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_AMOUNT)));
+		final int feeIndex = cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_FEE);
+		this.fee = cursor.isNull(feeIndex) ? null : BigInteger.valueOf(cursor.getLong(feeIndex));
+
+		this.addressString = cursor.getString(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_COUNTERPARTY));
+		this.shortAddress = addressString != null ? GenericUtils.shortenString(addressString) : null;
+
+		this.confidenceType = ConfidenceType.valueOf(cursor.getString(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_CONFIDENCE_TYPE)));
+		this.maxDisplayDepth = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_MAX_DEPTH));
+		this.displayDepth = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_DEPTH));
+		this.numBroadcastPeers = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_BROADCAST_PEERS));
+		this.updateTime = cursor.getLong(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_TIME));
+
+		this.selectable = (flags & TransactionHistoryProvider.FLAG_SELECTABLE) != 0;
+		this.timeLocked = (flags & TransactionHistoryProvider.FLAG_TIME_LOCKED) != 0;
+		this.keyRotation = (flags & TransactionHistoryProvider.FLAG_KEY_ROTATION) != 0;
+		this.dust = (flags & TransactionHistoryProvider.FLAG_DUST) != 0;
+	}
+
+	public static TransactionRow fromTransaction(@Nonnull final Transaction tx, @Nonnull final Wallet wallet)
+	{
+		return new TransactionRow(tx, wallet);
+	}
+
+	/**
+	 * Reads the row the cursor is positioned at, see {@link TransactionHistoryProvider}.
+	 */
+	public static TransactionRow fromCursor(@Nonnull final Cursor cursor)
+	{
+		return new TransactionRow(cursor);
+	}
+
+	public ContentValues toContentValues()
+	{
+		final ContentValues values = new ContentValues();
+
+		values.put(TransactionHistoryProvider.KEY_HASH, hash.toString());
+		values.put(TransactionHistoryProvider.KEY_TIME, updateTime);
+		values.put(TransactionHistoryProvider.KEY_DIRECTION, internal ? TransactionHistoryProvider.DIRECTION_INTERNAL
+				: (sent ? TransactionHistoryProvider.DIRECTION_SENT : TransactionHistoryProvider.DIRECTION_RECEIVED));
+		values.put(TransactionHistoryProvider.KEY_VALUE, value.longValue());
+		values.put(TransactionHistoryProvider.KEY_AMOUNT, amount.longValue());
+		if (fee != null)
+			values.put(TransactionHistoryProvider.KEY_FEE, fee.longValue());
+		else
+			values.putNull(TransactionHistoryProvider.KEY_FEE);
+		values.put(TransactionHistoryProvider.KEY_COUNTERPARTY, addressString);
+		values.put(TransactionHistoryProvider.KEY_CONFIDENCE_TYPE, confidenceType.name());
+		values.put(TransactionHistoryProvider.KEY_PENDING, confidenceType == ConfidenceType.PENDING ? 1 : 0);
+		values.put(TransactionHistoryProvider.KEY_DEPTH, displayDepth);
+		values.put(TransactionHistoryProvider.KEY_MAX_DEPTH, maxDisplayDepth);
+		values.put(TransactionHistoryProvider.KEY_BROADCAST_PEERS, numBroadcastPeers);
+
+		int flags = 0;
+		if (sent)
+			flags |= TransactionHistoryProvider.FLAG_SENT;
+		if (coinBase)
+			flags |= TransactionHistoryProvider.FLAG_COINBASE;
+		if (own)
+			flags |= TransactionHistoryProvider.FLAG_OWN;
+		if (selectable)
+			flags |= TransactionHistoryProvider.FLAG_SELECTABLE;
+		if (timeLocked)
+			flags |= TransactionHistoryProvider.FLAG_TIME_LOCKED;
+		if (keyRotation)
+			flags |= TransactionHistoryProvider.FLAG_KEY_ROTATION;
+		if (dust)
+			flags |= TransactionHistoryProvider.FLAG_DUST;
+		values.put(TransactionHistoryProvider.KEY_FLAGS, flags);
+
+		return values;
+	}
+
+	/**
+	 * @return true if nothing this row displays has changed since it was built, always false for rows read from the history
+	 *         index
+	 */
+	public boolean isCurrent()
+	{
+		if (tx == null)
+			return false;
+
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		return confidence.getConfidenceType() == confidenceType && displayDepth(confidence, maxDisplayDepth) == displayDepth
+				&& confidence.numBroadcastPeers() == numBroadcastPeers && updateTime(tx) == updateTime;
+	}
+
+	/**
+	 * @return true if the row of the transaction was already at its final depth one block ago, so that further confidence
+	 *         changes cannot change what it displays
+	 */
+	public static boolean isSettled(@Nonnull final Transaction tx)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		return confidence.getConfidenceType() == ConfidenceType.BUILDING && confidence.getDepthInBlocks() > maxDisplayDepth(tx) + 1;
+	}
+
+	private static int maxDisplayDepth(@Nonnull final Transaction tx)
+	{
+		return tx.isCoinBase() ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth() : Constants.MAX_NUM_CONFIRMATIONS;
+	}
+
+	private static int displayDepth(@Nonnull final TransactionConfidence confidence, final int maxDisplayDepth)
+	{
+		if (confidence.getConfidenceType() != ConfidenceType.BUILDING)
+			return 0;
+
+		return Math.min(confidence.getDepthInBlocks(), maxDisplayDepth + 1);
+	}
+
+	private static long updateTime(@Nonnull final Transaction tx)
+	{
+		final Date updateTime = tx.getUpdateTime();
+		return updateTime != null ? updateTime.getTime() : 0;
+	}
+
+	/**
+	 * Pending first, then newest first. Ties are broken by hash, so the order is total as required by
+	 * {@link com.hivewallet.androidclient.wallet.util.SortedIndex}.
+	 */
+	public static final Comparator<TransactionRow> COMPARATOR = new Comparator<TransactionRow>()
+	{
+		@Override
+		public int compare(final TransactionRow row1, final TransactionRow row2)
+		{
+			final boolean pending1 = row1.confidenceType == ConfidenceType.PENDING;
+			final boolean pending2 = row2.confidenceType == ConfidenceType.PENDING;
+
+			if (pending1 != pending2)
+				return pending1 ? -1 : 1;
+
+			final long time1 = row1.updateTime;
+			final long time2 = row2.updateTime;
+
+			if (time1 > time2)
+				return -1;
+			else if (time1 < time2)
+				return 1;
+			else
+				return UnsignedBytes.lexicographicalComparator().compare(row1.hash.getBytes(), row2.hash.getBytes());
+		}
+	};
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + '[' + hash + ',' + confidenceType + ']';
+	}
+}
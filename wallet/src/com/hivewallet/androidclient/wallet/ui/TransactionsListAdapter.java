@@ -17,18 +17,17 @@
 
 package com.hivewallet.androidclient.wallet.ui;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
 import android.text.Html;
@@ -40,21 +39,18 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.Transaction;
-import com.google.bitcoin.core.Transaction.Purpose;
-import com.google.bitcoin.core.TransactionConfidence;
 import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet;
-import com.google.bitcoin.wallet.DefaultCoinSelector;
-import com.google.common.base.Optional;
 
 import com.hivewallet.androidclient.wallet.AddressBookProvider;
 import com.hivewallet.androidclient.wallet.AddressBookProvider.AddressBookEntry;
 import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.ExchangeRateHistory;
+import com.hivewallet.androidclient.wallet.TransactionHistoryProvider;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
 import com.hivewallet.androidclient.wallet.util.CircularProgressView;
-import com.hivewallet.androidclient.wallet.util.GenericUtils;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet_test.R;
 import com.squareup.picasso.Picasso;
@@ -69,11 +65,15 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final Wallet wallet;
 	private final int maxConnectedPeers;
 
-	private final List<Transaction> transactions = new ArrayList<Transaction>();
+	private final List<TransactionRow> transactions = new ArrayList<TransactionRow>();
+	@CheckForNull
+	private Cursor cursor = null;
 	private int precision = 0;
 	private int shift = 0;
 	private String currencyCode = "";
 	private ExchangeRate exchangeRate = null;
+	@CheckForNull
+	private ExchangeRateHistory.Series rateHistory = null;
 	private boolean showEmptyText = false;
 	private boolean showBackupWarning = false;
 
@@ -82,8 +82,6 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final int colorError;
 	private final int colorCircularBuilding = Color.parseColor("#44ff44");
 
-	private final Map<String, Optional<AddressBookEntry>> addressBookCache = new HashMap<String, Optional<AddressBookEntry>>();
-	
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
 	private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
 
@@ -126,9 +124,33 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Rates recorded in the past, so rows show their fiat value at the time of the transaction. Rows older than the history
+	 * fall back to the current rate.
+	 */
+	public void setRateHistory(@Nullable final ExchangeRateHistory.Series rateHistory)
+	{
+		this.rateHistory = rateHistory;
+
+		notifyDataSetChanged();
+	}
+
+	private ExchangeRate exchangeRateAt(final long time)
+	{
+		if (rateHistory != null && exchangeRate != null && rateHistory.currencyCode.equals(exchangeRate.currencyCode))
+		{
+			final ExchangeRate historicRate = rateHistory.rateAt(time);
+			if (historicRate != null)
+				return historicRate;
+		}
+
+		return exchangeRate;
+	}
+
 	public void clear()
 	{
 		transactions.clear();
+		cursor = null;
 
 		notifyDataSetChanged();
 	}
@@ -136,19 +158,60 @@ public class TransactionsListAdapter extends BaseAdapter
 	public void replace(@Nonnull final Transaction tx)
 	{
 		transactions.clear();
-		transactions.add(tx);
+		transactions.add(TransactionRow.fromTransaction(tx, wallet));
+		cursor = null;
+
+		notifyDataSetChanged();
+	}
+
+	public void replace(@Nonnull final Collection<TransactionRow> rows)
+	{
+		this.transactions.clear();
+		this.transactions.addAll(rows);
+		this.cursor = null;
+
+		showEmptyText = true;
 
 		notifyDataSetChanged();
 	}
 
-	public void replace(@Nonnull final Collection<Transaction> transactions)
+	/**
+	 * Switches the adapter to reading rows from a {@link TransactionHistoryProvider} cursor. Rows are only materialized for
+	 * the positions the list actually asks for, so the window the cursor keeps in memory is all that is held.
+	 * 
+	 * @return the previous cursor, which is not closed
+	 */
+	@CheckForNull
+	public Cursor swapCursor(@Nullable final Cursor cursor)
 	{
+		final Cursor oldCursor = this.cursor;
+
 		this.transactions.clear();
-		this.transactions.addAll(transactions);
+		this.cursor = cursor;
 
 		showEmptyText = true;
 
 		notifyDataSetChanged();
+
+		return oldCursor;
+	}
+
+	private int rowCount()
+	{
+		return cursor != null ? cursor.getCount() : transactions.size();
+	}
+
+	private TransactionRow row(final int position)
+	{
+		if (cursor != null)
+		{
+			if (!cursor.moveToPosition(position))
+				throw new IndexOutOfBoundsException("position: " + position);
+
+			return TransactionRow.fromCursor(cursor);
+		}
+
+		return transactions.get(position);
 	}
 
 	@Override
@@ -160,7 +223,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	@Override
 	public int getCount()
 	{
-		int count = transactions.size();
+		int count = rowCount();
 
 		if (count == 1 && showBackupWarning)
 			count++;
@@ -169,21 +232,30 @@ public class TransactionsListAdapter extends BaseAdapter
 	}
 
 	@Override
-	public Transaction getItem(final int position)
+	public TransactionRow getItem(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (position == rowCount() && showBackupWarning)
 			return null;
 
-		return transactions.get(position);
+		return row(position);
 	}
 
 	@Override
 	public long getItemId(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (position == rowCount() && showBackupWarning)
 			return 0;
 
-		return WalletUtils.longHash(transactions.get(position).getHash());
+		// asked for every visible row on each layout, so read the hash without building the row
+		if (cursor != null)
+		{
+			if (!cursor.moveToPosition(position))
+				throw new IndexOutOfBoundsException("position: " + position);
+
+			return WalletUtils.longHash(new Sha256Hash(cursor.getString(cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_HASH))));
+		}
+
+		return WalletUtils.longHash(transactions.get(position).hash);
 	}
 
 	@Override
@@ -195,7 +267,7 @@ public class TransactionsListAdapter extends BaseAdapter
 	@Override
 	public int getItemViewType(final int position)
 	{
-		if (position == transactions.size() && showBackupWarning)
+		if (position == rowCount() && showBackupWarning)
 			return VIEW_TYPE_WARNING;
 		else
 			return VIEW_TYPE_TRANSACTION;
@@ -217,8 +289,7 @@ public class TransactionsListAdapter extends BaseAdapter
 			if (row == null)
 				row = inflater.inflate(R.layout.hive_transaction_row_extended, null);
 
-			final Transaction tx = getItem(position);
-			bindView(row, tx);
+			bindView(row, getItem(position));
 		}
 		else if (type == VIEW_TYPE_WARNING)
 		{
@@ -238,14 +309,17 @@ public class TransactionsListAdapter extends BaseAdapter
 
 	public void bindView(@Nonnull final View row, @Nonnull final Transaction tx)
 	{
-		final TransactionConfidence confidence = tx.getConfidence();
-		final ConfidenceType confidenceType = confidence.getConfidenceType();
-		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
-		final boolean isCoinBase = tx.isCoinBase();
-		final boolean isInternal = WalletUtils.isInternal(tx);
+		bindView(row, TransactionRow.fromTransaction(tx, wallet));
+	}
 
-		final BigInteger value = tx.getValue(wallet);
-		final boolean sent = value.signum() < 0;
+	public void bindView(@Nonnull final View row, @Nonnull final TransactionRow tx)
+	{
+		final ConfidenceType confidenceType = tx.confidenceType;
+		final boolean isOwn = tx.own;
+		final boolean isCoinBase = tx.coinBase;
+		final boolean isInternal = tx.internal;
+
+		final boolean sent = tx.sent;
 
 		final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
 		final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
@@ -258,15 +332,14 @@ public class TransactionsListAdapter extends BaseAdapter
 
 			rowConfidenceCircular.setProgress(1);
 			rowConfidenceCircular.setMaxProgress(1);
-			rowConfidenceCircular.setSize(confidence.numBroadcastPeers());
+			rowConfidenceCircular.setSize(tx.numBroadcastPeers);
 			rowConfidenceCircular.setMaxSize(maxConnectedPeers / 2); // magic value
 			rowConfidenceCircular.setColors(colorInsignificant, colorInsignificant);
 		}
 		else if (confidenceType == ConfidenceType.BUILDING)
 		{
-			final int depth = confidence.getDepthInBlocks();
-			final int maxProgress = isCoinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
-					: Constants.MAX_NUM_CONFIRMATIONS;
+			final int depth = tx.displayDepth;
+			final int maxProgress = tx.maxDisplayDepth;
 			
 			if (depth <= maxProgress) {
 				rowConfidenceCircular.setVisibility(View.VISIBLE);
@@ -304,14 +377,14 @@ public class TransactionsListAdapter extends BaseAdapter
 		if (confidenceType == ConfidenceType.DEAD)
 			textColor = Color.RED;
 		else
-			textColor = DefaultCoinSelector.isSelectable(tx) ? colorSignificant : colorInsignificant;
+			textColor = tx.selectable ? colorSignificant : colorInsignificant;
 
 		// time
 		final TextView rowTime = (TextView) row.findViewById(R.id.transaction_row_time);
 		if (rowTime != null)
 		{
-			final Date time = tx.getUpdateTime();
-			rowTime.setText(time != null ? (DateUtils.getRelativeTimeSpanString(context, time.getTime())) : null);
+			final long time = tx.updateTime;
+			rowTime.setText(time != 0 ? (DateUtils.getRelativeTimeSpanString(context, time)) : null);
 			rowTime.setTextColor(textColor);
 		}
 
@@ -330,14 +403,13 @@ public class TransactionsListAdapter extends BaseAdapter
 		rowCoinbase.setVisibility(isCoinBase ? View.VISIBLE : View.GONE);
 
 		// address, if it can be identified
-		final Address address = sent ? WalletUtils.getFirstToAddress(tx) : WalletUtils.getFirstFromAddress(tx);
 		AddressBookEntry entry = null;
 		String label = null;
 		String suffixData = null;
-		if (address != null) {
-			entry = lookupEntry(address.toString());
+		if (tx.addressString != null) {
+			entry = AddressBookProvider.lookupEntry(context, tx.addressString);
 			if (entry != null) label = entry.getLabel();
-			suffixData = label != null ? label : GenericUtils.shortenString(address.toString());
+			suffixData = label != null ? label : tx.shortAddress;
 		}
 		
 		// prepare tx msg
@@ -349,6 +421,7 @@ public class TransactionsListAdapter extends BaseAdapter
 					sent ? R.string.tx_msg_suffix_sent : R.string.tx_msg_suffix_received, suffixData);
 		
 		// prepare the display of amounts
+		final ExchangeRate exchangeRate = exchangeRateAt(tx.updateTime);
 		final CurrencyPlusInfoTextView rowValue = (CurrencyPlusInfoTextView) row.findViewById(R.id.transaction_row_value);
 		rowValue.setTextColor(textColor);
 		rowValue.setPrecision(precision, shift);
@@ -361,21 +434,18 @@ public class TransactionsListAdapter extends BaseAdapter
 		final CurrencyPlusInfoTextView rowFee = (CurrencyPlusInfoTextView) row.findViewById(R.id.transaction_row_fee);
 		if (sent) {
 			// show fee separately for outgoing transactions
-			final BigInteger valueWithoutFee = WalletUtils.sumOfOutputs(tx).subtract(tx.getValueSentToMe(wallet));
-			final BigInteger fee = value.abs().subtract(valueWithoutFee);
-			
-			rowValue.setAmount(valueWithoutFee, currencyCode);
+			rowValue.setAmount(tx.amount, currencyCode);
 			
 			rowFee.setTextColor(textColor);
 			rowFee.setPrecision(precision, shift);
-			rowFee.setAmount(fee, currencyCode);
+			rowFee.setAmount(tx.fee, currencyCode);
 			rowFee.setExchangeRate(exchangeRate);
 			rowFee.setValidExchangeRate(!Constants.TEST);
 			rowFee.setPrefix(context.getResources().getString(R.string.tx_fee));
 			rowFee.setVisibility(View.VISIBLE);
 		} else {
 			// otherwise just show the amount received
-			rowValue.setAmount(value, currencyCode);
+			rowValue.setAmount(tx.amount, currencyCode);
 			
 			rowFee.setVisibility(View.GONE);
 		}
@@ -394,28 +464,28 @@ public class TransactionsListAdapter extends BaseAdapter
 		if (rowExtend != null)
 		{
 			final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
-			final boolean isTimeLocked = tx.isTimeLocked();
+			final boolean isTimeLocked = tx.timeLocked;
 			rowExtend.setVisibility(View.GONE);
 
-			if (tx.getPurpose() == Purpose.KEY_ROTATION)
+			if (tx.keyRotation)
 			{
 				rowExtend.setVisibility(View.VISIBLE);
 				rowMessage.setText(Html.fromHtml(context.getString(R.string.transaction_row_message_purpose_key_rotation)));
 				rowMessage.setTextColor(colorSignificant);
 			}
-			else if (isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0)
+			else if (isOwn && confidenceType == ConfidenceType.PENDING && tx.numBroadcastPeers == 0)
 			{
 				rowExtend.setVisibility(View.VISIBLE);
 				rowMessage.setText(R.string.transaction_row_message_own_unbroadcasted);
 				rowMessage.setTextColor(colorInsignificant);
 			}
-			else if (!isOwn && confidenceType == ConfidenceType.PENDING && confidence.numBroadcastPeers() == 0)
+			else if (!isOwn && confidenceType == ConfidenceType.PENDING && tx.numBroadcastPeers == 0)
 			{
 				rowExtend.setVisibility(View.VISIBLE);
 				rowMessage.setText(R.string.transaction_row_message_received_direct);
 				rowMessage.setTextColor(colorInsignificant);
 			}
-			else if (!sent && value.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0)
+			else if (tx.dust)
 			{
 				rowExtend.setVisibility(View.VISIBLE);
 				rowMessage.setText(R.string.transaction_row_message_received_dust);
@@ -441,27 +511,4 @@ public class TransactionsListAdapter extends BaseAdapter
 			}
 		}
 	}
-	
-	private AddressBookEntry lookupEntry(@Nonnull final String address)
-	{
-		final Optional<AddressBookEntry> cachedEntry = addressBookCache.get(address);
-		if (cachedEntry == null)
-		{
-			final AddressBookEntry entry = AddressBookProvider.lookupEntry(context, address);
-			final Optional<AddressBookEntry> optionalEntry = Optional.fromNullable(entry);
-			addressBookCache.put(address, optionalEntry);	// cache entry or the fact that it wasn't found
-			return entry;
-		}
-		else
-		{
-			return cachedEntry.orNull();
-		}
-	}
-
-	public void clearAddressBookCache()
-	{
-		addressBookCache.clear();
-
-		notifyDataSetChanged();
-	}
 }
@@ -20,12 +20,15 @@ package com.hivewallet.androidclient.wallet.ui;
 import java.math.BigInteger;
 import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -51,6 +54,7 @@ import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.SpannableStringBuilder;
 import android.text.format.DateUtils;
@@ -65,9 +69,9 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.ScriptException;
+import com.google.bitcoin.core.Sha256Hash;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.Transaction.Purpose;
-import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.utils.Threading;
 
@@ -75,11 +79,13 @@ import com.hivewallet.androidclient.wallet.AddressBookProvider;
 import com.hivewallet.androidclient.wallet.Configuration;
 import com.hivewallet.androidclient.wallet.Constants;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider;
+import com.hivewallet.androidclient.wallet.TransactionHistoryProvider;
 import com.hivewallet.androidclient.wallet.WalletApplication;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
 import com.hivewallet.androidclient.wallet.util.BitmapFragment;
 import com.hivewallet.androidclient.wallet.util.Nfc;
 import com.hivewallet.androidclient.wallet.util.Qr;
+import com.hivewallet.androidclient.wallet.util.SortedIndex;
 import com.hivewallet.androidclient.wallet.util.ThrottlingWalletChangeListener;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet_test.R;
@@ -87,7 +93,7 @@ import com.hivewallet.androidclient.wallet_test.R;
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<List<Transaction>>, OnSharedPreferenceChangeListener
+public class TransactionsListFragment extends SherlockListFragment implements LoaderCallbacks<List<TransactionRow>>, OnSharedPreferenceChangeListener
 {
 	public enum Direction
 	{
@@ -111,6 +117,15 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	
 	private static final int ID_TX_LOADER = 0;
 	private static final int ID_RATE_LOADER = 1;
+	private static final int ID_HISTORY_LOADER = 2;
+	private static final int ID_RATE_HISTORY_LOADER = 3;
+	private static final int ID_COUNT_LOADER = 4;
+
+	@CheckForNull
+	private Boolean paged = null;
+
+	@CheckForNull
+	private String rateHistoryCurrencyCode = null;
 
 	private static final String KEY_DIRECTION = "direction";
 	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
@@ -134,7 +149,8 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		@Override
 		public void onChange(final boolean selfChange)
 		{
-			adapter.clearAddressBookCache();
+			// the provider has already updated its entry cache, so rebinding picks up the change
+			adapter.notifyDataSetChanged();
 		}
 	};
 
@@ -175,10 +191,9 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 
 		config.registerOnSharedPreferenceChangeListener(this);
 
-		loaderManager.initLoader(ID_TX_LOADER, null, this);
+		// decides between the in memory and the paged history, see countLoaderCallbacks
+		loaderManager.initLoader(ID_COUNT_LOADER, null, countLoaderCallbacks);
 		loaderManager.initLoader(ID_RATE_LOADER, null, rateLoaderCallbacks);
-		
-		wallet.addEventListener(transactionChangeListener, Threading.SAME_THREAD);
 
 		updateView();
 	}
@@ -201,11 +216,13 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
-
+		loaderManager.destroyLoader(ID_COUNT_LOADER);
 		loaderManager.destroyLoader(ID_TX_LOADER);
+		loaderManager.destroyLoader(ID_HISTORY_LOADER);
+		paged = null;
 		loaderManager.destroyLoader(ID_RATE_LOADER);
+		loaderManager.destroyLoader(ID_RATE_HISTORY_LOADER);
+		rateHistoryCurrencyCode = null;
 		
 		config.unregisterOnSharedPreferenceChangeListener(this);
 
@@ -217,13 +234,24 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@Override
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
-		final Transaction tx = (Transaction) adapter.getItem(position);
+		final TransactionRow row = adapter.getItem(position);
 
-		if (tx == null)
+		if (row == null)
 			handleBackupWarningClick();
-		else if (tx.getPurpose() == Purpose.KEY_ROTATION)
+		else if (row.keyRotation)
 			handleKeyRotationClick();
+		else if (row.tx != null)
+			handleTransactionClick(row.tx);
 		else
+			handleTransactionClick(row.hash);
+	}
+
+	private void handleTransactionClick(@Nonnull final Sha256Hash hash)
+	{
+		// rows read from the history index carry no transaction
+		final Transaction tx = wallet.getTransaction(hash);
+
+		if (tx != null)
 			handleTransactionClick(tx);
 	}
 
@@ -351,38 +379,37 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	}
 
 	@Override
-	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+	public Loader<List<TransactionRow>> onCreateLoader(final int id, final Bundle args)
 	{
 		return new TransactionsLoader(activity, wallet, direction);
 	}
 
 	@Override
-	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
+	public void onLoadFinished(final Loader<List<TransactionRow>> loader, final List<TransactionRow> rows)
 	{
-		adapter.replace(transactions);
+		adapter.replace(rows);
 	}
 
 	@Override
-	public void onLoaderReset(final Loader<List<Transaction>> loader)
+	public void onLoaderReset(final Loader<List<TransactionRow>> loader)
 	{
 		// don't clear the adapter, because it will confuse users
 	}
 
-	private final ThrottlingWalletChangeListener transactionChangeListener = new ThrottlingWalletChangeListener(THROTTLE_MS)
-	{
-		@Override
-		public void onThrottledWalletChanged()
-		{
-			adapter.notifyDataSetChanged();
-		}
-	};
-
-	private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
+	private static class TransactionsLoader extends AsyncTaskLoader<List<TransactionRow>>
 	{
 		private final Wallet wallet;
 		@CheckForNull
 		private final Direction direction;
 
+		// only touched from loadInBackground(), which never runs concurrently with itself
+		private final Map<Sha256Hash, TransactionRow> rowCache = new HashMap<Sha256Hash, TransactionRow>();
+		private final SortedIndex<Sha256Hash, TransactionRow> index = new SortedIndex<Sha256Hash, TransactionRow>(TransactionRow.COMPARATOR);
+
+		// filled by the wallet listener, drained by loadInBackground()
+		private final Map<Sha256Hash, Transaction> changedTransactions = new ConcurrentHashMap<Sha256Hash, Transaction>();
+		private final AtomicBoolean fullReload = new AtomicBoolean(true);
+
 		private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nullable final Direction direction)
 		{
 			super(context);
@@ -397,7 +424,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 			super.onStartLoading();
 
 			wallet.addEventListener(transactionAddRemoveListener, Threading.SAME_THREAD);
-			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload, and a full one as we missed events
 
 			forceLoad();
 		}
@@ -412,28 +439,121 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		}
 
 		@Override
-		public List<Transaction> loadInBackground()
+		public List<TransactionRow> loadInBackground()
+		{
+			if (fullReload.getAndSet(false))
+			{
+				changedTransactions.clear();
+				loadAll();
+			}
+			else
+			{
+				loadChanged();
+			}
+
+			final List<TransactionRow> rows = index.toList();
+
+			final List<String> counterparties = new ArrayList<String>(rows.size());
+			for (final TransactionRow row : rows)
+				if (row.addressString != null)
+					counterparties.add(row.addressString);
+			AddressBookProvider.lookupEntries(getContext(), counterparties); // fills the entry cache
+
+			return rows;
+		}
+
+		private void loadAll()
 		{
 			final Set<Transaction> transactions = wallet.getTransactions(true);
-			final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+			final Map<Sha256Hash, TransactionRow> filteredRows = new HashMap<Sha256Hash, TransactionRow>(transactions.size());
+			final Map<Sha256Hash, TransactionRow> previousRows = new HashMap<Sha256Hash, TransactionRow>(rowCache);
+			rowCache.clear();
 
 			for (final Transaction tx : transactions)
 			{
-				final boolean sent = tx.getValue(wallet).signum() < 0;
-				final boolean isInternal = WalletUtils.isInternal(tx);
+				TransactionRow row = previousRows.get(tx.getHash());
+				if (row == null || row.tx != tx || !row.isCurrent())
+					row = TransactionRow.fromTransaction(tx, wallet);
+				rowCache.put(row.hash, row);
 
-				if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-						|| (direction == Direction.SENT && sent && !isInternal))
-					filteredTransactions.add(tx);
+				if (matchesDirection(row))
+					filteredRows.put(row.hash, row);
 			}
 
-			Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+			index.replaceAll(filteredRows);
+		}
 
-			return filteredTransactions;
+		private void loadChanged()
+		{
+			for (final Iterator<Transaction> i = changedTransactions.values().iterator(); i.hasNext();)
+			{
+				final Transaction tx = i.next();
+				i.remove();
+
+				final Sha256Hash hash = tx.getHash();
+
+				if (wallet.getTransaction(hash) == null)
+				{
+					rowCache.remove(hash);
+					index.remove(hash);
+					continue;
+				}
+
+				final TransactionRow cachedRow = rowCache.get(hash);
+				if (cachedRow != null && cachedRow.tx == tx && cachedRow.isCurrent())
+					continue;
+
+				final TransactionRow row = TransactionRow.fromTransaction(tx, wallet);
+				rowCache.put(hash, row);
+
+				if (matchesDirection(row))
+					index.put(hash, row);
+				else
+					index.remove(hash);
+			}
+		}
+
+		private boolean matchesDirection(@Nonnull final TransactionRow row)
+		{
+			final boolean sent = row.sent;
+			final boolean isInternal = row.internal;
+
+			return (direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
+					|| (direction == Direction.SENT && sent && !isInternal);
 		}
 
-		private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, false)
+		// confidence is relevant, because rows snapshot it
+		private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, true)
 		{
+			@Override
+			public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+			{
+				changedTransactions.put(tx.getHash(), tx);
+				super.onCoinsReceived(wallet, tx, prevBalance, newBalance);
+			}
+
+			@Override
+			public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+			{
+				changedTransactions.put(tx.getHash(), tx);
+				super.onCoinsSent(wallet, tx, prevBalance, newBalance);
+			}
+
+			@Override
+			public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+			{
+				changedTransactions.put(tx.getHash(), tx);
+				super.onTransactionConfidenceChanged(wallet, tx);
+			}
+
+			@Override
+			public void onReorganize(final Wallet wallet)
+			{
+				// transactions may have been removed or replaced without individual callbacks
+				fullReload.set(true);
+				super.onReorganize(wallet);
+			}
+
 			@Override
 			public void onThrottledWalletChanged()
 			{
@@ -447,33 +567,108 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 				}
 			}
 		};
+	}
+	
+	private static class TransactionHistoryLoader extends CursorLoader
+	{
+		// enough to cover the first screenful, rows further down are looked up as they are scrolled to
+		private static final int PREFETCH_ROWS = 50;
 
-		private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
+		private TransactionHistoryLoader(final Context context, @Nullable final Direction direction)
 		{
-			@Override
-			public int compare(final Transaction tx1, final Transaction tx2)
-			{
-				final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-				final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
+			super(context, TransactionHistoryProvider.contentUri(context.getPackageName()), null, direction != null ? TransactionHistoryProvider.SELECTION_DIRECTION
+					: null, direction != null ? new String[] { Integer.toString(directionColumnValue(direction)) } : null, null);
+		}
 
-				if (pending1 != pending2)
-					return pending1 ? -1 : 1;
+		private static int directionColumnValue(@Nonnull final Direction direction)
+		{
+			return direction == Direction.RECEIVED ? TransactionHistoryProvider.DIRECTION_RECEIVED : TransactionHistoryProvider.DIRECTION_SENT;
+		}
 
-				final Date updateTime1 = tx1.getUpdateTime();
-				final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-				final Date updateTime2 = tx2.getUpdateTime();
-				final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+		@Override
+		public Cursor loadInBackground()
+		{
+			final Cursor cursor = super.loadInBackground();
 
-				if (time1 > time2)
-					return -1;
-				else if (time1 < time2)
-					return 1;
-				else
-					return 0;
+			if (cursor != null)
+			{
+				final int counterpartyIndex = cursor.getColumnIndexOrThrow(TransactionHistoryProvider.KEY_COUNTERPARTY);
+				final List<String> counterparties = new ArrayList<String>(PREFETCH_ROWS);
+				while (cursor.getPosition() < PREFETCH_ROWS - 1 && cursor.moveToNext())
+					if (!cursor.isNull(counterpartyIndex))
+						counterparties.add(cursor.getString(counterpartyIndex));
+				cursor.moveToPosition(-1);
+
+				AddressBookProvider.lookupEntries(getContext(), counterparties); // fills the entry cache
 			}
-		};
+
+			return cursor;
+		}
 	}
-	
+
+	private final LoaderCallbacks<Cursor> countLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
+	{
+		@Override
+		public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
+		{
+			final CursorLoader loader = new CursorLoader(activity, TransactionHistoryProvider.contentUri(activity.getPackageName()),
+					TransactionHistoryProvider.PROJECTION_COUNT, null, null, null);
+			loader.setUpdateThrottle(THROTTLE_MS);
+
+			return loader;
+		}
+
+		@Override
+		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
+		{
+			// large wallets page through the history index rather than keeping all rows in memory
+			final boolean page = data != null && data.moveToFirst() && data.getInt(0) > Constants.TRANSACTIONS_PAGED_THRESHOLD;
+			if (paged != null && paged == page)
+				return;
+
+			paged = page;
+			if (page)
+			{
+				loaderManager.destroyLoader(ID_TX_LOADER);
+				loaderManager.initLoader(ID_HISTORY_LOADER, null, historyLoaderCallbacks);
+			}
+			else
+			{
+				loaderManager.destroyLoader(ID_HISTORY_LOADER);
+				loaderManager.initLoader(ID_TX_LOADER, null, TransactionsListFragment.this);
+			}
+		}
+
+		@Override
+		public void onLoaderReset(final Loader<Cursor> loader)
+		{
+		}
+	};
+
+	private final LoaderCallbacks<Cursor> historyLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
+	{
+		@Override
+		public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
+		{
+			final CursorLoader loader = new TransactionHistoryLoader(activity, direction);
+			loader.setUpdateThrottle(THROTTLE_MS);
+
+			return loader;
+		}
+
+		@Override
+		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
+		{
+			adapter.swapCursor(data);
+		}
+
+		@Override
+		public void onLoaderReset(final Loader<Cursor> loader)
+		{
+			adapter.swapCursor(null);
+		}
+	};
+
 	private final LoaderCallbacks<Cursor> rateLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
 	{
 		@Override
@@ -490,6 +685,12 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 				data.moveToFirst();
 				final ExchangeRate exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
 				adapter.setExchangeRate(exchangeRate);
+
+				if (!exchangeRate.currencyCode.equals(rateHistoryCurrencyCode))
+				{
+					rateHistoryCurrencyCode = exchangeRate.currencyCode;
+					loaderManager.restartLoader(ID_RATE_HISTORY_LOADER, null, rateHistoryLoaderCallbacks);
+				}
 			}
 		}
 
@@ -498,6 +699,31 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		{
 		}
 	};
+
+	private final LoaderCallbacks<Cursor> rateHistoryLoaderCallbacks = new LoaderManager.LoaderCallbacks<Cursor>()
+	{
+		private String currencyCode;
+
+		@Override
+		public Loader<Cursor> onCreateLoader(final int id, final Bundle args)
+		{
+			currencyCode = rateHistoryCurrencyCode;
+			return new CursorLoader(activity, ExchangeRatesProvider.historyUri(activity.getPackageName(), currencyCode), null, null, null, null);
+		}
+
+		@Override
+		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
+		{
+			if (data != null)
+				adapter.setRateHistory(ExchangeRatesProvider.getRateHistory(currencyCode, data));
+		}
+
+		@Override
+		public void onLoaderReset(final Loader<Cursor> loader)
+		{
+			adapter.setRateHistory(null);
+		}
+	};
 	
 	@Override
 	public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
@@ -513,6 +739,5 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 
 		adapter.setPrecision(btcPrecision, btcShift);
 		adapter.setCurrencyCode(config.getBtcPrefix());
-		adapter.clearAddressBookCache();
 	}
 }
@@ -42,6 +42,7 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Executor;
 
 import javax.annotation.Nonnull;
 
@@ -66,10 +67,12 @@ import android.nfc.NfcAdapter;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.support.v4.content.FileProvider;
 import android.text.format.DateUtils;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Spinner;
@@ -85,6 +88,9 @@ import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.core.Wallet.BalanceType;
 import com.google.bitcoin.store.UnreadableWalletException;
 import com.google.bitcoin.store.WalletProtobufSerializer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import com.hivewallet.androidclient.wallet.Configuration;
 import com.hivewallet.androidclient.wallet.Constants;
@@ -116,7 +122,7 @@ public final class WalletActivity extends AbstractWalletActivity
 
 	private WalletApplication application;
 	private Configuration config;
-	private Wallet wallet;
+	private boolean walletLoaded = false;
 
 	private static final int REQUEST_CODE_SCAN = 0;
 	public static final int REQUEST_CODE_SCAN_ADD_CONTACT = 1;
@@ -131,9 +137,42 @@ public final class WalletActivity extends AbstractWalletActivity
 
 		application = getWalletApplication();
 		config = application.getConfiguration();
-		wallet = application.getWallet();
 
-		setContentView(R.layout.wallet_content);
+		// the fragments get the wallet when attached, so on a cold start lay them out once it has loaded rather than wait for it
+		final ListenableFuture<Wallet> walletFuture = application.getWalletFuture();
+		if (walletFuture.isDone())
+		{
+			onWalletLoaded();
+		}
+		else
+		{
+			final Handler handler = new Handler();
+			Futures.addCallback(walletFuture, new FutureCallback<Wallet>()
+			{
+				@Override
+				public void onSuccess(final Wallet wallet)
+				{
+					if (!isFinishing())
+					{
+						onWalletLoaded();
+						application.startBlockchainService(true);
+					}
+				}
+
+				@Override
+				public void onFailure(final Throwable x)
+				{
+					throw new RuntimeException("cannot load wallet", x);
+				}
+			}, new Executor()
+			{
+				@Override
+				public void execute(final Runnable runnable)
+				{
+					handler.post(runnable);
+				}
+			});
+		}
 
 		if (savedInstanceState == null)
 			checkAlerts();
@@ -143,12 +182,32 @@ public final class WalletActivity extends AbstractWalletActivity
 		handleIntent(getIntent());
 	}
 
+	private void onWalletLoaded()
+	{
+		walletLoaded = true;
+
+		setContentView(R.layout.wallet_content);
+
+		getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener()
+		{
+			@Override
+			public boolean onPreDraw()
+			{
+				getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+				application.reportFirstFrame();
+				return true;
+			}
+		});
+	}
+
 	@Override
 	protected void onResume()
 	{
 		super.onResume();
 
-		getWalletApplication().startBlockchainService(true);
+		// the service gets the wallet on the main thread, so it is started once the wallet has loaded
+		if (walletLoaded)
+			getWalletApplication().startBlockchainService(true);
 
 		checkLowStorageAlert();
 	}
@@ -597,7 +656,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		});
 
 		final View replaceWarningView = alertDialog.findViewById(R.id.restore_wallet_from_storage_dialog_replace_warning);
-		final boolean hasCoins = wallet.getBalance(BalanceType.ESTIMATED).signum() > 0;
+		final boolean hasCoins = application.getWallet().getBalance(BalanceType.ESTIMATED).signum() > 0;
 		replaceWarningView.setVisibility(hasCoins ? View.VISIBLE : View.GONE);
 
 		final Spinner fileView = (Spinner) alertDialog.findViewById(R.id.import_keys_from_storage_file);
@@ -827,7 +886,7 @@ public final class WalletActivity extends AbstractWalletActivity
 				@Override
 				protected CharSequence collectWalletDump()
 				{
-					return wallet.toString(false, true, true, null);
+					return application.getWallet().toString(false, true, true, null);
 				}
 			};
 
@@ -1016,7 +1075,7 @@ public final class WalletActivity extends AbstractWalletActivity
 			keyReader.close();
 
 			final int numKeysToImport = importedKeys.size();
-			final int numKeysImported = wallet.addKeys(importedKeys);
+			final int numKeysImported = application.getWallet().addKeys(importedKeys);
 
 			final DialogBuilder dialog = new DialogBuilder(this);
 			final StringBuilder message = new StringBuilder();
@@ -1042,7 +1101,7 @@ public final class WalletActivity extends AbstractWalletActivity
 					@Override
 					public void onClick(final DialogInterface dialog, final int id)
 					{
-						getWalletApplication().resetBlockchain();
+						getWalletApplication().rescanBlockchain();
 						finish();
 					}
 				});
@@ -1084,7 +1143,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		final File file = new File(externalWalletBackupDir, Constants.Files.EXTERNAL_WALLET_BACKUP + "-"
 				+ dateFormat.format(new Date()));
 
-		final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+		final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(application.getWallet());
 
 		Writer cipherOut = null;
 
@@ -23,10 +23,7 @@ import java.util.Date;
 import javax.annotation.CheckForNull;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -49,6 +46,7 @@ import com.hivewallet.androidclient.wallet.ExchangeRatesProvider;
 import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
 import com.hivewallet.androidclient.wallet.WalletApplication;
 import com.hivewallet.androidclient.wallet.service.BlockchainService;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
 import com.hivewallet.androidclient.wallet.util.WalletUtils;
 import com.hivewallet.androidclient.wallet_test.R;
 
@@ -147,7 +145,7 @@ public final class WalletBalanceFragment extends Fragment
 	{
 		super.onResume();
 
-		activity.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		application.getBlockchainStateDispatcher().subscribe(stateListener, Constants.BLOCKCHAIN_STATE_THROTTLE_MS);
 
 		loaderManager.initLoader(ID_BALANCE_LOADER, null, balanceLoaderCallbacks);
 		loaderManager.initLoader(ID_RATE_LOADER, null, rateLoaderCallbacks);
@@ -161,7 +159,7 @@ public final class WalletBalanceFragment extends Fragment
 		loaderManager.destroyLoader(ID_RATE_LOADER);
 		loaderManager.destroyLoader(ID_BALANCE_LOADER);
 
-		activity.unregisterReceiver(broadcastReceiver);
+		application.getBlockchainStateDispatcher().unsubscribe(stateListener);
 
 		super.onPause();
 	}
@@ -254,20 +252,18 @@ public final class WalletBalanceFragment extends Fragment
 		}
 	}
 
-	private final BlockchainBroadcastReceiver broadcastReceiver = new BlockchainBroadcastReceiver();
-
-	private final class BlockchainBroadcastReceiver extends BroadcastReceiver
+	private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent intent)
+		public void onBlockchainState(final BlockchainStateDispatcher.State state)
 		{
-			download = intent.getIntExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD, BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK);
-			bestChainDate = (Date) intent.getSerializableExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_BEST_CHAIN_DATE);
-			replaying = intent.getBooleanExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_REPLAYING, false);
+			download = state.download;
+			bestChainDate = state.bestChainDate;
+			replaying = state.replaying;
 
 			updateView();
 		}
-	}
+	};
 
 	private final LoaderCallbacks<BigInteger> balanceLoaderCallbacks = new LoaderManager.LoaderCallbacks<BigInteger>()
 	{
@@ -18,10 +18,6 @@
 package com.hivewallet.androidclient.wallet.ui;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
@@ -36,8 +32,10 @@ import android.view.ViewParent;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 import com.hivewallet.androidclient.wallet.Configuration;
+import com.hivewallet.androidclient.wallet.Constants;
 import com.hivewallet.androidclient.wallet.WalletApplication;
 import com.hivewallet.androidclient.wallet.service.BlockchainService;
+import com.hivewallet.androidclient.wallet.service.BlockchainStateDispatcher;
 import com.hivewallet.androidclient.wallet_test.R;
 
 /**
@@ -47,6 +45,7 @@ public final class WalletDisclaimerFragment extends Fragment implements OnShared
 {
 	private Activity activity;
 	private Configuration config;
+	private BlockchainStateDispatcher stateDispatcher;
 
 	private int download;
 
@@ -60,6 +59,7 @@ public final class WalletDisclaimerFragment extends Fragment implements OnShared
 		this.activity = (WalletActivity) activity;
 		final WalletApplication application = (WalletApplication) activity.getApplication();
 		this.config = application.getConfiguration();
+		this.stateDispatcher = application.getBlockchainStateDispatcher();
 	}
 
 	@Override
@@ -90,7 +90,7 @@ public final class WalletDisclaimerFragment extends Fragment implements OnShared
 
 		config.registerOnSharedPreferenceChangeListener(this);
 
-		activity.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		stateDispatcher.subscribe(stateListener, Constants.BLOCKCHAIN_STATE_THROTTLE_MS);
 
 		updateView();
 	}
@@ -98,7 +98,7 @@ public final class WalletDisclaimerFragment extends Fragment implements OnShared
 	@Override
 	public void onPause()
 	{
-		activity.unregisterReceiver(broadcastReceiver);
+		stateDispatcher.unsubscribe(stateListener);
 
 		config.unregisterOnSharedPreferenceChangeListener(this);
 
@@ -149,16 +149,14 @@ public final class WalletDisclaimerFragment extends Fragment implements OnShared
 		fragment.setVisibility(text.length() > 0 ? View.VISIBLE : View.GONE);
 	}
 
-	private final BlockchainBroadcastReceiver broadcastReceiver = new BlockchainBroadcastReceiver();
-
-	private final class BlockchainBroadcastReceiver extends BroadcastReceiver
+	private final BlockchainStateDispatcher.Listener stateListener = new BlockchainStateDispatcher.Listener()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent intent)
+		public void onBlockchainState(final BlockchainStateDispatcher.State state)
 		{
-			download = intent.getIntExtra(BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD, BlockchainService.ACTION_BLOCKCHAIN_STATE_DOWNLOAD_OK);
+			download = state.download;
 
 			updateView();
 		}
-	}
+	};
 }
@@ -316,7 +316,7 @@ public final class SendCoinsFragment extends SherlockFragment
 				@Override
 				public void run()
 				{
-					sentTransactionListAdapter.notifyDataSetChanged();
+					sentTransactionListAdapter.replace(sentTransaction);
 
 					final TransactionConfidence confidence = sentTransaction.getConfidence();
 					final ConfidenceType confidenceType = confidence.getConfidenceType();
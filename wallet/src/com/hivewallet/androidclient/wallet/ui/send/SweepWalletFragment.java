@@ -341,7 +341,7 @@ public class SweepWalletFragment extends SherlockFragment
 				@Override
 				public void run()
 				{
-					sweepTransactionListAdapter.notifyDataSetChanged();
+					sweepTransactionListAdapter.replace(sentTransaction);
 
 					final TransactionConfidence confidence = sentTransaction.getConfidence();
 					final TransactionConfidence.ConfidenceType confidenceType = confidence.getConfidenceType();
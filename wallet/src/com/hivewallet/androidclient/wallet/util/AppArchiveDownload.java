@@ -0,0 +1,424 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Downloads an app archive and unpacks it while the bytes arrive. Received bytes are also appended to a part file, so an
+ * interrupted download resumes with a range request: the part file is replayed into the unpacker, followed by the rest from
+ * the network. The SHA-256 of the whole archive is checked against the expected one, or the server's {@code Digest} header.
+ */
+final class AppArchiveDownload
+{
+	public static interface ProgressListener
+	{
+		void onProgress(long bytesRead, long bytesTotal);
+	}
+
+	/**
+	 * The archive arrived complete, but is not the one expected.
+	 */
+	public static final class VerificationException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public VerificationException(final String message)
+		{
+			super(message);
+		}
+	}
+
+	private final URL url;
+	private final File partFile;
+	private final File validatorFile;
+	private final File unpackDir;
+	private final String userAgent;
+	private final int timeoutMs;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public AppArchiveDownload(@Nonnull final URL url, @Nonnull final File partFile, @Nonnull final File unpackDir,
+			@Nonnull final String userAgent, final int timeoutMs)
+	{
+		this.url = url;
+		this.partFile = partFile;
+		this.validatorFile = new File(partFile.getPath() + ".validator");
+		this.unpackDir = unpackDir;
+		this.userAgent = userAgent;
+		this.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Unpacks the archive into the unpack dir. On failure the unpack dir is removed, and so is the part file unless the
+	 * failure was the connection, in which case the next run resumes from it.
+	 * 
+	 * @param expectedSha256
+	 *            hex encoded hash of the whole archive, or null to trust the server
+	 * @return hex encoded SHA-256 of the whole archive
+	 */
+	public String run(@Nullable final String expectedSha256, @Nonnull final AtomicBoolean canceled, @Nonnull final ProgressListener listener)
+			throws IOException
+	{
+		long offset = partFile.length();
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(timeoutMs);
+		connection.setReadTimeout(timeoutMs);
+		connection.setRequestProperty("User-Agent", userAgent);
+		if (offset > 0)
+		{
+			connection.setRequestProperty("Range", "bytes=" + offset + "-");
+			if (validatorFile.exists())
+				connection.setRequestProperty("If-Range", FileUtils.readFileToString(validatorFile, Charsets.UTF_8));
+		}
+
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		final MessageDigest digest = sha256();
+		TeeInputStream body = null;
+		ProgressInputStream progress = null;
+		InputStream in = null;
+		boolean keepPart = false;
+
+		try
+		{
+			final int responseCode = connection.getResponseCode();
+			final boolean resume = responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0
+					&& rangeStart(connection.getHeaderField("Content-Range")) == offset;
+			if (!resume && responseCode != HttpURLConnection.HTTP_OK)
+			{
+				keepPart = responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+				throw new IOException("HTTP status " + responseCode + " for " + url);
+			}
+
+			final long contentLength = parseLong(connection.getHeaderField("Content-Length"));
+			final InputStream networkIn = connection.getInputStream();
+			InputStream prefix = null;
+
+			if (resume)
+			{
+				body = new TeeInputStream(networkIn, new FileOutputStream(partFile, true));
+				prefix = ByteStreams.limit(new FileInputStream(partFile), offset);
+			}
+			else
+			{
+				// server ignored the range or the archive changed, start over
+				offset = 0;
+				body = new TeeInputStream(networkIn, new FileOutputStream(partFile));
+				writeValidator(connection);
+			}
+
+			final long total = contentLength >= 0 ? offset + contentLength : -1;
+			progress = new ProgressInputStream(new DigestInputStream(prefix != null ? new SequenceInputStream(prefix,
+					body) : body, digest), total, canceled, listener);
+			in = new BufferedInputStream(progress, BUFFER_SIZE);
+
+			unpack(new ZipInputStream(in), buffer);
+
+			// the central directory is of no use to the unpacker, but part of the archive
+			while (in.read(buffer) != -1)
+				;
+
+			if (progress.count != total && total >= 0)
+				throw new IOException("connection closed after " + progress.count + " of " + total + " bytes");
+
+			final String sha256 = BaseEncoding.base16().lowerCase().encode(digest.digest());
+			final String expected = expectedSha256 != null ? expectedSha256.toLowerCase(Locale.US) : digestHeader(connection);
+			if (expected != null && !expected.equals(sha256))
+				throw new VerificationException("expected SHA-256 " + expected + ", got " + sha256);
+
+			return sha256;
+		}
+		catch (final IOException x)
+		{
+			// a connection closed early can make the unpacker fail first, so check for that explicitly
+			final boolean truncated = body != null && body.ended && progress != null && progress.total >= 0 && progress.count < progress.total;
+			keepPart |= (body != null && body.failed) || truncated || x instanceof InterruptedIOException;
+			FileUtils.deleteQuietly(unpackDir);
+
+			throw x;
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+			if (body != null)
+				body.closeOutput();
+			connection.disconnect();
+
+			if (!keepPart)
+			{
+				FileUtils.deleteQuietly(partFile);
+				FileUtils.deleteQuietly(validatorFile);
+			}
+		}
+	}
+
+	private void unpack(final ZipInputStream zip, final byte[] buffer) throws IOException
+	{
+		FileUtils.deleteQuietly(unpackDir);
+		unpackDir.mkdirs();
+		final String unpackPath = unpackDir.getCanonicalPath();
+
+		ZipEntry entry;
+		while ((entry = zip.getNextEntry()) != null)
+		{
+			final File file = new File(unpackDir, entry.getName());
+			final String path = file.getCanonicalPath();
+			if (!path.equals(unpackPath) && !path.startsWith(unpackPath + File.separator))
+				throw new ZipException("entry outside of archive: " + entry.getName());
+
+			if (entry.isDirectory())
+			{
+				file.mkdirs();
+			}
+			else
+			{
+				file.getParentFile().mkdirs();
+
+				final OutputStream out = new FileOutputStream(file);
+				try
+				{
+					int count;
+					while ((count = zip.read(buffer)) != -1)
+						out.write(buffer, 0, count);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		}
+	}
+
+	private void writeValidator(final HttpURLConnection connection) throws IOException
+	{
+		String validator = connection.getHeaderField("ETag");
+		if (validator == null)
+			validator = connection.getHeaderField("Last-Modified");
+
+		if (validator != null)
+			FileUtils.writeStringToFile(validatorFile, validator, Charsets.UTF_8);
+		else
+			FileUtils.deleteQuietly(validatorFile);
+	}
+
+	/**
+	 * @return hex encoded SHA-256 from an RFC 3230 {@code Digest} header, or null if there is none
+	 */
+	@CheckForNull
+	private static String digestHeader(final HttpURLConnection connection)
+	{
+		final String header = connection.getHeaderField("Digest");
+		if (header == null)
+			return null;
+
+		for (final String instanceDigest : header.split(","))
+		{
+			final int separator = instanceDigest.indexOf('=');
+			if (separator > 0 && instanceDigest.substring(0, separator).trim().equalsIgnoreCase("SHA-256"))
+			{
+				try
+				{
+					return BaseEncoding.base16().lowerCase().encode(BaseEncoding.base64().decode(instanceDigest.substring(separator + 1).trim()));
+				}
+				catch (final IllegalArgumentException x)
+				{
+					return null;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return first byte position of a {@code Content-Range} header like {@code bytes 100-999/1000}, or -1
+	 */
+	static long rangeStart(@Nullable final String contentRange)
+	{
+		if (contentRange == null || !contentRange.startsWith("bytes "))
+			return -1;
+
+		final int dash = contentRange.indexOf('-');
+		return dash > 0 ? parseLong(contentRange.substring("bytes ".length(), dash)) : -1;
+	}
+
+	private static long parseLong(@Nullable final String str)
+	{
+		if (str == null)
+			return -1;
+
+		try
+		{
+			return Long.parseLong(str.trim());
+		}
+		catch (final NumberFormatException x)
+		{
+			return -1;
+		}
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	/**
+	 * Copies everything read from the network to the part file, and remembers if reading from the network failed or ended.
+	 */
+	private static final class TeeInputStream extends FilterInputStream
+	{
+		private final OutputStream out;
+		private boolean failed = false;
+		private boolean ended = false;
+
+		public TeeInputStream(final InputStream in, final OutputStream out)
+		{
+			super(in);
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			final int count = read(b, 0, 1);
+			return count == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			final int count;
+			try
+			{
+				count = in.read(b, off, len);
+			}
+			catch (final IOException x)
+			{
+				failed = true;
+				throw x;
+			}
+
+			if (count > 0)
+				out.write(b, off, count);
+			else if (count == -1)
+				ended = true;
+
+			return count;
+		}
+
+		public void closeOutput()
+		{
+			try
+			{
+				out.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+	}
+
+	private static final class ProgressInputStream extends FilterInputStream
+	{
+		private final long total;
+		private final AtomicBoolean canceled;
+		private final ProgressListener listener;
+		private long count = 0;
+
+		public ProgressInputStream(final InputStream in, final long total, final AtomicBoolean canceled, final ProgressListener listener)
+		{
+			super(in);
+			this.total = total;
+			this.canceled = canceled;
+			this.listener = listener;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			final int count = read(b, 0, 1);
+			return count == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (canceled.get())
+				throw new InterruptedIOException("canceled");
+
+			final int read = in.read(b, off, len);
+			if (read > 0)
+			{
+				count += read;
+				listener.onProgress(count, total);
+			}
+
+			return read;
+		}
+	}
+}
@@ -1,18 +1,25 @@
 package com.hivewallet.androidclient.wallet.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.FileUtils;
 import org.json.JSONException;
@@ -20,217 +27,285 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.hivewallet.androidclient.wallet.Constants;
+import com.hivewallet.androidclient.wallet.util.AppArchiveDownload.VerificationException;
 
-public class AppInstaller extends Thread {
+/**
+ * Installs apps from their archive URL. Installs are queued and run a few at a time, each unpacking its archive while it
+ * downloads. Asking for an URL that is already being installed joins that install, and a canceled install leaves its partial
+ * download behind, so asking again resumes where it stopped.
+ */
+public class AppInstaller {
 	public static interface AppInstallCallback {
-		void installSuccessful(String appId, File unpackDir, File appDir, JSONObject manifest);
+		/**
+		 * @param bytesTotal size of the archive, or -1 if the server did not tell
+		 */
+		void installProgress(long bytesRead, long bytesTotal);
+		void installSuccessful(String appId, JSONObject manifest);
 		void installFailed(String errMsg);
 	}
 
+	/**
+	 * One caller's interest in an install.
+	 */
+	public final class Install {
+		private final Job job;
+		private final AppInstallCallback callback;
+
+		private Install(Job job, AppInstallCallback callback)
+		{
+			this.job = job;
+			this.callback = callback;
+		}
+
+		/**
+		 * Stops calling back. The install itself stops when nobody else is waiting for it.
+		 */
+		public void cancel()
+		{
+			synchronized (AppInstaller.this) {
+				job.callbacks.remove(callback);
+				if (job.callbacks.isEmpty())
+					job.canceled.set(true);
+			}
+		}
+	}
+
 	private static final Logger log = LoggerFactory.getLogger(AppInstaller.class);
-	private static final String APP_PLATFORM_DOWNLOAD_FILE = "app.hiveapp";
-	private static final String APP_PLATFORM_UNPACK_FOLDER = "unpacked_app";
+	private static final String APP_PLATFORM_DOWNLOAD_FOLDER = "downloads";
+	private static final String APP_PLATFORM_UNPACK_FOLDER = "unpacked";
 	private static final String APP_PLATFORM_MANIFEST_FILE = "manifest.json";
-	private static final int BUFFER_SIZE = 4096;
-	
-	private String urlStr;
-	private AppInstaller.AppInstallCallback callback;
-	private File dir;
-	volatile private boolean isRunning = true;
-	
-	public AppInstaller(String url, File dir, AppInstaller.AppInstallCallback callback)
+	private static final int MAX_CONCURRENT_INSTALLS = 3;
+	private static final long IDLE_THREAD_KEEP_ALIVE_S = 30;
+
+	private final File dir;
+	private final AppPlatformDBHelper appPlatformDBHelper;
+	private final ThreadPoolExecutor executor;
+	// installs by URL, guarded by this
+	private final Map<String, Job> jobs = new HashMap<String, Job>();
+	// moving an app into place and recording its manifest must not interleave with another install of the same app
+	private final Object finishLock = new Object();
+
+	public AppInstaller(File dir, AppPlatformDBHelper appPlatformDBHelper)
 	{
-		this.urlStr = url;
 		this.dir = dir;
-		this.callback = callback;
-	}
-	
-	public void cancel() {
-		this.isRunning = false;
+		this.appPlatformDBHelper = appPlatformDBHelper;
+		this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_INSTALLS, MAX_CONCURRENT_INSTALLS, IDLE_THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("app installer %d").setDaemon(true).build());
+		this.executor.allowCoreThreadTimeOut(true);
 	}
-	
-	@Override
-	public void run()
+
+	/**
+	 * Queues an install, or joins the one already running for this URL. Callbacks happen on a background thread.
+	 *
+	 * @param sha256 hex encoded hash the archive must have, or null to accept any archive the server does not contradict
+	 */
+	public Install install(@Nullable String urlStr, @Nullable String sha256, @Nonnull AppInstallCallback callback)
 	{
-		log.info("Starting install for {}", urlStr);
-		
+		log.info("Queueing install for {}", urlStr);
+
 		/* 1. Preliminary checks */
+		String errMsg = null;
+		URL url = null;
 		if (urlStr == null) {
-			String errMsg = "No app URL provided";
-			log.info("Aborting install: {}", errMsg);
-			callback.installFailed(errMsg);
-			return;
-		}
-		
-		if (!urlStr.toLowerCase(Locale.US).startsWith("http")) {
-			String errMsg = "Only http(s) links supported";
-			log.info("Aborting install: {}", errMsg);
-			callback.installFailed(errMsg);
-			return;
+			errMsg = "No app URL provided";
+		} else if (!urlStr.toLowerCase(Locale.US).startsWith("http")) {
+			errMsg = "Only http(s) links supported";
+		} else {
+			try { url = new URL(urlStr); } catch (MalformedURLException e) { errMsg = "Invalid app URL"; }
 		}
-		
-		URL url = null;
-		try { url = new URL(urlStr); } catch (MalformedURLException e) { /* handle below */ }
-		if (url == null) {
-			String errMsg = "Invalid app URL";
+
+		if (errMsg != null) {
 			log.info("Aborting install: {}", errMsg);
 			callback.installFailed(errMsg);
-			return;
+			return new Install(new Job(urlStr, url, sha256, null), callback);
 		}
-		
-		/* 2. Download archive */
-		File downloadFile = new File(dir, APP_PLATFORM_DOWNLOAD_FILE);
-		HttpURLConnection conn = null;
-		FileOutputStream fileOutputStream = null;
-		String errMsg = null;
-		try
-		{
-			conn = (HttpURLConnection)url.openConnection();
-			
-			if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
-				throw new IOException();
-			
-			InputStream inputStream = conn.getInputStream();
-			fileOutputStream = new FileOutputStream(downloadFile);
-			
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int count;
-			while ((count = inputStream.read(buffer)) > 0) {
-				fileOutputStream.write(buffer, 0, count);
-				
-				if (!isRunning) {
-					errMsg = "Install canceled";
-					break;
-				}
+
+		synchronized (this) {
+			Job job = jobs.get(urlStr);
+			if (job == null || job.canceled.get()) {
+				// a canceled install may still be winding down, and the new one must not touch its files before that
+				job = new Job(urlStr, url, sha256, job);
+				jobs.put(urlStr, job);
+				executor.execute(job);
 			}
+			job.callbacks.add(callback);
+
+			return new Install(job, callback);
 		}
-		catch (IOException e)
+	}
+
+	private final class Job implements Runnable {
+		private final String urlStr;
+		private final URL url;
+		private final String sha256;
+		private final List<AppInstallCallback> callbacks = new CopyOnWriteArrayList<AppInstallCallback>();
+		private final AtomicBoolean canceled = new AtomicBoolean();
+		private final Job previous;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		public Job(String urlStr, URL url, String sha256, Job previous)
 		{
-			errMsg = "Unable to download app";
+			this.urlStr = urlStr;
+			this.url = url;
+			this.sha256 = sha256;
+			this.previous = previous;
 		}
-		finally
+
+		@Override
+		public void run()
 		{
-			if (conn != null)
-				conn.disconnect();
-			if (fileOutputStream != null)
-				try { fileOutputStream.close(); } catch (IOException ignored) { }
-		}
-		
-		if (errMsg != null) {
-			log.info("Aborting install: {}", errMsg);
-			callback.installFailed(errMsg);
-			return;
+			try
+			{
+				install();
+			}
+			finally
+			{
+				done.countDown();
+			}
 		}
-		
-		/* 3. Unpack archive */
-		errMsg = null;
-		File unpackDir = new File(dir, APP_PLATFORM_UNPACK_FOLDER);
-		FileInputStream fileInputStream = null;
-		FileOutputStream fileOutputStream2 = null;
-		ZipInputStream zipInputStream = null;
-		try
+
+		private void install()
 		{
-			FileUtils.deleteQuietly(unpackDir);
-			unpackDir.mkdirs();
-			
-			fileInputStream = new FileInputStream(downloadFile);
-			zipInputStream = new ZipInputStream(fileInputStream);
-			ZipEntry zipEntry = null;
-			
-			while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-				File zipEntryFile = new File(unpackDir, zipEntry.getName());
-				if (!isSubdirectory(unpackDir, zipEntryFile))
-					throw new IOException("Security violation?!");
-
-				if (zipEntry.isDirectory()) {
-					zipEntryFile.mkdirs();
-				} else {
-					zipEntryFile.getParentFile().mkdirs();
-					
-					fileOutputStream2 = new FileOutputStream(zipEntryFile);
-					byte[] buffer = new byte[BUFFER_SIZE];
-					int count;
-					while ((count = zipInputStream.read(buffer)) != -1) {
-						fileOutputStream2.write(buffer, 0, count);
+			if (previous != null)
+				Uninterruptibles.awaitUninterruptibly(previous.done);
+
+			log.info("Starting install for {}", urlStr);
+
+			String downloadKey = Hashing.sha1().hashString(urlStr, Charsets.UTF_8).toString();
+			File partFile = new File(new File(dir, APP_PLATFORM_DOWNLOAD_FOLDER), downloadKey + ".part");
+			File unpackDir = new File(new File(dir, APP_PLATFORM_UNPACK_FOLDER), downloadKey);
+			partFile.getParentFile().mkdirs();
+
+			/* 2. Download and unpack archive */
+			String errMsg = null;
+			try
+			{
+				if (canceled.get())
+					throw new InterruptedIOException("canceled while queued");
+
+				AppArchiveDownload download = new AppArchiveDownload(url, partFile, unpackDir, Constants.USER_AGENT, Constants.HTTP_TIMEOUT_MS);
+				download.run(sha256, canceled, new AppArchiveDownload.ProgressListener()
+				{
+					@Override
+					public void onProgress(long bytesRead, long bytesTotal)
+					{
+						for (AppInstallCallback callback : callbacks)
+							callback.installProgress(bytesRead, bytesTotal);
 					}
-					fileOutputStream2.close();
+				});
+			}
+			catch (InterruptedIOException e)
+			{
+				errMsg = canceled.get() ? "Install canceled" : "Unable to download app";
+			}
+			catch (VerificationException e)
+			{
+				log.info("Exception while verifying: {}", e.toString());
+				errMsg = "App does not match its checksum";
+			}
+			catch (ZipException e)
+			{
+				log.info("Exception while extracting: {}", e.toString());
+				errMsg = "Error while extracting archive";
+			}
+			catch (IOException e)
+			{
+				log.info("Exception while downloading: {}", e.toString());
+				errMsg = "Unable to download app";
+			}
+
+			if (errMsg != null) {
+				finish(errMsg, null, null);
+				return;
+			}
+
+			/* 3. Check manifest */
+			File manifest = new File(unpackDir, APP_PLATFORM_MANIFEST_FILE);
+			JSONObject manifestJSON = null;
+			String appId = null;
+			File appsDir = new File(dir, Constants.APP_PLATFORM_APP_FOLDER);
+			File appDir = null;
+			try
+			{
+				String manifestData = FileUtils.readFileToString(manifest, Charset.defaultCharset());
+				manifestJSON = new JSONObject(manifestData);
+
+				for (String key : AppPlatformDBHelper.getMinimalManifestKeys()) {
+					if (!manifestJSON.has(key))
+						throw new JSONException("Missing required key: " + key);
 				}
+
+				appId = manifestJSON.getString(AppPlatformDBHelper.KEY_ID);
+				appDir = new File(appsDir, appId);
+				if (!isSubdirectory(appsDir, appDir))
+					throw new IOException("App is trying to walk the file system via its id");
 			}
+			catch (IOException e)
+			{
+				log.info("Exception while reading manifest: {}", e.toString());
+				errMsg = "Malformed manifest";
+			}
+			catch (JSONException e)
+			{
+				log.info("Exception while parsing manifest: {}", e.toString());
+				errMsg = "Malformed manifest";
+			}
+
+			if (errMsg != null) {
+				FileUtils.deleteQuietly(unpackDir);
+				finish(errMsg, null, null);
+				return;
+			}
+
+			/* 4. Move app into place */
+			try
+			{
+				synchronized (finishLock) {
+					FileUtils.deleteQuietly(appDir);
+					FileUtils.moveDirectory(unpackDir, appDir);
+					appPlatformDBHelper.addManifest(appId, manifestJSON);
+				}
+			}
+			catch (IOException e)
+			{
+				log.info("Exception while finalizing installation: {}", e.toString());
+				FileUtils.deleteQuietly(unpackDir);
+				finish("Install failed", null, null);
+				return;
+			}
+
+			log.info("Install of {} was successful", appId);
+			finish(null, appId, manifestJSON);
 		}
-		catch (FileNotFoundException e)
-		{
-			log.info("Exception while extracting: {}", e.toString());
-			errMsg = "Error while extracting archive";
-		}
-		catch (IOException e)
-		{
-			log.info("Exception while extracting: {}", e.toString());
-			errMsg = "Error while extracting archive";
-		}
-		finally
-		{
-			if (fileInputStream != null)
-				try { fileInputStream.close(); } catch (IOException ignored) { }
-			if (fileOutputStream2 != null)
-				try { fileOutputStream2.close(); } catch (IOException ignored) { }
-			if (zipInputStream != null)
-				try { zipInputStream.close(); } catch (IOException ignored) { }
-		}
-		
-		if (errMsg != null) {
-			log.info("Aborting install: {}", errMsg);
-			callback.installFailed(errMsg);
-			return;
-		}
-		
-		/* 4. Check manifest */
-		errMsg = null;
-		File manifest = new File(unpackDir, APP_PLATFORM_MANIFEST_FILE);
-		JSONObject manifestJSON = null;
-		String appId = null;
-		File appsDir = new File(dir, Constants.APP_PLATFORM_APP_FOLDER);
-		File appDir = null;
-		try
-		{
-			String manifestData = FileUtils.readFileToString(manifest, Charset.defaultCharset());
-			manifestJSON = new JSONObject(manifestData);
-			
-			for (String key : AppPlatformDBHelper.getMinimalManifestKeys()) {
-				if (!manifestJSON.has(key))
-					throw new JSONException("Missing required key: " + key);
-			}
-			
-			appId = manifestJSON.getString(AppPlatformDBHelper.KEY_ID);
-			appDir = new File(appsDir, appId);
-			if (!isSubdirectory(appsDir, appDir))
-				throw new IOException("App is trying to walk the file system via its id");
-			appDir.mkdirs();
-		}
-		catch (IOException e)
-		{
-			log.info("Exception while reading manifest: {}", e.toString());
-			errMsg = "Malformed manifest";
-		}
-		catch (JSONException e)
+
+		private void finish(String errMsg, String appId, JSONObject manifest)
 		{
-			log.info("Exception while parsing manifest: {}", e.toString());
-			errMsg = "Malformed manifest";
-		}
-		
-		if (errMsg != null) {
-			log.info("Aborting install: {}", errMsg);
-			callback.installFailed(errMsg);
-			return;
+			// nobody can join once the job is gone from the table, so the callbacks are final
+			synchronized (AppInstaller.this) {
+				if (jobs.get(urlStr) == this)
+					jobs.remove(urlStr);
+			}
+
+			if (errMsg != null)
+				log.info("Aborting install: {}", errMsg);
+
+			for (AppInstallCallback callback : callbacks) {
+				if (errMsg != null)
+					callback.installFailed(errMsg);
+				else
+					callback.installSuccessful(appId, manifest);
+			}
 		}
-		
-		log.info("Install was successful");
-		callback.installSuccessful(appId, unpackDir, appDir, manifestJSON);
 	}
-	
+
 	private static boolean isSubdirectory(File parent, File child) throws IOException {
 		String parentPath = parent.getCanonicalPath();
 		String childPath = child.getCanonicalPath();
 		return childPath.startsWith(parentPath);
 	}
-}
\ No newline at end of file
+}
@@ -48,6 +48,7 @@ import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.TransactionOutput;
 import com.google.bitcoin.core.Wallet;
 
+import com.hivewallet.androidclient.wallet.AddressBookProvider;
 import com.hivewallet.androidclient.wallet.Constants;
 import com.hivewallet.androidclient.wallet.WalletApplication;
 
@@ -233,6 +234,8 @@ public class CrashReporter
 		for (final String db : application.databaseList())
 			report.append(" " + db);
 		report.append("\n");
+		report.append("Address book cache: " + AddressBookProvider.entryCacheStats() + "\n");
+		report.append("Wallet saves: " + application.walletSaveStats() + "\n");
 
 		final File filesDir = application.getFilesDir();
 		report.append("\nContents of FilesDir " + filesDir + ":\n");
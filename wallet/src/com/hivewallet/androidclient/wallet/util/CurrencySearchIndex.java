@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Prefix trie over currency codes, symbols and the words of localized display names. Every suffix of a code or symbol is
+ * indexed too, so a query matches codes and symbols anywhere, not just at the start. Each node holds its matches
+ * precomputed, so a search allocates nothing. Immutable, build a new index when the set of currencies changes.
+ */
+public final class CurrencySearchIndex
+{
+	private static final class Node
+	{
+		private final char[] keys;
+		private final Node[] children;
+		private final int[] matches;
+
+		private Node(final char[] keys, final Node[] children, final int[] matches)
+		{
+			this.keys = keys;
+			this.children = children;
+			this.matches = matches;
+		}
+
+		private Node child(final char key)
+		{
+			final int index = Arrays.binarySearch(keys, key);
+			return index >= 0 ? children[index] : null;
+		}
+	}
+
+	private static final class Builder
+	{
+		private final Map<Character, Builder> children = new TreeMap<Character, Builder>();
+		private final TreeSet<Integer> matches = new TreeSet<Integer>();
+
+		private void add(final String key, final int match)
+		{
+			Builder node = this;
+			node.matches.add(match);
+
+			for (int i = 0; i < key.length(); i++)
+			{
+				final Character c = key.charAt(i);
+				Builder child = node.children.get(c);
+				if (child == null)
+				{
+					child = new Builder();
+					node.children.put(c, child);
+				}
+				node = child;
+				node.matches.add(match);
+			}
+		}
+
+		private Node build()
+		{
+			final char[] keys = new char[children.size()];
+			final Node[] nodes = new Node[children.size()];
+			int i = 0;
+			for (final Map.Entry<Character, Builder> entry : children.entrySet())
+			{
+				keys[i] = entry.getKey();
+				nodes[i] = entry.getValue().build();
+				i++;
+			}
+
+			final int[] matchArray = new int[matches.size()];
+			int j = 0;
+			for (final int match : matches)
+				matchArray[j++] = match;
+
+			return new Node(keys, nodes, matchArray);
+		}
+	}
+
+	private final String[] currencyCodes;
+	private final Node root;
+
+	private static final int[] NO_MATCHES = new int[0];
+
+	/**
+	 * @param displayNameLocale
+	 *            locale of the display names to index, or null to index codes and symbols only, e.g. because
+	 *            {@link Currency#getDisplayName(Locale)} is missing before API level 19
+	 */
+	public CurrencySearchIndex(@Nonnull final Collection<String> currencyCodes, @Nullable final Locale displayNameLocale)
+	{
+		this.currencyCodes = currencyCodes.toArray(new String[currencyCodes.size()]);
+		Arrays.sort(this.currencyCodes);
+
+		final Builder builder = new Builder();
+
+		for (int i = 0; i < this.currencyCodes.length; i++)
+		{
+			final String currencyCode = this.currencyCodes[i];
+			addSuffixes(builder, currencyCode.toLowerCase(Locale.US), i);
+
+			final String symbol = GenericUtils.currencySymbol(currencyCode);
+			if (!symbol.equals(currencyCode))
+				addSuffixes(builder, symbol.toLowerCase(Locale.US), i);
+
+			final String displayName = displayNameLocale != null ? displayName(currencyCode, displayNameLocale) : null;
+			if (displayName != null)
+				for (final String word : displayName.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+"))
+					if (word.length() > 0)
+						builder.add(word, i);
+		}
+
+		this.root = builder.build();
+	}
+
+	public int size()
+	{
+		return currencyCodes.length;
+	}
+
+	public String currencyCode(final int index)
+	{
+		return currencyCodes[index];
+	}
+
+	/**
+	 * Case insensitive. An empty query matches everything.
+	 * 
+	 * @return indexes for {@link #currencyCode(int)}, in currency code order. Shared between calls, do not modify.
+	 */
+	public int[] search(@Nonnull final CharSequence query)
+	{
+		Node node = root;
+
+		for (int i = 0; i < query.length() && node != null; i++)
+			node = node.child(Character.toLowerCase(query.charAt(i)));
+
+		return node != null ? node.matches : NO_MATCHES;
+	}
+
+	private static void addSuffixes(final Builder builder, final String key, final int match)
+	{
+		for (int i = 0; i < key.length(); i++)
+			builder.add(key.substring(i), match);
+	}
+
+	private static String displayName(final String currencyCode, final Locale locale)
+	{
+		try
+		{
+			return Currency.getInstance(currencyCode).getDisplayName(locale);
+		}
+		catch (final IllegalArgumentException x)
+		{
+			return null;
+		}
+	}
+}
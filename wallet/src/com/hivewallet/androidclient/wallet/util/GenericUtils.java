@@ -21,7 +21,6 @@ import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Currency;
-import java.util.Locale;
 
 import javax.annotation.Nonnull;
 
@@ -53,7 +52,28 @@ public class GenericUtils
 	public static String formatValue(@Nonnull final BigInteger value, @Nonnull final String plusSign, @Nonnull final String minusSign,
 			final int precision, final int shift)
 	{
-		long longValue = value.longValue();
+		return formatValue(value.longValue(), plusSign, minusSign, precision, shift);
+	}
+
+	public static String formatValue(final long value, final int precision, final int shift)
+	{
+		return formatValue(value, "", "-", precision, shift);
+	}
+
+	public static String formatValue(final long value, @Nonnull final String plusSign, @Nonnull final String minusSign, final int precision,
+			final int shift)
+	{
+		return appendValue(new StringBuilder(24), value, plusSign, minusSign, precision, shift).toString();
+	}
+
+	/**
+	 * Same output as {@link #formatValue(long, String, String, int, int)}, but appends to the given builder instead of
+	 * allocating. Callers on hot paths can keep one builder around and {@code setLength(0)} it between uses.
+	 */
+	public static StringBuilder appendValue(@Nonnull final StringBuilder builder, final long value, @Nonnull final String plusSign,
+			@Nonnull final String minusSign, final int precision, final int shift)
+	{
+		long longValue = value;
 
 		final String sign = longValue < 0 ? minusSign : plusSign;
 
@@ -74,14 +94,16 @@ public class GenericUtils
 			final long coins = absValue / ONE_BTC_INT;
 			final int satoshis = (int) (absValue % ONE_BTC_INT);
 
+			builder.append(sign).append(coins);
+
 			if (satoshis % 1000000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000000);
+				return appendFraction(builder, satoshis / 1000000, 2);
 			else if (satoshis % 10000 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10000);
+				return appendFraction(builder, satoshis / 10000, 4);
 			else if (satoshis % 100 == 0)
-				return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+				return appendFraction(builder, satoshis / 100, 6);
 			else
-				return String.format(Locale.US, "%s%d.%08d", sign, coins, satoshis);
+				return appendFraction(builder, satoshis, 8);
 		}
 		else if (shift == 3)
 		{
@@ -98,12 +120,14 @@ public class GenericUtils
 			final long coins = absValue / ONE_MBTC_INT;
 			final int satoshis = (int) (absValue % ONE_MBTC_INT);
 
+			builder.append(sign).append(coins);
+
 			if (satoshis % 1000 == 0)
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+				return appendFraction(builder, satoshis / 1000, 2);
 			else if (satoshis % 10 == 0)
-				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+				return appendFraction(builder, satoshis / 10, 4);
 			else
-				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+				return appendFraction(builder, satoshis, 5);
 		}
 		else if (shift == 6)
 		{
@@ -118,16 +142,30 @@ public class GenericUtils
 			final long coins = absValue / ONE_UBTC_INT;
 			final int satoshis = (int) (absValue % ONE_UBTC_INT);
 
+			builder.append(sign).append(coins);
+
 			if (satoshis % 100 == 0)
-				return String.format(Locale.US, "%s%d", sign, coins);
+				return builder;
 			else
-				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis);
+				return appendFraction(builder, satoshis, 2);
 		}
 		else
 		{
 			throw new IllegalArgumentException("cannot handle shift: " + shift);
 		}
 	}
+
+	private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000 };
+
+	private static StringBuilder appendFraction(@Nonnull final StringBuilder builder, final int fraction, final int digits)
+	{
+		builder.append('.');
+
+		for (int i = digits - 1; i >= 0; i--)
+			builder.append((char) ('0' + fraction / POWERS_OF_TEN[i] % 10));
+
+		return builder;
+	}
 	
 	public static BigInteger parseValue(String value, int shift)
 	{
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events and their amounts over a sliding window of one second buckets. Writers never block: each bucket is stamped with the second
+ * it belongs to and is recycled by whoever first writes into it after the window has moved on. An add racing with the recycling of its
+ * bucket may get lost, which is acceptable for the statistics this is meant for.
+ */
+public final class RollingCounter
+{
+	private final int windowSeconds;
+	private final AtomicLongArray seconds;
+	private final AtomicLongArray counts;
+	private final AtomicLongArray amounts;
+
+	public RollingCounter(final int windowSeconds)
+	{
+		if (windowSeconds < 1)
+			throw new IllegalArgumentException("window must be at least one second: " + windowSeconds);
+
+		this.windowSeconds = windowSeconds;
+		this.seconds = new AtomicLongArray(windowSeconds);
+		this.counts = new AtomicLongArray(windowSeconds);
+		this.amounts = new AtomicLongArray(windowSeconds);
+
+		for (int i = 0; i < windowSeconds; i++)
+			seconds.set(i, Long.MIN_VALUE);
+	}
+
+	public int getWindowSeconds()
+	{
+		return windowSeconds;
+	}
+
+	public void add(final long amount)
+	{
+		add(amount, System.currentTimeMillis());
+	}
+
+	public void add(final long amount, final long nowMs)
+	{
+		final long second = nowMs / 1000;
+		final int i = (int) (second % windowSeconds);
+
+		final long bucketSecond = seconds.get(i);
+		if (bucketSecond != second)
+		{
+			if (bucketSecond > second)
+				return; // too old for the window
+
+			if (seconds.compareAndSet(i, bucketSecond, second))
+			{
+				counts.set(i, 0);
+				amounts.set(i, 0);
+			}
+		}
+
+		counts.incrementAndGet(i);
+		amounts.addAndGet(i, amount);
+	}
+
+	public Window window()
+	{
+		return window(System.currentTimeMillis());
+	}
+
+	public Window window(final long nowMs)
+	{
+		final long second = nowMs / 1000;
+
+		long count = 0;
+		long amount = 0;
+
+		for (int i = 0; i < windowSeconds; i++)
+		{
+			final long bucketSecond = seconds.get(i);
+			if (bucketSecond <= second && bucketSecond > second - windowSeconds)
+			{
+				count += counts.get(i);
+				amount += amounts.get(i);
+			}
+		}
+
+		return new Window(windowSeconds, count, amount);
+	}
+
+	public static final class Window
+	{
+		public final int seconds;
+		public final long count;
+		public final long amount;
+
+		public Window(final int seconds, final long count, final long amount)
+		{
+			this.seconds = seconds;
+			this.count = count;
+			this.amount = amount;
+		}
+
+		public double countPerSecond()
+		{
+			return (double) count / seconds;
+		}
+
+		public double amountPerSecond()
+		{
+			return (double) amount / seconds;
+		}
+
+		public double averageAmount()
+		{
+			return count > 0 ? (double) amount / count : 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return count + "/" + amount + " in " + seconds + "s";
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * List of values kept in sort order under single insertions and removals, with lookup by key. Values must be immutable as far
+ * as the comparator is concerned, and the comparator must be consistent with equals within one index, otherwise a value
+ * cannot be found again for removal.
+ * 
+ * Not thread-safe.
+ */
+public class SortedIndex<K, V>
+{
+	private final Comparator<? super V> comparator;
+	private final List<V> values = new ArrayList<V>();
+	private final Map<K, V> valuesByKey = new HashMap<K, V>();
+
+	public SortedIndex(@Nonnull final Comparator<? super V> comparator)
+	{
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Inserts the value at its sort position, replacing any previous value for the same key.
+	 * 
+	 * @return the previous value, or null
+	 */
+	@CheckForNull
+	public V put(@Nonnull final K key, @Nonnull final V value)
+	{
+		final V previous = remove(key);
+
+		final int position = Collections.binarySearch(values, value, comparator);
+		values.add(position >= 0 ? position : -position - 1, value);
+		valuesByKey.put(key, value);
+
+		return previous;
+	}
+
+	@CheckForNull
+	public V remove(@Nonnull final K key)
+	{
+		final V previous = valuesByKey.remove(key);
+		if (previous == null)
+			return null;
+
+		final int position = Collections.binarySearch(values, previous, comparator);
+		if (position < 0 || values.get(position) != previous)
+			throw new IllegalStateException("value not found at its sort position, did it change? " + previous);
+		values.remove(position);
+
+		return previous;
+	}
+
+	@CheckForNull
+	public V get(@Nonnull final K key)
+	{
+		return valuesByKey.get(key);
+	}
+
+	/**
+	 * Replaces the whole content in one go, sorting once instead of inserting one by one.
+	 */
+	public void replaceAll(@Nonnull final Map<K, V> newValues)
+	{
+		clear();
+
+		valuesByKey.putAll(newValues);
+		values.addAll(newValues.values());
+		Collections.sort(values, comparator);
+	}
+
+	public void clear()
+	{
+		values.clear();
+		valuesByKey.clear();
+	}
+
+	public int size()
+	{
+		return values.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return values.isEmpty();
+	}
+
+	/**
+	 * @return a sorted copy of the values, safe to hand to another thread
+	 */
+	public List<V> toList()
+	{
+		return new ArrayList<V>(values);
+	}
+
+	@Nonnull
+	public Collection<K> keys()
+	{
+		return Collections.unmodifiableCollection(valuesByKey.keySet());
+	}
+}
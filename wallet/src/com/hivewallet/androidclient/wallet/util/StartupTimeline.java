@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how long the steps of a cold start took and logs them together, once all expected steps have been recorded.
+ * Only the first recording of each step counts.
+ */
+public class StartupTimeline
+{
+	private final long startNanos = System.nanoTime();
+	private final List<String> expectedSteps;
+	private final Map<String, Long> steps = new LinkedHashMap<String, Long>();
+	private boolean complete = false;
+
+	private static final Logger log = LoggerFactory.getLogger(StartupTimeline.class);
+
+	public StartupTimeline(@Nonnull final String... expectedSteps)
+	{
+		this.expectedSteps = Arrays.asList(expectedSteps);
+	}
+
+	/**
+	 * @return milliseconds since this timeline was created, i.e. since the start
+	 */
+	public long elapsedMs()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	public synchronized void record(@Nonnull final String step, final long ms)
+	{
+		if (steps.containsKey(step))
+			return;
+
+		steps.put(step, ms);
+		log.info("startup: {} {} ms", step, ms);
+
+		if (!complete && steps.keySet().containsAll(expectedSteps))
+		{
+			complete = true;
+			log.info("startup timeline: {}", this);
+		}
+	}
+
+	public synchronized boolean isComplete()
+	{
+		return complete;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (final Map.Entry<String, Long> step : steps.entrySet())
+		{
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(step.getKey()).append(' ').append(step.getValue()).append(" ms");
+		}
+		return builder.toString();
+	}
+}
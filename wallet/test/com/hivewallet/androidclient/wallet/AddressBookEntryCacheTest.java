@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hivewallet.androidclient.wallet.AddressBookProvider.AddressBookEntry;
+
+public class AddressBookEntryCacheTest
+{
+	private static final String ADDRESS_1 = "mfWxJ45yp2SFn7UciZyNpvDKrzbhyfKrY8";
+	private static final String ADDRESS_2 = "mzBc4XEFSdzCDcTxAgf6EZXgsZWpztRhef";
+
+	private AddressBookEntryCache cache;
+	private FakeSource source;
+
+	@Before
+	public void setup()
+	{
+		cache = new AddressBookEntryCache(10);
+		source = new FakeSource();
+	}
+
+	@Test
+	public void missQueriesOnceThenHits()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+
+		assertEquals("Alice", cache.lookup(ADDRESS_1, source).getLabel());
+		assertEquals("Alice", cache.lookup(ADDRESS_1, source).getLabel());
+		assertEquals(1, source.queries);
+		assertTrue(cache.toString(), cache.toString().contains("hits=1,misses=1"));
+	}
+
+	@Test
+	public void cachesThatAnAddressHasNoEntry()
+	{
+		assertNull(cache.lookup(ADDRESS_1, source));
+		assertNull(cache.lookup(ADDRESS_1, source));
+		assertEquals(1, source.queries);
+	}
+
+	@Test
+	public void bulkLookupQueriesOnlyMissingAddressesOnce()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+		cache.lookup(ADDRESS_1, source);
+
+		final Map<String, AddressBookEntry> entries = cache.lookup(Arrays.asList(ADDRESS_1, ADDRESS_2, ADDRESS_2), source);
+		assertEquals(1, entries.size());
+		assertEquals("Alice", entries.get(ADDRESS_1).getLabel());
+		assertEquals(Arrays.asList(Arrays.asList(ADDRESS_2)), source.bulkQueries);
+
+		assertTrue(cache.lookup(Arrays.asList(ADDRESS_1, ADDRESS_2), source).containsKey(ADDRESS_1));
+		assertNull(cache.lookup(ADDRESS_2, source));
+		assertEquals(1, source.bulkQueries.size());
+		assertEquals(1, source.queries);
+	}
+
+	@Test
+	public void insertReplacesCachedEntry()
+	{
+		assertNull(cache.lookup(ADDRESS_1, source));
+
+		cache.inserted(ADDRESS_1, "Alice", "file:///photo.png");
+
+		final AddressBookEntry entry = cache.lookup(ADDRESS_1, source);
+		assertEquals("Alice", entry.getLabel());
+		assertEquals("file:///photo.png", entry.getPhotoUri().toString());
+		assertEquals(1, source.queries);
+	}
+
+	@Test
+	public void updateRereadsEntry()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+		cache.lookup(ADDRESS_1, source);
+
+		source.labels.put(ADDRESS_1, "Bob");
+		cache.updated(ADDRESS_1);
+
+		assertEquals("Bob", cache.lookup(ADDRESS_1, source).getLabel());
+		assertEquals(2, source.queries);
+	}
+
+	@Test
+	public void deleteCachesNoEntry()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+		cache.lookup(ADDRESS_1, source);
+
+		source.labels.remove(ADDRESS_1);
+		cache.deleted(ADDRESS_1);
+
+		assertNull(cache.lookup(ADDRESS_1, source));
+		assertEquals(1, source.queries);
+	}
+
+	@Test
+	public void lookupRacingWithWriteDoesNotCacheWhatItRead()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+		source.duringQuery = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				source.labels.put(ADDRESS_1, "Bob");
+				cache.updated(ADDRESS_1);
+			}
+		};
+
+		assertEquals("Alice", cache.lookup(ADDRESS_1, source).getLabel());
+		assertEquals("Bob", cache.lookup(ADDRESS_1, source).getLabel());
+		assertEquals(2, source.queries);
+	}
+
+	@Test
+	public void bulkLookupRacingWithWriteDoesNotCacheWhatItRead()
+	{
+		source.labels.put(ADDRESS_1, "Alice");
+		source.duringQuery = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				source.labels.remove(ADDRESS_1);
+				cache.deleted(ADDRESS_1);
+			}
+		};
+
+		assertEquals("Alice", cache.lookup(Arrays.asList(ADDRESS_1, ADDRESS_2), source).get(ADDRESS_1).getLabel());
+		assertNull(cache.lookup(ADDRESS_1, source));
+		assertEquals(0, source.queries);
+
+		// the address not written was not cached either, it is read again
+		assertNull(cache.lookup(ADDRESS_2, source));
+		assertEquals(1, source.queries);
+	}
+
+	private static class FakeSource implements AddressBookEntryCache.Source
+	{
+		public final Map<String, String> labels = new HashMap<String, String>();
+		public final List<List<String>> bulkQueries = new ArrayList<List<String>>();
+		public int queries = 0;
+		public Runnable duringQuery;
+
+		@Override
+		public AddressBookEntry queryEntry(final String address)
+		{
+			queries++;
+			final String label = labels.get(address);
+			runDuringQuery();
+			return label != null ? new AddressBookEntry(address, label, null) : null;
+		}
+
+		@Override
+		public Map<String, AddressBookEntry> queryEntries(final List<String> addresses)
+		{
+			bulkQueries.add(new ArrayList<String>(addresses));
+			final Map<String, AddressBookEntry> entries = new HashMap<String, AddressBookEntry>();
+			for (final String address : addresses)
+				if (labels.containsKey(address))
+					entries.put(address, new AddressBookEntry(address, labels.get(address), null));
+			runDuringQuery();
+			return entries;
+		}
+
+		private void runDuringQuery()
+		{
+			if (duringQuery != null)
+			{
+				final Runnable runnable = duringQuery;
+				duringQuery = null;
+				runnable.run();
+			}
+		}
+	}
+}
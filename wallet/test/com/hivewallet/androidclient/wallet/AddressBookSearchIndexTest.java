@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the statements of the search index on SQLite outside of Android.
+ */
+public class AddressBookSearchIndexTest
+{
+	private static final String ADDRESS_1 = "mfWxJ45yp2SFn7UciZyNpvDKrzbhyfKrY8";
+	private static final String ADDRESS_2 = "mzBc4XEFSdzCDcTxAgf6EZXgsZWpztRhef";
+
+	// the address book table as of database version 4, the last one without the index
+	private static final String TABLE_CREATE_V4 = "CREATE TABLE " + AddressBookProvider.DATABASE_TABLE + " (" //
+			+ AddressBookProvider.KEY_ROWID + " INTEGER PRIMARY KEY AUTOINCREMENT, " //
+			+ AddressBookProvider.KEY_ADDRESS + " TEXT NOT NULL, " //
+			+ AddressBookProvider.KEY_LABEL + " TEXT NULL, " //
+			+ AddressBookProvider.KEY_PHOTO + " TEXT NULL);";
+
+	private Connection connection;
+	private AddressBookSearchIndex.Database db;
+
+	@Before
+	public void setup() throws Exception
+	{
+		Class.forName("org.sqlite.JDBC");
+		connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		db = new JdbcDatabase(connection);
+
+		db.execSQL(TABLE_CREATE_V4, new Object[0]);
+	}
+
+	@After
+	public void teardown() throws Exception
+	{
+		connection.close();
+	}
+
+	@Test
+	public void matchQueryPrefixesEveryWord()
+	{
+		assertEquals("ali*", AddressBookSearchIndex.matchQuery("ali"));
+		assertEquals("Alice* Bob*", AddressBookSearchIndex.matchQuery("  Alice   Bob "));
+		assertEquals("Zoë*", AddressBookSearchIndex.matchQuery("Zoë"));
+	}
+
+	@Test
+	public void matchQueryDropsQuerySyntax()
+	{
+		assertEquals("label* x* y* z*", AddressBookSearchIndex.matchQuery("label:\"x\" -(y*) ^z"));
+		assertNull(AddressBookSearchIndex.matchQuery(" *\"-:() "));
+		assertNull(AddressBookSearchIndex.matchQuery(""));
+	}
+
+	@Test
+	public void queryWithSyntaxCharactersIsSafeToRun() throws Exception
+	{
+		AddressBookSearchIndex.create(db);
+		insert(ADDRESS_1, "Alice Smith");
+
+		assertEquals(Arrays.asList(ADDRESS_1), search("\"alice\" -(sm"));
+		assertEquals(Collections.emptyList(), search("NEAR bob*"));
+	}
+
+	@Test
+	public void upgradeIndexesExistingRows() throws Exception
+	{
+		insertRow(ADDRESS_1, "Alice");
+		insertRow(ADDRESS_2, "Bob");
+		insertRow(ADDRESS_2, null);
+
+		AddressBookSearchIndex.create(db);
+
+		assertEquals(Arrays.asList(ADDRESS_1), search("ali"));
+		assertEquals(Arrays.asList(ADDRESS_2), search("bob"));
+		assertEquals(3, indexSize());
+	}
+
+	@Test
+	public void insertUpdateAndDeleteKeepIndexInSync() throws Exception
+	{
+		AddressBookSearchIndex.create(db);
+
+		insert(ADDRESS_1, "Alice");
+		insert(ADDRESS_2, "Bob");
+		assertEquals(Arrays.asList(ADDRESS_1), search("alice"));
+		assertEquals(2, indexSize());
+
+		update(ADDRESS_1, "Carol");
+		assertEquals(Collections.emptyList(), search("alice"));
+		assertEquals(Arrays.asList(ADDRESS_1), search("car"));
+		assertEquals(2, indexSize());
+
+		delete(ADDRESS_1);
+		assertEquals(Collections.emptyList(), search("car"));
+		assertEquals(Collections.emptyList(), search(ADDRESS_1));
+		assertEquals(Arrays.asList(ADDRESS_2), search("bob"));
+		assertEquals(1, indexSize());
+	}
+
+	@Test
+	public void matchesAnyPartOfAnAddress() throws Exception
+	{
+		AddressBookSearchIndex.create(db);
+		insert(ADDRESS_1, "Alice");
+		insert(ADDRESS_2, "Bob");
+
+		assertEquals(Arrays.asList(ADDRESS_2), search("XEFSdz"));
+		assertEquals(Arrays.asList(ADDRESS_2), search(ADDRESS_2));
+		assertEquals(Arrays.asList(ADDRESS_1), search("rY8"));
+		assertEquals(Arrays.asList(ADDRESS_1), search("ali KrY8"));
+		assertEquals(Collections.emptyList(), search("bob KrY8"));
+	}
+
+	// same order of statements as the insert, update and delete of the provider
+
+	private void insert(final String address, final String label) throws SQLException
+	{
+		insertRow(address, label);
+		AddressBookSearchIndex.update(db, address);
+	}
+
+	private void update(final String address, final String label) throws SQLException
+	{
+		db.execSQL("UPDATE " + AddressBookProvider.DATABASE_TABLE + " SET " + AddressBookProvider.KEY_LABEL + "=? WHERE "
+				+ AddressBookProvider.KEY_ADDRESS + "=?", new Object[] { label, address });
+		AddressBookSearchIndex.update(db, address);
+	}
+
+	private void delete(final String address) throws SQLException
+	{
+		AddressBookSearchIndex.remove(db, address);
+		db.execSQL("DELETE FROM " + AddressBookProvider.DATABASE_TABLE + " WHERE " + AddressBookProvider.KEY_ADDRESS + "=?",
+				new Object[] { address });
+	}
+
+	private void insertRow(final String address, final String label) throws SQLException
+	{
+		db.execSQL("INSERT INTO " + AddressBookProvider.DATABASE_TABLE + " (" + AddressBookProvider.KEY_ADDRESS + ", "
+				+ AddressBookProvider.KEY_LABEL + ") VALUES (?, ?)", new Object[] { address, label });
+	}
+
+	private List<String> search(final String constraint) throws SQLException
+	{
+		final PreparedStatement statement = connection.prepareStatement("SELECT DISTINCT " + AddressBookProvider.KEY_ADDRESS + " FROM "
+				+ AddressBookProvider.DATABASE_TABLE + " WHERE " + AddressBookSearchIndex.SELECTION_MATCH + " ORDER BY "
+				+ AddressBookProvider.KEY_ADDRESS);
+		statement.setString(1, AddressBookSearchIndex.matchQuery(constraint));
+
+		final List<String> addresses = new ArrayList<String>();
+		final ResultSet rs = statement.executeQuery();
+		while (rs.next())
+			addresses.add(rs.getString(1));
+		statement.close();
+
+		return addresses;
+	}
+
+	private int indexSize()
+	{
+		return Integer.parseInt(db.queryStrings("SELECT COUNT(*) FROM " + AddressBookSearchIndex.TABLE).get(0));
+	}
+
+	private static class JdbcDatabase implements AddressBookSearchIndex.Database
+	{
+		private final Connection connection;
+
+		public JdbcDatabase(final Connection connection)
+		{
+			this.connection = connection;
+		}
+
+		@Override
+		public void execSQL(final String sql, final Object[] bindArgs)
+		{
+			try
+			{
+				final PreparedStatement statement = connection.prepareStatement(sql);
+				for (int i = 0; i < bindArgs.length; i++)
+					statement.setObject(i + 1, bindArgs[i]);
+				statement.executeUpdate();
+				statement.close();
+			}
+			catch (final SQLException x)
+			{
+				throw new RuntimeException(x);
+			}
+		}
+
+		@Override
+		public List<String> queryStrings(final String sql)
+		{
+			try
+			{
+				final List<String> strings = new ArrayList<String>();
+				final Statement statement = connection.createStatement();
+				final ResultSet rs = statement.executeQuery(sql);
+				while (rs.next())
+					strings.add(rs.getString(1));
+				statement.close();
+				return strings;
+			}
+			catch (final SQLException x)
+			{
+				throw new RuntimeException(x);
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+
+public class ExchangeRateHistoryTest
+{
+	private static final long HOUR = 3600000;
+	private static final long T0 = 1400000000000l;
+	private static final List<String> USD = Collections.singletonList("USD");
+
+	private File dir;
+	private ExchangeRateHistory history;
+
+	@Before
+	public void setup()
+	{
+		dir = Files.createTempDir();
+		history = new ExchangeRateHistory(dir, 4, HOUR);
+	}
+
+	@After
+	public void teardown()
+	{
+		history.close();
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertNull(history.rateAt("USD", T0));
+		assertEquals(0, history.series("USD").size());
+		assertEquals(0, dir.listFiles().length);
+	}
+
+	@Test
+	public void rateAtTime() throws Exception
+	{
+		history.record(rates("USD", 600, "EUR", 440), USD, T0);
+		history.record(rates("USD", 610), USD, T0 + HOUR);
+		history.record(rates("USD", 620), USD, T0 + 2 * HOUR);
+
+		assertNull(history.rateAt("USD", T0 - 1));
+		assertEquals(rate(600), history.rateAt("USD", T0).rate);
+		assertEquals(rate(600), history.rateAt("USD", T0 + HOUR - 1).rate);
+		assertEquals(rate(610), history.rateAt("USD", T0 + HOUR).rate);
+		assertEquals(rate(620), history.rateAt("USD", T0 + 100 * HOUR).rate);
+		assertEquals(ExchangeRateHistory.SOURCE, history.rateAt("USD", T0).source);
+		assertNull("not tracked", history.rateAt("EUR", T0));
+	}
+
+	@Test
+	public void spacing() throws Exception
+	{
+		history.record(rates("USD", 600), USD, T0);
+		history.record(rates("USD", 605), USD, T0 + HOUR / 2);
+		history.record(rates("USD", 610), USD, T0 + HOUR);
+
+		assertEquals(2, history.series("USD").size());
+		assertEquals(rate(600), history.rateAt("USD", T0 + HOUR / 2).rate);
+	}
+
+	@Test
+	public void ringDropsOldest() throws Exception
+	{
+		for (int i = 0; i < 6; i++)
+			history.record(rates("USD", 600 + i), USD, T0 + i * HOUR);
+
+		final ExchangeRateHistory.Series series = history.series("USD");
+		assertEquals(4, series.size());
+		assertNull(history.rateAt("USD", T0 + HOUR));
+		assertNull(series.rateAt(T0 + HOUR));
+		for (int i = 2; i < 6; i++)
+		{
+			assertEquals(rate(600 + i), history.rateAt("USD", T0 + i * HOUR + 1).rate);
+			assertEquals(rate(600 + i), series.rateAt(T0 + i * HOUR + 1).rate);
+		}
+	}
+
+	@Test
+	public void reopen() throws Exception
+	{
+		for (int i = 0; i < 5; i++)
+			history.record(rates("USD", 600 + i), USD, T0 + i * HOUR);
+		history.close();
+
+		history = new ExchangeRateHistory(dir, 100, HOUR);
+		assertEquals(4, history.series("USD").size());
+		assertEquals(rate(604), history.rateAt("USD", T0 + 4 * HOUR).rate);
+
+		history.record(rates("USD", 700), USD, T0 + 5 * HOUR);
+		assertEquals(4, history.series("USD").size());
+		assertEquals(rate(602), history.rateAt("USD", T0 + 2 * HOUR).rate);
+		assertNull(history.rateAt("USD", T0 + 2 * HOUR - 1));
+		assertEquals(rate(700), history.rateAt("USD", T0 + 5 * HOUR).rate);
+	}
+
+	@Test
+	public void corruptFileStartsOver() throws Exception
+	{
+		history.record(rates("USD", 600), USD, T0);
+		history.close();
+
+		final RandomAccessFile file = new RandomAccessFile(new File(dir, "USD.rates"), "rw");
+		file.write(new byte[] { 'X' });
+		file.close();
+
+		history = new ExchangeRateHistory(dir, 4, HOUR);
+		assertNull(history.rateAt("USD", T0));
+		history.record(rates("USD", 610), USD, T0 + HOUR);
+		assertEquals(1, history.series("USD").size());
+	}
+
+	private static Map<String, ExchangeRate> rates(final Object... rates)
+	{
+		final Map<String, ExchangeRate> map = new TreeMap<String, ExchangeRate>();
+		for (int i = 0; i < rates.length; i += 2)
+			map.put((String) rates[i], new ExchangeRate((String) rates[i], rate((Integer) rates[i + 1]), "test"));
+		return map;
+	}
+
+	private static BigInteger rate(final int units)
+	{
+		return BigInteger.valueOf(units).multiply(BigInteger.valueOf(100000000));
+	}
+}
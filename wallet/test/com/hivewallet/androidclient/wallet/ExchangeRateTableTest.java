@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.hivewallet.androidclient.wallet.ExchangeRateTable.Answer;
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+
+public class ExchangeRateTableTest
+{
+	private static final long NOW = 1400000000000l;
+
+	@Test
+	public void empty()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+
+		assertTrue(table.isEmpty());
+		assertEquals(0, table.fetchedAt());
+		assertTrue(table.rates().isEmpty());
+	}
+
+	@Test
+	public void medianOverSources()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		table.put(answer("a", NOW, "USD", 600, "EUR", 440));
+		table.put(answer("b", NOW, "USD", 610));
+		table.put(answer("c", NOW, "USD", 605));
+
+		assertEquals(rate(605), table.rates().get("USD").rate);
+		assertEquals("c", table.rates().get("USD").source);
+		assertEquals(rate(440), table.rates().get("EUR").rate);
+	}
+
+	@Test
+	public void lowerMiddleForEvenCount()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		table.put(answer("a", NOW, "USD", 610));
+		table.put(answer("b", NOW, "USD", 600));
+
+		assertEquals(rate(600), table.rates().get("USD").rate);
+		assertEquals("b", table.rates().get("USD").source);
+	}
+
+	@Test
+	public void oldAnswersLeftOut()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		table.put(answer("a", NOW - ExchangeRateTable.MAX_ANSWER_AGE_MS - 1, "USD", 500, "CHF", 540));
+		table.put(answer("b", NOW, "USD", 600));
+
+		assertEquals(NOW, table.fetchedAt());
+		assertEquals(rate(600), table.rates().get("USD").rate);
+		assertNull(table.rates().get("CHF"));
+	}
+
+	@Test
+	public void replacedAnswerInvalidatesRates()
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		table.put(answer("a", NOW, "USD", 600));
+		assertEquals(rate(600), table.rates().get("USD").rate);
+
+		table.put(answer("a", NOW + 1, "USD", 620));
+		assertEquals(rate(620), table.rates().get("USD").rate);
+	}
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+		rates.put("USD", new ExchangeRate("USD", rate(600), "a"));
+		table.put(new Answer("a", NOW, "\"v1\"", "Mon, 19 May 2014 12:00:00 GMT", rates));
+		table.put(answer("b", NOW - 1000, "USD", 610, "EUR", 440));
+
+		final StringWriter writer = new StringWriter();
+		table.save(writer);
+
+		final ExchangeRateTable loaded = new ExchangeRateTable();
+		loaded.load(new StringReader(writer.toString()));
+
+		assertEquals(NOW, loaded.fetchedAt());
+		assertEquals("\"v1\"", loaded.answer("a").etag);
+		assertEquals("Mon, 19 May 2014 12:00:00 GMT", loaded.answer("a").lastModified);
+		assertNull(loaded.answer("b").etag);
+		assertEquals(NOW - 1000, loaded.answer("b").fetchedAt);
+		assertEquals(rate(440), loaded.rates().get("EUR").rate);
+		assertEquals("b", loaded.rates().get("EUR").source);
+		assertEquals(rate(600), loaded.rates().get("USD").rate);
+	}
+
+	private static Answer answer(final String source, final long fetchedAt, final Object... rates)
+	{
+		final Map<String, ExchangeRate> map = new TreeMap<String, ExchangeRate>();
+		for (int i = 0; i < rates.length; i += 2)
+			map.put((String) rates[i], new ExchangeRate((String) rates[i], rate((Integer) rates[i + 1]), source));
+		return new Answer(source, fetchedAt, null, null, map);
+	}
+
+	private static BigInteger rate(final int units)
+	{
+		return BigInteger.valueOf(units).multiply(BigInteger.valueOf(100000000));
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hivewallet.androidclient.wallet.ExchangeRatesProvider.ExchangeRate;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ExchangeRatesFetcherTest
+{
+	private static final int TIMEOUT_MS = 5000;
+	private static final long GRACE_MS = 200;
+
+	private static final String AVERAGE = "{\"USD\": {\"24h_avg\": 600.5, \"last\": 601, \"volume_btc\": 1234.5}, "
+			+ "\"EUR\": {\"24h_avg\": \"0\", \"last\": \"440.25\"}, \"timestamp\": \"Mon, 19 May 2014 12:00:00 -0000\"}";
+	private static final String TICKER = "{\"USD\": {\"15m\": 599, \"symbol\": \"$\"}, \"EUR\": {\"15m\": 441, \"symbol\": \"\u20ac\"}}";
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private String baseUrl;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void parseKeepsFirstPositiveField() throws Exception
+	{
+		final Map<String, ExchangeRate> rates = new ExchangeRateSource("average", new URL("http://localhost/"), "24h_avg", "last")
+				.parse(new StringReader(AVERAGE));
+
+		assertEquals(2, rates.size());
+		assertEquals(new BigInteger("60050000000"), rates.get("USD").rate);
+		assertEquals(new BigInteger("44025000000"), rates.get("EUR").rate);
+		assertEquals("average", rates.get("EUR").source);
+	}
+
+	@Test
+	public void parseSkipsUnparsableRates() throws Exception
+	{
+		final Map<String, ExchangeRate> rates = new ExchangeRateSource("ticker", new URL("http://localhost/"), "15m").parse(new StringReader(
+				"{\"USD\": {\"15m\": \"n/a\"}, \"GBP\": {\"15m\": 0.000000001}, \"EUR\": {\"15m\": [1, 2], \"last\": 3}, \"JPY\": {\"15m\": 61000}}"));
+
+		assertEquals(1, rates.size());
+		assertEquals(new BigInteger("6100000000000"), rates.get("JPY").rate);
+	}
+
+	@Test
+	public void medianOfAllSources() throws Exception
+	{
+		serve("/a", 0, TICKER, false);
+		serve("/b", 0, "{\"USD\": {\"15m\": 610}}", true);
+		serve("/c", 0, "{\"USD\": {\"15m\": 605}, \"CHF\": {\"15m\": 540}}", false);
+
+		final Map<String, ExchangeRate> rates = fetch(fetcher(source("a"), source("b"), source("c")));
+
+		assertEquals(3, rates.size());
+		assertEquals(new BigInteger("60500000000"), rates.get("USD").rate);
+		assertEquals("c", rates.get("USD").source);
+		assertEquals(new BigInteger("44100000000"), rates.get("EUR").rate);
+		assertEquals(new BigInteger("54000000000"), rates.get("CHF").rate);
+	}
+
+	@Test
+	public void slowSourceCostsOnlyGracePeriod() throws Exception
+	{
+		serve("/fast", 0, TICKER, false);
+		serve("/slow", 3000, "{\"USD\": {\"15m\": 700}}", false);
+
+		final long start = System.currentTimeMillis();
+		final Map<String, ExchangeRate> rates = fetch(fetcher(source("slow"), source("fast")));
+		final long took = System.currentTimeMillis() - start;
+
+		assertTrue("took " + took + " ms", took < 1500);
+		assertEquals("fast", rates.get("USD").source);
+	}
+
+	@Test
+	public void failingSourceIsIgnored() throws Exception
+	{
+		server.createContext("/broken", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				exchange.sendResponseHeaders(500, -1);
+				exchange.close();
+			}
+		});
+		serve("/garbage", 0, "<html>", false);
+		serve("/ok", 50, TICKER, false);
+
+		final Map<String, ExchangeRate> rates = fetch(fetcher(source("broken"), source("garbage"), source("ok")));
+
+		assertEquals(2, rates.size());
+		assertEquals("ok", rates.get("USD").source);
+	}
+
+	@Test
+	public void noSourceAnswers() throws Exception
+	{
+		serve("/empty", 0, "{}", false);
+
+		assertNull(fetch(fetcher(source("empty"), source("missing"))));
+	}
+
+	@Test
+	public void deadlineWithoutAnswer() throws Exception
+	{
+		serve("/slow", 2000, TICKER, false);
+
+		final long start = System.currentTimeMillis();
+		assertNull(fetch(new ExchangeRatesFetcher(Arrays.asList(source("slow")), "test", 500, GRACE_MS)));
+		assertFalse(System.currentTimeMillis() - start > 1500);
+	}
+
+	@Test
+	public void conditionalRequest() throws Exception
+	{
+		final AtomicInteger downloads = new AtomicInteger();
+		server.createContext("/etag", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+				{
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+
+				downloads.incrementAndGet();
+				final byte[] bytes = TICKER.getBytes(Constants.UTF_8);
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				exchange.sendResponseHeaders(200, bytes.length);
+				final OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		});
+
+		final ExchangeRatesFetcher fetcher = fetcher(source("etag"));
+		final ExchangeRateTable table = new ExchangeRateTable();
+
+		assertEquals(1, fetcher.fetch(table));
+		final long firstFetchedAt = table.fetchedAt();
+		Thread.sleep(10);
+		assertEquals(1, fetcher.fetch(table));
+
+		assertEquals(1, downloads.get());
+		assertTrue(table.fetchedAt() > firstFetchedAt);
+		assertEquals("\"v1\"", table.answer("etag").etag);
+		assertEquals(new BigInteger("59900000000"), table.rates().get("USD").rate);
+	}
+
+	private Map<String, ExchangeRate> fetch(final ExchangeRatesFetcher fetcher)
+	{
+		final ExchangeRateTable table = new ExchangeRateTable();
+		return fetcher.fetch(table) > 0 ? table.rates() : null;
+	}
+
+	private ExchangeRateSource source(final String path) throws Exception
+	{
+		return new ExchangeRateSource(path, new URL(baseUrl + "/" + path), "15m");
+	}
+
+	private ExchangeRatesFetcher fetcher(final ExchangeRateSource... sources)
+	{
+		return new ExchangeRatesFetcher(Arrays.asList(sources), "test", TIMEOUT_MS, GRACE_MS);
+	}
+
+	private void serve(final String path, final long delayMs, final String body, final boolean gzip)
+	{
+		server.createContext(path, new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				try
+				{
+					Thread.sleep(delayMs);
+				}
+				catch (final InterruptedException x)
+				{
+					throw new RuntimeException(x);
+				}
+
+				byte[] bytes = body.getBytes(Constants.UTF_8);
+				if (gzip && "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding")))
+				{
+					final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					final GZIPOutputStream gos = new GZIPOutputStream(bos);
+					gos.write(bytes);
+					gos.close();
+					bytes = bos.toByteArray();
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				}
+
+				exchange.sendResponseHeaders(200, bytes.length);
+				final OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		});
+	}
+}
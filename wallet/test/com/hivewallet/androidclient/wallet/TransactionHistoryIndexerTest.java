@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionConfidence.ConfidenceType;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.utils.TestUtils;
+import com.google.bitcoin.wallet.WalletTransaction;
+import com.google.bitcoin.wallet.WalletTransaction.Pool;
+
+public class TransactionHistoryIndexerTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	private ECKey key;
+	private Wallet wallet;
+	private FakeStore store;
+	private FakeScheduler scheduler;
+	private TransactionHistoryIndexer indexer;
+
+	@Before
+	public void setup() throws Exception
+	{
+		key = new ECKey();
+		wallet = new Wallet(PARAMS);
+		wallet.addKey(key);
+
+		store = new FakeStore();
+		scheduler = new FakeScheduler();
+		indexer = new TransactionHistoryIndexer(wallet, store, scheduler);
+	}
+
+	private Transaction settled(final int coins) throws Exception
+	{
+		final Transaction tx = TestUtils.createFakeTx(PARAMS, Utils.toNanoCoins(coins, 0), key);
+		tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		tx.getConfidence().setAppearedAtChainHeight(1);
+		tx.getConfidence().setDepthInBlocks(100);
+		wallet.addWalletTransaction(new WalletTransaction(Pool.UNSPENT, tx));
+		return tx;
+	}
+
+	private Transaction pending(final int coins) throws Exception
+	{
+		final Transaction tx = TestUtils.createFakeTx(PARAMS, Utils.toNanoCoins(coins, 0), key);
+		wallet.receivePending(tx, null);
+		return tx;
+	}
+
+	@Test
+	public void rebuildsWhenOutOfStep() throws Exception
+	{
+		settled(1);
+		settled(2);
+		store.rows.add(Sha256Hash.ZERO_HASH);
+
+		indexer.start(false);
+		scheduler.runAll();
+
+		assertEquals(1, store.replaceCount);
+		assertEquals(hashes(wallet.getTransactions(true)), store.rows);
+	}
+
+	@Test
+	public void rebuildsWhenAsked() throws Exception
+	{
+		final Transaction tx = settled(1);
+		store.rows.add(tx.getHash());
+
+		indexer.start(true);
+		scheduler.runAll();
+
+		assertEquals(1, store.replaceCount);
+	}
+
+	@Test
+	public void rewritesOnlyUnsettledWhenInStep() throws Exception
+	{
+		final Transaction settled = settled(1);
+		final Transaction stale = settled(2);
+		final Transaction pending = pending(3);
+		store.rows.addAll(hashes(wallet.getTransactions(true)));
+		// the process died before the deeper confirmations of this one were written
+		store.unsettled.add(stale.getHash());
+
+		indexer.start(false);
+		scheduler.runAll();
+
+		assertEquals(0, store.replaceCount);
+		assertEquals(1, store.writes.size());
+		final Set<Sha256Hash> written = hashes(store.writes.get(0));
+		assertEquals(2, written.size());
+		assertTrue(written.contains(stale.getHash()));
+		assertTrue(written.contains(pending.getHash()));
+		assertTrue(store.rows.contains(settled.getHash()));
+	}
+
+	@Test
+	public void coalescesChanges() throws Exception
+	{
+		indexer.start(false);
+		scheduler.runAll();
+
+		final Transaction tx1 = pending(1);
+		final Transaction tx2 = pending(2);
+
+		assertEquals(1, scheduler.queue.size());
+		assertEquals(1000, scheduler.lastDelayMs);
+		scheduler.runAll();
+
+		assertEquals(1, store.writes.size());
+		assertEquals(hashes(tx1, tx2), hashes(store.writes.get(0)));
+
+		// the next change is written in the next batch
+		final Transaction tx3 = pending(3);
+		scheduler.runAll();
+
+		assertEquals(2, store.writes.size());
+		assertEquals(hashes(tx3), hashes(store.writes.get(1)));
+	}
+
+	@Test
+	public void deletesTransactionsGoneFromWallet() throws Exception
+	{
+		indexer.start(false);
+		scheduler.runAll();
+
+		final Transaction tx = pending(1);
+		wallet.clearTransactions(0);
+		scheduler.runAll();
+
+		assertEquals(0, store.writes.size());
+		assertEquals(hashes(tx), store.deletes);
+	}
+
+	@Test
+	public void stopsListening() throws Exception
+	{
+		indexer.start(false);
+		scheduler.runAll();
+		indexer.stop();
+
+		pending(1);
+
+		assertTrue(scheduler.shutdown);
+		assertEquals(0, scheduler.queue.size());
+	}
+
+	private static Set<Sha256Hash> hashes(final Transaction... transactions)
+	{
+		final Set<Sha256Hash> hashes = new HashSet<Sha256Hash>();
+		for (final Transaction tx : transactions)
+			hashes.add(tx.getHash());
+		return hashes;
+	}
+
+	private static Set<Sha256Hash> hashes(final Collection<Transaction> transactions)
+	{
+		return hashes(transactions.toArray(new Transaction[0]));
+	}
+
+	private static final class FakeStore implements TransactionHistoryIndexer.Store
+	{
+		final Set<Sha256Hash> rows = new HashSet<Sha256Hash>();
+		final Set<Sha256Hash> unsettled = new HashSet<Sha256Hash>();
+		final List<Collection<Transaction>> writes = new ArrayList<Collection<Transaction>>();
+		final Set<Sha256Hash> deletes = new HashSet<Sha256Hash>();
+		int replaceCount = 0;
+
+		@Override
+		public int count()
+		{
+			return rows.size();
+		}
+
+		@Override
+		public Set<Sha256Hash> unsettled()
+		{
+			return unsettled;
+		}
+
+		@Override
+		public void replace(final Collection<Transaction> transactions)
+		{
+			replaceCount++;
+			rows.clear();
+			rows.addAll(hashes(transactions));
+		}
+
+		@Override
+		public void write(final Collection<Transaction> transactions)
+		{
+			writes.add(new ArrayList<Transaction>(transactions));
+			rows.addAll(hashes(transactions));
+		}
+
+		@Override
+		public void delete(final Sha256Hash hash)
+		{
+			deletes.add(hash);
+			rows.remove(hash);
+		}
+	}
+
+	private static final class FakeScheduler implements TransactionHistoryIndexer.Scheduler
+	{
+		final List<Runnable> queue = new ArrayList<Runnable>();
+		long lastDelayMs = -1;
+		boolean shutdown = false;
+
+		@Override
+		public void postDelayed(@Nonnull final Runnable runnable, final long delayMs)
+		{
+			queue.add(runnable);
+			lastDelayMs = delayMs;
+		}
+
+		@Override
+		public void shutdown()
+		{
+			shutdown = true;
+			queue.clear();
+		}
+
+		public void runAll()
+		{
+			while (!queue.isEmpty())
+				queue.remove(0).run();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Runs the schema and the queries of the provider on SQLite outside of Android.
+ */
+public class TransactionHistoryProviderTest
+{
+	private static final String HASH_LOW = "0f" + repeat('0', 62);
+	private static final String HASH_HIGH = "a0" + repeat('0', 62);
+
+	private Connection db;
+
+	@Before
+	public void setup() throws Exception
+	{
+		Class.forName("org.sqlite.JDBC");
+		db = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+		final Statement statement = db.createStatement();
+		statement.executeUpdate(TransactionHistoryProvider.DATABASE_CREATE);
+		statement.executeUpdate(TransactionHistoryProvider.INDEX_CREATE);
+		statement.executeUpdate(TransactionHistoryProvider.INDEX_CREATE2);
+		statement.close();
+	}
+
+	@After
+	public void teardown() throws Exception
+	{
+		db.close();
+	}
+
+	private void insert(final String hash, final long time, final int direction, final String confidenceType, final int depth) throws Exception
+	{
+		final PreparedStatement statement = db.prepareStatement("INSERT INTO " + TransactionHistoryProvider.DATABASE_TABLE + " ("
+				+ TransactionHistoryProvider.KEY_HASH + ", " + TransactionHistoryProvider.KEY_TIME + ", " + TransactionHistoryProvider.KEY_DIRECTION
+				+ ", " + TransactionHistoryProvider.KEY_VALUE + ", " + TransactionHistoryProvider.KEY_AMOUNT + ", "
+				+ TransactionHistoryProvider.KEY_CONFIDENCE_TYPE + ", " + TransactionHistoryProvider.KEY_PENDING + ", "
+				+ TransactionHistoryProvider.KEY_DEPTH + ", " + TransactionHistoryProvider.KEY_MAX_DEPTH + ", "
+				+ TransactionHistoryProvider.KEY_BROADCAST_PEERS + ", " + TransactionHistoryProvider.KEY_FLAGS
+				+ ") VALUES (?, ?, ?, 0, 0, ?, ?, ?, 7, 0, 0)");
+		statement.setString(1, hash);
+		statement.setLong(2, time);
+		statement.setInt(3, direction);
+		statement.setString(4, confidenceType);
+		statement.setInt(5, "PENDING".equals(confidenceType) ? 1 : 0);
+		statement.setInt(6, depth);
+		statement.executeUpdate();
+		statement.close();
+	}
+
+	private List<String> query(final String selection, final String... selectionArgs) throws Exception
+	{
+		final String where = TransactionHistoryProvider.where(selection, selectionArgs);
+
+		final Statement statement = db.createStatement();
+		final ResultSet rs = statement.executeQuery("SELECT " + TransactionHistoryProvider.KEY_HASH + " FROM "
+				+ TransactionHistoryProvider.DATABASE_TABLE + (where != null ? " WHERE " + where : "") + " ORDER BY "
+				+ TransactionHistoryProvider.SORT_ORDER);
+
+		final List<String> hashes = new ArrayList<String>();
+		while (rs.next())
+			hashes.add(rs.getString(1));
+		statement.close();
+
+		return hashes;
+	}
+
+	@Test
+	public void sortsPendingFirstThenNewestFirst() throws Exception
+	{
+		insert(hash(1), 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 20);
+		insert(hash(2), 3000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 1);
+		insert(hash(3), 500, TransactionHistoryProvider.DIRECTION_SENT, "PENDING", 0);
+		insert(hash(4), 2000, TransactionHistoryProvider.DIRECTION_SENT, "PENDING", 0);
+
+		assertEquals(Arrays.asList(hash(4), hash(3), hash(2), hash(1)), query(null));
+	}
+
+	@Test
+	public void breaksTiesByHashLikeTheComparator() throws Exception
+	{
+		insert(HASH_HIGH, 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 1);
+		insert(HASH_LOW, 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 1);
+
+		// TransactionRow.COMPARATOR orders by the unsigned hash bytes
+		assertTrue(UnsignedBytes.lexicographicalComparator().compare(new Sha256Hash(HASH_LOW).getBytes(), new Sha256Hash(HASH_HIGH).getBytes()) < 0);
+		assertEquals(Arrays.asList(HASH_LOW, HASH_HIGH), query(null));
+	}
+
+	@Test
+	public void selectsUnsettled() throws Exception
+	{
+		insert(hash(1), 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 8); // capped at max depth + 1
+		insert(hash(2), 2000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 7);
+		insert(hash(3), 3000, TransactionHistoryProvider.DIRECTION_RECEIVED, "PENDING", 0);
+		insert(hash(4), 4000, TransactionHistoryProvider.DIRECTION_RECEIVED, "DEAD", 0);
+
+		assertEquals(Arrays.asList(hash(3), hash(4), hash(2)), query(TransactionHistoryProvider.SELECTION_UNSETTLED));
+	}
+
+	@Test
+	public void selectsDirection() throws Exception
+	{
+		insert(hash(1), 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 1);
+		insert(hash(2), 2000, TransactionHistoryProvider.DIRECTION_SENT, "BUILDING", 1);
+		insert(hash(3), 3000, TransactionHistoryProvider.DIRECTION_INTERNAL, "BUILDING", 1);
+
+		assertEquals(Arrays.asList(hash(2)),
+				query(TransactionHistoryProvider.SELECTION_DIRECTION, Integer.toString(TransactionHistoryProvider.DIRECTION_SENT)));
+		assertNull(TransactionHistoryProvider.where(null, null));
+	}
+
+	@Test
+	public void rejectsDuplicateHash() throws Exception
+	{
+		insert(hash(1), 1000, TransactionHistoryProvider.DIRECTION_RECEIVED, "PENDING", 0);
+
+		// bulkInsert relies on this to turn the insert into an update
+		try
+		{
+			insert(hash(1), 2000, TransactionHistoryProvider.DIRECTION_RECEIVED, "BUILDING", 1);
+			fail();
+		}
+		catch (final SQLException x)
+		{
+			// expected
+		}
+	}
+
+	private static String hash(final int n)
+	{
+		return Sha256Hash.create(new byte[] { (byte) n }).toString();
+	}
+
+	private static String repeat(final char c, final int count)
+	{
+		final char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+
+public class WalletSaveSchedulerTest
+{
+	private File dir;
+	private Wallet wallet;
+
+	@Before
+	public void setup() throws Exception
+	{
+		dir = File.createTempFile("wallet-save", "");
+		dir.delete();
+		dir.mkdir();
+
+		wallet = new Wallet(UnitTestParams.get());
+		wallet.addKey(new ECKey());
+	}
+
+	@After
+	public void teardown() throws Exception
+	{
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void coalescesRequestsIntoOneSave() throws Exception
+	{
+		final File walletFile = new File(dir, "wallet");
+		final WalletSaveScheduler scheduler = new WalletSaveScheduler(wallet, walletFile);
+
+		for (int i = 0; i < 5; i++)
+			scheduler.requestSave();
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (scheduler.getStats().saveCount == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+
+		final WalletSaveScheduler.Stats stats = scheduler.getStats();
+		assertEquals(5, stats.requestCount);
+		assertEquals(4, stats.coalescedCount);
+		assertEquals(1, stats.saveCount);
+		assertTrue(walletFile.exists());
+
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void flushWritesReadableWallet() throws Exception
+	{
+		final File walletFile = new File(dir, "wallet");
+		final WalletSaveScheduler scheduler = new WalletSaveScheduler(wallet, walletFile);
+
+		scheduler.flush().get();
+
+		assertEquals(1, scheduler.getStats().saveCount);
+		assertEquals(walletFile.length(), scheduler.getStats().bytesWritten);
+		assertTrue(!new File(dir, "wallet.tmp").exists());
+
+		final FileInputStream is = new FileInputStream(walletFile);
+		try
+		{
+			final Wallet loaded = Wallet.loadFromFileStream(is);
+			assertEquals(wallet.getKeys().get(0), loaded.getKeys().get(0));
+		}
+		finally
+		{
+			is.close();
+		}
+
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void flushSkipsPendingScheduledSave() throws Exception
+	{
+		final WalletSaveScheduler scheduler = new WalletSaveScheduler(wallet, new File(dir, "wallet"));
+
+		scheduler.requestSave();
+		scheduler.flushAndWait();
+
+		// give the scheduled save its chance to run
+		Thread.sleep(2000);
+
+		assertEquals(1, scheduler.getStats().saveCount);
+
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void flushFailsWithIOException() throws Exception
+	{
+		final WalletSaveScheduler scheduler = new WalletSaveScheduler(wallet, new File(new File(dir, "missing"), "wallet"));
+
+		try
+		{
+			scheduler.flush().get();
+			fail();
+		}
+		catch (final ExecutionException x)
+		{
+			assertTrue(x.getCause() instanceof IOException);
+		}
+
+		try
+		{
+			scheduler.flushAndWait();
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		assertEquals(0, scheduler.getStats().saveCount);
+		assertEquals(2, scheduler.getStats().failureCount);
+
+		scheduler.shutdown();
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.Wallet.BalanceType;
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.store.MemoryBlockStore;
+import com.google.bitcoin.utils.TestUtils;
+
+public class BlockchainRescanTest
+{
+	private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+	private static final PeerDiscovery NO_PEERS = new PeerDiscovery()
+	{
+		@Override
+		public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit)
+		{
+			return new InetSocketAddress[0];
+		}
+
+		@Override
+		public void shutdown()
+		{
+		}
+	};
+
+	private static final BlockchainRescan.Listener NO_LISTENER = new BlockchainRescan.Listener()
+	{
+		@Override
+		public void onRescanComplete(final BlockchainRescan rescan)
+		{
+		}
+	};
+
+	private ECKey key;
+	private File file;
+	private File target;
+
+	@Before
+	public void setup() throws Exception
+	{
+		key = new ECKey();
+
+		file = File.createTempFile("rescan", null);
+		file.delete();
+		target = File.createTempFile("blockchain", null);
+		target.delete();
+	}
+
+	@After
+	public void teardown()
+	{
+		file.delete();
+		target.delete();
+	}
+
+	private Wallet wallet() throws Exception
+	{
+		final Wallet wallet = new Wallet(PARAMS);
+		wallet.addKey(key);
+		return wallet;
+	}
+
+	private static void receive(final Wallet wallet, final Block... blocks) throws Exception
+	{
+		final BlockChain chain = new BlockChain(PARAMS, wallet, new MemoryBlockStore(PARAMS));
+		// parsed for each wallet, like blocks from the network
+		for (final Block block : blocks)
+			assertTrue(chain.add(new Block(PARAMS, block.bitcoinSerialize())));
+	}
+
+	@Test
+	public void copiesRescannedAndKeepsOwnPending() throws Exception
+	{
+		final Transaction funding = TestUtils.createFakeTx(PARAMS, Utils.toNanoCoins(1, 0), key);
+		final Block block1 = TestUtils.makeSolvedTestBlock(PARAMS.getGenesisBlock(), funding);
+		final Transaction missed = TestUtils.createFakeTx(PARAMS, Utils.toNanoCoins(2, 0), key);
+		final Block block2 = TestUtils.makeSolvedTestBlock(block1, missed);
+
+		// the live wallet missed a payment, but has sent one that was not relayed yet
+		final Wallet liveWallet = wallet();
+		receive(liveWallet, block1);
+		final Transaction spend = liveWallet.createSend(new ECKey().toAddress(PARAMS), Utils.toNanoCoins(0, 50));
+		liveWallet.commitTx(spend);
+		final BigInteger change = liveWallet.getBalance(BalanceType.ESTIMATED);
+
+		final Wallet rescannedWallet = wallet();
+		receive(rescannedWallet, block1, block2);
+		final Transaction rescannedMissed = rescannedWallet.getTransaction(missed.getHash());
+
+		BlockchainRescan.copyTransactions(rescannedWallet, liveWallet);
+
+		assertEquals(3, liveWallet.getTransactions(true).size());
+		assertNotSame(rescannedMissed, liveWallet.getTransaction(missed.getHash()));
+		assertEquals(1, liveWallet.getPendingTransactions().size());
+		assertNotNull(liveWallet.getTransaction(spend.getHash()));
+		assertEquals(change.add(Utils.toNanoCoins(2, 0)), liveWallet.getBalance(BalanceType.ESTIMATED));
+		assertEquals(Utils.toNanoCoins(2, 0), liveWallet.getBalance(BalanceType.AVAILABLE));
+		assertEquals(2, liveWallet.getLastBlockSeenHeight());
+		assertEquals(block2.getHash(), liveWallet.getLastBlockSeenHash());
+		assertTrue(liveWallet.isConsistent());
+
+		// the keys stay untouched
+		assertEquals(1, liveWallet.getKeychainSize());
+	}
+
+	@Test
+	public void swapsStoreFile() throws Exception
+	{
+		final Wallet liveWallet = wallet();
+		final BlockchainRescan rescan = new BlockchainRescan(PARAMS, file, new MappedBlockStore(PARAMS, file, 10), liveWallet, NO_PEERS, 1, "test",
+				"1", NO_LISTENER);
+		rescan.stop();
+
+		assertTrue(rescan.copyTransactionsTo(liveWallet));
+		assertTrue(rescan.replace(target));
+
+		assertFalse(file.exists());
+		final MappedBlockStore store = new MappedBlockStore(PARAMS, target, 10);
+		assertEquals(PARAMS.getGenesisBlock().getHash(), store.getChainHead().getHeader().getHash());
+		store.close();
+	}
+
+	@Test
+	public void discardsWhenKeysWereAdded() throws Exception
+	{
+		final Wallet liveWallet = wallet();
+		final BlockchainRescan rescan = new BlockchainRescan(PARAMS, file, new MappedBlockStore(PARAMS, file, 10), liveWallet, NO_PEERS, 1, "test",
+				"1", NO_LISTENER);
+		rescan.stop();
+
+		liveWallet.addKey(new ECKey());
+		assertFalse(rescan.copyTransactionsTo(liveWallet));
+
+		rescan.discard();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void stallsWithoutBlocks() throws Exception
+	{
+		final BlockchainRescan rescan = new BlockchainRescan(PARAMS, file, new MappedBlockStore(PARAMS, file, 10), wallet(), NO_PEERS, 1, "test",
+				"1", NO_LISTENER);
+		final long now = System.currentTimeMillis();
+
+		assertFalse(rescan.isStalled(now, 60000));
+		assertTrue(rescan.isStalled(now + 60001, 60000));
+
+		rescan.stop();
+	}
+	@Test
+	public void eta() throws Exception
+	{
+		final BlockchainRescan.Progress progress = new BlockchainRescan.Progress(1000, 3000, 50, 0, false);
+
+		assertEquals(2000, progress.remainingBlocks());
+		assertEquals(40000, progress.etaMs());
+	}
+
+	@Test
+	public void etaUnknownWithoutRecentBlocks() throws Exception
+	{
+		assertEquals(-1, new BlockchainRescan.Progress(1000, 3000, 0, 0, false).etaMs());
+		assertEquals(-1, new BlockchainRescan.Progress(1000, 0, 10, 0, false).etaMs());
+	}
+
+	@Test
+	public void complete() throws Exception
+	{
+		final BlockchainRescan.Progress progress = new BlockchainRescan.Progress(3000, 3000, 0, 0, true);
+
+		assertEquals(0, progress.remainingBlocks());
+		assertEquals(0, progress.etaMs());
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockchainStateDispatcherTest
+{
+	private FakeScheduler scheduler;
+	private BlockchainStateDispatcher dispatcher;
+	private RecordingListener listener;
+
+	@Before
+	public void setup()
+	{
+		scheduler = new FakeScheduler();
+		dispatcher = new BlockchainStateDispatcher(scheduler);
+		listener = new RecordingListener();
+	}
+
+	@Test
+	public void noStateNoCallback()
+	{
+		dispatcher.subscribe(listener, 0);
+		scheduler.advance(1000);
+
+		assertEquals(0, listener.states.size());
+		assertNull(dispatcher.getState());
+	}
+
+	@Test
+	public void subscribeDeliversCurrentState()
+	{
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		dispatcher.subscribe(listener, 1000);
+		scheduler.advance(0);
+
+		assertEquals(1, listener.states.size());
+		assertEquals(100, listener.last().bestChainHeight);
+	}
+
+	@Test
+	public void coalescesEventsUntilDelivery()
+	{
+		dispatcher.subscribe(listener, 0);
+
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		dispatcher.chainHeadChanged(new Date(), 101, false);
+		dispatcher.peerCountChanged(3);
+		dispatcher.walletChanged();
+		scheduler.advance(0);
+
+		assertEquals(1, listener.states.size());
+		assertEquals(101, listener.last().bestChainHeight);
+		assertEquals(3, listener.last().numPeers);
+		assertEquals(1, listener.last().walletVersion);
+		assertEquals(dispatcher.getState().version, listener.last().version);
+	}
+
+	@Test
+	public void unchangedValuesDoNotPublish()
+	{
+		dispatcher.peerCountChanged(3);
+		final long version = dispatcher.getState().version;
+
+		dispatcher.peerCountChanged(3);
+		dispatcher.downloadChanged(dispatcher.getState().download);
+
+		assertEquals(version, dispatcher.getState().version);
+	}
+
+	@Test
+	public void keepsMinimumInterval()
+	{
+		dispatcher.subscribe(listener, 1000);
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		scheduler.advance(0);
+		assertEquals(1, listener.states.size());
+
+		scheduler.advance(100);
+		dispatcher.chainHeadChanged(new Date(), 101, false);
+		dispatcher.chainHeadChanged(new Date(), 102, false);
+
+		scheduler.advance(899);
+		assertEquals(1, listener.states.size());
+
+		scheduler.advance(1);
+		assertEquals(2, listener.states.size());
+		assertEquals(102, listener.last().bestChainHeight);
+	}
+
+	@Test
+	public void deliversRightAwayAfterQuietInterval()
+	{
+		dispatcher.subscribe(listener, 1000);
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		scheduler.advance(5000);
+
+		dispatcher.chainHeadChanged(new Date(), 101, false);
+		scheduler.advance(0);
+
+		assertEquals(2, listener.states.size());
+	}
+
+	@Test
+	public void listenersHaveTheirOwnInterval()
+	{
+		final RecordingListener slowListener = new RecordingListener();
+		dispatcher.subscribe(listener, 0);
+		dispatcher.subscribe(slowListener, 1000);
+
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		scheduler.advance(0);
+		dispatcher.chainHeadChanged(new Date(), 101, false);
+		scheduler.advance(500);
+
+		assertEquals(2, listener.states.size());
+		assertEquals(1, slowListener.states.size());
+
+		scheduler.advance(500);
+		assertEquals(2, slowListener.states.size());
+	}
+
+	@Test
+	public void unsubscribeCancelsPendingCallback()
+	{
+		dispatcher.subscribe(listener, 0);
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		dispatcher.unsubscribe(listener);
+		scheduler.advance(1000);
+
+		assertEquals(0, listener.states.size());
+	}
+
+	@Test
+	public void clearDropsPendingState()
+	{
+		dispatcher.subscribe(listener, 0);
+		dispatcher.chainHeadChanged(new Date(), 100, false);
+		dispatcher.clear();
+		scheduler.advance(1000);
+
+		assertEquals(0, listener.states.size());
+		assertNull(dispatcher.getState());
+	}
+
+	private static final class RecordingListener implements BlockchainStateDispatcher.Listener
+	{
+		private final List<BlockchainStateDispatcher.State> states = new ArrayList<BlockchainStateDispatcher.State>();
+
+		@Override
+		public void onBlockchainState(final BlockchainStateDispatcher.State state)
+		{
+			states.add(state);
+		}
+
+		private BlockchainStateDispatcher.State last()
+		{
+			return states.get(states.size() - 1);
+		}
+	}
+
+	/**
+	 * Runs posted callbacks in the order they are due, as time is advanced.
+	 */
+	private static final class FakeScheduler implements BlockchainStateDispatcher.Scheduler
+	{
+		private long now = 0;
+		private final List<Task> tasks = new ArrayList<Task>();
+
+		private static final class Task
+		{
+			private final Runnable runnable;
+			private final long due;
+
+			private Task(final Runnable runnable, final long due)
+			{
+				this.runnable = runnable;
+				this.due = due;
+			}
+		}
+
+		@Override
+		public long uptimeMillis()
+		{
+			return now;
+		}
+
+		@Override
+		public void postDelayed(@Nonnull final Runnable runnable, final long delayMs)
+		{
+			int index = tasks.size();
+			while (index > 0 && tasks.get(index - 1).due > now + delayMs)
+				index--;
+			tasks.add(index, new Task(runnable, now + delayMs));
+		}
+
+		@Override
+		public void removeCallbacks(@Nonnull final Runnable runnable)
+		{
+			for (final Iterator<Task> i = tasks.iterator(); i.hasNext();)
+				if (i.next().runnable == runnable)
+					i.remove();
+		}
+
+		public void advance(final long ms)
+		{
+			final long until = now + ms;
+
+			while (!tasks.isEmpty() && tasks.get(0).due <= until)
+			{
+				final Task task = tasks.remove(0);
+				now = task.due;
+				task.runnable.run();
+			}
+
+			now = until;
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class BroadcastQueueTest
+{
+	private static final String TX1 = "aa";
+	private static final String TX2 = "bb";
+	private static final String PEER1 = "10.0.0.1:8333";
+	private static final String PEER2 = "10.0.0.2:8333";
+	private static final String PEER3 = "10.0.0.3:8333";
+	private static final String PEER4 = "10.0.0.4:8333";
+
+	@Test
+	public void dueRightAwayThenBacksOff() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		assertTrue(queue.enqueue(TX1, 1000));
+		assertFalse(queue.enqueue(TX1, 2000));
+
+		assertEquals(Arrays.asList(TX1), queue.due(1000));
+
+		queue.attempted(TX1, 1000);
+		assertEquals(Collections.emptyList(), queue.due(1000 + BroadcastQueue.backoffMs(0) - 1));
+		assertEquals(Arrays.asList(TX1), queue.due(1000 + BroadcastQueue.backoffMs(0)));
+	}
+
+	@Test
+	public void backoffDoublesUpToMax() throws Exception
+	{
+		assertEquals(2 * BroadcastQueue.backoffMs(0), BroadcastQueue.backoffMs(1));
+		assertEquals(4 * BroadcastQueue.backoffMs(0), BroadcastQueue.backoffMs(2));
+		assertEquals(BroadcastQueue.backoffMs(100), BroadcastQueue.backoffMs(20));
+		assertTrue(BroadcastQueue.backoffMs(100) > BroadcastQueue.backoffMs(3));
+	}
+
+	@Test
+	public void dueOldestFirst() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+		queue.enqueue(TX2, 2000);
+
+		assertEquals(Arrays.asList(TX1, TX2), queue.due(2000));
+	}
+
+	@Test
+	public void acknowledgedByOtherPeers() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+		queue.sent(TX1, PEER1);
+		queue.attempted(TX1, 1000);
+
+		// the peer we sent it to does not count
+		assertFalse(queue.ack(TX1, PEER1, 1100));
+		assertEquals(0, queue.acks(TX1));
+
+		assertFalse(queue.ack(TX1, PEER2, 1500));
+		assertFalse(queue.ack(TX1, PEER2, 1600));
+		assertEquals(1, queue.acks(TX1));
+		assertTrue(queue.ack(TX1, PEER3, 2000));
+		assertFalse(queue.contains(TX1));
+
+		final BroadcastQueue.Stats stats = queue.stats(2000);
+		assertEquals(0, stats.depth);
+		assertEquals(1, stats.firstAcks);
+		assertEquals(500, stats.averageFirstAckMs);
+		assertEquals(500, stats.lastFirstAckMs);
+	}
+
+	@Test
+	public void peersFor() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+		assertEquals(Arrays.asList(PEER1), queue.peersFor(TX1, Arrays.asList(PEER1, PEER2, PEER3)));
+
+		// not twice in the same attempt, and not to peers that announced it
+		queue.sent(TX1, PEER1);
+		queue.ack(TX1, PEER2, 1000);
+		assertEquals(Collections.emptyList(), queue.peersFor(TX1, Arrays.asList(PEER1, PEER2)));
+
+		// next attempt may send to the same peer again
+		queue.attempted(TX1, 1000);
+		assertEquals(Arrays.asList(PEER1), queue.peersFor(TX1, Arrays.asList(PEER1, PEER2)));
+		assertEquals(Collections.emptyList(), queue.peersFor(TX2, Arrays.asList(PEER1, PEER2)));
+	}
+
+	@Test
+	public void peersForKeepsEnoughPeersToAcknowledge() throws Exception
+	{
+		final List<String> peers = Arrays.asList(PEER1, PEER2, PEER3, PEER4);
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+
+		final Set<String> sentTo = new HashSet<String>();
+		for (int attempt = 0; attempt < 5; attempt++)
+		{
+			final List<String> picked = queue.peersFor(TX1, peers);
+			assertFalse(picked.isEmpty());
+			assertTrue(picked.size() <= peers.size() / 2);
+
+			for (final String peer : picked)
+			{
+				queue.sent(TX1, peer);
+				sentTo.add(peer);
+			}
+			queue.attempted(TX1, 1000);
+
+			assertTrue(peers.size() - sentTo.size() >= BroadcastQueue.REQUIRED_ACKS);
+		}
+
+		// all the others can still acknowledge it
+		final List<String> others = new ArrayList<String>(peers);
+		others.removeAll(sentTo);
+		assertFalse(queue.ack(TX1, others.get(0), 2000));
+		assertTrue(queue.ack(TX1, others.get(1), 2000));
+	}
+
+	@Test
+	public void peersForPrefersUnsentPeersUntilAcknowledged() throws Exception
+	{
+		final List<String> peers = Arrays.asList(PEER1, PEER2, PEER3, PEER4);
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+
+		assertEquals(Arrays.asList(PEER1, PEER2), queue.peersFor(TX1, peers));
+		queue.sent(TX1, PEER1);
+		queue.sent(TX1, PEER2);
+		queue.attempted(TX1, 1000);
+
+		// the unsent peers are needed to acknowledge
+		assertEquals(Arrays.asList(PEER1, PEER2), queue.peersFor(TX1, peers));
+
+		// one of them did, so one more is enough
+		queue.ack(TX1, PEER3, 2000);
+		assertEquals(Arrays.asList(PEER1, PEER2), queue.peersFor(TX1, peers));
+
+		// previously sent peers gone, so the transaction has to go to a new one
+		assertEquals(Arrays.asList(PEER4), queue.peersFor(TX1, Arrays.asList(PEER3, PEER4)));
+	}
+
+	@Test
+	public void stats() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		assertEquals(-1, queue.stats(0).averageFirstAckMs);
+
+		queue.enqueue(TX1, 1000);
+		queue.enqueue(TX2, 3000);
+		final BroadcastQueue.Stats stats = queue.stats(4000);
+		assertEquals(2, stats.depth);
+		assertEquals(3000, stats.oldestMs);
+	}
+
+	@Test
+	public void roundTripComesBackDue() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 1000);
+		queue.attempted(TX1, 1000);
+		queue.attempted(TX1, 2000);
+		queue.enqueue(TX2, 3000);
+
+		final StringWriter writer = new StringWriter();
+		queue.save(writer);
+
+		final BroadcastQueue loaded = new BroadcastQueue();
+		loaded.load(new StringReader(writer.toString() + "garbage\n"), 5000);
+
+		assertEquals(2, loaded.size());
+		assertEquals(Integer.valueOf(2), loaded.attempts(TX1));
+		assertEquals(Arrays.asList(TX1, TX2), loaded.due(5000));
+	}
+
+	@Test
+	public void dropsOldEntriesOnLoad() throws Exception
+	{
+		final BroadcastQueue loaded = new BroadcastQueue();
+		loaded.load(new StringReader(TX1 + " 0 3\n"), 30l * 24 * 60 * 60 * 1000);
+
+		assertEquals(0, loaded.size());
+		assertTrue(loaded.isChanged());
+	}
+
+	@Test
+	public void expiresOldEntries() throws Exception
+	{
+		final long day = 24 * 60 * 60 * 1000l;
+		final BroadcastQueue queue = new BroadcastQueue();
+		queue.enqueue(TX1, 0);
+		queue.enqueue(TX2, 5 * day);
+
+		assertEquals(Collections.emptyList(), queue.expire(6 * day));
+		assertEquals(Arrays.asList(TX1), queue.expire(8 * day));
+		assertFalse(queue.contains(TX1));
+		assertTrue(queue.contains(TX2));
+	}
+
+	@Test
+	public void changedUntilSaved() throws Exception
+	{
+		final BroadcastQueue queue = new BroadcastQueue();
+		assertFalse(queue.isChanged());
+
+		queue.enqueue(TX1, 1000);
+		assertTrue(queue.isChanged());
+		queue.save(new StringWriter());
+		assertFalse(queue.isChanged());
+
+		// neither sending nor a repeated enqueue nor removing an unknown transaction changes what is saved
+		queue.sent(TX1, PEER1);
+		queue.enqueue(TX1, 2000);
+		queue.remove(TX2);
+		assertFalse(queue.isChanged());
+
+		queue.attempted(TX1, 2000);
+		assertTrue(queue.isChanged());
+
+		final StringWriter writer = new StringWriter();
+		queue.save(writer);
+		final BroadcastQueue loaded = new BroadcastQueue();
+		loaded.load(new StringReader(writer.toString()), 3000);
+		assertFalse(loaded.isChanged());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.bitcoin.net.discovery.PeerDiscovery;
+import com.google.bitcoin.net.discovery.PeerDiscoveryException;
+
+public class CachedPeerDiscoveryTest
+{
+	private static final InetSocketAddress CACHED = new InetSocketAddress("10.0.0.1", 8333);
+	private static final InetSocketAddress PREFERRED = new InetSocketAddress("10.0.0.2", 8333);
+	private static final InetSocketAddress SEEDED = new InetSocketAddress("10.0.0.3", 8333);
+
+	private static final class FakeDiscovery implements PeerDiscovery
+	{
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		@Override
+		public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+		{
+			lookups.incrementAndGet();
+
+			try
+			{
+				if (!release.await(timeoutValue, timeoutUnit))
+					throw new PeerDiscoveryException("timeout");
+			}
+			catch (final InterruptedException x)
+			{
+				throw new PeerDiscoveryException(x);
+			}
+
+			return new InetSocketAddress[] { SEEDED };
+		}
+
+		@Override
+		public void shutdown()
+		{
+		}
+	}
+
+	@Test
+	public void offersKnownPeersWithoutWaitingForSeeds() throws Exception
+	{
+		final PeerAddressCache cache = new PeerAddressCache();
+		cache.recordSuccess(CACHED, System.currentTimeMillis());
+		final FakeDiscovery seeds = new FakeDiscovery();
+		final CachedPeerDiscovery discovery = new CachedPeerDiscovery(seeds, cache, Collections.singletonList(PREFERRED), 8);
+
+		assertArrayEquals(new InetSocketAddress[] { PREFERRED, CACHED }, discovery.getPeers(10, TimeUnit.SECONDS));
+
+		seeds.release.countDown();
+		assertArrayEquals(new InetSocketAddress[] { SEEDED }, discovery.getPeers(10, TimeUnit.SECONDS));
+		assertEquals(1, seeds.lookups.get());
+
+		discovery.shutdown();
+	}
+
+	@Test
+	public void waitsForSeedsWithEmptyCache() throws Exception
+	{
+		final FakeDiscovery seeds = new FakeDiscovery();
+		seeds.release.countDown();
+		final CachedPeerDiscovery discovery = new CachedPeerDiscovery(seeds, new PeerAddressCache(), Collections.<InetSocketAddress> emptyList(), 8);
+
+		assertArrayEquals(new InetSocketAddress[] { SEEDED }, discovery.getPeers(10, TimeUnit.SECONDS));
+
+		discovery.shutdown();
+	}
+
+	@Test
+	public void countsUnconnectedOfferAsFailure() throws Exception
+	{
+		final PeerAddressCache cache = new PeerAddressCache();
+		cache.recordSuccess(CACHED, System.currentTimeMillis() - 1000);
+		final FakeDiscovery seeds = new FakeDiscovery();
+		seeds.release.countDown();
+		final CachedPeerDiscovery discovery = new CachedPeerDiscovery(seeds, cache, Collections.<InetSocketAddress> emptyList(), 8);
+
+		discovery.getPeers(10, TimeUnit.SECONDS);
+		discovery.getPeers(10, TimeUnit.SECONDS);
+
+		assertEquals(1, cache.get(CACHED).failures);
+
+		discovery.shutdown();
+	}
+
+	@Test(expected = PeerDiscoveryException.class)
+	public void seedTimeout() throws Exception
+	{
+		final CachedPeerDiscovery discovery = new CachedPeerDiscovery(new FakeDiscovery(), new PeerAddressCache(),
+				Collections.<InetSocketAddress> emptyList(), 8);
+
+		try
+		{
+			discovery.getPeers(100, TimeUnit.MILLISECONDS);
+		}
+		finally
+		{
+			discovery.shutdown();
+		}
+	}
+
+	@Test
+	public void cacheEvictsAfterRepeatedFailures()
+	{
+		final PeerAddressCache cache = new PeerAddressCache();
+		final long now = System.currentTimeMillis();
+		cache.recordSuccess(CACHED, now);
+		cache.recordSuccess(SEEDED, now - 1000);
+
+		assertEquals(Arrays.asList(CACHED, SEEDED), cache.candidates(8, now));
+
+		cache.recordFailure(CACHED);
+		cache.recordFailure(CACHED);
+		cache.recordFailure(CACHED);
+
+		assertNull(cache.get(CACHED));
+		assertEquals(Arrays.asList(SEEDED), cache.candidates(8, now));
+		assertTrue(cache.candidates(8, now + 30 * 24 * 60 * 60 * 1000l).isEmpty());
+	}
+}
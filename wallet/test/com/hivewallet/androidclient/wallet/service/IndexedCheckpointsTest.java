@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class IndexedCheckpointsTest
+{
+	private static byte[] record(final int height, final long time)
+	{
+		final byte[] record = new byte[IndexedCheckpoints.RECORD_SIZE];
+		record[15] = (byte) height;
+		record[84] = (byte) time;
+		record[85] = (byte) (time >> 8);
+		record[86] = (byte) (time >> 16);
+		record[87] = (byte) (time >> 24);
+		return record;
+	}
+
+	private static byte[] legacy(final byte[]... records) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeBytes("CHECKPOINTS 1");
+		out.writeInt(1);
+		out.write(new byte[65]);
+		out.writeInt(records.length);
+		for (final byte[] record : records)
+			out.write(record);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] convert(final byte[] legacy) throws IOException
+	{
+		final ByteArrayOutputStream indexed = new ByteArrayOutputStream();
+		IndexedCheckpoints.convert(new ByteArrayInputStream(legacy), indexed);
+		return indexed.toByteArray();
+	}
+
+	private static byte[] recordBefore(final byte[] indexed, final long time) throws IOException
+	{
+		return IndexedCheckpoints.recordBefore(new ByteArrayInputStream(indexed), time);
+	}
+
+	@Test
+	public void recordTime() throws Exception
+	{
+		assertEquals(1397755646L, IndexedCheckpoints.recordTime(record(1, 1397755646L)));
+		assertEquals(0xfffffffeL, IndexedCheckpoints.recordTime(record(1, 0xfffffffeL)));
+	}
+
+	@Test
+	public void findsLatestCheckpointBefore() throws Exception
+	{
+		final byte[] indexed = convert(legacy(record(1, 1000), record(2, 2000), record(3, 3000)));
+
+		assertNull(recordBefore(indexed, 999));
+		assertArrayEquals(record(1, 1000), recordBefore(indexed, 1000));
+		assertArrayEquals(record(1, 1000), recordBefore(indexed, 1999));
+		assertArrayEquals(record(2, 2000), recordBefore(indexed, 2500));
+		assertArrayEquals(record(3, 3000), recordBefore(indexed, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void sortsByTime() throws Exception
+	{
+		final byte[] indexed = convert(legacy(record(3, 3000), record(1, 1000), record(2, 2000)));
+
+		assertArrayEquals(record(1, 1000), recordBefore(indexed, 1500));
+		assertArrayEquals(record(2, 2000), recordBefore(indexed, 2500));
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertNull(recordBefore(convert(legacy()), Long.MAX_VALUE));
+	}
+
+	@Test
+	public void indexBefore() throws Exception
+	{
+		final int[] times = new int[] { 10, 20, 20, 30, (int) 0xf0000000L };
+
+		assertEquals(-1, IndexedCheckpoints.indexBefore(times, 9));
+		assertEquals(0, IndexedCheckpoints.indexBefore(times, 10));
+		assertEquals(2, IndexedCheckpoints.indexBefore(times, 25));
+		assertEquals(3, IndexedCheckpoints.indexBefore(times, 0xefffffffL));
+		assertEquals(4, IndexedCheckpoints.indexBefore(times, 0xf0000000L));
+		assertEquals(-1, IndexedCheckpoints.indexBefore(new int[0], 100));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsLegacyFormat() throws Exception
+	{
+		recordBefore(legacy(record(1, 1000)), 1000);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncated() throws Exception
+	{
+		final byte[] indexed = convert(legacy(record(1, 1000), record(2, 2000)));
+		final byte[] truncated = new byte[indexed.length - 1];
+		System.arraycopy(indexed, 0, truncated, 0, truncated.length);
+
+		recordBefore(truncated, 2000);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Build tool, not part of the app: converts bitcoinj checkpoints files into the format read by {@link IndexedCheckpoints}.
+ * Run by the {@code index-checkpoints} profile: {@code IndexedCheckpointsTool <in> <out> [<in> <out> ...]}
+ */
+public final class IndexedCheckpointsTool
+{
+	private IndexedCheckpointsTool()
+	{
+	}
+
+	public static void main(final String[] args) throws IOException
+	{
+		if (args.length == 0 || args.length % 2 != 0)
+		{
+			System.err.println("usage: IndexedCheckpointsTool <checkpoints> <indexed checkpoints> [...]");
+			System.exit(1);
+		}
+
+		for (int i = 0; i < args.length; i += 2)
+		{
+			final InputStream is = new BufferedInputStream(new FileInputStream(args[i]));
+			try
+			{
+				final OutputStream os = new BufferedOutputStream(new FileOutputStream(args[i + 1]));
+				try
+				{
+					final int count = IndexedCheckpoints.convert(is, os);
+					System.out.println("converted " + count + " checkpoints from " + args[i] + " to " + args[i + 1]);
+				}
+				finally
+				{
+					os.close();
+				}
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+	}
+}
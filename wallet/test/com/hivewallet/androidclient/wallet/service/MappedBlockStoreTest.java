@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.TestNet3Params;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.store.SPVBlockStore;
+
+public class MappedBlockStoreTest
+{
+	private static final NetworkParameters PARAMS = TestNet3Params.get();
+
+	private File file;
+
+	@Before
+	public void setup() throws Exception
+	{
+		file = File.createTempFile("blockstore", null);
+		file.delete();
+	}
+
+	@After
+	public void teardown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void startsWithGenesis() throws Exception
+	{
+		final MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+
+		assertEquals(0, store.getChainHead().getHeight());
+		assertEquals(PARAMS.getGenesisBlock().getHash(), store.getChainHead().getHeader().getHash());
+
+		store.close();
+	}
+
+	@Test
+	public void survivesReopen() throws Exception
+	{
+		MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+		final List<StoredBlock> chain = extend(store, store.getChainHead(), 5, 0);
+		store.close();
+
+		store = new MappedBlockStore(PARAMS, file, 20);
+		assertEquals("capacity of existing store", 10, store.getCapacity());
+		assertEquals(chain.get(4), store.getChainHead());
+		assertEquals(chain.get(2), store.get(chain.get(2).getHeader().getHash()));
+		assertEquals(6, store.getRecentBlocks(100).size());
+		store.close();
+	}
+
+	@Test
+	public void closeKeepsBlocksPutSinceChainHead() throws Exception
+	{
+		MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+		final List<StoredBlock> chain = extend(store, store.getChainHead(), 3, 0);
+		final StoredBlock side = chain.get(1).build(header(chain.get(1), 0, 1));
+		store.put(side); // the header is only written with the next chain head
+		store.close();
+
+		store = new MappedBlockStore(PARAMS, file, 10);
+		extend(store, store.getChainHead(), 1, 0);
+		assertEquals(side, store.get(side.getHeader().getHash()));
+		assertEquals(chain.get(2), store.get(chain.get(2).getHeader().getHash()));
+		store.close();
+	}
+
+	@Test
+	public void evictsOldestBlocks() throws Exception
+	{
+		final MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+		final List<StoredBlock> chain = extend(store, store.getChainHead(), 25, 0);
+
+		assertNull(store.get(chain.get(0).getHeader().getHash()));
+		assertNotNull(store.get(chain.get(24).getHeader().getHash()));
+
+		final List<StoredBlock> recent = store.getRecentBlocks(5);
+		assertEquals(5, recent.size());
+		for (int i = 0; i < 5; i++)
+			assertEquals(chain.get(24 - i), recent.get(i));
+
+		assertEquals(10, store.getRecentBlocks(100).size());
+		store.close();
+	}
+
+	@Test
+	public void followsReorganize() throws Exception
+	{
+		final MappedBlockStore store = new MappedBlockStore(PARAMS, file, 100);
+		final List<StoredBlock> chain = extend(store, store.getChainHead(), 10, 0);
+		final List<StoredBlock> fork = extend(store, chain.get(5), 6, 1);
+
+		final List<StoredBlock> recent = store.getRecentBlocks(8);
+		assertEquals(fork.get(5), recent.get(0));
+		assertEquals(fork.get(0), recent.get(5));
+		assertEquals(chain.get(5), recent.get(6));
+		assertEquals(chain.get(4), recent.get(7));
+
+		// old branch is still available
+		assertEquals(chain.get(9), store.get(chain.get(9).getHeader().getHash()));
+		store.close();
+	}
+
+	@Test
+	public void skipsCorruptRecord() throws Exception
+	{
+		MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+		final List<StoredBlock> chain = extend(store, store.getChainHead(), 5, 0);
+		store.close();
+
+		corrupt(64 + 2 * recordSize() + 50); // second block
+
+		store = new MappedBlockStore(PARAMS, file, 10);
+		assertNull(store.get(chain.get(1).getHeader().getHash()));
+		assertEquals(chain.get(4), store.getChainHead());
+		store.close();
+	}
+
+	@Test(expected = BlockStoreException.class)
+	public void detectsCorruptChainHead() throws Exception
+	{
+		final MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+		extend(store, store.getChainHead(), 5, 0);
+		store.close();
+
+		corrupt(64 + 5 * recordSize() + 50);
+
+		new MappedBlockStore(PARAMS, file, 10);
+	}
+
+	@Test(expected = BlockStoreException.class)
+	public void detectsCorruptHeader() throws Exception
+	{
+		new MappedBlockStore(PARAMS, file, 10).close();
+
+		corrupt(10);
+
+		new MappedBlockStore(PARAMS, file, 10);
+	}
+
+	@Test
+	public void migratesSpvBlockStore() throws Exception
+	{
+		final File legacyFile = File.createTempFile("spvblockstore", null);
+		legacyFile.delete();
+
+		try
+		{
+			final SPVBlockStore legacyStore = new SPVBlockStore(PARAMS, legacyFile);
+			final List<StoredBlock> chain = new ArrayList<StoredBlock>();
+			StoredBlock block = legacyStore.getChainHead();
+			for (int i = 0; i < 20; i++)
+			{
+				block = block.build(header(block, i, 0));
+				legacyStore.put(block);
+				chain.add(block);
+			}
+			legacyStore.setChainHead(block);
+			legacyStore.close();
+
+			MappedBlockStore.migrate(PARAMS, legacyFile, file, 10);
+			assertFalse(legacyFile.exists());
+
+			final MappedBlockStore store = new MappedBlockStore(PARAMS, file, 10);
+			assertEquals(chain.get(19), store.getChainHead());
+			assertEquals(10, store.getRecentBlocks(100).size());
+			assertEquals(chain.get(10), store.getRecentBlocks(100).get(9));
+			store.close();
+		}
+		finally
+		{
+			legacyFile.delete();
+		}
+	}
+
+	private static List<StoredBlock> extend(final MappedBlockStore store, final StoredBlock from, final int numBlocks, final int branch)
+			throws Exception
+	{
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+
+		StoredBlock block = from;
+		for (int i = 0; i < numBlocks; i++)
+		{
+			block = block.build(header(block, i, branch));
+			store.put(block);
+			store.setChainHead(block);
+			blocks.add(block);
+		}
+
+		return blocks;
+	}
+
+	private static Block header(final StoredBlock prev, final int nonce, final int branch) throws Exception
+	{
+		final Block prevHeader = prev.getHeader();
+
+		final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(1);
+		header.put(Utils.reverseBytes(prevHeader.getHash().getBytes()));
+		header.put(Sha256Hash.create(new byte[] { (byte) branch, (byte) nonce }).getBytes());
+		header.putInt((int) (prevHeader.getTimeSeconds() + 600));
+		header.putInt((int) prevHeader.getDifficultyTarget());
+		header.putInt(nonce);
+
+		return new Block(PARAMS, header.array());
+	}
+
+	private static int recordSize()
+	{
+		return 4 + 32 + StoredBlock.COMPACT_SERIALIZED_SIZE;
+	}
+
+	private void corrupt(final long position) throws Exception
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(position);
+		final int b = raf.read();
+		raf.seek(position);
+		raf.write(b ^ 0xff);
+		raf.close();
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class NotificationAvatarsTest
+{
+	@Test
+	public void smallPhotoIsNotSampled()
+	{
+		assertEquals(1, NotificationAvatars.sampleSize(96, 96, 96, 96));
+		assertEquals(1, NotificationAvatars.sampleSize(64, 64, 96, 96));
+		assertEquals(1, NotificationAvatars.sampleSize(191, 191, 96, 96));
+	}
+
+	@Test
+	public void sampledPhotoStaysAtLeastIconSize()
+	{
+		assertEquals(2, NotificationAvatars.sampleSize(192, 192, 96, 96));
+		assertEquals(32, NotificationAvatars.sampleSize(3264, 3264, 96, 96));
+		assertEquals(16, NotificationAvatars.sampleSize(3264, 2448, 128, 128));
+	}
+
+	@Test
+	public void narrowSideLimitsSampling()
+	{
+		assertEquals(1, NotificationAvatars.sampleSize(4000, 150, 96, 96));
+		assertEquals(4, NotificationAvatars.sampleSize(400, 4000, 96, 96));
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NotificationSequenceTest
+{
+	@Test
+	public void postedInOrder()
+	{
+		final NotificationSequence sequence = new NotificationSequence();
+		final int first = sequence.next();
+		final int second = sequence.next();
+
+		assertTrue(sequence.post(first));
+		assertTrue(sequence.post(second));
+	}
+
+	@Test
+	public void lateNotificationDoesNotReplaceNewerOne()
+	{
+		final NotificationSequence sequence = new NotificationSequence();
+		// the first one waits for its avatar, the second one is posted right away
+		final int waiting = sequence.next();
+		final int immediate = sequence.next();
+
+		assertTrue(sequence.post(immediate));
+		assertFalse(sequence.post(waiting));
+
+		assertTrue(sequence.post(sequence.next()));
+	}
+
+	@Test
+	public void postedOnlyOnce()
+	{
+		final NotificationSequence sequence = new NotificationSequence();
+		final int seq = sequence.next();
+
+		assertTrue(sequence.post(seq));
+		assertFalse(sequence.post(seq));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PeerScoresTest
+{
+	private static final long NOW = 1400000000000l;
+	private static final InetSocketAddress FAST = new InetSocketAddress("10.0.0.1", 8333);
+	private static final InetSocketAddress SLOW = new InetSocketAddress("10.0.0.2", 8333);
+	private static final InetSocketAddress STALLING = new InetSocketAddress("10.0.0.3", 8333);
+
+	@Test
+	public void prefersFastPeers()
+	{
+		final PeerScores scores = new PeerScores();
+		for (int i = 0; i < 5; i++)
+		{
+			scores.record(SLOW, 800, 20000, true, false, NOW);
+			scores.record(FAST, 50, 200000, true, false, NOW);
+		}
+
+		assertEquals(Arrays.asList(FAST, SLOW), scores.preferred(5, NOW));
+		assertEquals(Arrays.asList(FAST), scores.preferred(1, NOW));
+	}
+
+	@Test
+	public void stallingPeerBecomesPoor()
+	{
+		final PeerScores scores = new PeerScores();
+		scores.record(STALLING, 50, 0, true, true, NOW);
+		assertFalse("too few samples", scores.isPoor(STALLING));
+
+		for (int i = 0; i < 4; i++)
+			scores.record(STALLING, 50, 0, true, true, NOW);
+
+		assertTrue(scores.isPoor(STALLING));
+		assertTrue(scores.preferred(5, NOW).isEmpty());
+	}
+
+	@Test
+	public void idlePeerKeepsDownloadRate()
+	{
+		final PeerScores scores = new PeerScores();
+		scores.record(FAST, 50, 100000, true, false, NOW);
+		scores.record(FAST, -1, 0, false, false, NOW);
+
+		final PeerScores.Score score = scores.get(FAST);
+		assertEquals(100000, score.bytesPerSecond, 0);
+		assertEquals(50, score.pingMs, 0);
+		assertEquals(0, score.stallRate, 0);
+	}
+
+	@Test
+	public void forgetsOldPeers()
+	{
+		final PeerScores scores = new PeerScores();
+		scores.record(FAST, 50, 100000, true, false, NOW);
+
+		assertTrue(scores.preferred(5, NOW + 30 * 24 * 60 * 60 * 1000l).isEmpty());
+	}
+
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final PeerScores scores = new PeerScores();
+		scores.record(FAST, 50, 100000, true, false, NOW);
+		scores.record(SLOW, 900, 10000, true, true, NOW);
+
+		final StringWriter writer = new StringWriter();
+		scores.save(writer);
+
+		final PeerScores loaded = new PeerScores();
+		loaded.load(new StringReader(writer.toString() + "garbage\n"), NOW);
+
+		assertEquals(2, loaded.size());
+		final PeerScores.Score score = loaded.get(SLOW);
+		assertNotNull(score);
+		assertEquals(900, score.pingMs, 0);
+		assertEquals(1, score.stallRate, 0);
+		assertEquals(NOW, score.lastSeen);
+	}
+
+	@Test
+	public void loadSkipsExpired() throws Exception
+	{
+		final PeerScores scores = new PeerScores();
+		scores.record(FAST, 50, 100000, true, false, NOW);
+
+		final StringWriter writer = new StringWriter();
+		scores.save(writer);
+
+		final PeerScores loaded = new PeerScores();
+		loaded.load(new StringReader(writer.toString()), NOW + 30 * 24 * 60 * 60 * 1000l);
+
+		assertNull(loaded.get(FAST));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class SyncPolicyTest
+{
+	private static final long JUST_MS = SyncPolicy.HOUR_MS;
+	private static final long RECENTLY_MS = 2 * SyncPolicy.DAY_MS;
+	private static final long NOON = 1400000000000l / SyncPolicy.DAY_MS * SyncPolicy.DAY_MS + 12 * SyncPolicy.HOUR_MS;
+	private static final long LONG_AGO = 10 * SyncPolicy.DAY_MS;
+
+	private final SyncPolicy policy = new SyncPolicy(JUST_MS, RECENTLY_MS, TimeZone.getTimeZone("UTC"));
+
+	@Test
+	public void quietWalletSyncsDaily()
+	{
+		final SyncPolicy.Decision decision = policy.decide(NOON, LONG_AGO, false, Collections.<Long> emptyList());
+
+		assertEquals(SyncPolicy.DAY_MS, decision.alarmIntervalMs);
+		assertEquals(0, decision.paymentsPerHour, 0);
+	}
+
+	@Test
+	public void justUsedSyncsOften()
+	{
+		final SyncPolicy.Decision decision = policy.decide(NOON, 10 * SyncPolicy.MINUTE_MS, false, Collections.<Long> emptyList());
+
+		assertEquals(SyncPolicy.MIN_ALARM_INTERVAL_MS, decision.alarmIntervalMs);
+	}
+
+	@Test
+	public void recentlyUsedSyncsAtLeastTwiceADay()
+	{
+		final SyncPolicy.Decision decision = policy.decide(NOON, SyncPolicy.DAY_MS, false, Collections.<Long> emptyList());
+
+		assertEquals(SyncPolicy.DAY_MS / 2, decision.alarmIntervalMs);
+	}
+
+	@Test
+	public void paymentsAtThisTimeOfDayShortenInterval()
+	{
+		// one payment around noon every day for the last four weeks
+		final List<Long> arrivals = new ArrayList<Long>();
+		for (int day = 27; day >= 1; day--)
+			arrivals.add(NOON - day * SyncPolicy.DAY_MS);
+
+		final SyncPolicy.Decision atNoon = policy.decide(NOON, LONG_AGO, false, arrivals);
+		final SyncPolicy.Decision atMidnight = policy.decide(NOON + 12 * SyncPolicy.HOUR_MS, LONG_AGO, false, arrivals);
+
+		assertTrue(atNoon.paymentsPerHourAtTimeOfDay > atNoon.paymentsPerHour);
+		assertTrue(atNoon.alarmIntervalMs < atMidnight.alarmIntervalMs);
+		assertTrue(atNoon.alarmIntervalMs >= SyncPolicy.MIN_ALARM_INTERVAL_MS);
+	}
+
+	@Test
+	public void timeOfDayIsLocalTime()
+	{
+		// 10:00 summer time in Berlin, and a payment at 11:00 winter time three weeks before
+		final long now = 1397116800000l; // 2014-04-10T08:00Z
+		final List<Long> arrivals = Arrays.asList(1395309600000l); // 2014-03-20T10:00Z
+
+		final SyncPolicy berlin = new SyncPolicy(JUST_MS, RECENTLY_MS, TimeZone.getTimeZone("Europe/Berlin"));
+
+		assertTrue(berlin.decide(now, LONG_AGO, false, arrivals).paymentsPerHourAtTimeOfDay > 0);
+		assertEquals(0, policy.decide(now, LONG_AGO, false, arrivals).paymentsPerHourAtTimeOfDay, 0);
+	}
+
+	@Test
+	public void chargingSyncsMoreOften()
+	{
+		final List<Long> arrivals = Arrays.asList(NOON - 5 * SyncPolicy.DAY_MS);
+
+		final SyncPolicy.Decision onBattery = policy.decide(NOON, LONG_AGO, false, arrivals);
+		final SyncPolicy.Decision charging = policy.decide(NOON, LONG_AGO, true, arrivals);
+
+		assertTrue(charging.alarmIntervalMs < onBattery.alarmIntervalMs);
+		assertTrue(charging.idleTransactionTimeoutMin > onBattery.idleTransactionTimeoutMin);
+	}
+
+	@Test
+	public void ignoresOldArrivals()
+	{
+		final List<Long> arrivals = Arrays.asList(NOON - 60 * SyncPolicy.DAY_MS);
+
+		assertEquals(0, policy.decide(NOON, LONG_AGO, false, arrivals).paymentsPerHour, 0);
+	}
+
+	@Test
+	public void burstyPaymentsExtendTransactionTimeout()
+	{
+		final List<Long> quiet = Collections.<Long> emptyList();
+		final List<Long> spread = Arrays.asList(NOON - 3 * SyncPolicy.DAY_MS, NOON - 2 * SyncPolicy.DAY_MS, NOON - SyncPolicy.DAY_MS);
+		final List<Long> bursty = Arrays.asList(NOON - SyncPolicy.DAY_MS, NOON - SyncPolicy.DAY_MS + 5 * SyncPolicy.MINUTE_MS, NOON
+				- SyncPolicy.DAY_MS + 10 * SyncPolicy.MINUTE_MS);
+
+		final int quietTimeout = policy.decide(NOON, LONG_AGO, false, quiet).idleTransactionTimeoutMin;
+		final int spreadTimeout = policy.decide(NOON, LONG_AGO, false, spread).idleTransactionTimeoutMin;
+		final int burstyTimeout = policy.decide(NOON, LONG_AGO, false, bursty).idleTransactionTimeoutMin;
+
+		assertTrue(quietTimeout < spreadTimeout);
+		assertTrue(spreadTimeout < burstyTimeout);
+	}
+
+	@Test
+	public void idleDetection()
+	{
+		final SyncPolicy.Decision decision = policy.decide(NOON, LONG_AGO, false, Collections.<Long> emptyList());
+
+		assertFalse("too little history", decision.isIdle(Arrays.asList(new SyncPolicy.Activity(0, 0))));
+		assertTrue(decision.isIdle(Arrays.asList(new SyncPolicy.Activity(0, 0), new SyncPolicy.Activity(0, 0))));
+		assertFalse(decision.isIdle(Arrays.asList(new SyncPolicy.Activity(0, 0), new SyncPolicy.Activity(0, 3))));
+		assertFalse(decision.isIdle(Arrays.asList(new SyncPolicy.Activity(0, 0), new SyncPolicy.Activity(1, 0))));
+
+		final List<SyncPolicy.Activity> history = new ArrayList<SyncPolicy.Activity>();
+		for (int i = 0; i <= decision.maxHistorySize(); i++)
+			history.add(new SyncPolicy.Activity(0, 0));
+		history.add(new SyncPolicy.Activity(1, 1));
+		assertTrue("activity beyond the timeouts", decision.isIdle(history));
+	}
+}
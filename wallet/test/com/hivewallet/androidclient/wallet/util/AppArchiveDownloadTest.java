@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.hivewallet.androidclient.wallet.util.AppArchiveDownload.ProgressListener;
+import com.hivewallet.androidclient.wallet.util.AppArchiveDownload.VerificationException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AppArchiveDownloadTest
+{
+	private static final String ETAG = "\"v1\"";
+	private static final int TIMEOUT_MS = 5000;
+
+	private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private HttpServer server;
+	private File dir;
+	private File partFile;
+	private File unpackDir;
+	private byte[] archive;
+
+	private volatile String requestedRange;
+	private volatile String requestedIfRange;
+	private volatile boolean honorRange = true;
+	private volatile int truncateAt = -1;
+
+	private long lastProgress = -1;
+	private long lastTotal = -1;
+
+	@Before
+	public void setup() throws IOException
+	{
+		dir = Files.createTempDir();
+		partFile = new File(dir, "app.part");
+		unpackDir = new File(dir, "unpacked");
+		archive = zip("manifest.json", "{\"id\": \"test\"}", "index.html", "<html></html>", "js/app.js", repeat("var x = 1;\n", 20000));
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.createContext("/app.hiveapp", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				requestedRange = exchange.getRequestHeaders().getFirst("Range");
+				requestedIfRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+				int start = 0;
+				if (honorRange && requestedRange != null && (requestedIfRange == null || requestedIfRange.equals(ETAG)))
+					start = Integer.parseInt(requestedRange.substring("bytes=".length(), requestedRange.length() - 1));
+
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				if (start > 0)
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (archive.length - 1) + "/" + archive.length);
+				exchange.sendResponseHeaders(start > 0 ? 206 : 200, archive.length - start);
+
+				final OutputStream os = exchange.getResponseBody();
+				final int end = truncateAt >= 0 ? truncateAt : archive.length;
+				os.write(archive, start, end - start);
+				os.flush();
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void teardown()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+		FileUtils.deleteQuietly(dir);
+	}
+
+	@Test
+	public void unpacksWhileDownloading() throws Exception
+	{
+		final String sha256 = download().run(null, new AtomicBoolean(), progress());
+
+		assertEquals(sha256(archive), sha256);
+		assertEquals("<html></html>", FileUtils.readFileToString(new File(unpackDir, "index.html"), "UTF-8"));
+		assertEquals(repeat("var x = 1;\n", 20000), FileUtils.readFileToString(new File(unpackDir, "js/app.js"), "UTF-8"));
+		assertEquals(archive.length, lastProgress);
+		assertEquals(archive.length, lastTotal);
+		assertNull(requestedRange);
+		assertFalse(partFile.exists());
+	}
+
+	@Test
+	public void resumesFromPartFile() throws Exception
+	{
+		final int half = archive.length / 2;
+		Files.write(Arrays.copyOf(archive, half), partFile);
+		Files.write(ETAG.getBytes("UTF-8"), new File(partFile.getPath() + ".validator"));
+
+		final String sha256 = download().run(sha256(archive), new AtomicBoolean(), progress());
+
+		assertEquals("bytes=" + half + "-", requestedRange);
+		assertEquals(ETAG, requestedIfRange);
+		assertEquals(sha256(archive), sha256);
+		assertEquals("<html></html>", FileUtils.readFileToString(new File(unpackDir, "index.html"), "UTF-8"));
+		assertEquals(archive.length, lastTotal);
+	}
+
+	@Test
+	public void startsOverIfServerIgnoresRange() throws Exception
+	{
+		honorRange = false;
+		Files.write(new byte[] { 1, 2, 3, 4 }, partFile);
+
+		final String sha256 = download().run(null, new AtomicBoolean(), progress());
+
+		assertEquals("bytes=4-", requestedRange);
+		assertEquals(sha256(archive), sha256);
+		assertTrue(new File(unpackDir, "manifest.json").exists());
+	}
+
+	@Test
+	public void keepsPartFileWhenConnectionDrops() throws Exception
+	{
+		truncateAt = archive.length / 3;
+
+		try
+		{
+			download().run(null, new AtomicBoolean(), progress());
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		assertEquals(truncateAt, partFile.length());
+		assertArrayEquals(Arrays.copyOf(archive, truncateAt), Files.toByteArray(partFile));
+		assertFalse(unpackDir.exists());
+
+		truncateAt = -1;
+		assertEquals(sha256(archive), download().run(null, new AtomicBoolean(), progress()));
+		assertEquals("bytes=" + archive.length / 3 + "-", requestedRange);
+	}
+
+	@Test
+	public void rejectsWrongHash() throws Exception
+	{
+		try
+		{
+			download().run(sha256(new byte[0]), new AtomicBoolean(), progress());
+			fail();
+		}
+		catch (final VerificationException x)
+		{
+			// expected
+		}
+
+		assertFalse(partFile.exists());
+		assertFalse(unpackDir.exists());
+	}
+
+	@Test
+	public void rejectsEntriesOutsideUnpackDir() throws Exception
+	{
+		archive = zip("manifest.json", "{}", "../escaped.txt", "gotcha");
+
+		try
+		{
+			download().run(null, new AtomicBoolean(), progress());
+			fail();
+		}
+		catch (final ZipException x)
+		{
+			// expected
+		}
+
+		assertFalse(new File(dir, "escaped.txt").exists());
+		assertFalse(partFile.exists());
+	}
+
+	@Test
+	public void cancelKeepsPartFile() throws Exception
+	{
+		final AtomicBoolean canceled = new AtomicBoolean();
+
+		try
+		{
+			download().run(null, canceled, new ProgressListener()
+			{
+				@Override
+				public void onProgress(final long bytesRead, final long bytesTotal)
+				{
+					canceled.set(true);
+				}
+			});
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		assertTrue(partFile.length() > 0);
+		assertFalse(unpackDir.exists());
+	}
+
+	@Test
+	public void rangeStart()
+	{
+		assertEquals(100, AppArchiveDownload.rangeStart("bytes 100-999/1000"));
+		assertEquals(0, AppArchiveDownload.rangeStart("bytes 0-999/*"));
+		assertEquals(-1, AppArchiveDownload.rangeStart("bytes */1000"));
+		assertEquals(-1, AppArchiveDownload.rangeStart(null));
+	}
+
+	private AppArchiveDownload download() throws IOException
+	{
+		return new AppArchiveDownload(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/app.hiveapp"), partFile, unpackDir,
+				"test", TIMEOUT_MS);
+	}
+
+	private ProgressListener progress()
+	{
+		return new ProgressListener()
+		{
+			@Override
+			public void onProgress(final long bytesRead, final long bytesTotal)
+			{
+				lastProgress = bytesRead;
+				lastTotal = bytesTotal;
+			}
+		};
+	}
+
+	private static byte[] zip(final String... namesAndContents) throws IOException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final ZipOutputStream zos = new ZipOutputStream(bos);
+		for (int i = 0; i < namesAndContents.length; i += 2)
+		{
+			zos.putNextEntry(new ZipEntry(namesAndContents[i]));
+			zos.write(namesAndContents[i + 1].getBytes("UTF-8"));
+			zos.closeEntry();
+		}
+		zos.close();
+		return bos.toByteArray();
+	}
+
+	private static String repeat(final String str, final int times)
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++)
+			builder.append(str);
+		return builder.toString();
+	}
+
+	private static String sha256(final byte[] bytes) throws Exception
+	{
+		return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256").digest(bytes));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class CurrencySearchIndexTest
+{
+	// roughly what blockchain.info and BitcoinAverage return together
+	private static final List<String> CURRENCIES = Arrays.asList("AED", "AFN", "ALL", "AMD", "ANG", "AOA", "ARS", "AUD", "AWG", "AZN",
+			"BAM", "BBD", "BDT", "BGN", "BHD", "BIF", "BMD", "BND", "BOB", "BRL", "BSD", "BTN", "BWP", "BYR", "BZD", "CAD", "CDF", "CHF",
+			"CLF", "CLP", "CNY", "COP", "CRC", "CUP", "CVE", "CZK", "DJF", "DKK", "DOP", "DZD", "EEK", "EGP", "ERN", "ETB", "EUR", "FJD",
+			"FKP", "GBP", "GEL", "GHS", "GIP", "GMD", "GNF", "GTQ", "GYD", "HKD", "HNL", "HRK", "HTG", "HUF", "IDR", "ILS", "INR", "IQD",
+			"IRR", "ISK", "JEP", "JMD", "JOD", "JPY", "KES", "KGS", "KHR", "KMF", "KPW", "KRW", "KWD", "KYD", "KZT", "LAK", "LBP", "LKR",
+			"LRD", "LSL", "LTL", "LVL", "LYD", "MAD", "MDL", "MGA", "MKD", "MMK", "MNT", "MOP", "MRO", "MTL", "MUR", "MVR", "MWK", "MXN",
+			"MYR", "MZN", "NAD", "NGN", "NIO", "NOK", "NPR", "NZD", "OMR", "PAB", "PEN", "PGK", "PHP", "PKR", "PLN", "PYG", "QAR", "RON",
+			"RSD", "RUB", "RWF", "SAR", "SBD", "SCR", "SDG", "SEK", "SGD", "SHP", "SLL", "SOS", "SRD", "STD", "SVC", "SYP", "SZL", "THB",
+			"TJS", "TMT", "TND", "TOP", "TRY", "TTD", "TWD", "TZS", "UAH", "UGX", "USD", "UYU", "UZS", "VEF", "VND", "VUV", "WST", "XAF",
+			"XAG", "XAU", "XCD", "XDR", "XOF", "XPF", "YER", "ZAR", "ZMK", "ZMW", "ZWL");
+
+	private final CurrencySearchIndex index = new CurrencySearchIndex(CURRENCIES, Locale.US);
+
+	@Test
+	public void emptyQueryMatchesAll()
+	{
+		assertEquals(CURRENCIES.size(), index.size());
+		assertEquals(CURRENCIES.size(), index.search("").length);
+		assertEquals("AED", index.currencyCode(index.search("")[0]));
+	}
+
+	@Test
+	public void code()
+	{
+		assertEquals(list("USD"), codes("usd"));
+		assertEquals(list("USD"), codes("UsD"));
+		assertEquals(list("EUR"), codes("eur"));
+		assertEquals(list(), codes("qqq"));
+	}
+
+	@Test
+	public void partialCode()
+	{
+		assertEquals(list("USD"), codes("us"));
+		assertEquals(codes("sd"), containing("sd"));
+		assertTrue(codes("sd").containsAll(list("BSD", "USD", "SDG")));
+	}
+
+	@Test
+	public void displayNameWord()
+	{
+		assertTrue(codes("dollar").containsAll(list("AUD", "CAD", "NZD", "USD")));
+		assertTrue(codes("fr").containsAll(list("CHF", "XAF", "XOF")));
+		assertTrue(codes("yen").contains("JPY"));
+	}
+
+	@Test
+	public void withoutDisplayNames()
+	{
+		final CurrencySearchIndex index = new CurrencySearchIndex(CURRENCIES, null);
+
+		assertEquals(0, index.search("dollar").length);
+		assertEquals(index.size(), index.search("").length);
+		assertEquals("USD", index.currencyCode(index.search("usd")[0]));
+	}
+
+	@Test
+	public void sameAsContainsOnCodesAndSymbols()
+	{
+		for (final String currencyCode : CURRENCIES)
+		{
+			final String lower = currencyCode.toLowerCase(Locale.US);
+			for (int start = 0; start < lower.length(); start++)
+				for (int end = start + 1; end <= lower.length(); end++)
+				{
+					final String query = lower.substring(start, end);
+					assertTrue(query, codes(query).containsAll(containing(query)));
+				}
+		}
+	}
+
+	@Test
+	public void resultsAreShared()
+	{
+		assertSame(index.search("dollar"), index.search("DOLLAR"));
+		assertArrayEquals(new int[0], index.search("no such currency"));
+	}
+
+	private List<String> codes(final String query)
+	{
+		final List<String> codes = new ArrayList<String>();
+		for (final int i : index.search(query))
+			codes.add(index.currencyCode(i));
+		return codes;
+	}
+
+	// the linear scan the provider used to do
+	private static List<String> containing(final String query)
+	{
+		final List<String> codes = new ArrayList<String>();
+		for (final String currencyCode : CURRENCIES)
+			if (currencyCode.toLowerCase(Locale.US).contains(query)
+					|| GenericUtils.currencySymbol(currencyCode).toLowerCase(Locale.US).contains(query))
+				codes.add(currencyCode);
+		return codes;
+	}
+
+	private static List<String> list(final String... codes)
+	{
+		return Arrays.asList(codes);
+	}
+}
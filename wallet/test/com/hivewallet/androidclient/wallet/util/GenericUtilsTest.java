@@ -24,6 +24,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.math.BigInteger;
+import java.util.Locale;
 
 import net.java.quickcheck.generator.iterable.Iterables;
 
@@ -133,6 +134,105 @@ public class GenericUtilsTest
 		}
 	}
 
+	@Test
+	public void formatLongShouldAgreeWithStringFormat()
+	{
+		final int[][] precisionsAndShifts = { { 2, 0 }, { 4, 0 }, { 6, 0 }, { 8, 0 }, { 2, 3 }, { 4, 3 }, { 5, 3 }, { 0, 6 }, { 2, 6 } };
+		final long maxMoney = NetworkParameters.MAX_MONEY.longValue();
+
+		for (long value : Iterables.toIterable(longs(-maxMoney, maxMoney)))
+		{
+			for (final int[] precisionAndShift : precisionsAndShifts)
+			{
+				final int precision = precisionAndShift[0];
+				final int shift = precisionAndShift[1];
+
+				final String expected = formatValueWithStringFormat(value, "+", "-", precision, shift);
+				assertEquals(expected, GenericUtils.formatValue(value, "+", "-", precision, shift));
+			}
+		}
+	}
+
+	/**
+	 * The formatting code GenericUtils had before it stopped using String.format(), kept as the reference.
+	 */
+	private static String formatValueWithStringFormat(long longValue, final String plusSign, final String minusSign, final int precision,
+			final int shift)
+	{
+		final String sign = longValue < 0 ? minusSign : plusSign;
+
+		if (shift == 0)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000000 + longValue % 1000000 / 500000 * 1000000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10000 + longValue % 10000 / 5000 * 10000;
+			else if (precision == 6)
+				longValue = longValue - longValue % 100 + longValue % 100 / 50 * 100;
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / 100000000;
+			final int satoshis = (int) (absValue % 100000000);
+
+			if (satoshis % 1000000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000000);
+			else if (satoshis % 10000 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10000);
+			else if (satoshis % 100 == 0)
+				return String.format(Locale.US, "%s%d.%06d", sign, coins, satoshis / 100);
+			else
+				return String.format(Locale.US, "%s%d.%08d", sign, coins, satoshis);
+		}
+		else if (shift == 3)
+		{
+			if (precision == 2)
+				longValue = longValue - longValue % 1000 + longValue % 1000 / 500 * 1000;
+			else if (precision == 4)
+				longValue = longValue - longValue % 10 + longValue % 10 / 5 * 10;
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / 100000;
+			final int satoshis = (int) (absValue % 100000);
+
+			if (satoshis % 1000 == 0)
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis / 1000);
+			else if (satoshis % 10 == 0)
+				return String.format(Locale.US, "%s%d.%04d", sign, coins, satoshis / 10);
+			else
+				return String.format(Locale.US, "%s%d.%05d", sign, coins, satoshis);
+		}
+		else
+		{
+			if (precision == 0)
+				longValue = longValue - longValue % 100 + longValue % 100 / 50 * 100;
+
+			final long absValue = Math.abs(longValue);
+			final long coins = absValue / 100;
+			final int satoshis = (int) (absValue % 100);
+
+			if (satoshis % 100 == 0)
+				return String.format(Locale.US, "%s%d", sign, coins);
+			else
+				return String.format(Locale.US, "%s%d.%02d", sign, coins, satoshis);
+		}
+	}
+
+	@Test
+	public void appendValueShouldAppend()
+	{
+		final StringBuilder builder = new StringBuilder("prefix ");
+		GenericUtils.appendValue(builder, -123456789L, "+", "-", 8, 0);
+		assertEquals("prefix -1.23456789", builder.toString());
+
+		builder.setLength(0);
+		GenericUtils.appendValue(builder, 5L, "+", "-", 8, 0);
+		assertEquals("+0.00000005", builder.toString());
+
+		builder.setLength(0);
+		GenericUtils.appendValue(builder, 150L, "", "-", 2, 6);
+		assertEquals("1.50", builder.toString());
+	}
+
 	@Test
 	public void scaledBitmapShouldMaintainRatio()
 	{
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RollingCounterTest
+{
+	private static final long T = 1400000000000l;
+
+	@Test
+	public void sumsWithinWindow()
+	{
+		final RollingCounter counter = new RollingCounter(10);
+		counter.add(100, T);
+		counter.add(200, T + 500);
+		counter.add(300, T + 9000);
+
+		final RollingCounter.Window window = counter.window(T + 9000);
+		assertEquals(3, window.count);
+		assertEquals(600, window.amount);
+		assertEquals(60.0, window.amountPerSecond(), 0);
+		assertEquals(200.0, window.averageAmount(), 0);
+	}
+
+	@Test
+	public void dropsExpiredBuckets()
+	{
+		final RollingCounter counter = new RollingCounter(10);
+		counter.add(100, T);
+		counter.add(300, T + 5000);
+
+		assertEquals(300, counter.window(T + 10000).amount);
+		assertEquals(0, counter.window(T + 20000).count);
+	}
+
+	@Test
+	public void recyclesBucket()
+	{
+		final RollingCounter counter = new RollingCounter(10);
+		counter.add(100, T);
+		counter.add(7, T + 10000);
+
+		final RollingCounter.Window window = counter.window(T + 10000);
+		assertEquals(1, window.count);
+		assertEquals(7, window.amount);
+	}
+
+	@Test
+	public void ignoresOutdatedAdd()
+	{
+		final RollingCounter counter = new RollingCounter(10);
+		counter.add(100, T + 10000);
+		counter.add(7, T);
+
+		assertEquals(100, counter.window(T + 10000).amount);
+	}
+
+	@Test
+	public void concurrentAddsWithinOneSecond() throws Exception
+	{
+		final RollingCounter counter = new RollingCounter(10);
+		counter.add(0, T);
+
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < 10000; i++)
+						counter.add(1, T + 999);
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads)
+			thread.join();
+
+		assertEquals(40001, counter.window(T + 999).count);
+		assertEquals(40000, counter.window(T + 999).amount);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyWindow()
+	{
+		new RollingCounter(0);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.hivewallet.androidclient.wallet.util;
+
+import static net.java.quickcheck.generator.CombinedGenerators.lists;
+import static net.java.quickcheck.generator.PrimitiveGenerators.integers;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.java.quickcheck.generator.iterable.Iterables;
+
+import org.junit.Test;
+
+public class SortedIndexTest
+{
+	private static final Comparator<Integer> DESCENDING = Collections.reverseOrder();
+
+	@Test
+	public void putKeepsOrder()
+	{
+		final SortedIndex<String, Integer> index = new SortedIndex<String, Integer>(DESCENDING);
+		index.put("b", 2);
+		index.put("c", 3);
+		index.put("a", 1);
+
+		assertEquals(list(3, 2, 1), index.toList());
+	}
+
+	@Test
+	public void putReplacesValueForSameKey()
+	{
+		final SortedIndex<String, Integer> index = new SortedIndex<String, Integer>(DESCENDING);
+		index.put("a", 1);
+		index.put("b", 2);
+
+		assertEquals(Integer.valueOf(1), index.put("a", 3));
+		assertEquals(list(3, 2), index.toList());
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void remove()
+	{
+		final SortedIndex<String, Integer> index = new SortedIndex<String, Integer>(DESCENDING);
+		index.put("a", 1);
+		index.put("b", 2);
+
+		assertEquals(Integer.valueOf(2), index.remove("b"));
+		assertNull(index.remove("b"));
+		assertEquals(list(1), index.toList());
+	}
+
+	@Test
+	public void incrementalUpdatesShouldAgreeWithSort()
+	{
+		for (final List<Integer> values : Iterables.toIterable(lists(integers(0, 1000))))
+		{
+			final SortedIndex<Integer, Integer> index = new SortedIndex<Integer, Integer>(DESCENDING);
+			final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+			// keys collide on purpose, so some puts replace and some removes hit
+			for (final Integer value : values)
+			{
+				final int key = value % 50;
+				if (value % 7 == 0)
+				{
+					index.remove(key);
+					expected.remove(key);
+				}
+				else
+				{
+					index.put(key, value);
+					expected.put(key, value);
+				}
+			}
+
+			final List<Integer> sorted = new ArrayList<Integer>(expected.values());
+			Collections.sort(sorted, DESCENDING);
+			assertEquals(sorted, index.toList());
+		}
+	}
+
+	@Test
+	public void replaceAll()
+	{
+		final SortedIndex<String, Integer> index = new SortedIndex<String, Integer>(DESCENDING);
+		index.put("x", 9);
+
+		final Map<String, Integer> values = new HashMap<String, Integer>();
+		values.put("a", 1);
+		values.put("b", 2);
+		index.replaceAll(values);
+
+		assertEquals(list(2, 1), index.toList());
+		assertNull(index.get("x"));
+	}
+
+	private static List<Integer> list(final Integer... values)
+	{
+		final List<Integer> list = new ArrayList<Integer>();
+		Collections.addAll(list, values);
+		return list;
+	}
+}